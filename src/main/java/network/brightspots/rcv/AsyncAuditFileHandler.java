@@ -0,0 +1,468 @@
+/*
+ * RCTab
+ * Copyright (c) 2017-2023 Bright Spots Developers.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+/*
+ * Purpose: Write the tabulation audit log without making each logging call wait on file I/O.
+ * Design: publish only adds the record to a bounded ring buffer. A background thread takes the
+ * records out in batches, formats them, and writes them in large blocks through a FileChannel.
+ * Files are named and rotated exactly as by a java.util.logging FileHandler with the same pattern,
+ * size limit, and count, appending to an existing file: output always goes to file 0, and once it
+ * reaches the limit, each file i is renamed to i + 1 and a new file 0 is started. The files are
+ * locked as FileHandler locks them, through a .lck file beside file 0, but where FileHandler would
+ * move on to other file names if they're already locked, this handler refuses to open.
+ * flush and close wait until every record published before them has been written, and close
+ * releases the file and the lock. Each file is hashed as its blocks are written, so once the
+ * handler is closed getFileHash can give the hash of each file it wrote without reading the file
+ * back.
+ * Conditions: While a tabulation is in progress.
+ * Version history: see https://github.com/BrightSpots/rcv.
+ */
+
+package network.brightspots.rcv;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.ErrorManager;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+final class AsyncAuditFileHandler extends Handler {
+
+  // records waiting to be written; publish blocks while it's full
+  private static final int RING_CAPACITY = 1 << 16;
+  // formatted records are gathered into blocks of this many bytes before being written
+  private static final int BLOCK_SIZE = 1 << 20;
+  private static final String HASH_ALGORITHM = "SHA-512";
+  // lock files held by handlers in this process, which file locks don't exclude; guarded by itself
+  private static final Set<Path> heldLockPaths = new HashSet<>();
+
+  // FileHandler-style pattern: %g is the file's generation, %% is a literal %
+  private final String pattern;
+  private final long limit;
+  private final int count;
+  private final Charset charset = Charset.defaultCharset();
+  private final Thread writerThread;
+  private final Path lockPath;
+  private final FileChannel lockChannel;
+
+  // the ring buffer and the counters below are guarded by lock
+  private final ReentrantLock lock = new ReentrantLock();
+  // signaled when the ring buffer gains a record, or the handler is closed
+  private final Condition recordsAvailable = lock.newCondition();
+  // signaled when the writer has taken records from the ring buffer, or written them
+  private final Condition recordsTaken = lock.newCondition();
+  private final LogRecord[] ring = new LogRecord[RING_CAPACITY];
+  // index of the oldest record in the ring
+  private int head = 0;
+  private int size = 0;
+  private long numPublished = 0;
+  private long numWritten = 0;
+  private boolean isClosed = false;
+  private boolean isWriterDone = false;
+
+  // used only by the writer thread once it's started
+  private FileChannel channel;
+  private long bytesInFile;
+  private final ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+  // hash of everything in the current file, or null if that isn't known: the file had contents
+  // before this handler opened it, or writing to it failed
+  private MessageDigest fileDigest;
+  // The hash of each finished file by generation, or null where it isn't known; read by
+  // getFileHash once the writer thread is done. An entry is added at index 0 each time file 0 is
+  // finished (when it's rotated and when the handler is closed), so that once closed, entry i is
+  // generation i. Until then, entry 0 is the file which was rotated to generation 1.
+  private final List<byte[]> fileHashes = new ArrayList<>();
+
+  // Opens the files of the given FileHandler-style pattern for writing. Throws an IOException if
+  // they can't be opened, or if another handler, in this or another process, has them open.
+  AsyncAuditFileHandler(String pattern, long limit, int count) throws IOException {
+    this.pattern = pattern;
+    this.limit = limit;
+    this.count = count;
+    this.lockPath = Paths.get(generationPath(0) + ".lck").toAbsolutePath().normalize();
+    this.lockChannel = lockFiles(lockPath);
+    try {
+      this.channel =
+          FileChannel.open(
+              generationPath(0),
+              StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE,
+              StandardOpenOption.APPEND);
+    } catch (IOException exception) {
+      unlockFiles();
+      throw exception;
+    }
+    this.bytesInFile = channel.size();
+    this.fileDigest = bytesInFile == 0 ? newDigest() : null;
+    this.writerThread = new Thread(this::writeRecords, "Audit log writer");
+    writerThread.setDaemon(true);
+    writerThread.start();
+  }
+
+  @Override
+  public void publish(LogRecord record) {
+    if (!isLoggable(record)) {
+      return;
+    }
+    lock.lock();
+    try {
+      while (size == RING_CAPACITY && !isWriterDone) {
+        recordsTaken.awaitUninterruptibly();
+      }
+      if (isClosed || isWriterDone) {
+        return;
+      }
+      ring[(head + size) % RING_CAPACITY] = record;
+      size++;
+      numPublished++;
+      if (size == 1) {
+        recordsAvailable.signal();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void flush() {
+    lock.lock();
+    try {
+      long target = numPublished;
+      while (numWritten < target && !isWriterDone) {
+        recordsTaken.awaitUninterruptibly();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void close() {
+    lock.lock();
+    try {
+      isClosed = true;
+      recordsAvailable.signal();
+    } finally {
+      lock.unlock();
+    }
+    boolean wasInterrupted = false;
+    while (writerThread.isAlive()) {
+      try {
+        writerThread.join();
+      } catch (InterruptedException exception) {
+        // the log must be complete before it's hashed, so keep waiting
+        wasInterrupted = true;
+      }
+    }
+    if (wasInterrupted) {
+      Thread.currentThread().interrupt();
+    }
+    unlockFiles();
+  }
+
+  // Take the lock file as FileHandler does: create it, or if it's already there, use it if it can
+  // be locked, since then it was left behind by a process which didn't exit cleanly. If the file
+  // system doesn't support locking, carry on without a lock, as FileHandler does.
+  private static FileChannel lockFiles(Path lockPath) throws IOException {
+    synchronized (heldLockPaths) {
+      if (!heldLockPaths.add(lockPath)) {
+        throw new IOException("Log files are already in use: " + lockPath);
+      }
+    }
+    FileChannel lockChannel = null;
+    try {
+      try {
+        lockChannel =
+            FileChannel.open(lockPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+      } catch (FileAlreadyExistsException exception) {
+        lockChannel =
+            FileChannel.open(lockPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+      }
+      boolean isLocked;
+      try {
+        isLocked = lockChannel.tryLock() != null;
+      } catch (OverlappingFileLockException exception) {
+        isLocked = false;
+      } catch (IOException exception) {
+        isLocked = true;
+      }
+      if (!isLocked) {
+        throw new IOException("Log files are already in use: " + lockPath);
+      }
+      return lockChannel;
+    } catch (IOException exception) {
+      if (lockChannel != null) {
+        lockChannel.close();
+      }
+      synchronized (heldLockPaths) {
+        heldLockPaths.remove(lockPath);
+      }
+      throw exception;
+    }
+  }
+
+  // release and delete the lock file, as FileHandler does when it's closed
+  private void unlockFiles() {
+    synchronized (heldLockPaths) {
+      if (!heldLockPaths.remove(lockPath)) {
+        return;
+      }
+      try {
+        lockChannel.close();
+        Files.delete(lockPath);
+      } catch (IOException exception) {
+        reportError(null, exception, ErrorManager.CLOSE_FAILURE);
+      }
+    }
+  }
+
+  // Returns the hash of the contents of the given generation's file, as they were written, or null
+  // if it isn't known and the file must be read to hash it. Only valid once the handler is closed.
+  byte[] getFileHash(int generation) {
+    lock.lock();
+    try {
+      if (!isWriterDone || generation >= fileHashes.size()) {
+        return null;
+      }
+      return fileHashes.get(generation);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // the writer thread's loop: take everything in the ring, write it, and repeat until closed
+  private void writeRecords() {
+    LogRecord[] batch = new LogRecord[RING_CAPACITY];
+    try {
+      while (true) {
+        int batchSize;
+        lock.lock();
+        try {
+          while (size == 0 && !isClosed) {
+            recordsAvailable.awaitUninterruptibly();
+          }
+          if (size == 0) {
+            break;
+          }
+          batchSize = size;
+          for (int i = 0; i < batchSize; i++) {
+            batch[i] = ring[(head + i) % RING_CAPACITY];
+            ring[(head + i) % RING_CAPACITY] = null;
+          }
+          head = (head + batchSize) % RING_CAPACITY;
+          size = 0;
+          recordsTaken.signalAll();
+        } finally {
+          lock.unlock();
+        }
+
+        writeBatch(batch, batchSize);
+        lock.lock();
+        try {
+          numWritten += batchSize;
+          recordsTaken.signalAll();
+        } finally {
+          lock.unlock();
+        }
+      }
+    } finally {
+      finishFileHash();
+      closeChannel();
+      lock.lock();
+      try {
+        isWriterDone = true;
+        recordsTaken.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  private void writeBatch(LogRecord[] batch, int batchSize) {
+    Formatter formatter = getFormatter();
+    for (int i = 0; i < batchSize; i++) {
+      String line;
+      try {
+        line = formatter.format(batch[i]);
+      } catch (RuntimeException exception) {
+        reportError(null, exception, ErrorManager.FORMAT_FAILURE);
+        continue;
+      } finally {
+        batch[i] = null;
+      }
+      byte[] bytes = line.getBytes(charset);
+      if (bytes.length > block.remaining()) {
+        writeBlock();
+      }
+      if (bytes.length > block.capacity()) {
+        writeFully(ByteBuffer.wrap(bytes));
+      } else {
+        block.put(bytes);
+      }
+      // like FileHandler, start a new file once a record takes this one to the limit
+      bytesInFile += bytes.length;
+      if (limit > 0 && bytesInFile >= limit) {
+        writeBlock();
+        rotate();
+      }
+    }
+    writeBlock();
+  }
+
+  private void writeBlock() {
+    block.flip();
+    writeFully(block);
+    block.clear();
+  }
+
+  private void writeFully(ByteBuffer buffer) {
+    if (channel == null) {
+      return;
+    }
+    if (fileDigest != null) {
+      fileDigest.update(buffer.duplicate());
+    }
+    try {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    } catch (IOException exception) {
+      fileDigest = null;
+      reportError(null, exception, ErrorManager.WRITE_FAILURE);
+    }
+  }
+
+  // Rename file i to i + 1 for each existing file, newest last, then start a new file 0. If a file
+  // can't be renamed, keep appending to file 0 instead, so nothing written after that is lost.
+  private void rotate() {
+    finishFileHash();
+    closeChannel();
+    boolean isRenamed;
+    try {
+      for (int generation = count - 2; generation >= 0; generation--) {
+        Path file = generationPath(generation);
+        if (Files.exists(file)) {
+          Files.move(file, generationPath(generation + 1), StandardCopyOption.REPLACE_EXISTING);
+        }
+      }
+      isRenamed = true;
+    } catch (IOException exception) {
+      // files may not have been renamed as expected, so none of the hashes so far can be trusted
+      lock.lock();
+      try {
+        fileHashes.clear();
+      } finally {
+        lock.unlock();
+      }
+      reportError(null, exception, ErrorManager.GENERIC_FAILURE);
+      isRenamed = false;
+    }
+    try {
+      channel =
+          FileChannel.open(
+              generationPath(0),
+              StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE,
+              isRenamed ? StandardOpenOption.TRUNCATE_EXISTING : StandardOpenOption.APPEND);
+      fileDigest = channel.size() == 0 ? newDigest() : null;
+    } catch (IOException exception) {
+      reportError(null, exception, ErrorManager.OPEN_FAILURE);
+    }
+    // after a failed rename, file 0 is only rotated again once another limit's worth is added
+    bytesInFile = 0;
+  }
+
+  // Records the current file 0's hash, or null if it isn't known or there is no file 0 because it
+  // couldn't be opened, as entry 0, shifting the other files' entries to the generations rotation
+  // is about to give them.
+  private void finishFileHash() {
+    byte[] hash = fileDigest != null ? fileDigest.digest() : null;
+    fileDigest = null;
+    lock.lock();
+    try {
+      fileHashes.add(0, hash);
+      if (fileHashes.size() > count) {
+        fileHashes.remove(fileHashes.size() - 1);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance(HASH_ALGORITHM);
+    } catch (NoSuchAlgorithmException exception) {
+      // the files will be read back to be hashed instead
+      return null;
+    }
+  }
+
+  private void closeChannel() {
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException exception) {
+        reportError(null, exception, ErrorManager.CLOSE_FAILURE);
+      }
+      channel = null;
+    }
+  }
+
+  // Expand the pattern as FileHandler does: %t and %h at its start are the temporary and home
+  // directories, %g is the generation, %u is 0 since a pattern in use is refused rather than
+  // given another unique number, and %% is %. If there's no %g and more than one file, the
+  // generation is added as a suffix.
+  private Path generationPath(int generation) {
+    StringBuilder path = new StringBuilder(pattern.length());
+    boolean hasGeneration = false;
+    for (int i = 0; i < pattern.length(); i++) {
+      char c = pattern.charAt(i);
+      char next = i + 1 < pattern.length() ? pattern.charAt(i + 1) : 0;
+      if (c == '%' && i == 0 && (next == 't' || next == 'h')) {
+        path.append(System.getProperty(next == 't' ? "java.io.tmpdir" : "user.home"));
+        i++;
+      } else if (c == '%' && next == 'g') {
+        path.append(generation);
+        hasGeneration = true;
+        i++;
+      } else if (c == '%' && next == 'u') {
+        path.append(0);
+        i++;
+      } else if (c == '%' && next == '%') {
+        path.append('%');
+        i++;
+      } else {
+        path.append(c);
+      }
+    }
+    if (!hasGeneration && count > 1) {
+      path.append('.').append(generation);
+    }
+    return Paths.get(path.toString());
+  }
+}
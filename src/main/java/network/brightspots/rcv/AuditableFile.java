@@ -9,19 +9,34 @@
 
 /*
  * Purpose: Create a file that, on close, is read-only and has its hash added to the audit log.
- * Design: Overrides the File class
+ * Design: Overrides the File class. A file written through newOutputStream is hashed as it's
+ * written, so finalizeAndHash doesn't need to read it back; otherwise finalizeAndHash reads it.
  * Conditions: Always.
  * Version history: see https://github.com/BrightSpots/rcv.
  */
 
 package network.brightspots.rcv;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
+import java.nio.file.OpenOption;
 import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 final class AuditableFile extends File {
+  private static final String HASH_ALGORITHM = "SHA-512";
+  private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+  // hash of the file's contents as they were written, if known; see recordWrittenHash
+  private transient volatile byte[] writtenHash;
+
   public AuditableFile(String pathname) {
     super(pathname);
   }
@@ -30,19 +45,86 @@ final class AuditableFile extends File {
     super(pathname.toAbsolutePath().toString());
   }
 
+  // finalizeAndHash each file. Files which have to be read back to be hashed are read
+  // concurrently on the common ForkJoinPool, with their log output logged here in order
+  // (see OrderedParallelTasks), so the log is the same as finalizing them one at a time.
+  static void finalizeAndHashAll(List<AuditableFile> files) {
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    if (files.size() < 2 || pool.getParallelism() < 2) {
+      files.forEach(AuditableFile::finalizeAndHash);
+      return;
+    }
+    boolean wasInterrupted = false;
+    try (OrderedParallelTasks<Void, RuntimeException> finalizedFiles =
+        OrderedParallelTasks.onCommonPool(
+            files.size(),
+            index -> {
+              files.get(index).finalizeAndHash();
+              return null;
+            })) {
+      while (finalizedFiles.hasNext()) {
+        try {
+          finalizedFiles.next();
+        } catch (InterruptedException exception) {
+          // every file has to be finalized, so keep waiting
+          wasInterrupted = true;
+        }
+      }
+    }
+    if (wasInterrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // Opens the file for writing, as Files.newOutputStream does with the same options (by default,
+  // replacing any existing contents). Everything written through the stream is hashed as it's
+  // written, so once the stream is closed, finalizeAndHash doesn't need to read the file back.
+  OutputStream newOutputStream(OpenOption... options) throws IOException {
+    writtenHash = null;
+    OutputStream output = Files.newOutputStream(toPath(), options);
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance(HASH_ALGORITHM);
+    } catch (NoSuchAlgorithmException exception) {
+      // finalizeAndHash will report this when it tries to read the file back
+      return new BufferedOutputStream(output, WRITE_BUFFER_SIZE);
+    }
+    return new BufferedOutputStream(new HashingOutputStream(output, digest), WRITE_BUFFER_SIZE);
+  }
+
+  // Records the SHA-512 hash of the file's full contents, computed while they were written, for
+  // finalizeAndHash to use rather than reading the file back. The file must not change after.
+  void recordWrittenHash(byte[] hashBytes) {
+    writtenHash = hashBytes;
+  }
+
+  // where the hash of file is recorded: "<directory> Checksums/<file>.hash", beside file
+  static Path hashFilePath(Path file) {
+    Path directory = file.toAbsolutePath().getParent();
+    return directory
+        .resolve(directory.getFileName() + " Checksums")
+        .resolve(file.getFileName() + ".hash");
+  }
+
+  // what a hash file holds for a file with the given SHA-512 hash
+  static String hashFileContents(byte[] hashBytes) {
+    return "sha512: " + Utils.bytesToHex(hashBytes);
+  }
+
   public void finalizeAndHash() {
-    String hash = Utils.bytesToHex(FileUtils.getHashBytes(this, "SHA-512"));
+    byte[] hashBytes = writtenHash;
+    if (hashBytes == null) {
+      hashBytes = FileUtils.getHashBytes(this, HASH_ALGORITHM);
+    }
+    String hash = Utils.bytesToHex(hashBytes);
 
     // Write hash to audit log
     Logger.info("File %s written with hash %s".formatted(getAbsolutePath(), hash));
 
     // Write hash to hash file
-    String basename = getName();
-    String directory = getParent();
-    String parentDirectoryName = new File(directory).getName();
-    String subdir = Path.of(directory, parentDirectoryName + " Checksums").toString();
-    String hashFilePath = Path.of(subdir, basename + ".hash").toString();
-    File hashFile = new File(hashFilePath);
+    Path hashFilePath = hashFilePath(toPath());
+    String subdir = hashFilePath.getParent().toString();
+    File hashFile = hashFilePath.toFile();
 
     // Create subdir if it doesn't exist
     try {
@@ -51,13 +133,56 @@ final class AuditableFile extends File {
       Logger.severe("Could not create directory %s: %s", subdir, e.getMessage());
     }
 
-    writeStringToFile(hashFile, "sha512: " + hash);
+    writeStringToFile(hashFile, hashFileContents(hashBytes));
 
     // Make both file and its hash file read-only
     makeReadOnlyOrLogWarning(this);
     makeReadOnlyOrLogWarning(hashFile);
   }
 
+  // Records the hash of everything written once it's closed, unless a write failed, in which case
+  // the file may not hold what was hashed and finalizeAndHash reads it back instead.
+  private class HashingOutputStream extends DigestOutputStream {
+    private boolean hasFailed = false;
+    private boolean isClosed = false;
+
+    HashingOutputStream(OutputStream output, MessageDigest digest) {
+      super(output, digest);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      try {
+        super.write(b);
+      } catch (IOException exception) {
+        hasFailed = true;
+        throw exception;
+      }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      try {
+        super.write(b, off, len);
+      } catch (IOException exception) {
+        hasFailed = true;
+        throw exception;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (isClosed) {
+        return;
+      }
+      isClosed = true;
+      super.close();
+      if (!hasFailed) {
+        recordWrittenHash(getMessageDigest().digest());
+      }
+    }
+  }
+
   private void writeStringToFile(File file, String string) {
     try {
       Files.writeString(file.toPath(), string);
@@ -0,0 +1,370 @@
+/*
+ * RCTab
+ * Copyright (c) 2017-2023 Bright Spots Developers.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+/*
+ * Purpose: Keep the cast vote records read from each CVR source in a compact binary file, so a
+ * later run over the same unchanged source can load them instead of parsing the vendor files.
+ * Design: Each entry is one file in the cache directory, named by a SHA-256 key over everything
+ * which can change what's read from a source: the hash of every file under its path, its
+ * settings, the contest's candidates and max rankings, whether Hart signatures are validated,
+ * and the app version. Changing any of them changes the key, so a stale entry is never looked up
+ * again. Entries are only written once a source has been read and has passed validation.
+ * Within an entry each distinct string (contest, tabulator, batch, precinct, CVR IDs, candidate
+ * names) is stored once in a dictionary and referred to by index, and every number is a varint.
+ * Like an audit file, each entry has its SHA-512 hash recorded in a .hash file in the cache's
+ * Checksums directory, and is only used if it still matches. Entries are read through a stream,
+ * which hashes them as they're read, so an entry of any size is read in a single pass and no file
+ * is left open or mapped; one which can't be loaded or doesn't match its hash is ignored, and the
+ * source is parsed as usual.
+ * Conditions: When the CLI is run with --cvr-cache.
+ * Version history: see https://github.com/BrightSpots/rcv.
+ */
+
+package network.brightspots.rcv;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import javafx.util.Pair;
+import network.brightspots.rcv.ContestConfig.TabulateBySlice;
+import network.brightspots.rcv.RawContestConfig.CvrSource;
+
+final class BallotCache {
+
+  // "RCTB"
+  private static final int MAGIC = 0x52435442;
+  // bump this whenever the layout of an entry changes
+  private static final int FORMAT_VERSION = 1;
+  private static final String HASH_ALGORITHM = "SHA-256";
+  // for the hash files, as for audit files
+  private static final String ENTRY_HASH_ALGORITHM = "SHA-512";
+  private static final String ENTRY_SUFFIX = ".rcvcache";
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  private final Path directory;
+
+  BallotCache(Path directory) {
+    this.directory = directory;
+  }
+
+  // Compute the key for the CVRs read from source, hashing every file under cvrPath. Returns null
+  // (and the source shouldn't be cached) if the key can't be computed, e.g. if the path is missing.
+  byte[] keyFor(ContestConfig config, CvrSource source, String cvrPath) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance(HASH_ALGORITHM);
+      updateDigest(digest, "%d %s".formatted(FORMAT_VERSION, Main.APP_VERSION));
+      updateDigest(digest, OBJECT_MAPPER.writeValueAsString(source));
+      updateDigest(digest, OBJECT_MAPPER.writeValueAsString(config.rawConfig.candidates));
+      updateDigest(digest, config.rawConfig.rules.maxRankingsAllowed);
+      updateDigest(digest, Boolean.toString(SecurityConfig.isHartSignatureValidationEnabled()));
+
+      Path root = Paths.get(cvrPath);
+      // skip the cache's own files, in case it's been put in a source directory
+      Path cacheDirectory = directory.toAbsolutePath().normalize();
+      List<Path> files;
+      try (Stream<Path> paths = Files.walk(root)) {
+        files =
+            paths
+                .filter(Files::isRegularFile)
+                .filter(path -> !path.toAbsolutePath().normalize().startsWith(cacheDirectory))
+                .sorted()
+                .toList();
+      }
+      for (Path file : files) {
+        updateDigest(digest, root.relativize(file).toString());
+        digest.update(FileUtils.getHashBytes(file.toFile(), HASH_ALGORITHM));
+      }
+      return digest.digest();
+    } catch (IOException | NoSuchAlgorithmException exception) {
+      Logger.warning("Unable to compute the ballot cache key for %s: %s", cvrPath, exception);
+      return null;
+    }
+  }
+
+  // Add the CVRs stored under key to castVoteRecords. Returns false, leaving castVoteRecords
+  // unchanged, if there's no usable entry.
+  boolean load(byte[] key, List<CastVoteRecord> castVoteRecords) {
+    Path entryPath = entryPath(key);
+    if (!Files.isRegularFile(entryPath)) {
+      return false;
+    }
+    Path hashPath = AuditableFile.hashFilePath(entryPath);
+    if (!Files.isRegularFile(hashPath)) {
+      Logger.warning("Ignoring ballot cache entry %s with no hash file at %s", entryPath,
+          hashPath);
+      return false;
+    }
+    try {
+      String expected = Files.readString(hashPath, StandardCharsets.UTF_8).trim();
+      MessageDigest digest = MessageDigest.getInstance(ENTRY_HASH_ALGORITHM);
+      // The entry is parsed as it's hashed, but its records are only used once the whole entry
+      // is known to match its hash. Until then, no count or length read from it is trusted to
+      // be more than its size.
+      List<CastVoteRecord> entryRecords;
+      try (DataInputStream input =
+          new DataInputStream(
+              new BufferedInputStream(
+                  new DigestInputStream(Files.newInputStream(entryPath), digest)))) {
+        entryRecords = readEntry(input, Files.size(entryPath), key);
+      }
+      if (!AuditableFile.hashFileContents(digest.digest()).equals(expected)) {
+        Logger.warning("Ignoring ballot cache entry %s, which doesn't match the hash in %s",
+            entryPath, hashPath);
+        return false;
+      }
+      castVoteRecords.addAll(entryRecords);
+      return true;
+    } catch (IOException | NoSuchAlgorithmException | RuntimeException exception) {
+      // includes truncated or otherwise corrupt entries, which fail with an EOFException or an
+      // out-of-range index
+      Logger.warning("Ignoring unreadable ballot cache entry %s: %s", entryPath, exception);
+      return false;
+    }
+  }
+
+  // Store castVoteRecords under key, replacing any existing entry, and record the entry's hash;
+  // failure is logged and ignored.
+  void store(byte[] key, List<CastVoteRecord> castVoteRecords) {
+    Path entryPath = entryPath(key);
+    Path hashPath = AuditableFile.hashFilePath(entryPath);
+    Path tempPath = null;
+    Path tempHashPath = null;
+    try {
+      Files.createDirectories(hashPath.getParent());
+      // write to temporary files first, so a partly written entry or hash is never read
+      tempPath = Files.createTempFile(directory, "entry", ".tmp");
+      MessageDigest digest = MessageDigest.getInstance(ENTRY_HASH_ALGORITHM);
+      try (OutputStream outputStream =
+          new DigestOutputStream(Files.newOutputStream(tempPath), digest)) {
+        writeEntry(new DataOutputStream(new BufferedOutputStream(outputStream)), key,
+            castVoteRecords);
+      }
+      tempHashPath = Files.createTempFile(hashPath.getParent(), "entry", ".tmp");
+      Files.writeString(tempHashPath, AuditableFile.hashFileContents(digest.digest()));
+      // An entry is only used once its hash file matches it, so if this fails partway through,
+      // the entry is ignored rather than being used unchecked.
+      Files.move(tempPath, entryPath, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      Files.move(tempHashPath, hashPath, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException | NoSuchAlgorithmException exception) {
+      Logger.warning("Unable to write ballot cache entry %s: %s", entryPath, exception);
+      deleteTempFile(tempPath);
+      deleteTempFile(tempHashPath);
+    }
+  }
+
+  private static void deleteTempFile(Path tempPath) {
+    if (tempPath == null) {
+      return;
+    }
+    try {
+      Files.deleteIfExists(tempPath);
+    } catch (IOException exception) {
+      Logger.warning("Unable to delete temporary file %s: %s", tempPath, exception);
+    }
+  }
+
+  private Path entryPath(byte[] key) {
+    return directory.resolve(Utils.bytesToHex(key) + ENTRY_SUFFIX);
+  }
+
+  private static void updateDigest(MessageDigest digest, String value) {
+    byte[] bytes = String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+    // prefix each value with its length, so values can't run into each other
+    digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+    digest.update(bytes);
+  }
+
+  // Entry layout: magic, format version, key length and key, then the string dictionary (count,
+  // then each string's UTF-8 length and bytes), then the CVR count and each CVR. A CVR is its
+  // contest, tabulator, batch, supplied ID, computed ID, precinct and precinct portion as string
+  // references, a byte for usesLastAllowedRanking, and its number of ranked names followed by a
+  // ranking and name reference for each. A string reference is 0 for null, or 1 + the index.
+  private static void writeEntry(
+      DataOutputStream output, byte[] key, List<CastVoteRecord> castVoteRecords)
+      throws IOException {
+    Map<String, Integer> dictionary = new HashMap<>();
+    List<String> strings = new ArrayList<>();
+    for (CastVoteRecord cvr : castVoteRecords) {
+      for (String value : cvrStrings(cvr)) {
+        addToDictionary(value, dictionary, strings);
+      }
+      for (Pair<Integer, CandidatesAtRanking> ranking : cvr.candidateRankings) {
+        for (String candidateName : ranking.getValue()) {
+          addToDictionary(candidateName, dictionary, strings);
+        }
+      }
+    }
+
+    output.writeInt(MAGIC);
+    output.writeInt(FORMAT_VERSION);
+    writeVarint(output, key.length);
+    output.write(key);
+    writeVarint(output, strings.size());
+    for (String value : strings) {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      writeVarint(output, bytes.length);
+      output.write(bytes);
+    }
+    writeVarint(output, castVoteRecords.size());
+    for (CastVoteRecord cvr : castVoteRecords) {
+      for (String value : cvrStrings(cvr)) {
+        writeVarint(output, stringReference(value, dictionary));
+      }
+      output.writeByte(cvr.doesUseLastAllowedRanking() ? 1 : 0);
+      int numNames = 0;
+      for (Pair<Integer, CandidatesAtRanking> ranking : cvr.candidateRankings) {
+        numNames += ranking.getValue().count();
+      }
+      writeVarint(output, numNames);
+      for (Pair<Integer, CandidatesAtRanking> ranking : cvr.candidateRankings) {
+        for (String candidateName : ranking.getValue()) {
+          writeVarint(output, ranking.getKey());
+          writeVarint(output, stringReference(candidateName, dictionary));
+        }
+      }
+    }
+    output.flush();
+  }
+
+  // Read an entry of entrySize bytes. Every string, CVR, and ranked name takes at least one byte,
+  // so no count or length in a valid entry can be more than entrySize.
+  private static List<CastVoteRecord> readEntry(DataInputStream input, long entrySize, byte[] key)
+      throws IOException {
+    if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION) {
+      throw new IOException("Not a ballot cache entry of this version");
+    }
+    byte[] entryKey = new byte[readCount(input, entrySize)];
+    input.readFully(entryKey);
+    if (!Arrays.equals(entryKey, key)) {
+      throw new IOException("Entry key doesn't match its file name");
+    }
+    // index 0 is the null reference
+    String[] strings = new String[readCount(input, entrySize) + 1];
+    for (int i = 1; i < strings.length; i++) {
+      byte[] bytes = new byte[readCount(input, entrySize)];
+      input.readFully(bytes);
+      strings[i] = new String(bytes, StandardCharsets.UTF_8);
+    }
+    int numCvrs = readCount(input, entrySize);
+    List<CastVoteRecord> castVoteRecords = new ArrayList<>(numCvrs);
+    int[] rankings = new int[16];
+    String[] rankedCandidateNames = new String[16];
+    for (int i = 0; i < numCvrs; i++) {
+      String contestId = strings[readVarint(input)];
+      String tabulatorId = strings[readVarint(input)];
+      String batchId = strings[readVarint(input)];
+      String suppliedId = strings[readVarint(input)];
+      String computedId = strings[readVarint(input)];
+      String precinct = strings[readVarint(input)];
+      String precinctPortion = strings[readVarint(input)];
+      boolean usesLastAllowedRanking = input.readByte() != 0;
+      int numNames = readCount(input, entrySize);
+      if (numNames > rankings.length) {
+        rankings = new int[numNames];
+        rankedCandidateNames = new String[numNames];
+      }
+      for (int j = 0; j < numNames; j++) {
+        rankings[j] = readVarint(input);
+        rankedCandidateNames[j] = strings[readVarint(input)];
+      }
+      castVoteRecords.add(
+          new CastVoteRecord(
+              contestId,
+              tabulatorId,
+              batchId,
+              suppliedId,
+              computedId,
+              precinct,
+              precinctPortion,
+              usesLastAllowedRanking,
+              new CandidateRankingsList(rankings, rankedCandidateNames, numNames)));
+    }
+    if (input.read() != -1) {
+      throw new IOException("Unexpected data after the last cast vote record");
+    }
+    return castVoteRecords;
+  }
+
+  // the strings of a CVR, in the order they're stored
+  private static String[] cvrStrings(CastVoteRecord cvr) {
+    return new String[] {
+      cvr.getContestId(),
+      cvr.getTabulatorId(),
+      cvr.getSlice(TabulateBySlice.BATCH),
+      cvr.getSuppliedId(),
+      cvr.getComputedId(),
+      cvr.getSlice(TabulateBySlice.PRECINCT),
+      cvr.getPrecinctPortion()
+    };
+  }
+
+  private static void addToDictionary(
+      String value, Map<String, Integer> dictionary, List<String> strings) {
+    if (value != null && dictionary.putIfAbsent(value, strings.size()) == null) {
+      strings.add(value);
+    }
+  }
+
+  private static int stringReference(String value, Map<String, Integer> dictionary) {
+    return value == null ? 0 : dictionary.get(value) + 1;
+  }
+
+  // write a non-negative int 7 bits at a time, low bits first, with the top bit of each byte set
+  // when more follow
+  private static void writeVarint(DataOutputStream output, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      output.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    output.writeByte(value);
+  }
+
+  private static int readVarint(DataInputStream input) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < Integer.SIZE; shift += 7) {
+      byte b = input.readByte();
+      value |= (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed number");
+  }
+
+  // read a count or length, which can't be negative or more than the size of the entry
+  private static int readCount(DataInputStream input, long entrySize) throws IOException {
+    int count = readVarint(input);
+    if (count < 0 || count > entrySize) {
+      throw new IOException("Count of %d is out of range".formatted(count));
+    }
+    return count;
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * RCTab
+ * Copyright (c) 2017-2023 Bright Spots Developers.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+/*
+ * Purpose: The state of every ballot over the course of one tabulation: which candidate its vote
+ * currently counts for, whether it has become inactive, how much of its value remains to be
+ * transferred, and how much of it stayed with each winner it helped elect.
+ * Design: Columnar. Each ballot is identified by its position in the tabulation's list of cast
+ * vote records, and its state is held in parallel primitive arrays at that position: its recipient
+ * as a CandidateRegistry ID, its status as a StatusForRound ordinal, and its remaining value as an
+ * unscaled long and a scale, as in VoteValue. The rare remaining value which doesn't fit in a long
+ * is kept in a map instead, as are the values which stayed with winners, since most ballots never
+ * help elect anyone. Different ballots' state may be updated from different threads at once, as
+ * when a round is tallied in parallel, but only recordCurrentRecipientAsWinner touches the maps,
+ * and it must not run concurrently with anything else.
+ * Conditions: During tabulation.
+ * Version history: see https://github.com/BrightSpots/rcv.
+ */
+
+package network.brightspots.rcv;
+
+import static network.brightspots.rcv.CastVoteRecord.StatusForRound;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+final class BallotStates {
+
+  // the recipient of a ballot which isn't counting for any candidate
+  static final int NO_RECIPIENT = -1;
+
+  private static final StatusForRound[] STATUSES = StatusForRound.values();
+  // the scale of a remaining value which is held in overflowValues instead
+  private static final byte OVERFLOW = -1;
+
+  private final CandidateRegistry candidateRegistry;
+  private final int[] recipientIds;
+  private final byte[] statuses;
+  private final long[] unscaledValues;
+  private final byte[] scales;
+  // remaining values which aren't fixed point, by ballot position
+  private final Map<Integer, VoteValue> overflowValues = new HashMap<>();
+  // by ballot position, the value which stayed with each winner the ballot helped elect
+  private final Map<Integer, Map<String, VoteValue>> winnerAllocations = new HashMap<>();
+
+  BallotStates(int numBallots, CandidateRegistry candidateRegistry) {
+    this.candidateRegistry = candidateRegistry;
+    recipientIds = new int[numBallots];
+    Arrays.fill(recipientIds, NO_RECIPIENT);
+    statuses = new byte[numBallots];
+    Arrays.fill(statuses, (byte) StatusForRound.ACTIVE.ordinal());
+    // every ballot starts with a value of one (an unscaled value of 1 with a scale of 0)
+    unscaledValues = new long[numBallots];
+    Arrays.fill(unscaledValues, 1);
+    scales = new byte[numBallots];
+  }
+
+  // the candidate the ballot's vote currently counts for, or null
+  String getRecipient(int ballot) {
+    int recipientId = recipientIds[ballot];
+    return recipientId == NO_RECIPIENT ? null : candidateRegistry.getName(recipientId);
+  }
+
+  void setRecipient(int ballot, int recipientId) {
+    recipientIds[ballot] = recipientId;
+  }
+
+  StatusForRound getStatus(int ballot) {
+    return STATUSES[statuses[ballot]];
+  }
+
+  void exhaustBy(int ballot, StatusForRound status) {
+    statuses[ballot] = (byte) status.ordinal();
+  }
+
+  // The value of the ballot's vote not yet allocated to any winner. It's one unless the ballot
+  // has helped elect a winner (in a multi-winner contest).
+  VoteValue getRemainingValue(int ballot) {
+    byte scale = scales[ballot];
+    if (scale == OVERFLOW) {
+      return overflowValues.get(ballot);
+    }
+    long unscaledValue = unscaledValues[ballot];
+    return unscaledValue == 1 && scale == 0
+        ? VoteValue.ONE
+        : VoteValue.ofFixedPoint(unscaledValue, scale);
+  }
+
+  private void setRemainingValue(int ballot, VoteValue value) {
+    if (value.isFixedPoint()) {
+      unscaledValues[ballot] = value.unscaledValue();
+      scales[ballot] = (byte) value.scale();
+      overflowValues.remove(ballot);
+    } else {
+      scales[ballot] = OVERFLOW;
+      overflowValues.put(ballot, value);
+    }
+  }
+
+  // the value which stayed with each winner the ballot helped elect
+  Map<String, VoteValue> getWinnerAllocations(int ballot) {
+    Map<String, VoteValue> allocations = winnerAllocations.get(ballot);
+    return allocations != null ? allocations : Collections.emptyMap();
+  }
+
+  // Calculate and store the value which stays with the ballot's current (newly elected)
+  // recipient, and what remains to be transferred.
+  // param: surplusFraction fraction of this vote's current value which is now surplus and will
+  // be transferred
+  // param: decimalPlacesForVoteArithmetic as configured for the contest
+  void recordCurrentRecipientAsWinner(
+      int ballot, VoteValue surplusFraction, int decimalPlacesForVoteArithmetic) {
+    VoteValue remainingValue = getRemainingValue(ballot);
+    // Calculate transfer amount rounding DOWN to ensure we leave more of the vote with
+    // the winner. This avoids transferring more than intended which could leave the winner with
+    // less than the winning threshold. This matches ContestConfig.multiply.
+    VoteValue transferAmount =
+        remainingValue.multiply(surplusFraction, decimalPlacesForVoteArithmetic);
+    // calculate newAllocatedValue counted to the current winner and store it
+    VoteValue newAllocatedValue = remainingValue.subtract(transferAmount);
+    Map<String, VoteValue> allocations =
+        winnerAllocations.computeIfAbsent(ballot, k -> new HashMap<>());
+    VoteValue previousValue = allocations.put(getRecipient(ballot), newAllocatedValue);
+    if (previousValue == null) {
+      // what's left is what was left before, less what now stays with this winner
+      setRemainingValue(ballot, remainingValue.subtract(newAllocatedValue));
+    } else {
+      remainingValue = VoteValue.ONE;
+      for (VoteValue allocatedValue : allocations.values()) {
+        remainingValue = remainingValue.subtract(allocatedValue);
+      }
+      setRemainingValue(ballot, remainingValue);
+    }
+  }
+}
@@ -32,6 +32,8 @@ abstract class BaseCvrReader {
   protected final String cvrPath; // may be a file or directory
   protected final CvrSource source;
   protected int numRecordsParsed;
+  // set when other contests are being tabulated from the same export (see SharedCvrExports)
+  protected SharedCvrExports sharedExports;
 
   BaseCvrReader(ContestConfig config, CvrSource source) {
     this.config = config;
@@ -40,6 +42,10 @@ abstract class BaseCvrReader {
     this.numRecordsParsed = 0;
   }
 
+  void setSharedExports(SharedCvrExports sharedExports) {
+    this.sharedExports = sharedExports;
+  }
+
   // parse CVR for records matching the specified contestId into CastVoteRecord objects and add
   // them to the input list
   abstract void readCastVoteRecords(List<CastVoteRecord> castVoteRecords)
@@ -137,7 +143,11 @@ abstract class BaseCvrReader {
       return false;
     }
 
-    int lastRanking = rankings.get(rankings.size() - 1).getKey();
+    return usesLastAllowedRanking(rankings.get(rankings.size() - 1).getKey(), contestId);
+  }
+
+  // lastRanking is the ranking of the last candidate read from the CVR
+  boolean usesLastAllowedRanking(int lastRanking, String contestId) {
     return !isRankingAllowed(lastRanking + 1, contestId);
   }
 
@@ -0,0 +1,537 @@
+/*
+ * RCTab
+ * Copyright (c) 2017-2023 Bright Spots Developers.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+/*
+ * Purpose: Record the outcome of every ballot in every round of a tabulation in a compact binary
+ * file instead of as a line of text per ballot per round in the audit log, and replay that file
+ * into exactly the lines the audit log would have held. Only these outcome lines are recorded here;
+ * everything else is still written to the text audit log, so a replay holds just the outcomes.
+ * Design: The file is a header followed by chunks. Each chunk holds about a megabyte of entries,
+ * deflated, along with a SHA-256 hash chained from the previous chunk's hash (or, for the first
+ * chunk, from the hash of the header), so a chunk which is altered, reordered, or removed is
+ * detected on replay, and a file which doesn't end with an END entry has been truncated. Entries:
+ *   TABULATION: the number of CVRs in a tabulation, whose IDs follow in CVR_IDS entries
+ *   CVR_IDS: the next batch of the tabulation's CVR IDs
+ *   ROUND: the round which the following outcomes belong to
+ *   TIME: when the following outcomes were logged; written whenever the second changes
+ *   OUTCOME: adds the text of an outcome, as from CastVoteRecord.formatOutcome, to a dictionary
+ *   BALLOT: a ballot's outcome: its position after the previous ballot's, and an outcome reference
+ *   END: the end of the file
+ * Numbers are varints and strings are UTF-8 preceded by their length. Outcome text is stored
+ * verbatim, and the header records the time zone and line separator of the machine which wrote
+ * the file, so replayed lines match the text audit log byte for byte.
+ * Like the other audit files, the finished file is made read-only and its hash is written to the
+ * checksums folder and the audit log; replay also checks the file against that hash.
+ * Conditions: When the CLI is run with --binary-audit, or with --replay-audit.
+ * Version history: see https://github.com/BrightSpots/rcv.
+ */
+
+package network.brightspots.rcv;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+final class BinaryAuditLog implements Closeable {
+
+  static final String FILE_SUFFIX = ".rcvaudit";
+
+  // "RCTA"
+  private static final int MAGIC = 0x52435441;
+  // bump this whenever the layout of the file changes
+  private static final int FORMAT_VERSION = 1;
+  private static final String HASH_ALGORITHM = "SHA-256";
+  // entries are gathered until they take up this many bytes, then written as a chunk
+  private static final int CHUNK_SIZE = 1 << 20;
+  // IDs per CVR_IDS entry, which keeps a tabulation's ID table from making one huge chunk
+  private static final int IDS_PER_ENTRY = 4096;
+  // no chunk written by this class comes anywhere close to this
+  private static final int MAX_CHUNK_SIZE = 1 << 30;
+
+  // entry types
+  private static final byte TABULATION = 1;
+  private static final byte CVR_IDS = 2;
+  private static final byte ROUND = 3;
+  private static final byte TIME = 4;
+  private static final byte OUTCOME = 5;
+  private static final byte BALLOT = 6;
+  private static final byte END = 7;
+
+  private final AuditableFile file;
+  private final DataOutputStream output;
+  private final MessageDigest digest;
+  private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+  // the entries of the chunk being gathered are chunk[0] up to chunk[chunkLength]
+  private byte[] chunk = new byte[CHUNK_SIZE];
+  private int chunkLength = 0;
+  private byte[] compressed = new byte[CHUNK_SIZE];
+  private byte[] previousHash;
+  // reference numbers of the outcomes already in the dictionary
+  private final Map<String, Integer> outcomeReferences = new HashMap<>();
+  // consecutive ballots usually share an outcome, so the last one is checked before the map
+  private String lastOutcome;
+  private int lastOutcomeReference;
+  private int currentRound = 0;
+  private int lastCvrIndex = -1;
+  private long lastSecond = Long.MIN_VALUE;
+  // the first write failure, which is reported by close; nothing more is written after one
+  private IOException failure;
+
+  BinaryAuditLog(Path path) throws IOException {
+    this.file = new AuditableFile(path);
+    this.digest = newDigest();
+    byte[] header =
+        header(
+            Logger.AuditLineFormatter.currentTimeZoneId(),
+            Logger.AuditLineFormatter.currentLineSeparator());
+    this.previousHash = digest.digest(header);
+    this.output =
+        new DataOutputStream(
+            file.newOutputStream(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE));
+    try {
+      output.write(header);
+    } catch (IOException exception) {
+      output.close();
+      throw exception;
+    }
+  }
+
+  Path getPath() {
+    return file.toPath();
+  }
+
+  // starts a tabulation of the given CVRs; later outcomes refer to CVRs by position in this list
+  void beginTabulation(List<CastVoteRecord> castVoteRecords) {
+    writeByte(TABULATION);
+    writeVarint(castVoteRecords.size());
+    endEntry();
+    for (int start = 0; start < castVoteRecords.size(); start += IDS_PER_ENTRY) {
+      int end = Math.min(start + IDS_PER_ENTRY, castVoteRecords.size());
+      writeByte(CVR_IDS);
+      writeVarint(end - start);
+      for (int i = start; i < end; i++) {
+        writeString(castVoteRecords.get(i).getId());
+      }
+      endEntry();
+    }
+    currentRound = 0;
+    lastCvrIndex = -1;
+  }
+
+  // Records the outcome, as from CastVoteRecord.formatOutcome, of the CVR at cvrIndex in the
+  // given round. Within a round, outcomes must be logged in CVR order.
+  void logOutcome(int round, int cvrIndex, String outcome) {
+    if (round != currentRound) {
+      writeByte(ROUND);
+      writeVarint(round);
+      endEntry();
+      currentRound = round;
+      lastCvrIndex = -1;
+    }
+    long millis = System.currentTimeMillis();
+    if (Math.floorDiv(millis, 1000) != lastSecond) {
+      writeByte(TIME);
+      writeVarint(millis);
+      endEntry();
+      lastSecond = Math.floorDiv(millis, 1000);
+    }
+    if (!outcome.equals(lastOutcome)) {
+      Integer reference = outcomeReferences.get(outcome);
+      if (reference == null) {
+        reference = outcomeReferences.size();
+        outcomeReferences.put(outcome, reference);
+        writeByte(OUTCOME);
+        writeString(outcome);
+        endEntry();
+      }
+      lastOutcome = outcome;
+      lastOutcomeReference = reference;
+    }
+    writeByte(BALLOT);
+    writeVarint(cvrIndex - lastCvrIndex - 1);
+    writeVarint(lastOutcomeReference);
+    endEntry();
+    lastCvrIndex = cvrIndex;
+  }
+
+  // Writes the end of the file, makes it read-only, and records its hash. Throws the first
+  // failure to write it, if there was one, in which case the file is incomplete.
+  @Override
+  public void close() throws IOException {
+    try {
+      if (failure == null) {
+        writeByte(END);
+        writeChunk();
+      }
+    } catch (IOException exception) {
+      failure = exception;
+    } finally {
+      try {
+        output.close();
+      } catch (IOException exception) {
+        if (failure == null) {
+          failure = exception;
+        }
+      }
+      deflater.end();
+    }
+    file.finalizeAndHash();
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private void endEntry() {
+    if (chunkLength >= CHUNK_SIZE && failure == null) {
+      try {
+        writeChunk();
+      } catch (IOException exception) {
+        failure = exception;
+      }
+    }
+    if (failure != null) {
+      // drop what was gathered, since it will never be written
+      chunkLength = 0;
+    }
+  }
+
+  private void writeChunk() throws IOException {
+    digest.update(previousHash);
+    digest.update(chunk, 0, chunkLength);
+    previousHash = digest.digest();
+    deflater.reset();
+    deflater.setInput(chunk, 0, chunkLength);
+    deflater.finish();
+    int compressedLength = 0;
+    while (!deflater.finished()) {
+      if (compressedLength == compressed.length) {
+        compressed = Arrays.copyOf(compressed, compressed.length * 2);
+      }
+      compressedLength +=
+          deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+    }
+    output.writeInt(chunkLength);
+    output.writeInt(compressedLength);
+    output.write(previousHash);
+    output.write(compressed, 0, compressedLength);
+    chunkLength = 0;
+  }
+
+  private void writeByte(int value) {
+    if (chunkLength == chunk.length) {
+      chunk = Arrays.copyOf(chunk, chunk.length * 2);
+    }
+    chunk[chunkLength++] = (byte) value;
+  }
+
+  // write a non-negative number 7 bits at a time, low bits first, with the top bit of each byte
+  // set when more follow
+  private void writeVarint(long value) {
+    while ((value & ~0x7FL) != 0) {
+      writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    writeByte((int) value);
+  }
+
+  private void writeString(String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    writeVarint(bytes.length);
+    if (chunk.length - chunkLength < bytes.length) {
+      chunk = Arrays.copyOf(chunk, Math.max(chunk.length * 2, chunkLength + bytes.length));
+    }
+    System.arraycopy(bytes, 0, chunk, chunkLength, bytes.length);
+    chunkLength += bytes.length;
+  }
+
+  // Writes the audit log lines recorded in the binary audit log at binaryPath to a new text file
+  // at textPath, after checking the binary file against its hash file (if it has one) and each
+  // chunk against its hash. The text file is made read-only and its hash is recorded, like any
+  // other audit file. Returns the number of lines written.
+  static long replay(Path binaryPath, Path textPath) throws IOException {
+    verifyAgainstHashFile(binaryPath);
+    AuditableFile textFile = new AuditableFile(textPath);
+    long numLines;
+    try (DataInputStream input =
+            new DataInputStream(new BufferedInputStream(Files.newInputStream(binaryPath)));
+        Writer writer =
+            new BufferedWriter(
+                new OutputStreamWriter(
+                    textFile.newOutputStream(
+                        StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE),
+                    Charset.defaultCharset()))) {
+      numLines = replay(input, writer, binaryPath);
+    } catch (IOException exception) {
+      Files.deleteIfExists(textPath);
+      throw exception;
+    }
+    textFile.finalizeAndHash();
+    return numLines;
+  }
+
+  private static long replay(DataInputStream input, Writer writer, Path binaryPath)
+      throws IOException {
+    Replay replay;
+    byte[] previousHash;
+    MessageDigest digest = newDigest();
+    try {
+      if (input.readInt() != MAGIC) {
+        throw new IOException("%s isn't a binary audit log".formatted(binaryPath));
+      }
+      int version = input.readInt();
+      if (version != FORMAT_VERSION) {
+        throw new IOException(
+            "%s has format version %d, but this version of %s reads version %d"
+                .formatted(binaryPath, version, Main.APP_NAME, FORMAT_VERSION));
+      }
+      String timeZoneId = input.readUTF();
+      String lineSeparator = input.readUTF();
+      previousHash = digest.digest(header(timeZoneId, lineSeparator));
+      replay =
+          new Replay(
+              new Logger.AuditLineFormatter(TimeZone.getTimeZone(timeZoneId), lineSeparator),
+              writer);
+    } catch (EOFException exception) {
+      throw new IOException("%s is too short to be a binary audit log".formatted(binaryPath));
+    }
+
+    Inflater inflater = new Inflater();
+    try {
+      for (int chunkNumber = 1; !replay.isEnded; chunkNumber++) {
+        byte[] chunk;
+        byte[] hash = new byte[previousHash.length];
+        try {
+          int chunkLength = input.readInt();
+          int compressedLength = input.readInt();
+          if (chunkLength < 0 || chunkLength > MAX_CHUNK_SIZE || compressedLength < 0
+              || compressedLength > MAX_CHUNK_SIZE) {
+            throw new IOException(
+                "Chunk %d of %s has an invalid length".formatted(chunkNumber, binaryPath));
+          }
+          input.readFully(hash);
+          byte[] compressedChunk = new byte[compressedLength];
+          input.readFully(compressedChunk);
+          chunk = inflate(inflater, compressedChunk, chunkLength);
+          if (chunk == null) {
+            throw new DataFormatException("its length doesn't match the recorded length");
+          }
+        } catch (EOFException exception) {
+          throw new IOException(
+              "%s is incomplete: it ends partway through, in chunk %d"
+                  .formatted(binaryPath, chunkNumber));
+        } catch (DataFormatException exception) {
+          throw new IOException(
+              "Chunk %d of %s can't be decompressed: %s"
+                  .formatted(chunkNumber, binaryPath, exception.getMessage()));
+        }
+        digest.update(previousHash);
+        digest.update(chunk);
+        if (!MessageDigest.isEqual(digest.digest(), hash)) {
+          throw new IOException(
+              "Chunk %d of %s doesn't match its hash".formatted(chunkNumber, binaryPath));
+        }
+        previousHash = hash;
+        try {
+          replay.replayEntries(ByteBuffer.wrap(chunk));
+        } catch (BufferUnderflowException | IllegalArgumentException exception) {
+          throw new IOException(
+              "Chunk %d of %s contains an invalid entry".formatted(chunkNumber, binaryPath));
+        }
+      }
+    } finally {
+      inflater.end();
+    }
+    if (input.read() != -1) {
+      throw new IOException("%s has data after its end".formatted(binaryPath));
+    }
+    return replay.numLines;
+  }
+
+  // returns null if the data doesn't decompress to exactly length bytes
+  private static byte[] inflate(Inflater inflater, byte[] compressedChunk, int length)
+      throws DataFormatException {
+    byte[] chunk = new byte[length];
+    inflater.reset();
+    inflater.setInput(compressedChunk);
+    int inflatedLength = 0;
+    while (!inflater.finished()) {
+      if (inflatedLength == length) {
+        // the data may only be finished, not continue past the expected length
+        return inflater.inflate(new byte[1]) == 0 && inflater.finished() ? chunk : null;
+      }
+      int numBytes = inflater.inflate(chunk, inflatedLength, length - inflatedLength);
+      if (numBytes == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+        return null;
+      }
+      inflatedLength += numBytes;
+    }
+    return inflatedLength == length ? chunk : null;
+  }
+
+  // Compares the file to the hash recorded for it by AuditableFile.finalizeAndHash. A file whose
+  // hash file is missing can still be replayed, since each chunk is checked against its own hash.
+  private static void verifyAgainstHashFile(Path binaryPath) throws IOException {
+    Path hashPath = AuditableFile.hashFilePath(binaryPath);
+    if (!Files.exists(hashPath)) {
+      Logger.warning(
+          "No hash file found for %s at %s, so only the hashes within it will be checked.",
+          binaryPath, hashPath);
+      return;
+    }
+    String expected = Files.readString(hashPath, StandardCharsets.UTF_8).trim();
+    String actual =
+        AuditableFile.hashFileContents(FileUtils.getHashBytes(binaryPath.toFile(), "SHA-512"));
+    if (!actual.equals(expected)) {
+      throw new IOException(
+          "%s doesn't match the hash recorded in %s".formatted(binaryPath, hashPath));
+    }
+    Logger.info("%s matches the hash recorded in %s", binaryPath, hashPath);
+  }
+
+  private static byte[] header(String timeZoneId, String lineSeparator) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream header = new DataOutputStream(bytes);
+    header.writeInt(MAGIC);
+    header.writeInt(FORMAT_VERSION);
+    header.writeUTF(timeZoneId);
+    header.writeUTF(lineSeparator);
+    header.flush();
+    return bytes.toByteArray();
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance(HASH_ALGORITHM);
+    } catch (NoSuchAlgorithmException exception) {
+      // every Java platform is required to support SHA-256
+      throw new IllegalStateException(exception);
+    }
+  }
+
+  // the state of a replay, which carries over from one chunk to the next
+  private static final class Replay {
+
+    private final Logger.AuditLineFormatter formatter;
+    private final Writer writer;
+    private String[] cvrIds;
+    private int numCvrIds;
+    private final List<String> outcomes = new ArrayList<>();
+    private int round;
+    private int lastCvrIndex;
+    private long millis;
+    private long numLines = 0;
+    private boolean isEnded = false;
+
+    Replay(Logger.AuditLineFormatter formatter, Writer writer) {
+      this.formatter = formatter;
+      this.writer = writer;
+    }
+
+    // Invalid entries throw IllegalArgumentException, or BufferUnderflowException if they run
+    // past the end of the chunk.
+    void replayEntries(ByteBuffer entries) throws IOException {
+      while (entries.hasRemaining()) {
+        if (isEnded) {
+          throw new IllegalArgumentException("entry after the end");
+        }
+        byte type = entries.get();
+        switch (type) {
+          case TABULATION -> {
+            cvrIds = new String[readInt(entries)];
+            numCvrIds = 0;
+            round = 0;
+          }
+          case CVR_IDS -> {
+            int numIds = readInt(entries);
+            requireArgument(cvrIds != null && numIds <= cvrIds.length - numCvrIds);
+            for (int i = 0; i < numIds; i++) {
+              cvrIds[numCvrIds++] = readString(entries);
+            }
+          }
+          case ROUND -> {
+            round = readInt(entries);
+            lastCvrIndex = -1;
+          }
+          case TIME -> millis = readVarint(entries);
+          case OUTCOME -> outcomes.add(readString(entries));
+          case BALLOT -> {
+            int cvrIndex = lastCvrIndex + 1 + readInt(entries);
+            int outcomeReference = readInt(entries);
+            requireArgument(
+                round > 0 && cvrIndex < numCvrIds && outcomeReference < outcomes.size());
+            writer.write(
+                formatter.format(
+                    millis,
+                    CastVoteRecord.formatRoundOutcome(
+                        round, cvrIds[cvrIndex], outcomes.get(outcomeReference))));
+            lastCvrIndex = cvrIndex;
+            numLines++;
+          }
+          case END -> isEnded = true;
+          default -> throw new IllegalArgumentException("unknown entry type " + type);
+        }
+      }
+    }
+
+    private static void requireArgument(boolean isValid) {
+      if (!isValid) {
+        throw new IllegalArgumentException();
+      }
+    }
+
+    private static long readVarint(ByteBuffer buffer) {
+      long value = 0;
+      for (int shift = 0; shift < Long.SIZE; shift += 7) {
+        byte b = buffer.get();
+        value |= (long) (b & 0x7F) << shift;
+        if (b >= 0) {
+          return value;
+        }
+      }
+      throw new IllegalArgumentException("malformed number");
+    }
+
+    private static int readInt(ByteBuffer buffer) {
+      long value = readVarint(buffer);
+      requireArgument(value >= 0 && value <= Integer.MAX_VALUE);
+      return (int) value;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+      byte[] bytes = new byte[readInt(buffer)];
+      buffer.get(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+  }
+}
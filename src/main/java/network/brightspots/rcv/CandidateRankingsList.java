@@ -9,54 +9,79 @@
 
 /*
  * Purpose: Low-Memory container for a single cast vote record
- * Design: Assumes valid ballots but supports overvotes and skipped rankings.
+ * Design: Assumes valid ballots but supports overvotes and skipped rankings. All ranked candidates
+ * are packed into one array in ranking order, with an array of offsets marking where each
+ * ranking starts, so a ballot costs a few arrays instead of an object per ranking.
  * Conditions: Always.
  * Version history: see https://github.com/BrightSpots/rcv.
  */
 
 package network.brightspots.rcv;
 
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import javafx.util.Pair;
 
 final class CandidateRankingsList implements Iterable<Pair<Integer, CandidatesAtRanking>> {
-  private final CandidatesAtRanking[] rankings;
+  private static final String[] NO_CANDIDATES = new String[0];
+  private static final int[] NO_RANKINGS = new int[] {0};
+
+  // every ranked candidate name or alias, ordered by ranking
+  private final String[] candidateNames;
+  // the candidates at ranking r are candidateNames[rankingStarts[r - 1]] up to (but not
+  // including) candidateNames[rankingStarts[r]]
+  private final int[] rankingStarts;
+  // registry IDs for candidateNames, set by resolveCandidateIds
+  private int[] candidateIds;
   private int numRankings;
 
   CandidateRankingsList(List<Pair<Integer, String>> rawRankings) {
-    if (rawRankings.isEmpty()) {
-      this.rankings = new CandidatesAtRanking[0];
+    this(
+        rawRankings.stream().mapToInt(Pair::getKey).toArray(),
+        rawRankings.stream().map(Pair::getValue).toArray(String[]::new),
+        rawRankings.size());
+  }
+
+  // Build from the first size entries of two parallel arrays: rankings[i] is the ranking given
+  // to rankedCandidateNames[i], in the order they were read. Readers which build the arrays
+  // directly avoid a Pair per ranking. Neither array is kept.
+  CandidateRankingsList(int[] rankings, String[] rankedCandidateNames, int size) {
+    if (size == 0) {
+      this.candidateNames = NO_CANDIDATES;
+      this.rankingStarts = NO_RANKINGS;
       numRankings = 0;
     } else {
-      rawRankings.sort(Comparator.comparingInt(Pair::getKey));
-
-      // Initialize up to maxRankings, leaving empty arrays for any skipped rankings
-      int minRanking = rawRankings.get(0).getKey();
+      int minRanking = rankings[0];
+      int maxRanking = rankings[0];
+      for (int i = 1; i < size; i++) {
+        minRanking = Math.min(minRanking, rankings[i]);
+        maxRanking = Math.max(maxRanking, rankings[i]);
+      }
       if (minRanking <= 0) {
         throw new RuntimeException(
             "Invalid ranking %d. All rankings must be positive integers".formatted(minRanking));
       }
-
-      int maxRanking = rawRankings.get(rawRankings.size() - 1).getKey();
-      this.rankings = new CandidatesAtRanking[maxRanking];
-      for (int i = 0; i < maxRanking; i++) {
-        this.rankings[i] = new CandidatesAtRanking();
+      // Initialize up to maxRankings, leaving empty ranges for any skipped rankings. Count the
+      // candidates at each ranking, then sum the counts so that rankingStarts[r] is where
+      // ranking r + 1 starts.
+      this.rankingStarts = new int[maxRanking + 1];
+      for (int i = 0; i < size; i++) {
+        rankingStarts[rankings[i]]++;
       }
-
-      // Populate, which is most efficient in the common case of no overvotes.
-      // For every overvote, it will do a full copy of all previous candidates at
-      // this ranking, for O(numCandidatesAtThisRanking^2) copies.
-      for (Pair<Integer, String> ranking : rawRankings) {
-        this.rankings[ranking.getKey() - 1].addCandidate(ranking.getValue());
-      }
-
-      for (CandidatesAtRanking c : this.rankings) {
-        if (c.count() != 0) {
+      for (int ranking = 1; ranking <= maxRanking; ranking++) {
+        if (rankingStarts[ranking] != 0) {
           ++numRankings;
         }
+        rankingStarts[ranking] += rankingStarts[ranking - 1];
+      }
+      // Candidates at the same ranking keep the order they were read in.
+      int[] nextSlot = Arrays.copyOf(rankingStarts, maxRanking);
+      this.candidateNames = new String[size];
+      for (int i = 0; i < size; i++) {
+        candidateNames[nextSlot[rankings[i] - 1]++] = rankedCandidateNames[i];
       }
     }
   }
@@ -73,24 +98,60 @@ final class CandidateRankingsList implements Iterable<Pair<Integer, CandidatesAt
     if (num < 1) {
       throw new IllegalArgumentException();
     }
-    return num <= rankings.length && rankings[num - 1].count() != 0;
+    return num <= maxRanking() && rankingStarts[num - 1] != rankingStarts[num];
   }
 
   CandidatesAtRanking get(int i) {
-    return rankings[i - 1];
+    return new CandidatesAtRanking(
+        candidateNames, candidateIds, rankingStarts[i - 1], rankingStarts[i]);
   }
 
   int maxRankingNumber() {
     if (numRankings == 0) {
       throw new IllegalArgumentException("Max ranking may only be called on non-empty rankings!");
     }
-    return this.rankings.length;
+    return maxRanking();
   }
 
   int numRankings() {
     return numRankings;
   }
 
+  // replace each ranked name with its copy in dictionary (see CastVoteRecord.shareRepeatedStrings)
+  void shareCandidateNames(Map<String, String> dictionary) {
+    for (int i = 0; i < candidateNames.length; i++) {
+      candidateNames[i] = CastVoteRecord.shared(candidateNames[i], dictionary);
+    }
+  }
+
+  // resolve the candidate names and aliases at every ranking to their registry IDs
+  void resolveCandidateIds(CandidateRegistry registry) {
+    int[] ids = new int[candidateNames.length];
+    for (int i = 0; i < candidateNames.length; i++) {
+      ids[i] = registry.getIdForNameOrAlias(candidateNames[i]);
+    }
+    candidateIds = ids;
+  }
+
+  // the highest ranking number, including any skipped rankings (0 if there are no rankings)
+  private int maxRanking() {
+    return rankingStarts.length - 1;
+  }
+
+  // Two lists are equal if they rank the same names and aliases in the same way.
+  @Override
+  public boolean equals(Object other) {
+    return this == other
+        || (other instanceof CandidateRankingsList otherList
+            && Arrays.equals(rankingStarts, otherList.rankingStarts)
+            && Arrays.equals(candidateNames, otherList.candidateNames));
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * Arrays.hashCode(rankingStarts) + Arrays.hashCode(candidateNames);
+  }
+
   public Iterator<Pair<Integer, CandidatesAtRanking>> iterator() {
     return new CandidateRankingsListIterator();
   }
@@ -99,24 +160,24 @@ final class CandidateRankingsList implements Iterable<Pair<Integer, CandidatesAt
     private int iteratorIndex = 0;
 
     public boolean hasNext() {
-      return iteratorIndex < rankings.length;
+      return iteratorIndex < maxRanking();
     }
 
     public Pair<Integer, CandidatesAtRanking> next() {
-      if (iteratorIndex >= rankings.length) {
+      if (iteratorIndex >= maxRanking()) {
         throw new NoSuchElementException();
       }
 
       do {
         iteratorIndex++;
-        if (iteratorIndex > rankings.length) {
+        if (iteratorIndex > maxRanking()) {
           throw new NoSuchElementException();
         }
       } while (!hasRankingAt(iteratorIndex));
 
       // Note: round numbers are 1-indexed externally, 0-indexed internally,
       // thus why we return a different value than what we index into here
-      return new Pair<>(iteratorIndex, rankings[iteratorIndex - 1]);
+      return new Pair<>(iteratorIndex, get(iteratorIndex));
     }
 
     public void remove() {
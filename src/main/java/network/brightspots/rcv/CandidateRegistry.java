@@ -0,0 +1,62 @@
+/*
+ * RCTab
+ * Copyright (c) 2017-2023 Bright Spots Developers.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+/*
+ * Purpose: Assign each candidate in a contest a dense integer ID, so the tabulation hot path can
+ * identify candidates without string hashing or alias lookups.
+ * Design: IDs are assigned in sorted candidate name order, and every name and alias found in the
+ * contest config maps to the ID of the candidate it refers to.
+ * Conditions: During tabulation.
+ * Version history: see https://github.com/BrightSpots/rcv.
+ */
+
+package network.brightspots.rcv;
+
+import java.util.HashMap;
+import java.util.Map;
+
+final class CandidateRegistry {
+
+  // returned for any string which is neither a candidate name nor an alias
+  static final int UNKNOWN_CANDIDATE_ID = -1;
+
+  private final String[] candidateNames;
+  private final Map<String, Integer> nameOrAliasToId = new HashMap<>();
+
+  CandidateRegistry(ContestConfig config) {
+    candidateNames = config.getCandidateNames().stream().sorted().toArray(String[]::new);
+    Map<String, Integer> nameToId = new HashMap<>();
+    for (int id = 0; id < candidateNames.length; id++) {
+      nameToId.put(candidateNames[id], id);
+    }
+    config
+        .getCandidateAliasesToNameMap()
+        .forEach(
+            (nameOrAlias, name) -> {
+              Integer id = nameToId.get(name);
+              if (id != null) {
+                nameOrAliasToId.put(nameOrAlias, id);
+              }
+            });
+  }
+
+  int size() {
+    return candidateNames.length;
+  }
+
+  String getName(int candidateId) {
+    return candidateNames[candidateId];
+  }
+
+  // equivalent to looking up the ID of ContestConfig.getNameForCandidate(nameOrAlias)
+  int getIdForNameOrAlias(String nameOrAlias) {
+    Integer id = nameOrAliasToId.get(nameOrAlias);
+    return id != null ? id : UNKNOWN_CANDIDATE_ID;
+  }
+}
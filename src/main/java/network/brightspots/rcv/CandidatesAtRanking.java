@@ -9,39 +9,52 @@
 
 /*
  * Purpose: Low-Memory container for a list of candidates at a single ranking.
- * Design: Optimized for the case of one candidate per ranking.
+ * Design: A lightweight view onto the range of a CandidateRankingsList's packed candidate array
+ * which holds a single ranking. Optimized for the case of one candidate per ranking.
  * Conditions: Always.
  * Version history: see https://github.com/BrightSpots/rcv.
  */
 
 package network.brightspots.rcv;
 
-import java.util.Arrays;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
-import java.util.stream.IntStream;
 
 class CandidatesAtRanking implements Iterable<String> {
-  private String[] candidateNames;
+  private final String[] candidateNames;
+  // registry IDs parallel to candidateNames; null until the rankings have been resolved
+  private final int[] candidateIds;
+  // this ranking covers indexes [start, end) of the arrays above
+  private final int start;
+  private final int end;
 
-  int count() {
-    return candidateNames == null ? 0 : candidateNames.length;
+  CandidatesAtRanking(String[] candidateNames, int[] candidateIds, int start, int end) {
+    this.candidateNames = candidateNames;
+    this.candidateIds = candidateIds;
+    this.start = start;
+    this.end = end;
   }
 
-  void addCandidate(String candidateName) {
-    int n = count();
-    String[] newList = new String[n + 1];
-    IntStream.range(0, n).forEach(i -> newList[i] = this.candidateNames[i]);
-    newList[n] = candidateName;
-    this.candidateNames = newList;
+  int count() {
+    return end - start;
   }
 
   String get(int i) {
-    return candidateNames[i];
+    return candidateNames[start + i];
+  }
+
+  // only valid after CandidateRankingsList.resolveCandidateIds has been called
+  int getCandidateId(int i) {
+    return candidateIds[start + i];
   }
 
   boolean contains(String s) {
-    return Arrays.asList(this.candidateNames).contains(s);
+    for (int i = start; i < end; i++) {
+      if (candidateNames[i].equals(s)) {
+        return true;
+      }
+    }
+    return false;
   }
 
   public Iterator<String> iterator() {
@@ -52,14 +65,13 @@ class CandidatesAtRanking implements Iterable<String> {
     private int iteratorIndex = 0;
 
     public boolean hasNext() {
-      return iteratorIndex < candidateNames.length;
+      return iteratorIndex < count();
     }
 
     public String next() {
-      if (iteratorIndex == candidateNames.length) {
+      if (iteratorIndex == count()) {
         throw new NoSuchElementException();
       }
-
       return get(iteratorIndex++);
     }
 
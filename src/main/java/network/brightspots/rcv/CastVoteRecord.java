@@ -8,9 +8,10 @@
  */
 
 /*
- * Purpose: Internal representation of a single cast vote record, including to whom it counts, over
- * the course of a tabulation (can be multiple candidates for a multi-winner election).
- * Design: Simple container class for individual CVR data and associated utils.
+ * Purpose: Internal representation of a single cast vote record.
+ * Design: Simple container class for individual CVR data and associated utils. To whom a CVR counts
+ * over the course of a tabulation (which can be multiple candidates for a multi-winner election)
+ * is kept in the tabulation's BallotStates, not here.
  * Conditions: Always.
  * Version history: see https://github.com/BrightSpots/rcv.
  */
@@ -21,10 +22,8 @@ import static network.brightspots.rcv.Utils.isNullOrBlank;
 
 import java.math.BigDecimal;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import javafx.util.Pair;
 
 class CastVoteRecord {
@@ -33,32 +32,20 @@ class CastVoteRecord {
   // supplied unique ID for this CVR
   private final String suppliedId;
   // which precinct this ballot came from
-  private final String precinct;
+  private String precinct;
   // which precinct portion this ballot came from
-  private final String precinctPortion;
+  private String precinctPortion;
   // is the last-used ranking the last-allowed ranking in the CVR?
   private final boolean usesLastAllowedRanking;
-  // records winners to whom some fraction of this vote has been allocated
-  private final Map<String, BigDecimal> winnerToFractionalValue = new HashMap<>();
-  // If CVR CDF output is enabled, we store the necessary info here: for each round, the list of
-  // candidates this ballot is counting toward (0 or 1 in a single-seat contest; 0 to n in a
-  // multi-seat contest because of fractional vote transfers), and how much of the vote each is
-  // getting. As a memory optimization, if the data is unchanged from the previous round, we don't
-  // add a new entry.
-  private final Map<Integer, List<Pair<String, BigDecimal>>> cdfSnapshotData = new HashMap<>();
   // map of round to all candidates selected for that round
   // a set is used to handle overvotes
   CandidateRankingsList candidateRankings;
   // contest associated with this CVR
-  private final String contestId;
+  private String contestId;
   // tabulatorId parsed from Dominion CVR data
-  private final String tabulatorId;
+  private String tabulatorId;
   // batchId parsed from Dominion CVR data
-  private final String batchId;
-  // the ballot status for the current round, which will change as tabulation progresses.
-  private StatusForRound currentRoundStatus = StatusForRound.ACTIVE;
-  // tells us which candidate is currently receiving this CVR's vote (or fractional vote)
-  private String currentRecipientOfVote = null;
+  private String batchId;
 
   CastVoteRecord(
       String contestId,
@@ -83,6 +70,20 @@ class CastVoteRecord {
           String precinctPortion,
           boolean usesLastAllowedRanking,
           List<Pair<Integer, String>> rankings) {
+    this(contestId, tabulatorId, batchId, suppliedId, computedId, precinct, precinctPortion,
+        usesLastAllowedRanking, new CandidateRankingsList(rankings));
+  }
+
+  CastVoteRecord(
+          String contestId,
+          String tabulatorId,
+          String batchId,
+          String suppliedId,
+          String computedId,
+          String precinct,
+          String precinctPortion,
+          boolean usesLastAllowedRanking,
+          CandidateRankingsList candidateRankings) {
     this.contestId = contestId;
     this.tabulatorId = tabulatorId;
     this.batchId = batchId;
@@ -91,7 +92,7 @@ class CastVoteRecord {
     this.precinct = precinct;
     this.precinctPortion = precinctPortion;
     this.usesLastAllowedRanking = usesLastAllowedRanking;
-    this.candidateRankings = new CandidateRankingsList(rankings);
+    this.candidateRankings = candidateRankings;
   }
 
   CastVoteRecord(
@@ -105,6 +106,42 @@ class CastVoteRecord {
         usesLastAllowedRanking, rankings);
   }
 
+  CastVoteRecord(
+      String computedId,
+      String suppliedId,
+      String precinct,
+      String batchId,
+      boolean usesLastAllowedRanking,
+      CandidateRankingsList candidateRankings) {
+    this(null, null, batchId, suppliedId, computedId, precinct, null,
+        usesLastAllowedRanking, candidateRankings);
+  }
+
+  // The contest, tabulator, batch, precinct and precinct portion IDs and the ranked candidate
+  // names repeat across many ballots, but readers create a new String for every one they parse.
+  // Replace each with a single copy shared by all of records, using a dictionary for this list
+  // only rather than the JVM-wide String.intern table.
+  static void shareRepeatedStrings(List<CastVoteRecord> records) {
+    Map<String, String> dictionary = new HashMap<>();
+    for (CastVoteRecord record : records) {
+      record.contestId = shared(record.contestId, dictionary);
+      record.tabulatorId = shared(record.tabulatorId, dictionary);
+      record.batchId = shared(record.batchId, dictionary);
+      record.precinct = shared(record.precinct, dictionary);
+      record.precinctPortion = shared(record.precinctPortion, dictionary);
+      record.candidateRankings.shareCandidateNames(dictionary);
+    }
+  }
+
+  // the copy of value in dictionary, which is value itself the first time it's seen
+  static String shared(String value, Map<String, String> dictionary) {
+    if (value == null) {
+      return null;
+    }
+    String sharedValue = dictionary.putIfAbsent(value, value);
+    return sharedValue != null ? sharedValue : value;
+  }
+
   String getContestId() {
     return contestId;
   }
@@ -137,13 +174,26 @@ class CastVoteRecord {
     return suppliedId;
   }
 
-  // logs the outcome for this CVR for this round for auditing purposes
-  void logRoundOutcome(
+  String getComputedId() {
+    return computedId;
+  }
+
+  // formats the outcome for this CVR for this round as a line for the audit log, given the outcome
+  // as formatted by formatOutcome
+  String formatRoundOutcome(int round, String outcome) {
+    return formatRoundOutcome(round, getId(), outcome);
+  }
+
+  static String formatRoundOutcome(int round, String cvrId, String outcome) {
+    return "[Round] " + round + " [CVR] " + cvrId + outcome;
+  }
+
+  // formats the part of an audit log line describing a round's outcome, which doesn't depend on
+  // which CVR it applies to
+  static String formatOutcome(
       int round, VoteOutcomeType outcomeType, String detail, BigDecimal fractionalTransferValue) {
 
     StringBuilder logStringBuilder = new StringBuilder();
-    logStringBuilder.append("[Round] ").append(round).append(" [CVR] ");
-    logStringBuilder.append(getId());
     if (outcomeType == VoteOutcomeType.IGNORED) {
       logStringBuilder.append(" [was ignored] ");
     } else if (outcomeType == VoteOutcomeType.EXHAUSTED) {
@@ -162,71 +212,7 @@ class CastVoteRecord {
       logStringBuilder.append(" [value] ").append(fractionalTransferValue);
     }
 
-    Logger.auditable(logStringBuilder.toString());
-  }
-
-  Map<Integer, List<Pair<String, BigDecimal>>> getCdfSnapshotData() {
-    return cdfSnapshotData;
-  }
-
-  // store info needed to generate the CVR JSON snapshots in Common Data Format
-  void logCdfSnapshotData(int round) {
-    List<Pair<String, BigDecimal>> data = new LinkedList<>();
-    for (Entry<String, BigDecimal> entry : winnerToFractionalValue.entrySet()) {
-      data.add(new Pair<>(entry.getKey(), entry.getValue()));
-    }
-    if (currentRecipientOfVote != null) {
-      data.add(new Pair<>(currentRecipientOfVote, getFractionalTransferValue()));
-    }
-
-    cdfSnapshotData.put(round, data);
-  }
-
-  void exhaustBy(StatusForRound status) {
-    this.currentRoundStatus = status;
-  }
-
-  boolean isExhausted() {
-    return currentRoundStatus != StatusForRound.ACTIVE;
-  }
-
-  StatusForRound getBallotStatus() {
-    return currentRoundStatus;
-  }
-
-  // fractional transfer value is one by default but can be less if this
-  // CVR already helped elect winner(s) (multi-winner contest only)
-  BigDecimal getFractionalTransferValue() {
-    BigDecimal remainingValue = BigDecimal.ONE;
-    for (BigDecimal allocatedValue : winnerToFractionalValue.values()) {
-      remainingValue = remainingValue.subtract(allocatedValue);
-    }
-    return remainingValue;
-  }
-
-  // calculate and store new vote value for current (newly elected) recipient
-  // param: surplusFraction fraction of this vote's current value which is now surplus and will
-  // be transferred
-  void recordCurrentRecipientAsWinner(BigDecimal surplusFraction, ContestConfig config) {
-    // Calculate transfer amount rounding DOWN to ensure we leave more of the vote with
-    // the winner. This avoids transferring more than intended which could leave the winner with
-    // less than the winning threshold.
-    BigDecimal transferAmount = config.multiply(getFractionalTransferValue(), surplusFraction);
-    // calculate newAllocatedValue counted to the current winner and store it
-    BigDecimal newAllocatedValue = getFractionalTransferValue().subtract(transferAmount);
-    winnerToFractionalValue.put(getCurrentRecipientOfVote(), newAllocatedValue);
-  }
-
-  String getCurrentRecipientOfVote() {
-    return currentRecipientOfVote;
-  }
-
-  void setCurrentRecipientOfVote(String currentRecipientOfVote) {
-    this.currentRecipientOfVote = currentRecipientOfVote;
-  }
-
-  Map<String, BigDecimal> getWinnerToFractionalValue() {
-    return winnerToFractionalValue;
+    return logStringBuilder.toString();
   }
 
   // StatusForRound represents the ballot's status on a given round.
@@ -0,0 +1,179 @@
+/*
+ * RCTab
+ * Copyright (c) 2017-2023 Bright Spots Developers.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+/*
+ * Purpose: Record, for each ballot in a tabulation, how its vote was allocated in each round, as
+ * needed to write the CVR snapshots of the Common Data Format JSON output.
+ * Design: A ballot's allocation only changes in the rounds where it is transferred or its
+ * recipient is elected, so each ballot keeps a list of snapshots recorded only in the rounds where
+ * its allocation changed; a round without a snapshot has the allocation of the most recent one
+ * before it. Snapshots for every ballot are packed into two shared arrays: candidates are stored
+ * by their CandidateRegistry ID and vote values as an unscaled long and a scale, so a snapshot
+ * costs a few array slots rather than a list of objects. A snapshot at position s in
+ * snapshotInts is laid out as:
+ *   [s] round, [s + 1] position of the ballot's next snapshot (or NONE),
+ *   [s + 2] number of allocations, [s + 3] position of its values in unscaledValues,
+ *   followed by a (candidate ID, scale) pair for each allocation.
+ * The rare value which doesn't fit in a long is kept in overflowValues, with OVERFLOW as its scale
+ * and its position in overflowValues as its unscaled value.
+ * Conditions: During tabulation, when CDF JSON output is enabled.
+ * Version history: see https://github.com/BrightSpots/rcv.
+ */
+
+package network.brightspots.rcv;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+final class CdfSnapshotHistory {
+
+  // marks the end of a ballot's list of snapshots, or a ballot without any
+  static final int NONE = -1;
+
+  private static final int HEADER_SIZE = 4;
+  private static final int OVERFLOW = -1;
+
+  private final CandidateRegistry candidateRegistry;
+  // position of each ballot's first and most recent snapshots
+  private final int[] firstSnapshots;
+  private final int[] lastSnapshots;
+  private int[] snapshotInts = new int[1024];
+  private int numSnapshotInts = 0;
+  private long[] unscaledValues = new long[256];
+  private int numUnscaledValues = 0;
+  private final List<BigDecimal> overflowValues = new ArrayList<>();
+
+  CdfSnapshotHistory(int numCastVoteRecords, CandidateRegistry candidateRegistry) {
+    this.candidateRegistry = candidateRegistry;
+    firstSnapshots = new int[numCastVoteRecords];
+    lastSnapshots = new int[numCastVoteRecords];
+    Arrays.fill(firstSnapshots, NONE);
+    Arrays.fill(lastSnapshots, NONE);
+  }
+
+  // Records how the vote of the ballot at cvrIndex is allocated in the given round, which is
+  // however the vote of the ballot at stateIndex in ballotStates is currently allocated: to each
+  // winner it helped elect and to its current recipient. That may be a different ballot which was
+  // tabulated identically. Nothing is added if the allocation is the same as in the ballot's
+  // previous snapshot. Rounds must be recorded in order, and not concurrently.
+  void record(int cvrIndex, int round, BallotStates ballotStates, int stateIndex) {
+    Map<String, VoteValue> winnerToFractionalValue = ballotStates.getWinnerAllocations(stateIndex);
+    String currentRecipient = ballotStates.getRecipient(stateIndex);
+    int numAllocations = winnerToFractionalValue.size() + (currentRecipient != null ? 1 : 0);
+
+    // write the snapshot at the end of the arrays, then drop it again if it's unchanged
+    int snapshot = numSnapshotInts;
+    int numOverflowValues = overflowValues.size();
+    ensureCapacity(numAllocations);
+    snapshotInts[snapshot] = round;
+    snapshotInts[snapshot + 1] = NONE;
+    snapshotInts[snapshot + 2] = numAllocations;
+    snapshotInts[snapshot + 3] = numUnscaledValues;
+    numSnapshotInts += HEADER_SIZE;
+    for (Map.Entry<String, VoteValue> entry : winnerToFractionalValue.entrySet()) {
+      addAllocation(entry.getKey(), entry.getValue());
+    }
+    if (currentRecipient != null) {
+      addAllocation(currentRecipient, ballotStates.getRemainingValue(stateIndex));
+    }
+
+    int previous = lastSnapshots[cvrIndex];
+    if (previous != NONE && hasSameAllocations(previous, snapshot)) {
+      numSnapshotInts = snapshot;
+      numUnscaledValues = snapshotInts[snapshot + 3];
+      overflowValues.subList(numOverflowValues, overflowValues.size()).clear();
+    } else {
+      if (previous == NONE) {
+        firstSnapshots[cvrIndex] = snapshot;
+      } else {
+        snapshotInts[previous + 1] = snapshot;
+      }
+      lastSnapshots[cvrIndex] = snapshot;
+    }
+  }
+
+  int getFirstSnapshot(int cvrIndex) {
+    return firstSnapshots[cvrIndex];
+  }
+
+  int getNextSnapshot(int snapshot) {
+    return snapshotInts[snapshot + 1];
+  }
+
+  int getRound(int snapshot) {
+    return snapshotInts[snapshot];
+  }
+
+  int getNumAllocations(int snapshot) {
+    return snapshotInts[snapshot + 2];
+  }
+
+  String getAllocationCandidate(int snapshot, int allocation) {
+    return candidateRegistry.getName(snapshotInts[snapshot + HEADER_SIZE + 2 * allocation]);
+  }
+
+  BigDecimal getAllocationValue(int snapshot, int allocation) {
+    int scale = snapshotInts[snapshot + HEADER_SIZE + 2 * allocation + 1];
+    long unscaledValue = unscaledValues[snapshotInts[snapshot + 3] + allocation];
+    return scale == OVERFLOW
+        ? overflowValues.get((int) unscaledValue)
+        : BigDecimal.valueOf(unscaledValue, scale);
+  }
+
+  private void addAllocation(String candidate, VoteValue value) {
+    snapshotInts[numSnapshotInts++] = candidateRegistry.getIdForNameOrAlias(candidate);
+    if (value.isFixedPoint()) {
+      snapshotInts[numSnapshotInts++] = value.scale();
+      unscaledValues[numUnscaledValues++] = value.unscaledValue();
+    } else {
+      snapshotInts[numSnapshotInts++] = OVERFLOW;
+      unscaledValues[numUnscaledValues++] = overflowValues.size();
+      overflowValues.add(value.toBigDecimal());
+    }
+  }
+
+  private boolean hasSameAllocations(int first, int second) {
+    int numAllocations = getNumAllocations(first);
+    if (numAllocations != getNumAllocations(second)) {
+      return false;
+    }
+    for (int allocation = 0; allocation < numAllocations; allocation++) {
+      int firstPosition = first + HEADER_SIZE + 2 * allocation;
+      int secondPosition = second + HEADER_SIZE + 2 * allocation;
+      int scale = snapshotInts[firstPosition + 1];
+      if (snapshotInts[firstPosition] != snapshotInts[secondPosition]
+          || scale != snapshotInts[secondPosition + 1]) {
+        return false;
+      }
+      long firstValue = unscaledValues[snapshotInts[first + 3] + allocation];
+      long secondValue = unscaledValues[snapshotInts[second + 3] + allocation];
+      if (scale == OVERFLOW
+          ? !overflowValues.get((int) firstValue).equals(overflowValues.get((int) secondValue))
+          : firstValue != secondValue) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void ensureCapacity(int numAllocations) {
+    int intsNeeded = numSnapshotInts + HEADER_SIZE + 2 * numAllocations;
+    if (intsNeeded > snapshotInts.length) {
+      snapshotInts = Arrays.copyOf(snapshotInts, Math.max(intsNeeded, snapshotInts.length * 2));
+    }
+    int valuesNeeded = numUnscaledValues + numAllocations;
+    if (valuesNeeded > unscaledValues.length) {
+      unscaledValues =
+          Arrays.copyOf(unscaledValues, Math.max(valuesNeeded, unscaledValues.length * 2));
+    }
+  }
+}
@@ -10,7 +10,10 @@
 /*
  * Purpose: Parses Clear Ballot CVR files into CastVoteRecords.
  * Design: Clear Ballot data is stored in .csv files one row per csv.  This class uses a buffered
- * (streaming) file reader which should be able to parse files of any size.
+ * (streaming) file reader which should be able to parse files of any size.  Each row is split in
+ * a single pass, and rows are parsed in parallel batches.  When other contests are read from the
+ * same file (see SharedCvrExports), it's scanned once for all of them instead, keeping just the
+ * cells of each row which parsing it for those contests looks at.
  * Conditions: When reading Clear Ballot CVR data.
  * Version history: see https://github.com/BrightSpots/rcv.
  */
@@ -23,19 +26,30 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
 import javafx.util.Pair;
 import network.brightspots.rcv.CastVoteRecord.CvrParseException;
 
 class ClearBallotCvrReader extends BaseCvrReader {
-  private static final String CSV_COMMA_SPLITTER = ",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)";
+  // rows are parsed in batches of this many, in parallel when there are several
+  private static final int DEFAULT_ROWS_PER_BATCH = 2048;
+  private int rowsPerBatch = DEFAULT_ROWS_PER_BATCH;
 
   ClearBallotCvrReader(ContestConfig config, RawContestConfig.CvrSource source) {
     super(config, source);
   }
 
+  // Visible for testing
+  void setRowsPerBatch(int rowsPerBatch) {
+    this.rowsPerBatch = rowsPerBatch;
+  }
+
   @Override
   public String readerName() {
     return "Clear Ballot";
@@ -46,83 +60,455 @@ class ClearBallotCvrReader extends BaseCvrReader {
   @Override
   void readCastVoteRecords(List<CastVoteRecord> castVoteRecords)
       throws CvrParseException, IOException {
-    BufferedReader csvReader;
     try {
-      csvReader = new BufferedReader(new FileReader(this.cvrPath, StandardCharsets.UTF_8));
-      // each "choice column" in the input Csv corresponds to a unique ranking: candidate+rank pair
-      // we parse these rankings from the header row into a map for lookup during CVR parsing
-      String firstRow = csvReader.readLine();
-      if (firstRow == null) {
-        Logger.severe("No header row found in cast vote record file: %s", this.cvrPath);
-        throw new CvrParseException();
+      ScannedFile scannedFile =
+          sharedExports != null ? sharedExports.takeScan(source, this::scanFile) : null;
+      if (scannedFile != null) {
+        // the file was already scanned; build the records from its rows as they were read
+        RowParser rowParser = new RowParser(readChoiceColumns(scannedFile.headerRow));
+        for (ScannedRow scannedRow : scannedFile.rows) {
+          castVoteRecords.add(rowParser.parse(scannedRow));
+          // provide some user feedback on the Cvr count
+          this.logCvrRecordParsed();
+        }
+        this.logCvrParsingComplete();
+        return;
       }
-      String[] headerData = firstRow.split(CSV_COMMA_SPLITTER);
-      if (headerData.length < CvrColumnField.ChoicesBegin.ordinal()) {
-        Logger.severe("No choice columns found in cast vote record file: %s", this.cvrPath);
+
+      try (BufferedReader csvReader =
+          new BufferedReader(new FileReader(this.cvrPath, StandardCharsets.UTF_8))) {
+        ChoiceColumns choiceColumns = readChoiceColumns(csvReader.readLine());
+        // read all remaining rows and create CastVoteRecords for each one
+        parseRowsInParallel(ForkJoinPool.commonPool(), csvReader, choiceColumns, castVoteRecords);
+        this.logCvrParsingComplete();
+      }
+    } catch (FileNotFoundException exception) {
+      Logger.severe("Cast vote record file not found!\n%s", exception);
+    }
+  }
+
+  // each "choice column" in the input Csv corresponds to a unique ranking: candidate+rank pair
+  // we parse these rankings from the header row into a map for lookup during CVR parsing
+  private ChoiceColumns readChoiceColumns(String firstRow) throws CvrParseException {
+    if (firstRow == null) {
+      Logger.severe("No header row found in cast vote record file: %s", this.cvrPath);
+      throw new CvrParseException();
+    }
+    RowTokenizer headerTokenizer = new RowTokenizer();
+    headerTokenizer.tokenize(firstRow);
+    if (headerTokenizer.numCells() < CvrColumnField.ChoicesBegin.ordinal()) {
+      Logger.severe("No choice columns found in cast vote record file: %s", this.cvrPath);
+      throw new CvrParseException();
+    }
+    Map<Integer, Pair<Integer, String>> columnIndexToRanking = new HashMap<>();
+    for (int columnIndex = CvrColumnField.ChoicesBegin.ordinal();
+        columnIndex < headerTokenizer.numCells();
+        columnIndex++) {
+      String choiceColumnHeader = headerTokenizer.cell(columnIndex);
+      String[] choiceFields = choiceColumnHeader.split(":");
+      // validate field count
+      if (choiceFields.length != RcvChoiceHeaderField.FIELD_COUNT.ordinal()) {
+        Logger.severe(
+            "Wrong number of choice header fields in cast vote record file: %s", this.cvrPath);
         throw new CvrParseException();
       }
-      Map<Integer, Pair<Integer, String>> columnIndexToRanking = new HashMap<>();
-      for (int columnIndex = CvrColumnField.ChoicesBegin.ordinal();
-          columnIndex < headerData.length;
-          columnIndex++) {
-        String choiceColumnHeader = headerData[columnIndex];
-        String[] choiceFields = choiceColumnHeader.split(":");
-        // validate field count
-        if (choiceFields.length != RcvChoiceHeaderField.FIELD_COUNT.ordinal()) {
-          Logger.severe(
-              "Wrong number of choice header fields in cast vote record file: %s", this.cvrPath);
-          throw new CvrParseException();
+      // filter by contest
+      String contestName = choiceFields[RcvChoiceHeaderField.CONTEST_NAME.ordinal()];
+      if (!contestName.equals(source.getContestId())) {
+        continue;
+      }
+      // validate and store the ranking associated with this choice column
+      String choiceName = choiceFields[RcvChoiceHeaderField.CHOICE_NAME.ordinal()];
+      if (choiceName.equals(source.getUndeclaredWriteInLabel())) {
+        choiceName = Tabulator.UNDECLARED_WRITE_IN_OUTPUT_LABEL;
+      }
+      Integer rank = Integer.parseInt(choiceFields[RcvChoiceHeaderField.RANK.ordinal()]);
+      if (this.config.isRankingAllowed(rank)) {
+        columnIndexToRanking.put(columnIndex, new Pair<>(rank, choiceName));
+      }
+    }
+    return new ChoiceColumns(columnIndexToRanking);
+  }
+
+  // Scan the file once for all of contestIds, for SharedCvrExports: split every row, keeping the
+  // identifying cells and which of those contests' choice columns are marked. Problems are kept
+  // rather than reported, so that each contest's read reports them as its own parse would. Every
+  // contest's read uses the same scan.
+  private Map<String, ScannedFile> scanFile(Set<String> contestIds) throws IOException {
+    ScannedFile scannedFile = new ScannedFile();
+    try (BufferedReader csvReader =
+        new BufferedReader(new FileReader(this.cvrPath, StandardCharsets.UTF_8))) {
+      scannedFile.headerRow = csvReader.readLine();
+      if (scannedFile.headerRow != null) {
+        int[] contestColumns = findContestColumns(scannedFile.headerRow, contestIds);
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        try (OrderedParallelTasks<List<ScannedRow>, IOException> scannedBatches =
+            new OrderedParallelTasks<>(
+                pool,
+                pool.getParallelism() * OrderedParallelTasks.DEFAULT_TASKS_IN_FLIGHT_PER_THREAD,
+                rowBatches(csvReader, rows -> scanBatch(rows, contestColumns)))) {
+          while (scannedBatches.hasNext()) {
+            scannedFile.rows.addAll(scannedBatches.next());
+          }
+        } catch (InterruptedException exception) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Scanning cast vote records was interrupted", exception);
+        }
+      }
+    }
+    Map<String, ScannedFile> scannedFilesByContest = new HashMap<>();
+    for (String contestId : contestIds) {
+      scannedFilesByContest.put(contestId, scannedFile);
+    }
+    return scannedFilesByContest;
+  }
+
+  // the choice columns whose header is for one of contestIds; malformed headers are left for
+  // readChoiceColumns to report
+  private static int[] findContestColumns(String headerRow, Set<String> contestIds) {
+    RowTokenizer headerTokenizer = new RowTokenizer();
+    headerTokenizer.tokenize(headerRow);
+    List<Integer> contestColumns = new ArrayList<>();
+    for (int columnIndex = CvrColumnField.ChoicesBegin.ordinal();
+        columnIndex < headerTokenizer.numCells();
+        columnIndex++) {
+      String[] choiceFields = headerTokenizer.cell(columnIndex).split(":");
+      if (choiceFields.length == RcvChoiceHeaderField.FIELD_COUNT.ordinal()
+          && contestIds.contains(choiceFields[RcvChoiceHeaderField.CONTEST_NAME.ordinal()])) {
+        contestColumns.add(columnIndex);
+      }
+    }
+    return contestColumns.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  private static List<ScannedRow> scanBatch(List<String> rows, int[] contestColumns) {
+    List<ScannedRow> scannedRows = new ArrayList<>(rows.size());
+    RowTokenizer tokenizer = new RowTokenizer();
+    for (String row : rows) {
+      tokenizer.tokenize(row);
+      scannedRows.add(new ScannedRow(tokenizer, contestColumns));
+    }
+    return scannedRows;
+  }
+
+  // Rows are read here in batches, parsed on the common ForkJoinPool, and added in file order, so
+  // the records and log output are the same as parsing them one at a time. This is also how a
+  // file with a single batch is parsed, and when the pool has a single worker.
+  private void parseRowsInParallel(
+      ForkJoinPool pool,
+      BufferedReader csvReader,
+      ChoiceColumns choiceColumns,
+      List<CastVoteRecord> castVoteRecords)
+      throws IOException, CvrParseException {
+    try (OrderedParallelTasks<ParsedBatch, IOException> parsedBatches =
+        new OrderedParallelTasks<>(
+            pool,
+            pool.getParallelism() * OrderedParallelTasks.DEFAULT_TASKS_IN_FLIGHT_PER_THREAD,
+            rowBatches(csvReader, rows -> parseBatch(rows, choiceColumns)))) {
+      while (parsedBatches.hasNext()) {
+        ParsedBatch parsedBatch = parsedBatches.next();
+        for (CastVoteRecord castVoteRecord : parsedBatch.castVoteRecords) {
+          castVoteRecords.add(castVoteRecord);
+          // provide some user feedback on the Cvr count
+          this.logCvrRecordParsed();
+        }
+        if (parsedBatch.failure != null) {
+          throw parsedBatch.failure;
+        }
+      }
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+      Logger.severe("Parsing cast vote records was interrupted!");
+      throw new CvrParseException();
+    }
+  }
+
+  // a task for each batch of the remaining rows, which applies batchTask to them
+  private <T> OrderedParallelTasks.TaskSource<T, IOException> rowBatches(
+      BufferedReader csvReader, Function<List<String>, T> batchTask) {
+    return () -> {
+      List<String> rows = new ArrayList<>(rowsPerBatch);
+      for (String row = csvReader.readLine(); row != null; row = csvReader.readLine()) {
+        rows.add(row);
+        if (rows.size() == rowsPerBatch) {
+          break;
+        }
+      }
+      return rows.isEmpty() ? null : () -> batchTask.apply(rows);
+    };
+  }
+
+  // parse rows until one fails; the failure is kept to be thrown once the rows before it are added
+  private ParsedBatch parseBatch(List<String> rows, ChoiceColumns choiceColumns) {
+    ParsedBatch parsedBatch = new ParsedBatch(rows.size());
+    RowParser rowParser = new RowParser(choiceColumns);
+    try {
+      for (String row : rows) {
+        parsedBatch.castVoteRecords.add(rowParser.parse(row));
+      }
+    } catch (RuntimeException exception) {
+      parsedBatch.failure = exception;
+    }
+    return parsedBatch;
+  }
+
+  // The choice columns for the contest being read, as parallel arrays. They're kept in the
+  // iteration order of the column-to-ranking map, which is the order each row's rankings are
+  // recorded in; that order decides which ranking usesLastAllowedRanking looks at.
+  private static final class ChoiceColumns {
+
+    private final int[] columnIndexes;
+    private final int[] rankings;
+    private final String[] choiceNames;
+
+    ChoiceColumns(Map<Integer, Pair<Integer, String>> columnIndexToRanking) {
+      columnIndexes = new int[columnIndexToRanking.size()];
+      rankings = new int[columnIndexToRanking.size()];
+      choiceNames = new String[columnIndexToRanking.size()];
+      int i = 0;
+      for (var entry : columnIndexToRanking.entrySet()) {
+        columnIndexes[i] = entry.getKey();
+        rankings[i] = entry.getValue().getKey();
+        choiceNames[i] = entry.getValue().getValue();
+        i++;
+      }
+    }
+  }
+
+  // the cells of a row which RowParser looks at
+  private interface Row {
+
+    // throws ArrayIndexOutOfBoundsException for a missing cell, as indexing a split row would
+    String cell(int index);
+
+    // equivalent to Integer.parseInt(cell(index)) == 1
+    boolean isOne(int index);
+  }
+
+  // Splits a row into cells in one pass, recording where each cell is rather than copying it.
+  // Cells are split exactly as String.split would with the regex ",(?=(?:[^"]*"[^"]*")*[^"]*$)":
+  // at each comma followed by an even number of quotes, keeping any quotes in the cells, and
+  // dropping trailing empty cells.
+  static final class RowTokenizer implements Row {
+
+    private String row;
+    // cell i is row.substring(cellStarts[i], cellEnds[i])
+    private int[] cellStarts = new int[64];
+    private int[] cellEnds = new int[64];
+    private int numCells;
+
+    void tokenize(String row) {
+      this.row = row;
+      int numQuotes = 0;
+      for (int i = row.indexOf('"'); i >= 0; i = row.indexOf('"', i + 1)) {
+        numQuotes++;
+      }
+
+      int numSplitCells = 0;
+      int nonEmptyCells = 0;
+      int cellStart = 0;
+      int quotesSeen = 0;
+      for (int i = 0; i < row.length(); i++) {
+        char c = row.charAt(i);
+        if (c == '"') {
+          quotesSeen++;
+        } else if (c == ',' && (numQuotes - quotesSeen) % 2 == 0) {
+          nonEmptyCells = addCell(numSplitCells++, cellStart, i, nonEmptyCells);
+          cellStart = i + 1;
         }
-        // filter by contest
-        String contestName = choiceFields[RcvChoiceHeaderField.CONTEST_NAME.ordinal()];
-        if (!contestName.equals(source.getContestId())) {
-          continue;
+      }
+      if (numSplitCells == 0) {
+        // String.split returns the whole row as the only cell when nothing matches, even if empty
+        addCell(0, 0, row.length(), 0);
+        numCells = 1;
+      } else {
+        numCells = addCell(numSplitCells, cellStart, row.length(), nonEmptyCells);
+      }
+    }
+
+    // records the cell and returns the number of cells up to the last non-empty one
+    private int addCell(int index, int start, int end, int nonEmptyCells) {
+      if (index == cellStarts.length) {
+        cellStarts = Arrays.copyOf(cellStarts, index * 2);
+        cellEnds = Arrays.copyOf(cellEnds, index * 2);
+      }
+      cellStarts[index] = start;
+      cellEnds[index] = end;
+      return end > start ? index + 1 : nonEmptyCells;
+    }
+
+    // the number of cells, as in the array String.split would return
+    int numCells() {
+      return numCells;
+    }
+
+    // throws ArrayIndexOutOfBoundsException for a missing cell, as indexing a split row would
+    private void checkCellExists(int index) {
+      if (index >= numCells) {
+        throw new ArrayIndexOutOfBoundsException(
+            "Index %d out of bounds for length %d".formatted(index, numCells));
+      }
+    }
+
+    @Override
+    public String cell(int index) {
+      checkCellExists(index);
+      return row.substring(cellStarts[index], cellEnds[index]);
+    }
+
+    // without creating the substring in the usual case of a single digit
+    @Override
+    public boolean isOne(int index) {
+      checkCellExists(index);
+      int start = cellStarts[index];
+      if (cellEnds[index] - start == 1) {
+        char c = row.charAt(start);
+        if (c >= '0' && c <= '9') {
+          return c == '1';
         }
-        // validate and store the ranking associated with this choice column
-        String choiceName = choiceFields[RcvChoiceHeaderField.CHOICE_NAME.ordinal()];
-        if (choiceName.equals(source.getUndeclaredWriteInLabel())) {
-          choiceName = Tabulator.UNDECLARED_WRITE_IN_OUTPUT_LABEL;
+      }
+      return Integer.parseInt(cell(index)) == 1;
+    }
+  }
+
+  // Builds a CastVoteRecord from each row. Only the contest's choice columns and the three
+  // identifying columns are examined, and rankings go straight into arrays for the record's
+  // CandidateRankingsList. One is used for every row parsed on a thread.
+  private final class RowParser {
+
+    private final ChoiceColumns choiceColumns;
+    private final RowTokenizer tokenizer = new RowTokenizer();
+    private final int[] rankings;
+    private final String[] rankedChoiceNames;
+
+    RowParser(ChoiceColumns choiceColumns) {
+      this.choiceColumns = choiceColumns;
+      this.rankings = new int[choiceColumns.columnIndexes.length];
+      this.rankedChoiceNames = new String[choiceColumns.columnIndexes.length];
+    }
+
+    CastVoteRecord parse(String row) {
+      tokenizer.tokenize(row);
+      return parse(tokenizer);
+    }
+
+    CastVoteRecord parse(Row row) {
+      // parse rankings
+      int numRankings = 0;
+      for (int i = 0; i < choiceColumns.columnIndexes.length; i++) {
+        if (row.isOne(choiceColumns.columnIndexes[i])) {
+          // user marked this column
+          rankings[numRankings] = choiceColumns.rankings[i];
+          rankedChoiceNames[numRankings] = choiceColumns.choiceNames[i];
+          numRankings++;
         }
-        Integer rank = Integer.parseInt(choiceFields[RcvChoiceHeaderField.RANK.ordinal()]);
-        if (this.config.isRankingAllowed(rank)) {
-          columnIndexToRanking.put(columnIndex, new Pair<>(rank, choiceName));
+      }
+      // create the cast vote record
+      return new CastVoteRecord(
+          source.getContestId(),
+          row.cell(CvrColumnField.ScanComputerName.ordinal()),
+          null,
+          row.cell(CvrColumnField.BallotID.ordinal()),
+          null,
+          row.cell(CvrColumnField.PrecinctID.ordinal()),
+          null,
+          numRankings > 0 && usesLastAllowedRanking(rankings[numRankings - 1], null),
+          new CandidateRankingsList(rankings, rankedChoiceNames, numRankings));
+    }
+  }
+
+  // a file as read by a shared scan: its header row, and what was kept of each other row
+  private static final class ScannedFile {
+
+    private final List<ScannedRow> rows = new ArrayList<>();
+    private String headerRow;
+  }
+
+  // What's kept of a row by a shared scan: its identifying cells, and which of the scanned
+  // contests' choice columns are marked. Reading a cell gives the same result, or throws the same
+  // exception, as reading it from the tokenized row would.
+  private static final class ScannedRow implements Row {
+
+    private static final int[] IDENTIFYING_COLUMNS = {
+      CvrColumnField.BallotID.ordinal(),
+      CvrColumnField.PrecinctID.ordinal(),
+      CvrColumnField.ScanComputerName.ordinal()
+    };
+
+    private final int numCells;
+    // the cells of IDENTIFYING_COLUMNS, or null for those the row doesn't have
+    private final String[] identifyingCells = new String[IDENTIFYING_COLUMNS.length];
+    // the scanned choice columns which are marked, in ascending order
+    private final int[] markedColumns;
+    // the text of scanned choice columns which aren't numbers; null if there are none
+    private Map<Integer, String> unparsableCells = null;
+
+    ScannedRow(RowTokenizer tokenizer, int[] contestColumns) {
+      numCells = tokenizer.numCells();
+      for (int i = 0; i < IDENTIFYING_COLUMNS.length; i++) {
+        if (IDENTIFYING_COLUMNS[i] < numCells) {
+          identifyingCells[i] = tokenizer.cell(IDENTIFYING_COLUMNS[i]);
         }
       }
-      // read all remaining rows and create CastVoteRecords for each one
-      while (true) {
-        String row = csvReader.readLine();
-        if (row == null) {
+      int[] marked = new int[contestColumns.length];
+      int numMarked = 0;
+      for (int columnIndex : contestColumns) {
+        if (columnIndex >= numCells) {
           break;
         }
-        // parse rankings
-        String[] cvrData = row.split(CSV_COMMA_SPLITTER);
-        ArrayList<Pair<Integer, String>> rankings = new ArrayList<>();
-        for (var entry : columnIndexToRanking.entrySet()) {
-          if (Integer.parseInt(cvrData[entry.getKey()]) == 1) {
-            // user marked this column
-            rankings.add(entry.getValue());
+        try {
+          if (tokenizer.isOne(columnIndex)) {
+            marked[numMarked++] = columnIndex;
           }
+        } catch (NumberFormatException exception) {
+          if (unparsableCells == null) {
+            unparsableCells = new HashMap<>();
+          }
+          unparsableCells.put(columnIndex, tokenizer.cell(columnIndex));
         }
-        // create the cast vote record
-        CastVoteRecord castVoteRecord =
-            new CastVoteRecord(
-                source.getContestId(),
-                cvrData[CvrColumnField.ScanComputerName.ordinal()],
-                null,
-                cvrData[CvrColumnField.BallotID.ordinal()],
-                cvrData[CvrColumnField.PrecinctID.ordinal()],
-                null,
-                usesLastAllowedRanking(rankings, null),
-                rankings);
-
-        castVoteRecords.add(castVoteRecord);
-        // provide some user feedback on the Cvr count
-        this.logCvrRecordParsed();
-      }
-      csvReader.close();
-      this.logCvrParsingComplete();
-    } catch (FileNotFoundException exception) {
-      Logger.severe("Cast vote record file not found!\n%s", exception);
+      }
+      markedColumns = Arrays.copyOf(marked, numMarked);
+    }
+
+    private void checkCellExists(int index) {
+      if (index >= numCells) {
+        throw new ArrayIndexOutOfBoundsException(
+            "Index %d out of bounds for length %d".formatted(index, numCells));
+      }
+    }
+
+    // only the identifying cells are kept
+    @Override
+    public String cell(int index) {
+      checkCellExists(index);
+      for (int i = 0; i < IDENTIFYING_COLUMNS.length; i++) {
+        if (IDENTIFYING_COLUMNS[i] == index) {
+          return identifyingCells[i];
+        }
+      }
+      throw new IllegalArgumentException("Column %d wasn't kept by the scan".formatted(index));
+    }
+
+    // only the scanned contests' choice columns are kept
+    @Override
+    public boolean isOne(int index) {
+      checkCellExists(index);
+      if (unparsableCells != null && unparsableCells.containsKey(index)) {
+        // throws the NumberFormatException the tokenized row would have
+        return Integer.parseInt(unparsableCells.get(index)) == 1;
+      }
+      return Arrays.binarySearch(markedColumns, index) >= 0;
+    }
+  }
+
+  // the records parsed from one batch of rows, along with any failure which stopped it early
+  private static final class ParsedBatch {
+
+    private final List<CastVoteRecord> castVoteRecords;
+    private RuntimeException failure = null;
+
+    ParsedBatch(int numRows) {
+      castVoteRecords = new ArrayList<>(numRows);
     }
   }
 
@@ -12,16 +12,23 @@
  * contest metadata (notably candidate names).  CDF uses internal ids to map candidate names (i.e.
  * contest "options") and geographical units to CVR options and precinct names respectively.
  * Building this mapping happens before records can be parsed.
- * Design: This class uses Jackson XmlMapper to read each CDF file into memory at once.  This
- * simplifies parsing code a bit, but also means that (for now) larger CDF files will result in
- * larger memory consumption during parsing.
+ * Design: XML files are streamed with StAX, and Jackson XmlMapper binds one top-level element at a
+ * time, so memory use during parsing depends on the contest metadata rather than the number of
+ * CVRs.  JSON files are streamed in the same way with the Jackson streaming API, binding one CVR
+ * at a time.  When other contests are read from the same report (see SharedCvrExports), it's
+ * scanned once for all of them instead, and its CVRs are held, trimmed to those contests, until
+ * each contest has been read.
  * Conditions: Used when reading and tabulating CDF election data.
  * Version history: see https://github.com/BrightSpots/rcv.
  */
 
 package network.brightspots.rcv;
 
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.xml.XmlMapper;
 import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlElementWrapper;
 import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlProperty;
@@ -29,10 +36,18 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import javafx.util.Pair;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import network.brightspots.rcv.CastVoteRecord.CvrParseException;
 
 @SuppressWarnings({"rawtypes", "unused", "RedundantSuppression"})
@@ -177,157 +192,362 @@ class CommonDataFormatReader extends BaseCvrReader {
     }
   }
 
-  void parseXml(List<CastVoteRecord> castVoteRecords) throws CvrParseException, IOException {
-    // load XML
+  // The CDF XML report is read in two streaming passes, so that a report of any size can be read
+  // without holding it all in memory. The first pass reads everything except the CVRs: the
+  // metadata needed to interpret CVRs (Elections, GpUnits, etc.) usually comes after them in the
+  // file. The second pass then reads the CVRs one at a time, converting each to a CastVoteRecord
+  // before reading the next.
+  void parseXml(List<CastVoteRecord> castVoteRecords)
+      throws CvrParseException, IOException, XMLStreamException {
     XmlMapper xmlMapper = new XmlMapper();
     xmlMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-    try (FileInputStream inputStream = new FileInputStream(cvrPath)) {
-      CastVoteRecordReport cvrReport = xmlMapper.readValue(inputStream, CastVoteRecordReport.class);
-      inputStream.close();
 
-      checkForEmptyFields(cvrReport);
+    XmlScan scan =
+        sharedExports != null
+            ? sharedExports.takeScan(source, contestIds -> scanXml(xmlMapper, contestIds))
+            : null;
+    CastVoteRecordReport cvrReport =
+        scan != null ? scan.cvrReport() : readXmlReportMetadata(xmlMapper);
+    checkForEmptyFields(cvrReport);
+
+    // Parse static election data:
+
+    // Find the Contest we are tabulating:
+    // Note: Contest is different from CVRContest objects which appear in CVRSnapshots
+    Contest contestToTabulate = null;
+    for (Election election : cvrReport.Election) {
+      for (Contest contest : election.Contest) {
+        if (contest.Name.equals(source.getContestId())) {
+          contestToTabulate = contest;
+          break;
+        }
+      }
+    }
+
+    if (contestToTabulate == null) {
+      Logger.severe("Contest \"%s\" from config file not found!", source.getContestId());
+      throw new CvrParseException();
+    }
+
+    boolean hasError = false;
+
+    // build a map of Candidates
+    HashMap<String, Candidate> candidateById = new HashMap<>();
+    for (Election election : cvrReport.Election) {
+      for (Candidate candidate : election.Candidate) {
+        hasError |= putIfUnique(candidateById, candidate.ObjectId, candidate, "Candidate");
+      }
+    }
+
+    // ContestSelections
+    HashMap<String, ContestSelection> contestSelectionById = new HashMap<>();
+    for (ContestSelection contestSelection : contestToTabulate.ContestSelection) {
+      hasError |=
+          putIfUnique(
+              contestSelectionById,
+              contestSelection.ObjectId,
+              contestSelection,
+              "Contest Selection");
+    }
 
-      // Parse static election data:
+    // build a map of GpUnits (aka precinct or district)
+    HashMap<String, GpUnit> gpUnitById = new HashMap<>();
+    for (GpUnit gpUnit : cvrReport.GpUnit) {
+      hasError |= putIfUnique(gpUnitById, gpUnit.ObjectId, gpUnit, "GPUnit");
+    }
+
+    if (hasError) {
+      Logger.severe("One or more keys were not unique.");
+      throw new CvrParseException();
+    }
 
-      // Find the Contest we are tabulating:
-      // Note: Contest is different from CVRContest objects which appear in CVRSnapshots
-      Contest contestToTabulate = null;
-      for (Election election : cvrReport.Election) {
-        for (Contest contest : election.Contest) {
-          if (contest.Name.equals(source.getContestId())) {
-            contestToTabulate = contest;
-            break;
+    // process the Cvrs
+    String fileName = new File(cvrPath).getName();
+    int cvrIndex = 0;
+    if (scan != null) {
+      for (CVR cvr : scan.cvrs()) {
+        CastVoteRecord newRecord =
+            parseXmlCvr(
+                cvr,
+                contestToTabulate,
+                contestSelectionById,
+                candidateById,
+                gpUnitById,
+                String.format("%s(%d)", fileName, cvrIndex + 1));
+        if (newRecord != null) {
+          cvrIndex++;
+          castVoteRecords.add(newRecord);
+        }
+      }
+      this.logCvrParsingComplete();
+      return;
+    }
+    XMLInputFactory inputFactory = xmlMapper.getFactory().getXMLInputFactory();
+    try (FileInputStream inputStream = new FileInputStream(cvrPath)) {
+      XMLStreamReader reader = openXmlReport(inputFactory, inputStream);
+      try {
+        while (nextXmlReportChild(reader)) {
+          if (!reader.getLocalName().equals("CVR")) {
+            skipXmlElement(reader);
+            continue;
+          }
+          CVR cvr = xmlMapper.readValue(reader, CVR.class);
+          CastVoteRecord newRecord =
+              parseXmlCvr(
+                  cvr,
+                  contestToTabulate,
+                  contestSelectionById,
+                  candidateById,
+                  gpUnitById,
+                  String.format("%s(%d)", fileName, cvrIndex + 1));
+          if (newRecord != null) {
+            cvrIndex++;
+            castVoteRecords.add(newRecord);
           }
         }
+      } finally {
+        reader.close();
       }
+    }
+    this.logCvrParsingComplete();
+  }
 
-      if (contestToTabulate == null) {
-        Logger.severe("Contest \"%s\" from config file not found!", source.getContestId());
-        throw new CvrParseException();
+  // Scan the report once for all of contestIds, for SharedCvrExports: read its metadata and all of
+  // its CVRs, keeping only those contests' selections. Every contest's read uses the same scan.
+  private Map<String, XmlScan> scanXml(XmlMapper xmlMapper, Set<String> contestIds)
+      throws IOException {
+    try {
+      CastVoteRecordReport cvrReport = readXmlReportMetadata(xmlMapper);
+      Set<String> contestObjectIds = new HashSet<>();
+      if (cvrReport.Election != null) {
+        for (Election election : cvrReport.Election) {
+          if (election.Contest != null) {
+            for (Contest contest : election.Contest) {
+              if (contestIds.contains(contest.Name)) {
+                contestObjectIds.add(contest.ObjectId);
+              }
+            }
+          }
+        }
       }
 
-      boolean hasError = false;
-
-      // build a map of Candidates
-      HashMap<String, Candidate> candidateById = new HashMap<>();
-      for (Election election : cvrReport.Election) {
-        for (Candidate candidate : election.Candidate) {
-          hasError |= putIfUnique(candidateById, candidate.ObjectId, candidate, "Candidate");
+      List<CVR> cvrs = new ArrayList<>();
+      XMLInputFactory inputFactory = xmlMapper.getFactory().getXMLInputFactory();
+      try (FileInputStream inputStream = new FileInputStream(cvrPath)) {
+        XMLStreamReader reader = openXmlReport(inputFactory, inputStream);
+        try {
+          while (nextXmlReportChild(reader)) {
+            if (!reader.getLocalName().equals("CVR")) {
+              skipXmlElement(reader);
+              continue;
+            }
+            CVR cvr = xmlMapper.readValue(reader, CVR.class);
+            if (cvr.CVRSnapshot != null) {
+              for (CVRSnapshot cvrSnapshot : cvr.CVRSnapshot) {
+                if (cvrSnapshot.CVRContest != null) {
+                  cvrSnapshot.CVRContest =
+                      Arrays.stream(cvrSnapshot.CVRContest)
+                          .filter(cvrContest -> contestObjectIds.contains(cvrContest.ContestId))
+                          .toArray(CVRContest[]::new);
+                }
+              }
+            }
+            cvrs.add(cvr);
+          }
+        } finally {
+          reader.close();
         }
       }
 
-      // ContestSelections
-      HashMap<String, ContestSelection> contestSelectionById = new HashMap<>();
-      for (ContestSelection contestSelection : contestToTabulate.ContestSelection) {
-        hasError |=
-            putIfUnique(
-                contestSelectionById,
-                contestSelection.ObjectId,
-                contestSelection,
-                "Contest Selection");
+      XmlScan scan = new XmlScan(cvrReport, cvrs);
+      Map<String, XmlScan> scansByContest = new HashMap<>();
+      for (String contestId : contestIds) {
+        scansByContest.put(contestId, scan);
+      }
+      return scansByContest;
+    } catch (XMLStreamException exception) {
+      throw new IOException(exception);
+    }
+  }
+
+  // First pass over a CDF XML report: read the top-level elements other than CVRs. The CVRs and
+  // ReportGeneratingDeviceIds are only noted as present (as an empty array), which is all
+  // checkForEmptyFields needs.
+  private CastVoteRecordReport readXmlReportMetadata(XmlMapper xmlMapper)
+      throws IOException, XMLStreamException {
+    List<Election> elections = new ArrayList<>();
+    List<GpUnit> gpUnits = new ArrayList<>();
+    List<Party> parties = new ArrayList<>();
+    List<ReportingDevice> reportingDevices = new ArrayList<>();
+    boolean hasCvrs = false;
+    boolean hasReportGeneratingDeviceIds = false;
+    XMLInputFactory inputFactory = xmlMapper.getFactory().getXMLInputFactory();
+    try (FileInputStream inputStream = new FileInputStream(cvrPath)) {
+      XMLStreamReader reader = openXmlReport(inputFactory, inputStream);
+      try {
+        while (nextXmlReportChild(reader)) {
+          switch (reader.getLocalName()) {
+            case "CVR" -> {
+              hasCvrs = true;
+              skipXmlElement(reader);
+            }
+            case "Election" -> elections.add(xmlMapper.readValue(reader, Election.class));
+            case "GpUnit" -> gpUnits.add(xmlMapper.readValue(reader, GpUnit.class));
+            case "Party" -> parties.add(xmlMapper.readValue(reader, Party.class));
+            case "ReportingDevice" ->
+                reportingDevices.add(xmlMapper.readValue(reader, ReportingDevice.class));
+            case "ReportGeneratingDeviceIds" -> {
+              hasReportGeneratingDeviceIds = true;
+              skipXmlElement(reader);
+            }
+            default -> skipXmlElement(reader);
+          }
+        }
+      } finally {
+        reader.close();
       }
+    }
+
+    // absent elements are left null, as they would be when reading the whole report at once
+    CastVoteRecordReport cvrReport = new CastVoteRecordReport();
+    cvrReport.CVR = hasCvrs ? new CVR[0] : null;
+    cvrReport.Election = elections.isEmpty() ? null : elections.toArray(new Election[0]);
+    cvrReport.GpUnit = gpUnits.isEmpty() ? null : gpUnits.toArray(new GpUnit[0]);
+    cvrReport.Party = parties.isEmpty() ? null : parties.toArray(new Party[0]);
+    cvrReport.ReportingDevice =
+        reportingDevices.isEmpty() ? null : reportingDevices.toArray(new ReportingDevice[0]);
+    cvrReport.ReportGeneratingDeviceIds = hasReportGeneratingDeviceIds ? new String[0] : null;
+    return cvrReport;
+  }
 
-      // build a map of GpUnits (aka precinct or district)
-      HashMap<String, GpUnit> gpUnitById = new HashMap<>();
-      for (GpUnit gpUnit : cvrReport.GpUnit) {
-        hasError |= putIfUnique(gpUnitById, gpUnit.ObjectId, gpUnit, "GPUnit");
+  // Advance to the start of the next child element of the report's root element, returning false
+  // once there are no more. Each child must be consumed through its end tag before calling again,
+  // so the only end tag this can encounter is the root's.
+  private static boolean nextXmlReportChild(XMLStreamReader reader) throws XMLStreamException {
+    while (reader.hasNext()) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        return true;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        return false;
       }
+    }
+    return false;
+  }
 
-      if (hasError) {
-        Logger.severe("One or more keys were not unique.");
-        throw new CvrParseException();
+  // consume the current element, which must be at its start tag, through its end tag
+  private static void skipXmlElement(XMLStreamReader reader) throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
       }
+    }
+  }
 
-      // process the Cvrs
-      int cvrIndex = 0;
-      String fileName = new File(cvrPath).getName();
-      for (CVR cvr : cvrReport.CVR) {
-        this.logCvrRecordParsed();
+  // open a streaming reader on the CDF XML report, positioned at the root element
+  private static XMLStreamReader openXmlReport(
+      XMLInputFactory inputFactory, FileInputStream inputStream) throws XMLStreamException {
+    XMLStreamReader reader = inputFactory.createXMLStreamReader(inputStream);
+    reader.nextTag();
+    return reader;
+  }
 
-        CVRContest contest = getCvrContestXml(cvr, contestToTabulate);
-        if (contest == null) {
-          // the CVR does not contain any votes for this contest
+  // Parse one CDF XML CVR into a CastVoteRecord. Returns null if the CVR has no votes for this
+  // contest.
+  private CastVoteRecord parseXmlCvr(
+      CVR cvr,
+      Contest contestToTabulate,
+      HashMap<String, ContestSelection> contestSelectionById,
+      HashMap<String, Candidate> candidateById,
+      HashMap<String, GpUnit> gpUnitById,
+      String computedCastVoteRecordId)
+      throws CvrParseException {
+    this.logCvrRecordParsed();
+
+    CVRContest contest = getCvrContestXml(cvr, contestToTabulate);
+    if (contest == null) {
+      // the CVR does not contain any votes for this contest
+      return null;
+    }
+    List<Pair<Integer, String>> rankings = new ArrayList<>();
+    // parse CVRContestSelections into rankings
+    // they will be null for a skipped ranking
+    if (contest.CVRContestSelection != null) {
+      for (CVRContestSelection cvrContestSelection : contest.CVRContestSelection) {
+        if (cvrContestSelection.Status != null
+            && cvrContestSelection.Status.equals("needs-adjudication")) {
+          Logger.info("Contest Selection needs adjudication. Skipping.");
           continue;
         }
-        List<Pair<Integer, String>> rankings = new ArrayList<>();
-        // parse CVRContestSelections into rankings
-        // they will be null for a skipped ranking
-        if (contest.CVRContestSelection != null) {
-          for (CVRContestSelection cvrContestSelection : contest.CVRContestSelection) {
-            if (cvrContestSelection.Status != null
-                && cvrContestSelection.Status.equals("needs-adjudication")) {
-              Logger.info("Contest Selection needs adjudication. Skipping.");
-              continue;
-            }
-            String contestSelectionId = cvrContestSelection.ContestSelectionId;
-            ContestSelection contestSelection = contestSelectionById.get(contestSelectionId);
-            if (contestSelection == null) {
-              Logger.severe("ContestSelection \"%s\" from CVR not found!", contestSelectionId);
-              throw new CvrParseException();
-            }
-            String candidateName;
-            // check for declared write-in:
-            if (contestSelection.IsWriteIn != null
-                && contestSelection.IsWriteIn.equals(BOOLEAN_TRUE)) {
-              candidateName = Tabulator.UNDECLARED_WRITE_IN_OUTPUT_LABEL;
-            } else {
-              // validate candidate Ids:
-              // CDF allows multiple candidate Ids to support party ticket voting options
-              // but in practice this is always a single candidate id
-              if (contestSelection.CandidateIds == null
-                  || contestSelection.CandidateIds.length == 0) {
-                Logger.severe(
-                    "CandidateSelection \"%s\" has no CandidateIds!", contestSelection.ObjectId);
-                throw new CvrParseException();
-              }
-              if (contestSelection.CandidateIds.length > 1) {
-                Logger.warning(
-                    "CandidateSelection \"%s\" has multiple CandidateIds. "
-                        + "Only the first one will be processed.",
-                    contestSelection.ObjectId);
-              }
-
-              Candidate candidate = candidateById.get(contestSelection.CandidateIds[0]);
-              if (candidate == null) {
-                Logger.severe(
-                    "CandidateId \"%s\" from ContestSelectionId \"%s\" not found!",
-                    contestSelection.CandidateIds[0], contestSelection.ObjectId);
-                throw new CvrParseException();
-              }
-              candidateName = candidate.Name;
-              if (candidateName.equals(source.getOvervoteLabel())) {
-                candidateName = Tabulator.EXPLICIT_OVERVOTE_LABEL;
-              }
-            }
-            parseRankings(cvr, contest, rankings, cvrContestSelection, candidateName);
-          }
+        String contestSelectionId = cvrContestSelection.ContestSelectionId;
+        ContestSelection contestSelection = contestSelectionById.get(contestSelectionId);
+        if (contestSelection == null) {
+          Logger.severe("ContestSelection \"%s\" from CVR not found!", contestSelectionId);
+          throw new CvrParseException();
         }
+        String candidateName;
+        // check for declared write-in:
+        if (contestSelection.IsWriteIn != null
+            && contestSelection.IsWriteIn.equals(BOOLEAN_TRUE)) {
+          candidateName = Tabulator.UNDECLARED_WRITE_IN_OUTPUT_LABEL;
+        } else {
+          // validate candidate Ids:
+          // CDF allows multiple candidate Ids to support party ticket voting options
+          // but in practice this is always a single candidate id
+          if (contestSelection.CandidateIds == null
+              || contestSelection.CandidateIds.length == 0) {
+            Logger.severe(
+                "CandidateSelection \"%s\" has no CandidateIds!", contestSelection.ObjectId);
+            throw new CvrParseException();
+          }
+          if (contestSelection.CandidateIds.length > 1) {
+            Logger.warning(
+                "CandidateSelection \"%s\" has multiple CandidateIds. "
+                    + "Only the first one will be processed.",
+                contestSelection.ObjectId);
+          }
 
-        // Extract GPUnit if provided
-        String precinctId = null;
-        if (cvr.BallotStyleUnitId != null) {
-          GpUnit unit = gpUnitById.get(cvr.BallotStyleUnitId);
-          if (unit == null) {
+          Candidate candidate = candidateById.get(contestSelection.CandidateIds[0]);
+          if (candidate == null) {
             Logger.severe(
-                "GpUnit \"%s\" for CVR \"%s\" not found!", cvr.BallotStyleUnitId, cvr.UniqueId);
+                "CandidateId \"%s\" from ContestSelectionId \"%s\" not found!",
+                contestSelection.CandidateIds[0], contestSelection.ObjectId);
             throw new CvrParseException();
           }
-          precinctId = unit.Name;
+          candidateName = candidate.Name;
+          if (candidateName.equals(source.getOvervoteLabel())) {
+            candidateName = Tabulator.EXPLICIT_OVERVOTE_LABEL;
+          }
         }
+        parseRankings(cvr, contest, rankings, cvrContestSelection, candidateName);
+      }
+    }
 
-        String computedCastVoteRecordId = String.format("%s(%d)", fileName, ++cvrIndex);
-        // create the new CastVoteRecord
-        CastVoteRecord newRecord = new CastVoteRecord(
-            computedCastVoteRecordId,
-            cvr.UniqueId,
-            precinctId,
-            cvr.BatchSequenceId,
-            usesLastAllowedRanking(rankings, null),
-            rankings);
-        castVoteRecords.add(newRecord);
+    // Extract GPUnit if provided
+    String precinctId = null;
+    if (cvr.BallotStyleUnitId != null) {
+      GpUnit unit = gpUnitById.get(cvr.BallotStyleUnitId);
+      if (unit == null) {
+        Logger.severe(
+            "GpUnit \"%s\" for CVR \"%s\" not found!", cvr.BallotStyleUnitId, cvr.UniqueId);
+        throw new CvrParseException();
       }
-      this.logCvrParsingComplete();
+      precinctId = unit.Name;
     }
+
+    // create the new CastVoteRecord
+    CastVoteRecord newRecord = new CastVoteRecord(
+        computedCastVoteRecordId,
+        cvr.UniqueId,
+        precinctId,
+        cvr.BatchSequenceId,
+        usesLastAllowedRanking(rankings, null),
+        rankings);
+    return newRecord;
   }
 
   private void parseRankings(
@@ -366,26 +586,111 @@ class CommonDataFormatReader extends BaseCvrReader {
     }
   }
 
-  // parse cdf json CastVoteRecordReport into CastVoteRecords and append them to input list
+  // Parse a cdf json CastVoteRecordReport into CastVoteRecords and append them to input list.
+  // The file is streamed, and each CVR is converted as soon as it is read, so the CVR array is
+  // never held in memory. CVRs can only be converted once the GpUnits and Elections have been
+  // read: if those come after the CVR array in the file, the CVRs are read in a second pass.
   void parseJson(List<CastVoteRecord> castVoteRecords) throws CvrParseException {
-    // static election data
+    ObjectMapper objectMapper = new ObjectMapper();
+    File cvrFile = new File(cvrPath);
+    try {
+      JsonScan scan =
+          sharedExports != null
+              ? sharedExports.takeScan(
+                  source, contestIds -> scanJson(objectMapper, cvrFile, contestIds))
+              : null;
+      if (scan != null) {
+        JsonMetadata metadata = readJsonMetadata(scan.gpUnitArray, scan.electionArray);
+        String fileName = cvrFile.getName();
+        int cvrIndex = 0;
+        for (HashMap cvr : scan.cvrs) {
+          addJsonCvr(cvr, metadata, String.format("%s(%d)", fileName, ++cvrIndex), castVoteRecords);
+        }
+        return;
+      }
+
+      ArrayList gpUnitArray = null;
+      ArrayList electionArray = null;
+      JsonMetadata metadata = null;
+      try (JsonParser parser = openJsonReport(objectMapper, cvrFile)) {
+        while (nextJsonReportField(parser)) {
+          switch (parser.currentName()) {
+            case "GpUnit" -> gpUnitArray = objectMapper.readValue(parser, ArrayList.class);
+            case "Election" -> electionArray = objectMapper.readValue(parser, ArrayList.class);
+            case "CVR" -> {
+              if (gpUnitArray != null && electionArray != null) {
+                metadata = readJsonMetadata(gpUnitArray, electionArray);
+                parseJsonCvrs(parser, objectMapper, metadata, castVoteRecords);
+              } else {
+                parser.skipChildren();
+              }
+            }
+            default -> parser.skipChildren();
+          }
+        }
+      }
+
+      if (metadata == null) {
+        // the CVRs (if any) came before the metadata needed to parse them
+        metadata = readJsonMetadata(gpUnitArray, electionArray);
+        try (JsonParser parser = openJsonReport(objectMapper, cvrFile)) {
+          while (nextJsonReportField(parser)) {
+            if (parser.currentName().equals("CVR")) {
+              parseJsonCvrs(parser, objectMapper, metadata, castVoteRecords);
+            } else {
+              parser.skipChildren();
+            }
+          }
+        }
+      }
+    } catch (IOException exception) {
+      Logger.severe(
+          """
+              Error parsing JSON file: %s
+              %s
+              Check file formatting and values and make sure they are correct!""",
+          cvrPath, exception);
+      throw new CvrParseException();
+    }
+  }
+
+  // open a streaming parser on the CDF JSON report, positioned at the start of its top-level object
+  private static JsonParser openJsonReport(ObjectMapper objectMapper, File cvrFile)
+      throws IOException {
+    JsonParser parser = objectMapper.createParser(cvrFile);
+    if (parser.nextToken() != JsonToken.START_OBJECT) {
+      parser.close();
+      throw new JsonParseException(parser, "CDF JSON report must be an object");
+    }
+    return parser;
+  }
+
+  // Advance to the value of the next field of the report's top-level object, returning false once
+  // there are no more. Each value must be consumed before calling again.
+  private static boolean nextJsonReportField(JsonParser parser) throws IOException {
+    if (parser.nextToken() != JsonToken.FIELD_NAME) {
+      return false;
+    }
+    parser.nextToken();
+    return true;
+  }
+
+  // static election data needed to parse CDF JSON CVRs
+  private JsonMetadata readJsonMetadata(ArrayList gpUnitArray, ArrayList electionArray)
+      throws CvrParseException {
+    JsonMetadata metadata = new JsonMetadata();
     HashMap contestToTabulate = null;
-    HashMap json = JsonParser.readFromFile(cvrPath, HashMap.class);
 
     boolean hasError = false;
 
     // GpUnits
-    HashMap<Object, Object> gpUnits = new HashMap<>();
-    ArrayList gpUnitArray = (ArrayList) json.get("GpUnit");
     for (Object gpUnitObject : gpUnitArray) {
       HashMap gpUnit = (HashMap) gpUnitObject;
       String gpUnitId = (String) gpUnit.get("@id");
-      hasError |= putIfUnique(gpUnits, gpUnitId, gpUnit, "GPUnits");
+      hasError |= putIfUnique(metadata.gpUnits, gpUnitId, gpUnit, "GPUnits");
     }
 
     // Elections
-    HashMap<Object, Object> candidates = new HashMap<>();
-    ArrayList electionArray = (ArrayList) json.get("Election");
     for (Object electionObject : electionArray) {
       HashMap election = (HashMap) electionObject;
 
@@ -394,7 +699,7 @@ class CommonDataFormatReader extends BaseCvrReader {
       for (Object candidateObject : candidatesArray) {
         HashMap candidate = (HashMap) candidateObject;
         String candidateId = (String) candidate.get("@id");
-        hasError |= putIfUnique(candidates, candidateId, candidate, "Candidate");
+        hasError |= putIfUnique(metadata.candidates, candidateId, candidate, "Candidate");
       }
 
       // Find contest to be tabulated
@@ -412,136 +717,238 @@ class CommonDataFormatReader extends BaseCvrReader {
       Logger.severe("Contest \"%s\" from config file not found!", source.getContestId());
       throw new CvrParseException();
     }
-    String contestToTabulateId = (String) contestToTabulate.get("@id");
+    metadata.contestToTabulateId = (String) contestToTabulate.get("@id");
 
     // ContestSelections
-    HashMap<Object, Object> contestSelections = new HashMap<>();
     ArrayList contestSelectionArray = (ArrayList) contestToTabulate.get("ContestSelection");
     for (Object contestSelectionObject : contestSelectionArray) {
       HashMap contestSelection = (HashMap) contestSelectionObject;
       String selectionObjectId = (String) contestSelection.get("@id");
       hasError |=
-          putIfUnique(contestSelections, selectionObjectId, contestSelection, "Contest Selection");
+          putIfUnique(
+              metadata.contestSelections, selectionObjectId, contestSelection, "Contest Selection");
     }
 
     if (hasError) {
       Logger.severe("One or more keys were not unique.");
       throw new CvrParseException();
     }
+    return metadata;
+  }
 
-    // process Cvrs
+  // process Cvrs: the parser must be at the start of the CVR array
+  private void parseJsonCvrs(
+      JsonParser parser,
+      ObjectMapper objectMapper,
+      JsonMetadata metadata,
+      List<CastVoteRecord> castVoteRecords)
+      throws CvrParseException, IOException {
     int cvrIndex = 0;
     String fileName = new File(cvrPath).getName();
+    if (parser.currentToken() != JsonToken.START_ARRAY) {
+      throw new JsonParseException(parser, "\"CVR\" must be an array");
+    }
+    while (parser.nextToken() != JsonToken.END_ARRAY) {
+      HashMap cvr = objectMapper.readValue(parser, HashMap.class);
+      String computedCastVoteRecordId = String.format("%s(%d)", fileName, ++cvrIndex);
+      addJsonCvr(cvr, metadata, computedCastVoteRecordId, castVoteRecords);
+    }
+  }
 
-    ArrayList cvrs = (ArrayList) json.get("CVR");
-    for (Object cvrObject : cvrs) {
-      HashMap cvr = (HashMap) cvrObject;
-      HashMap cvrContest = getCvrContestJson(cvr, contestToTabulateId);
-
-      // parse selections
-      List<Pair<Integer, String>> rankings = new ArrayList<>();
-      ArrayList cvrContestSelections = (ArrayList) cvrContest.get("CVRContestSelection");
-      for (Object cvrContestSelectionObject : cvrContestSelections) {
-        HashMap cvrContestSelection = (HashMap) cvrContestSelectionObject;
-        String contestSelectionId = (String) cvrContestSelection.get("ContestSelectionId");
-        if (!contestSelections.containsKey(contestSelectionId)) {
-          Logger.severe("ContestSelection \"%s\" from CVR not found!", contestSelectionId);
-          throw new CvrParseException();
-        }
-        HashMap contestSelection = (HashMap) contestSelections.get(contestSelectionId);
-        String candidateName;
-        if (contestSelection.containsKey("IsWriteIn")
-            && contestSelection.get("IsWriteIn").equals(BOOLEAN_TRUE)) {
-          // this is a write-in
-          candidateName = Tabulator.UNDECLARED_WRITE_IN_OUTPUT_LABEL;
-        } else {
-          // lookup Candidate Name
-          ArrayList candidateIds = (ArrayList) contestSelection.get("CandidateIds");
-          if (candidateIds == null || candidateIds.size() == 0) {
-            Logger.severe("CandidateSelection \"%s\" has no CandidateIds!", contestSelectionId);
-            throw new CvrParseException();
-          }
-          if (candidateIds.size() > 1) {
-            Logger.warning(
-                "CandidateSelection \"%s\" has multiple CandidateIds. "
-                    + "Only the first one will be processed.",
-                contestSelectionId);
-          }
-          String candidateObjectId = (String) candidateIds.get(0);
-          HashMap candidate = (HashMap) candidates.get(candidateObjectId);
-          if (candidate == null) {
-            Logger.severe(
-                "Candidate ID \"%s\" in Contest Selection \"%s\" is not in the candidate list.",
-                candidateObjectId, contestSelectionId);
-            throw new CvrParseException();
-          }
-          candidateName = (String) candidate.get("Name");
-          if (candidateName.equals(source.getOvervoteLabel())) {
-            candidateName = Tabulator.EXPLICIT_OVERVOTE_LABEL;
-          }
-        }
+  private void addJsonCvr(
+      HashMap cvr,
+      JsonMetadata metadata,
+      String computedCastVoteRecordId,
+      List<CastVoteRecord> castVoteRecords)
+      throws CvrParseException {
+    castVoteRecords.add(parseJsonCvr(cvr, metadata, computedCastVoteRecordId));
+    // provide some user feedback on the CVR count
+    if (castVoteRecords.size() % 50000 == 0) {
+      Logger.info("Parsed %d cast vote records.", castVoteRecords.size());
+    }
+  }
 
-        // parse rankings
-        // rank may appear on the CVRContestSelection OR the SelectionPosition
-        // this is an ambiguity in the nist spec
-        if (cvrContestSelection.containsKey("Rank")) {
-          Integer rank = (Integer) (cvrContestSelection.get("Rank"));
-          rankings.add(new Pair<>(rank, candidateName));
-        } else {
-          // extract all the SelectionPositions (ranks) which this selection has been assigned
-          ArrayList selectionPositions = (ArrayList) cvrContestSelection.get("SelectionPosition");
-          for (Object selectionPositionObject : selectionPositions) {
-            HashMap selectionPosition = (HashMap) selectionPositionObject;
-            // WriteIn can be linked at the selection position level
-            if (selectionPosition.containsKey("CVRWriteIn")) {
-              candidateName = Tabulator.UNDECLARED_WRITE_IN_OUTPUT_LABEL;
+  // Scan the report once for all of contestIds, for SharedCvrExports: read its metadata and all of
+  // its CVRs, keeping only those contests' selections. Every contest's read uses the same scan.
+  private static Map<String, JsonScan> scanJson(
+      ObjectMapper objectMapper, File cvrFile, Set<String> contestIds) throws IOException {
+    JsonScan scan = new JsonScan();
+    try (JsonParser parser = openJsonReport(objectMapper, cvrFile)) {
+      while (nextJsonReportField(parser)) {
+        switch (parser.currentName()) {
+          case "GpUnit" -> scan.gpUnitArray = objectMapper.readValue(parser, ArrayList.class);
+          case "Election" -> scan.electionArray = objectMapper.readValue(parser, ArrayList.class);
+          case "CVR" -> {
+            if (parser.currentToken() != JsonToken.START_ARRAY) {
+              throw new JsonParseException(parser, "\"CVR\" must be an array");
             }
-            // ignore if no indication is present (NIST 1500-103 section 3.4.2)
-            if (selectionPosition.containsKey("HasIndication")
-                && selectionPosition.get("HasIndication").equals(STATUS_NO)) {
-              continue;
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+              scan.cvrs.add(objectMapper.readValue(parser, HashMap.class));
             }
-            // skip if not allocable
-            if (selectionPosition.containsKey("IsAllocable")
-                && selectionPosition.get("IsAllocable").equals(STATUS_NO)) {
-              continue;
+          }
+          default -> parser.skipChildren();
+        }
+      }
+    }
+
+    Set<Object> contestObjectIds = new HashSet<>();
+    if (scan.electionArray != null) {
+      for (Object election : scan.electionArray) {
+        if (election instanceof Map<?, ?> electionMap
+            && electionMap.get("Contest") instanceof List<?> contests) {
+          for (Object contest : contests) {
+            if (contest instanceof Map<?, ?> contestMap
+                && contestIds.contains(contestMap.get("Name"))) {
+              contestObjectIds.add(contestMap.get("@id"));
             }
-            // and finally the rank
-            Integer rank = (Integer) selectionPosition.get("Rank");
-            rankings.add(new Pair<>(rank, candidateName));
           }
         }
-      } // for (Object cvrContestSelectionObject : cvrContestSelections) {
-
-      // Extract GPUnit if provided
-      String precinctId = null;
-      if (cvr.containsKey("BallotStyleUnitId")) {
-        String unitId = (String) cvr.get("BallotStyleUnitId");
-        if (gpUnits.containsKey(unitId)) {
-          HashMap unit = (HashMap) gpUnits.get(cvr.get("BallotStyleUnitId"));
-          precinctId = (String) unit.get("Name");
-        } else {
-          Logger.severe("GpUnit \"%s\" not found!", unitId);
+      }
+    }
+    for (HashMap cvr : scan.cvrs) {
+      if (cvr.get("CVRSnapshot") instanceof List<?> snapshots) {
+        for (Object snapshot : snapshots) {
+          if (snapshot instanceof Map<?, ?> snapshotMap
+              && snapshotMap.get("CVRContest") instanceof List<?> cvrContests) {
+            cvrContests.removeIf(
+                cvrContest ->
+                    !(cvrContest instanceof Map<?, ?> cvrContestMap
+                        && contestObjectIds.contains(cvrContestMap.get("ContestId"))));
+          }
         }
       }
+    }
 
-      String ballotId = (String) cvr.get("BallotPrePrintedId");
-      String batchId = (String) cvr.get("BatchSequenceId");
-      String computedCastVoteRecordId = String.format("%s(%d)", fileName, ++cvrIndex);
-      // create the new CastVoteRecord
-      CastVoteRecord newRecord = new CastVoteRecord(
-          computedCastVoteRecordId,
-          ballotId,
-          precinctId,
-          batchId,
-          usesLastAllowedRanking(rankings, null),
-          rankings);
-      castVoteRecords.add(newRecord);
-      // provide some user feedback on the CVR count
-      if (castVoteRecords.size() % 50000 == 0) {
-        Logger.info("Parsed %d cast vote records.", castVoteRecords.size());
+    Map<String, JsonScan> scansByContest = new HashMap<>();
+    for (String contestId : contestIds) {
+      scansByContest.put(contestId, scan);
+    }
+    return scansByContest;
+  }
+
+  private CastVoteRecord parseJsonCvr(
+      HashMap cvr, JsonMetadata metadata, String computedCastVoteRecordId)
+      throws CvrParseException {
+    HashMap cvrContest = getCvrContestJson(cvr, metadata.contestToTabulateId);
+
+    // parse selections
+    List<Pair<Integer, String>> rankings = new ArrayList<>();
+    ArrayList cvrContestSelections = (ArrayList) cvrContest.get("CVRContestSelection");
+    for (Object cvrContestSelectionObject : cvrContestSelections) {
+      HashMap cvrContestSelection = (HashMap) cvrContestSelectionObject;
+      String contestSelectionId = (String) cvrContestSelection.get("ContestSelectionId");
+      if (!metadata.contestSelections.containsKey(contestSelectionId)) {
+        Logger.severe("ContestSelection \"%s\" from CVR not found!", contestSelectionId);
+        throw new CvrParseException();
+      }
+      HashMap contestSelection = (HashMap) metadata.contestSelections.get(contestSelectionId);
+      String candidateName;
+      if (contestSelection.containsKey("IsWriteIn")
+          && contestSelection.get("IsWriteIn").equals(BOOLEAN_TRUE)) {
+        // this is a write-in
+        candidateName = Tabulator.UNDECLARED_WRITE_IN_OUTPUT_LABEL;
+      } else {
+        // lookup Candidate Name
+        ArrayList candidateIds = (ArrayList) contestSelection.get("CandidateIds");
+        if (candidateIds == null || candidateIds.size() == 0) {
+          Logger.severe("CandidateSelection \"%s\" has no CandidateIds!", contestSelectionId);
+          throw new CvrParseException();
+        }
+        if (candidateIds.size() > 1) {
+          Logger.warning(
+              "CandidateSelection \"%s\" has multiple CandidateIds. "
+                  + "Only the first one will be processed.",
+              contestSelectionId);
+        }
+        String candidateObjectId = (String) candidateIds.get(0);
+        HashMap candidate = (HashMap) metadata.candidates.get(candidateObjectId);
+        if (candidate == null) {
+          Logger.severe(
+              "Candidate ID \"%s\" in Contest Selection \"%s\" is not in the candidate list.",
+              candidateObjectId, contestSelectionId);
+          throw new CvrParseException();
+        }
+        candidateName = (String) candidate.get("Name");
+        if (candidateName.equals(source.getOvervoteLabel())) {
+          candidateName = Tabulator.EXPLICIT_OVERVOTE_LABEL;
+        }
+      }
+
+      // parse rankings
+      // rank may appear on the CVRContestSelection OR the SelectionPosition
+      // this is an ambiguity in the nist spec
+      if (cvrContestSelection.containsKey("Rank")) {
+        Integer rank = (Integer) (cvrContestSelection.get("Rank"));
+        rankings.add(new Pair<>(rank, candidateName));
+      } else {
+        // extract all the SelectionPositions (ranks) which this selection has been assigned
+        ArrayList selectionPositions = (ArrayList) cvrContestSelection.get("SelectionPosition");
+        for (Object selectionPositionObject : selectionPositions) {
+          HashMap selectionPosition = (HashMap) selectionPositionObject;
+          // WriteIn can be linked at the selection position level
+          if (selectionPosition.containsKey("CVRWriteIn")) {
+            candidateName = Tabulator.UNDECLARED_WRITE_IN_OUTPUT_LABEL;
+          }
+          // ignore if no indication is present (NIST 1500-103 section 3.4.2)
+          if (selectionPosition.containsKey("HasIndication")
+              && selectionPosition.get("HasIndication").equals(STATUS_NO)) {
+            continue;
+          }
+          // skip if not allocable
+          if (selectionPosition.containsKey("IsAllocable")
+              && selectionPosition.get("IsAllocable").equals(STATUS_NO)) {
+            continue;
+          }
+          // and finally the rank
+          Integer rank = (Integer) selectionPosition.get("Rank");
+          rankings.add(new Pair<>(rank, candidateName));
+        }
+      }
+    } // for (Object cvrContestSelectionObject : cvrContestSelections) {
+
+    // Extract GPUnit if provided
+    String precinctId = null;
+    if (cvr.containsKey("BallotStyleUnitId")) {
+      String unitId = (String) cvr.get("BallotStyleUnitId");
+      if (metadata.gpUnits.containsKey(unitId)) {
+        HashMap unit = (HashMap) metadata.gpUnits.get(cvr.get("BallotStyleUnitId"));
+        precinctId = (String) unit.get("Name");
+      } else {
+        Logger.severe("GpUnit \"%s\" not found!", unitId);
       }
     }
+
+    String ballotId = (String) cvr.get("BallotPrePrintedId");
+    String batchId = (String) cvr.get("BatchSequenceId");
+    // create the new CastVoteRecord
+    return new CastVoteRecord(
+        computedCastVoteRecordId,
+        ballotId,
+        precinctId,
+        batchId,
+        usesLastAllowedRanking(rankings, null),
+        rankings);
+  }
+
+  // a CDF XML report as read by a shared scan: its metadata, and its CVRs in file order
+  private record XmlScan(CastVoteRecordReport cvrReport, List<CVR> cvrs) {}
+
+  // a CDF JSON report as read by a shared scan: its static election data, and its CVRs in file
+  // order
+  private static final class JsonScan {
+
+    private final List<HashMap> cvrs = new ArrayList<>();
+    private ArrayList gpUnitArray;
+    private ArrayList electionArray;
+  }
+
+  // lookup tables built from the static election data in a CDF JSON report
+  private static final class JsonMetadata {
+
+    private final HashMap<Object, Object> gpUnits = new HashMap<>();
+    private final HashMap<Object, Object> candidates = new HashMap<>();
+    private final HashMap<Object, Object> contestSelections = new HashMap<>();
+    private String contestToTabulateId;
   }
 
   // The following classes are based on the NIST 1500-103 UML structure.
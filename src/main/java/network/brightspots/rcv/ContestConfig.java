@@ -27,6 +27,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -1228,6 +1229,11 @@ class ContestConfig {
     return candidateAliasesToNameMap.get(nameOrAlias);
   }
 
+  // every candidate name and alias, mapped to the name of the candidate it refers to
+  Map<String, String> getCandidateAliasesToNameMap() {
+    return Collections.unmodifiableMap(candidateAliasesToNameMap);
+  }
+
   ArrayList<String> getCandidatePermutation() {
     return candidatePermutation;
   }
@@ -10,7 +10,8 @@
 /*
  * Purpose: Read and parse generic CSV files.
  * Design: Parses a CSV with candidates in columns, cast vote records in rows,
- * and vote rankings in cells.
+ * and vote rankings in cells.  The file is read through MappedCsvParser, and rankings go straight
+ * into each record's CandidateRankingsList without any intermediate objects.
  * Conditions: The CSV must contain only one contest.
  * Version history: see https://github.com/BrightSpots/rcv.
  */
@@ -19,30 +20,30 @@ package network.brightspots.rcv;
 
 import static network.brightspots.rcv.Utils.isNullOrBlank;
 
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.nio.charset.Charset;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import javafx.util.Pair;
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVParser;
-import org.apache.commons.csv.CSVRecord;
+import java.util.Objects;
+import java.util.logging.LogRecord;
 
 final class CsvCvrReader extends BaseCvrReader {
+  // files with more CVR data than this are split into chunks of about this size, which are
+  // parsed in parallel
+  private static final long DEFAULT_CHUNK_SIZE = 16L * 1024 * 1024;
   // 0-based column index of first ranking
   private final int firstVoteColumnIndex;
-  // 0-based row index of first CVR
-  private final int firstVoteRowIndex;
   private final Integer idColumnIndex;
   private final Integer precinctColumnIndex;
   private final Integer batchColumnIndex;
+  // every row must have at least this column, since the ID, precinct, and batch are read from it
+  private final int lastIdentifierColumnIndex;
+  private long chunkSize = DEFAULT_CHUNK_SIZE;
 
   CsvCvrReader(ContestConfig config, RawContestConfig.CvrSource source) {
     super(config, source);
     this.firstVoteColumnIndex = Integer.parseInt(source.getFirstVoteColumnIndex()) - 1;
-    this.firstVoteRowIndex = Integer.parseInt(source.getFirstVoteRowIndex()) - 1;
     this.idColumnIndex = !isNullOrBlank(source.getIdColumnIndex())
             ? Integer.parseInt(source.getIdColumnIndex()) - 1
             : null;
@@ -52,6 +53,16 @@ final class CsvCvrReader extends BaseCvrReader {
     this.batchColumnIndex =  !isNullOrBlank(source.getBatchColumnIndex())
               ? Integer.parseInt(source.getBatchColumnIndex()) - 1
               : null;
+    this.lastIdentifierColumnIndex = Math.max(
+        Objects.requireNonNullElse(idColumnIndex, 0),
+        Math.max(
+            Objects.requireNonNullElse(precinctColumnIndex, 0),
+            Objects.requireNonNullElse(batchColumnIndex, 0)));
+  }
+
+  // Visible for testing
+  void setChunkSize(long chunkSize) {
+    this.chunkSize = chunkSize;
   }
 
   @Override
@@ -62,8 +73,8 @@ final class CsvCvrReader extends BaseCvrReader {
   @Override
   public List<String> readCandidateListFromCvr()
       throws IOException {
-    try (FileInputStream inputStream = new FileInputStream(Path.of(cvrPath).toFile())) {
-      return getCandidateNamesAndInitializeParser(getCsvParser(inputStream));
+    try (MappedCsvParser parser = new MappedCsvParser(Path.of(cvrPath))) {
+      return Arrays.asList(readCandidateNames(parser));
     } catch (CastVoteRecord.CvrParseException exception) {
       Logger.severe("Error reading candidate names:\n%s", exception);
       throw new IOException(exception);
@@ -77,65 +88,28 @@ final class CsvCvrReader extends BaseCvrReader {
   @Override
   void readCastVoteRecords(List<CastVoteRecord> castVoteRecords)
       throws CastVoteRecord.CvrParseException, IOException {
-    try (FileInputStream inputStream = new FileInputStream(Path.of(cvrPath).toFile())) {
-      CSVParser parser = getCsvParser(inputStream);
-      List<String> candidateNames = getCandidateNamesAndInitializeParser(parser);
-      int undeclaredWriteInColumn = candidateNames.indexOf(source.getUndeclaredWriteInLabel());
-
-      int index = 0;
-      for (CSVRecord csvRecord : parser) {
-        index++;
+    Path path = Path.of(cvrPath);
+    try (MappedCsvParser parser = new MappedCsvParser(path)) {
+      String[] candidateNames = readCandidateNames(parser);
+      int undeclaredWriteInColumn =
+          Arrays.asList(candidateNames).indexOf(source.getUndeclaredWriteInLabel());
 
-        ArrayList<Pair<Integer, String>> rankings = new ArrayList<>();
-        for (int col = firstVoteColumnIndex; col < csvRecord.size(); col++) {
-          String rankAsString = csvRecord.get(col);
-          if (isNullOrBlank(rankAsString)) {
-            continue;
-          }
-          int rankAsInt;
-          try {
-            rankAsString = rankAsString.trim();
-            rankAsInt = Integer.parseInt(rankAsString);
-          } catch (NumberFormatException e) {
-            Logger.severe(
-                "Row %s expected number at column %d, but got \"%s\" instead.",
-                csvRecord.get(0), col, rankAsString);
-            throw new CastVoteRecord.CvrParseException();
-          }
-
-          int candidateIndex = col - firstVoteColumnIndex;
-          String candidateId =
-              candidateIndex == undeclaredWriteInColumn
-                  ? Tabulator.UNDECLARED_WRITE_IN_OUTPUT_LABEL
-                  : candidateNames.get(candidateIndex);
-          rankings.add(new Pair<>(rankAsInt, candidateId));
-        }
-
-        String suppliedId = this.idColumnIndex != null
-                ? csvRecord.get(this.idColumnIndex) : null;
-        String computedPrecinctId = null;
-        if (this.precinctColumnIndex != null) {
-          String suppliedPrecinctId = csvRecord.get((this.precinctColumnIndex));
-          computedPrecinctId = isNullOrBlank(suppliedPrecinctId)
-                  ? "no precinct id" : suppliedPrecinctId;
-        }
-        String computedBatchId = null;
-        if (this.batchColumnIndex != null) {
-          String suppliedBatchId = csvRecord.get((this.batchColumnIndex));
-          computedBatchId = isNullOrBlank(suppliedBatchId) ? "no batch id" : suppliedBatchId;
+      // Every row after the candidate names is a CVR. Large files without any quoted cells are
+      // split into chunks at line breaks and parsed in parallel; otherwise parse them here.
+      List<MappedCsvParser.Chunk> chunks = null;
+      if (parser.end() - parser.position() > chunkSize) {
+        chunks = MappedCsvParser.findChunks(path, parser.position(), parser.end(), chunkSize);
+      }
+      if (chunks != null && chunks.size() > 1) {
+        readChunks(path, chunks, candidateNames, undeclaredWriteInColumn, castVoteRecords);
+      } else {
+        RecordBuilder recordBuilder = new RecordBuilder(candidateNames, undeclaredWriteInColumn);
+        int index = 0;
+        while (parser.nextRecord(recordBuilder)) {
+          index++;
+          castVoteRecords.add(recordBuilder.build(index));
+          this.logCvrRecordParsed();
         }
-
-        // create the new CastVoteRecord
-        CastVoteRecord newCvr = new CastVoteRecord(
-            Integer.toString(index),
-            suppliedId,
-            computedPrecinctId,
-            computedBatchId,
-            usesLastAllowedRanking(rankings, null),
-            rankings);
-        castVoteRecords.add(newCvr);
-
-        this.logCvrRecordParsed();
       }
       this.logCvrRecordParsed();
     } catch (IOException exception) {
@@ -144,31 +118,243 @@ final class CsvCvrReader extends BaseCvrReader {
     }
   }
 
-  private CSVParser getCsvParser(FileInputStream inputStream) throws IOException {
-    CSVFormat format =
-        CSVFormat.Builder.create().setAllowMissingColumnNames(true).setNullString("").build();
-    return CSVParser.parse(inputStream, Charset.defaultCharset(), format);
+  // Parse the chunks on the common ForkJoinPool, then add their records in file order. Each
+  // chunk's log output is held until its records are added (see OrderedParallelTasks), so the log
+  // is the same as a serial read.
+  private void readChunks(
+      Path path,
+      List<MappedCsvParser.Chunk> chunks,
+      String[] candidateNames,
+      int undeclaredWriteInColumn,
+      List<CastVoteRecord> castVoteRecords)
+      throws CastVoteRecord.CvrParseException, IOException {
+    try (OrderedParallelTasks<ParsedChunk, RuntimeException> parsedChunks =
+        OrderedParallelTasks.onCommonPool(
+            chunks.size(),
+            index -> readChunk(path, chunks.get(index), candidateNames, undeclaredWriteInColumn))) {
+      while (parsedChunks.hasNext()) {
+        ParsedChunk parsedChunk = parsedChunks.next();
+        for (CastVoteRecord castVoteRecord : parsedChunk.castVoteRecords) {
+          castVoteRecords.add(castVoteRecord);
+          this.logCvrRecordParsed();
+        }
+        Logger.logDeferred(parsedChunk.failureLogRecords);
+        if (parsedChunk.parseException != null) {
+          throw parsedChunk.parseException;
+        } else if (parsedChunk.readException != null) {
+          throw parsedChunk.readException;
+        }
+      }
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+      Logger.severe("Parsing cast vote records was interrupted!");
+      throw new CastVoteRecord.CvrParseException();
+    }
+  }
+
+  // Parse the records in one chunk. A problem stops the chunk and is recorded in the result, along
+  // with the error logged for it, which readChunks logs after the progress messages for the
+  // records before it, as a serial read would.
+  private ParsedChunk readChunk(
+      Path path,
+      MappedCsvParser.Chunk chunk,
+      String[] candidateNames,
+      int undeclaredWriteInColumn) {
+    ParsedChunk parsedChunk = new ParsedChunk();
+    Logger.startDeferringOnCurrentThread();
+    try (MappedCsvParser parser = new MappedCsvParser(path, chunk.start(), chunk.end())) {
+      RecordBuilder recordBuilder = new RecordBuilder(candidateNames, undeclaredWriteInColumn);
+      int index = chunk.firstRecord();
+      while (parser.nextRecord(recordBuilder)) {
+        index++;
+        parsedChunk.castVoteRecords.add(recordBuilder.build(index));
+      }
+    } catch (CastVoteRecord.CvrParseException exception) {
+      parsedChunk.parseException = exception;
+    } catch (IOException exception) {
+      parsedChunk.readException = exception;
+    } finally {
+      parsedChunk.failureLogRecords = Logger.stopDeferringOnCurrentThread();
+    }
+    return parsedChunk;
   }
 
   /**
-   * This must be called before CVRs are read. It will return candidate names and skip the
-   * appropriate number of rows.
+   * This must be called before CVRs are read. It returns the candidate names from the first row,
+   * leaving the parser at the first CVR.
    */
-  private List<String> getCandidateNamesAndInitializeParser(CSVParser parser)
-      throws CastVoteRecord.CvrParseException {
+  private String[] readCandidateNames(MappedCsvParser parser)
+      throws CastVoteRecord.CvrParseException, IOException {
     List<String> candidateNames = new ArrayList<>();
-    CSVRecord csvRecord = parser.iterator().next();
-    for (int col = firstVoteColumnIndex; col < csvRecord.size(); col++) {
-      String candidateName = csvRecord.get(col);
+    boolean hasHeader = parser.nextRecord((col, bytes, length) -> {
+      if (col < firstVoteColumnIndex) {
+        return;
+      }
+      String candidateName = MappedCsvParser.decode(bytes, length);
       if (isNullOrBlank(candidateName)) {
         Logger.severe("Candidate name at the top of column %d cannot be empty!", col);
         throw new CastVoteRecord.CvrParseException();
       }
       candidateNames.add(candidateName);
+    });
+    if (!hasHeader) {
+      Logger.severe("No candidate names found: the file is empty!");
+      throw new CastVoteRecord.CvrParseException();
+    }
+    return candidateNames.toArray(new String[0]);
+  }
+
+  // Collects the cells of one CVR row as they're read, building its rankings into arrays which go
+  // straight into the record's CandidateRankingsList. One is used for every row parsed on a
+  // thread, so parsing allocates little more than the records themselves.
+  private final class RecordBuilder implements MappedCsvParser.CellHandler {
+
+    private final String[] candidateNames;
+    private final int undeclaredWriteInColumn;
+    // the rankings read so far in this row, in column order
+    private final int[] rankings;
+    private final String[] rankedCandidateNames;
+    private int numRankings = 0;
+    private int numColumns = 0;
+    // the row's first cell, for error messages
+    private byte[] firstCell = new byte[16];
+    private int firstCellLength = 0;
+    private String suppliedId = null;
+    private String suppliedPrecinctId = null;
+    private String suppliedBatchId = null;
+
+    RecordBuilder(String[] candidateNames, int undeclaredWriteInColumn) {
+      this.candidateNames = candidateNames;
+      this.undeclaredWriteInColumn = undeclaredWriteInColumn;
+      this.rankings = new int[candidateNames.length];
+      this.rankedCandidateNames = new String[candidateNames.length];
     }
 
-    parser.stream().skip(firstVoteRowIndex - 1);
+    @Override
+    public void handleCell(int column, byte[] bytes, int length)
+        throws CastVoteRecord.CvrParseException {
+      numColumns = column + 1;
+      if (column == 0) {
+        if (length > firstCell.length) {
+          firstCell = new byte[length];
+        }
+        System.arraycopy(bytes, 0, firstCell, 0, length);
+        firstCellLength = length;
+      }
+      if (idColumnIndex != null && column == idColumnIndex) {
+        suppliedId = MappedCsvParser.decode(bytes, length);
+      }
+      if (precinctColumnIndex != null && column == precinctColumnIndex) {
+        suppliedPrecinctId = MappedCsvParser.decode(bytes, length);
+      }
+      if (batchColumnIndex != null && column == batchColumnIndex) {
+        suppliedBatchId = MappedCsvParser.decode(bytes, length);
+      }
+      if (column >= firstVoteColumnIndex) {
+        addRanking(column, bytes, length);
+      }
+    }
+
+    private void addRanking(int col, byte[] bytes, int length)
+        throws CastVoteRecord.CvrParseException {
+      // trim as String.trim() does
+      int start = 0;
+      int end = length;
+      while (start < end && (bytes[start] & 0xFF) <= ' ') {
+        start++;
+      }
+      while (end > start && (bytes[end - 1] & 0xFF) <= ' ') {
+        end--;
+      }
+      int rankAsInt = 0;
+      if (start == end) {
+        // blank, unless trim() removed control characters which aren't whitespace
+        for (int i = 0; i < length && rankAsInt == 0; i++) {
+          rankAsInt = Character.isWhitespace(bytes[i]) ? 0 : -1;
+        }
+        if (rankAsInt == 0) {
+          return;
+        }
+      } else if (end - start <= 9) {
+        // small enough that it can't overflow; any non-digit falls back to parseInt below
+        for (int i = start; i < end && rankAsInt >= 0; i++) {
+          int digit = bytes[i] - '0';
+          rankAsInt = digit >= 0 && digit <= 9 ? rankAsInt * 10 + digit : -1;
+        }
+      } else {
+        rankAsInt = -1;
+      }
+      if (rankAsInt < 0) {
+        String rankAsString = MappedCsvParser.decode(bytes, length);
+        if (isNullOrBlank(rankAsString)) {
+          return;
+        }
+        try {
+          rankAsString = rankAsString.trim();
+          rankAsInt = Integer.parseInt(rankAsString);
+        } catch (NumberFormatException e) {
+          Logger.severe(
+              "Row %s expected number at column %d, but got \"%s\" instead.",
+              MappedCsvParser.decode(firstCell, firstCellLength), col, rankAsString);
+          throw new CastVoteRecord.CvrParseException();
+        }
+      }
+
+      int candidateIndex = col - firstVoteColumnIndex;
+      String candidateId =
+          candidateIndex == undeclaredWriteInColumn
+              ? Tabulator.UNDECLARED_WRITE_IN_OUTPUT_LABEL
+              : candidateNames[candidateIndex];
+      rankings[numRankings] = rankAsInt;
+      rankedCandidateNames[numRankings] = candidateId;
+      numRankings++;
+    }
+
+    // create the CastVoteRecord for the row just read, and reset for the next row
+    CastVoteRecord build(int index) throws CastVoteRecord.CvrParseException {
+      if (lastIdentifierColumnIndex >= numColumns) {
+        Logger.severe(
+            "Row %s has %d column(s), but column %d is needed for its ID, precinct, or batch.",
+            MappedCsvParser.decode(firstCell, firstCellLength),
+            numColumns,
+            lastIdentifierColumnIndex + 1);
+        throw new CastVoteRecord.CvrParseException();
+      }
+      String computedPrecinctId = null;
+      if (precinctColumnIndex != null) {
+        computedPrecinctId = isNullOrBlank(suppliedPrecinctId)
+                ? "no precinct id" : suppliedPrecinctId;
+      }
+      String computedBatchId = null;
+      if (batchColumnIndex != null) {
+        computedBatchId = isNullOrBlank(suppliedBatchId) ? "no batch id" : suppliedBatchId;
+      }
+
+      final CastVoteRecord newCvr = new CastVoteRecord(
+          Integer.toString(index),
+          suppliedId,
+          computedPrecinctId,
+          computedBatchId,
+          numRankings > 0 && usesLastAllowedRanking(rankings[numRankings - 1], null),
+          new CandidateRankingsList(rankings, rankedCandidateNames, numRankings));
+
+      numRankings = 0;
+      numColumns = 0;
+      firstCellLength = 0;
+      suppliedId = null;
+      suppliedPrecinctId = null;
+      suppliedBatchId = null;
+      return newCvr;
+    }
+  }
+
+  // the records parsed from one chunk, along with any problem which stopped the chunk early and
+  // what was logged for it
+  private static final class ParsedChunk {
 
-    return candidateNames;
+    private final List<CastVoteRecord> castVoteRecords = new ArrayList<>();
+    private CastVoteRecord.CvrParseException parseException = null;
+    private IOException readException = null;
+    private List<LogRecord> failureLogRecords = List.of();
   }
 }
@@ -0,0 +1,235 @@
+/*
+ * RCTab
+ * Copyright (c) 2017-2023 Bright Spots Developers.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+/*
+ * Purpose: Stream the sessions out of a Dominion CvrExport JSON file.
+ * Design: Uses the Jackson streaming API to walk the top-level "Sessions" array one token at a
+ * time. Each session is collected into a small Session object and handed to a callback before the
+ * next one is read, so memory use doesn't grow with the size of the file. Contests other than the
+ * ones being loaded are skipped without being materialized. Fields may appear in any order within
+ * an object; unrecognized fields are skipped.
+ * Conditions: When reading Dominion election data.
+ * Version history: see https://github.com/BrightSpots/rcv.
+ */
+
+package network.brightspots.rcv;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import network.brightspots.rcv.CastVoteRecord.CvrParseException;
+
+final class DominionCvrExportParser {
+
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+  private final Set<String> contestIdsToLoad;
+  private final int excludeContestConditionId;
+
+  DominionCvrExportParser(Set<String> contestIdsToLoad, int excludeContestConditionId) {
+    this.contestIdsToLoad = contestIdsToLoad;
+    this.excludeContestConditionId = excludeContestConditionId;
+  }
+
+  // parse cvrExportFile, calling sessionHandler with each session in file order
+  void parse(File cvrExportFile, SessionHandler sessionHandler)
+      throws IOException, CvrParseException {
+    try (JsonParser parser = JSON_FACTORY.createParser(cvrExportFile)) {
+      expectToken(parser, parser.nextToken(), JsonToken.START_OBJECT);
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String fieldName = parser.currentName();
+        JsonToken valueToken = parser.nextToken();
+        // top-level "Sessions" array contains Cvr objects from different tabulators
+        if (fieldName.equals("Sessions") && valueToken == JsonToken.START_ARRAY) {
+          while (parser.nextToken() != JsonToken.END_ARRAY) {
+            sessionHandler.handle(parseSession(parser));
+          }
+        } else {
+          parser.skipChildren();
+        }
+      }
+    }
+  }
+
+  private Session parseSession(JsonParser parser) throws IOException {
+    expectToken(parser, parser.currentToken(), JsonToken.START_OBJECT);
+    String tabulatorId = null;
+    String batchId = null;
+    Integer recordId = null;
+    Ballot original = null;
+    Ballot modified = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String fieldName = parser.currentName();
+      parser.nextToken();
+      switch (fieldName) {
+        case "TabulatorId" -> tabulatorId = parser.getText();
+        case "BatchId" -> batchId = parser.getText();
+        case "RecordId" -> recordId = readInteger(parser);
+        case "Original" -> original = parseBallot(parser);
+        case "Modified" -> modified = parseBallot(parser);
+        default -> parser.skipChildren();
+      }
+    }
+    return new Session(tabulatorId, batchId, recordId, original, modified);
+  }
+
+  // parse the "Original" or "Modified" adjudicated data for a session; null stays null
+  private Ballot parseBallot(JsonParser parser) throws IOException {
+    if (parser.currentToken() == JsonToken.VALUE_NULL) {
+      return null;
+    }
+    expectToken(parser, parser.currentToken(), JsonToken.START_OBJECT);
+    boolean isCurrent = false;
+    Integer precinctId = null;
+    Integer precinctPortionId = null;
+    List<ContestMarks> cardContests = null;
+    List<ContestMarks> contests = new ArrayList<>(1);
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String fieldName = parser.currentName();
+      parser.nextToken();
+      switch (fieldName) {
+        case "IsCurrent" -> isCurrent = parser.getBooleanValue();
+        case "PrecinctId" -> precinctId = readInteger(parser);
+        case "PrecinctPortionId" -> precinctPortionId = readInteger(parser);
+        // sometimes there is a "Cards" array at this level, and each card has its own contests
+        case "Cards" -> {
+          expectToken(parser, parser.currentToken(), JsonToken.START_ARRAY);
+          cardContests = new ArrayList<>(1);
+          while (parser.nextToken() != JsonToken.END_ARRAY) {
+            parseCard(parser, cardContests);
+          }
+        }
+        case "Contests" -> parseContests(parser, contests);
+        default -> parser.skipChildren();
+      }
+    }
+    return new Ballot(
+        isCurrent, precinctId, precinctPortionId, cardContests != null ? cardContests : contests);
+  }
+
+  private void parseCard(JsonParser parser, List<ContestMarks> contests) throws IOException {
+    expectToken(parser, parser.currentToken(), JsonToken.START_OBJECT);
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String fieldName = parser.currentName();
+      parser.nextToken();
+      if (fieldName.equals("Contests")) {
+        parseContests(parser, contests);
+      } else {
+        parser.skipChildren();
+      }
+    }
+  }
+
+  // add each contest in the array matching contestIdsToLoad to contests
+  private void parseContests(JsonParser parser, List<ContestMarks> contests) throws IOException {
+    expectToken(parser, parser.currentToken(), JsonToken.START_ARRAY);
+    while (parser.nextToken() != JsonToken.END_ARRAY) {
+      ContestMarks contest = parseContest(parser);
+      if (contest != null) {
+        contests.add(contest);
+      }
+    }
+  }
+
+  // returns null if this isn't one of the contests we're loading
+  private ContestMarks parseContest(JsonParser parser) throws IOException {
+    expectToken(parser, parser.currentToken(), JsonToken.START_OBJECT);
+    String contestId = null;
+    boolean isOutstack = false;
+    List<Mark> marks = new ArrayList<>();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String fieldName = parser.currentName();
+      parser.nextToken();
+      if (fieldName.equals("Id")) {
+        contestId = parser.getText();
+        if (!contestIdsToLoad.contains(contestId)) {
+          // skip the rest of this contest object
+          while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            parser.nextToken();
+            parser.skipChildren();
+          }
+          return null;
+        }
+      } else if (fieldName.equals("OutstackConditionIds")) {
+        expectToken(parser, parser.currentToken(), JsonToken.START_ARRAY);
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+          isOutstack |= parser.getIntValue() == excludeContestConditionId;
+        }
+      } else if (fieldName.equals("Marks")) {
+        expectToken(parser, parser.currentToken(), JsonToken.START_ARRAY);
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+          marks.add(parseMark(parser));
+        }
+      } else {
+        parser.skipChildren();
+      }
+    }
+    if (contestId == null) {
+      throw new JsonParseException(parser, "Contest has no \"Id\" field");
+    }
+    return new ContestMarks(contestId, isOutstack, marks);
+  }
+
+  private static Mark parseMark(JsonParser parser) throws IOException {
+    expectToken(parser, parser.currentToken(), JsonToken.START_OBJECT);
+    String candidateId = null;
+    Integer rank = null;
+    boolean isAmbiguous = false;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String fieldName = parser.currentName();
+      parser.nextToken();
+      switch (fieldName) {
+        case "CandidateId" -> candidateId = parser.getText();
+        case "Rank" -> rank = readInteger(parser);
+        case "IsAmbiguous" -> isAmbiguous = parser.getBooleanValue();
+        default -> parser.skipChildren();
+      }
+    }
+    return new Mark(rank, candidateId, isAmbiguous);
+  }
+
+  private static Integer readInteger(JsonParser parser) throws IOException {
+    return parser.currentToken() == JsonToken.VALUE_NULL ? null : parser.getIntValue();
+  }
+
+  private static void expectToken(JsonParser parser, JsonToken token, JsonToken expected)
+      throws JsonParseException {
+    if (token != expected) {
+      throw new JsonParseException(
+          parser, String.format("Expected %s but found %s", expected, token));
+    }
+  }
+
+  @FunctionalInterface
+  interface SessionHandler {
+
+    void handle(Session session) throws CvrParseException;
+  }
+
+  // a session is one scanned ballot, possibly with adjudicated ("Modified") data
+  record Session(
+      String tabulatorId, String batchId, Integer recordId, Ballot original, Ballot modified) {}
+
+  // contests holds only the contests matching contestIdsToLoad
+  record Ballot(
+      boolean isCurrent,
+      Integer precinctId,
+      Integer precinctPortionId,
+      List<ContestMarks> contests) {}
+
+  record ContestMarks(String contestId, boolean isOutstack, List<Mark> marks) {}
+
+  record Mark(Integer rank, String candidateId, boolean isAmbiguous) {}
+}
@@ -11,9 +11,11 @@
  * Purpose: Read and parse Dominion election data for a contest into CastVoteRecord objects and
  * other election metadata (candidate names, precinct name, etc.).
  * Design: Dominion uses a set of JSON files to store election data.  This class uses Jackson
- * ObjectMapper to read these JSON files into memory at once.  This simplifies parsing code, but
- * does have the limitation that the memory footprint during parsing is proportional to the size of
- * the CVR JSON file.
+ * ObjectMapper to read the manifest files into memory at once, which keeps that code simple since
+ * manifests are small.  CvrExport files can be very large, so they are streamed one session at a
+ * time by DominionCvrExportParser and the memory footprint doesn't grow with their size.  When
+ * several contests are tabulated from the same export, it's scanned once for all of them (see
+ * SharedCvrExports).
  * Conditions: When reading Dominion election data.
  * Version history: see https://github.com/BrightSpots/rcv.
  */
@@ -22,6 +24,7 @@ package network.brightspots.rcv;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -32,10 +35,16 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.LogRecord;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javafx.util.Pair;
 import network.brightspots.rcv.CastVoteRecord.CvrParseException;
+import network.brightspots.rcv.DominionCvrExportParser.Ballot;
+import network.brightspots.rcv.DominionCvrExportParser.ContestMarks;
+import network.brightspots.rcv.DominionCvrExportParser.Mark;
+import network.brightspots.rcv.DominionCvrExportParser.Session;
 
 @SuppressWarnings("rawtypes")
 class DominionCvrReader extends BaseCvrReader {
@@ -263,162 +272,283 @@ class DominionCvrReader extends BaseCvrReader {
   // parse the CVR file or files into a List of CastVoteRecords for tabulation
   private void gatherCvrsForContest(List<CastVoteRecord> castVoteRecords, String contestIdToLoad) {
     try {
-      Path singleCvrPath = Paths.get(cvrPath, CVR_EXPORT);
-
-      if (singleCvrPath.toFile().exists()) {
-        HashMap json = JsonParser.readFromFile(singleCvrPath.toString(), HashMap.class);
-        parseCvrFile(json, castVoteRecords, contestIdToLoad);
-        logCvrParsingComplete(1);
-      } else {
-        // We are expecting multiple CvrExport_N.json files
-        String regexPath = CVR_EXPORT_PATTERN.replaceAll("%d", "\\\\d+");
-        File cvrDirectory = new File(cvrPath);
-        File[] matchedCvrFileArray = cvrDirectory.listFiles((dir, name) -> name.matches(regexPath));
-
-        if (matchedCvrFileArray == null || matchedCvrFileArray.length == 0) {
-          String errorMessage = "Error parsing Dominion cast vote records:"
-                  + " CvrExport.json file(s) not located";
-          throw new FileNotFoundException(errorMessage);
+      List<List<Session>> sharedSessions =
+          sharedExports != null ? sharedExports.takeScan(source, this::scanCvrExport) : null;
+      if (sharedSessions != null) {
+        // the export was already scanned for this contest; build the records from its sessions
+        for (List<Session> fileSessions : sharedSessions) {
+          ParsedCvrFile parsedCvrFile = new ParsedCvrFile(false);
+          for (Session session : fileSessions) {
+            parseSession(session, parsedCvrFile);
+          }
+          parsedCvrFile.addTo(castVoteRecords);
         }
+        logCvrParsingComplete(sharedSessions.size());
+      } else {
+        DominionCvrExportParser parser =
+            new DominionCvrExportParser(Set.of(contestIdToLoad), EXCLUDE_CONTEST_CONDITION_ID);
+        List<File> cvrFiles = findCvrExportFiles();
+        parseCvrFiles(
+            cvrFiles,
+            (file, isParallel) -> parseCvrFile(parser, file, isParallel),
+            parsedCvrFile -> parsedCvrFile.addTo(castVoteRecords));
+        logCvrParsingComplete(cvrFiles.size());
+      }
+    } catch (IOException | CvrParseException exception) {
+      Logger.severe("Error parsing cast vote record:\n%s", exception);
+      castVoteRecords.clear();
+    }
+  }
+
+  // returns either the single CvrExport.json file or the CvrExport_N.json files, sorted by path
+  private List<File> findCvrExportFiles() throws FileNotFoundException {
+    Path singleCvrPath = Paths.get(cvrPath, CVR_EXPORT);
+    if (singleCvrPath.toFile().exists()) {
+      return List.of(singleCvrPath.toFile());
+    }
+
+    // We are expecting multiple CvrExport_N.json files
+    String regexPath = CVR_EXPORT_PATTERN.replaceAll("%d", "\\\\d+");
+    File cvrDirectory = new File(cvrPath);
+    File[] matchedCvrFileArray = cvrDirectory.listFiles((dir, name) -> name.matches(regexPath));
 
-        List<File> matchedCvrFiles = Arrays.asList(matchedCvrFileArray);
-        matchedCvrFiles.sort(Comparator.comparing(File::getAbsolutePath));
+    if (matchedCvrFileArray == null || matchedCvrFileArray.length == 0) {
+      String errorMessage = "Error parsing Dominion cast vote records:"
+              + " CvrExport.json file(s) not located";
+      throw new FileNotFoundException(errorMessage);
+    }
+
+    List<File> matchedCvrFiles = Arrays.asList(matchedCvrFileArray);
+    matchedCvrFiles.sort(Comparator.comparing(File::getAbsolutePath));
+    return matchedCvrFiles;
+  }
 
-        int filesParsed = 0;
+  // Scan the export once for all of contestIds, for SharedCvrExports. Each session is routed
+  // to every contest it has marks for; sessions with no adjudicated rankings go to every contest,
+  // so each contest logs them just as its own read would have.
+  private Map<String, List<List<Session>>> scanCvrExport(Set<String> contestIds)
+      throws FileNotFoundException, CvrParseException {
+    DominionCvrExportParser parser =
+        new DominionCvrExportParser(contestIds, EXCLUDE_CONTEST_CONDITION_ID);
+    Map<String, List<List<Session>>> sessionsByContest = new HashMap<>();
+    for (String contestId : contestIds) {
+      sessionsByContest.put(contestId, new ArrayList<>());
+    }
+    parseCvrFiles(
+        findCvrExportFiles(),
+        (file, isParallel) -> scanCvrFile(parser, file, contestIds),
+        fileSessions -> {
+          for (String contestId : contestIds) {
+            sessionsByContest.get(contestId).add(fileSessions.get(contestId));
+          }
+        });
+    return sessionsByContest;
+  }
 
-        for (File file : matchedCvrFiles) {
-          HashMap json = JsonParser.readFromFile(file.toString(), HashMap.class);
-          parseCvrFile(json, castVoteRecords, contestIdToLoad);
-          filesParsed++;
+  private Map<String, List<Session>> scanCvrFile(
+      DominionCvrExportParser parser, File cvrFile, Set<String> contestIds)
+      throws CvrParseException {
+    Map<String, List<Session>> fileSessions = new HashMap<>();
+    for (String contestId : contestIds) {
+      fileSessions.put(contestId, new ArrayList<>());
+    }
+    try {
+      parser.parse(cvrFile, session -> {
+        Ballot adjudicatedData = session.original().isCurrent()
+            ? session.original()
+            : session.modified();
+        if (adjudicatedData == null) {
+          fileSessions.values().forEach(sessions -> sessions.add(session));
+          return;
         }
-        this.logCvrParsingComplete(filesParsed);
+        // a read of any one contest validates the precinct, even on ballots without that contest
+        validatePrecinct(adjudicatedData);
+        for (ContestMarks contest : adjudicatedData.contests()) {
+          List<Session> sessions = fileSessions.get(contest.contestId());
+          // a ballot can have more than one card with the same contest; route the session once
+          if (sessions.isEmpty() || sessions.get(sessions.size() - 1) != session) {
+            sessions.add(session);
+          }
+        }
+      });
+    } catch (IOException exception) {
+      Logger.severe(
+          """
+              Error parsing JSON file: %s
+              %s
+              Check file formatting and values and make sure they are correct!""",
+          cvrFile, exception);
+      throw new CvrParseException();
+    }
+    return fileSessions;
+  }
+
+  // Parse the export's files with fileParser, then hand each result to resultConsumer in file
+  // order. The files are independent, so when there are several they are parsed in parallel on the
+  // common ForkJoinPool, with everything logged while parsing a file held until its result is
+  // handed on (see OrderedParallelTasks); fileParser is told when that's the case so it can hold
+  // its progress messages too.
+  private static <T> void parseCvrFiles(
+      List<File> cvrFiles, CvrFileParser<T> fileParser, ParsedFileConsumer<T> resultConsumer)
+      throws CvrParseException {
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    if (cvrFiles.size() < 2 || pool.getParallelism() < 2) {
+      for (File file : cvrFiles) {
+        resultConsumer.accept(fileParser.parse(file, false));
       }
-    } catch (FileNotFoundException | CvrParseException exception) {
-      Logger.severe("Error parsing cast vote record:\n%s", exception);
-      castVoteRecords.clear();
+      return;
+    }
+
+    try (OrderedParallelTasks<T, CvrParseException> parsedFiles =
+        OrderedParallelTasks.onCommonPool(
+            cvrFiles.size(), index -> fileParser.parse(cvrFiles.get(index), true))) {
+      while (parsedFiles.hasNext()) {
+        resultConsumer.accept(parsedFiles.next());
+      }
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+      Logger.severe("Parsing cast vote records was interrupted!");
+      throw new CvrParseException();
     }
   }
 
-  private void parseCvrFile(
-      HashMap json, List<CastVoteRecord> castVoteRecords, String contestIdToLoad)
+  // stream the sessions in one CvrExport file, collecting a CastVoteRecord for each one which has
+  // a ranking for the contest we're loading
+  private ParsedCvrFile parseCvrFile(
+      DominionCvrExportParser parser, File cvrFile, boolean isLoggingDeferred)
       throws CvrParseException {
-    // top-level "Sessions" object contains a lists of Cvr objects from different tabulators
-    ArrayList sessions = (ArrayList) json.get("Sessions");
-    // for each Cvr object extract various fields
-    for (Object sessionObject : sessions) {
-      HashMap session = (HashMap) sessionObject;
-      // extract various ids
-      String tabulatorId = session.get("TabulatorId").toString();
-      String batchId = session.get("BatchId").toString();
-      Integer recordId = (Integer) session.get("RecordId");
-
-      // filter out records which are not current and replace them with adjudicated ones
-      HashMap adjudicatedData = (HashMap) session.get("Original");
-      boolean isCurrent = (boolean) adjudicatedData.get("IsCurrent");
-      if (!isCurrent) {
-        if (session.containsKey("Modified")) {
-          adjudicatedData = (HashMap) session.get("Modified");
-        } else {
-          Logger.warning(
-              "CVR has no adjudicated rankings, skipping: "
-                  + "Tabulator ID: %s Batch ID: %s Record ID: %d",
-              tabulatorId, batchId, recordId);
-          continue;
-        }
+    ParsedCvrFile parsedCvrFile = new ParsedCvrFile(isLoggingDeferred);
+    if (!isLoggingDeferred) {
+      parseCvrFileInto(parser, cvrFile, parsedCvrFile);
+      return parsedCvrFile;
+    }
+    // A parse which fails stops with an error logged, after the progress messages for the records
+    // parsed before it. The error is held, with the failure, until those messages are logged.
+    Logger.startDeferringOnCurrentThread();
+    try {
+      parseCvrFileInto(parser, cvrFile, parsedCvrFile);
+    } catch (CvrParseException exception) {
+      parsedCvrFile.failure = exception;
+    } finally {
+      parsedCvrFile.failureLogRecords = Logger.stopDeferringOnCurrentThread();
+    }
+    return parsedCvrFile;
+  }
+
+  private void parseCvrFileInto(
+      DominionCvrExportParser parser, File cvrFile, ParsedCvrFile parsedCvrFile)
+      throws CvrParseException {
+    try {
+      parser.parse(cvrFile, session -> parseSession(session, parsedCvrFile));
+    } catch (IOException exception) {
+      Logger.severe(
+          """
+              Error parsing JSON file: %s
+              %s
+              Check file formatting and values and make sure they are correct!""",
+          cvrFile, exception);
+      throw new CvrParseException();
+    }
+  }
+
+  private void parseSession(Session session, ParsedCvrFile parsedCvrFile)
+      throws CvrParseException {
+    // filter out records which are not current and replace them with adjudicated ones
+    Ballot adjudicatedData = session.original();
+    if (!adjudicatedData.isCurrent()) {
+      if (session.modified() != null) {
+        adjudicatedData = session.modified();
+      } else {
+        parsedCvrFile.skipSession(session);
+        return;
       }
-      // validate precinct (may not exist for older data sets)
-      Integer precinctId = (Integer) adjudicatedData.get("PrecinctId");
-      if (precinctId != null
-          && (this.precincts == null || !this.precincts.containsKey(precinctId))) {
-        Logger.severe("Precinct ID \"%d\" from CVR not found in manifest data!", precinctId);
-        throw new CvrParseException();
+    }
+    validatePrecinct(adjudicatedData);
+    String precinct =
+        this.precincts != null ? this.precincts.get(adjudicatedData.precinctId()) : null;
+    String precinctPortion = this.precinctPortions.get(adjudicatedData.precinctPortionId());
+
+    // extract various ids
+    String tabulatorId = session.tabulatorId();
+    String batchId = session.batchId();
+    Integer recordId = session.recordId();
+
+    // each contest object for the contest we're loading is a cvr (sessions from a shared export
+    // also have the marks for other contests)
+    for (ContestMarks contest : adjudicatedData.contests()) {
+      String contestId = contest.contestId();
+      if (!contestId.equals(source.getContestId())) {
+        continue;
       }
-      String precinct = this.precincts != null ? this.precincts.get(precinctId) : null;
-      // validate precinct portion
-      Integer precinctPortionId = (Integer) adjudicatedData.get("PrecinctPortionId");
-      if (precinctPortionId != null && !this.precinctPortions.containsKey(precinctPortionId)) {
-        Logger.severe(
-            "Precinct portion ID \"%d\" from CVR not found in manifest data!", precinctPortionId);
+      // validate contest id
+      if (!this.contests.containsKey(contestId)) {
+        Logger.severe("Unknown contest ID '%s' found while parsing CVR!", contestId);
         throw new CvrParseException();
       }
-      String precinctPortion = this.precinctPortions.get(precinctPortionId);
-
-      ArrayList cardsList;
-      // sometimes there is a "Cards" object at this level
-      if (adjudicatedData.containsKey("Cards")) {
-        cardsList = (ArrayList) adjudicatedData.get("Cards");
-      } else {
-        ArrayList<HashMap> oneCardList = new ArrayList<>(1);
-        oneCardList.add(adjudicatedData);
-        cardsList = oneCardList;
+      if (contest.isOutstack()) {
+        parsedCvrFile.recordsWithOutstackCondition++;
+        continue;
       }
 
-      for (Object cardObject : cardsList) {
-        HashMap card = (HashMap) cardObject;
-        ArrayList contests = (ArrayList) card.get("Contests");
-
-        // each contest object is a cvr
-        for (Object contestObject : contests) {
-          HashMap contest = (HashMap) contestObject;
-          String contestId = contest.get("Id").toString();
-          // skip this CVR if it's not for the contest we're interested in
-          if (!contestId.equals(contestIdToLoad)) {
-            continue;
-          }
-          // validate contest id
-          if (!this.contests.containsKey(contestId)) {
-            Logger.severe("Unknown contest ID '%s' found while parsing CVR!", contestId);
-            throw new CvrParseException();
-          }
-          ArrayList outstackConditionIds = (ArrayList) contest.get("OutstackConditionIds");
-          if (outstackConditionIds.contains(EXCLUDE_CONTEST_CONDITION_ID)) {
-            this.recordsWithOutstackCondition++;
-            continue;
-          }
-
-          this.logCvrRecordParsed();
-
-          ArrayList<Pair<Integer, String>> rankings = new ArrayList<>();
-          // marks is an array of rankings
-          ArrayList marks = (ArrayList) contest.get("Marks");
-          for (Object rankingObject : marks) {
-            HashMap rankingMap = (HashMap) rankingObject;
-            // skip ambiguous rankings
-            boolean isAmbiguous = (boolean) rankingMap.get("IsAmbiguous");
-            if (isAmbiguous) {
-              continue;
-            }
-            String dominionCandidateId = rankingMap.get("CandidateId").toString();
-            if (dominionCandidateId.equals(source.getUndeclaredWriteInLabel())) {
-              dominionCandidateId = Tabulator.UNDECLARED_WRITE_IN_OUTPUT_LABEL;
-            }
-            Integer rank = (Integer) rankingMap.get("Rank");
-            Pair<Integer, String> ranking = new Pair<>(rank, dominionCandidateId);
-            rankings.add(ranking);
-          }
-          // create the new cvr
-          String suppliedId = recordId.toString();
-          String computedId =
-                  Stream.of(tabulatorId, batchId, Integer.toString(recordId))
-                          .filter(s -> s != null && !s.isBlank())
-                          // dashes are not escaped when writing to file e.g. CDF
-                          .collect(Collectors.joining("-"));
-          CastVoteRecord newCvr = new CastVoteRecord(
-              contestId,
-              tabulatorId,
-              batchId,
-              suppliedId,
-              computedId,
-              precinct,
-              precinctPortion,
-              usesLastAllowedRanking(rankings, contestId),
-              rankings);
-          castVoteRecords.add(newCvr);
+      ArrayList<Pair<Integer, String>> rankings = new ArrayList<>();
+      // marks is an array of rankings
+      for (Mark mark : contest.marks()) {
+        // skip ambiguous rankings
+        if (mark.isAmbiguous()) {
+          continue;
         }
+        String dominionCandidateId = mark.candidateId();
+        if (dominionCandidateId.equals(source.getUndeclaredWriteInLabel())) {
+          dominionCandidateId = Tabulator.UNDECLARED_WRITE_IN_OUTPUT_LABEL;
+        }
+        Pair<Integer, String> ranking = new Pair<>(mark.rank(), dominionCandidateId);
+        rankings.add(ranking);
       }
+      // create the new cvr
+      String suppliedId = recordId.toString();
+      String computedId =
+              Stream.of(tabulatorId, batchId, Integer.toString(recordId))
+                      .filter(s -> s != null && !s.isBlank())
+                      // dashes are not escaped when writing to file e.g. CDF
+                      .collect(Collectors.joining("-"));
+      CastVoteRecord newCvr = new CastVoteRecord(
+          contestId,
+          tabulatorId,
+          batchId,
+          suppliedId,
+          computedId,
+          precinct,
+          precinctPortion,
+          usesLastAllowedRanking(rankings, contestId),
+          rankings);
+      parsedCvrFile.addCastVoteRecord(newCvr);
+    }
+  }
+
+  private void validatePrecinct(Ballot adjudicatedData) throws CvrParseException {
+    // validate precinct (may not exist for older data sets)
+    Integer precinctId = adjudicatedData.precinctId();
+    if (precinctId != null
+        && (this.precincts == null || !this.precincts.containsKey(precinctId))) {
+      Logger.severe("Precinct ID \"%d\" from CVR not found in manifest data!", precinctId);
+      throw new CvrParseException();
+    }
+    // validate precinct portion
+    Integer precinctPortionId = adjudicatedData.precinctPortionId();
+    if (precinctPortionId != null && !this.precinctPortions.containsKey(precinctPortionId)) {
+      Logger.severe(
+          "Precinct portion ID \"%d\" from CVR not found in manifest data!", precinctPortionId);
+      throw new CvrParseException();
     }
   }
 
+  private static void logSkippedSession(Session session) {
+    Logger.warning(
+        "CVR has no adjudicated rankings, skipping: "
+            + "Tabulator ID: %s Batch ID: %s Record ID: %d",
+        session.tabulatorId(), session.batchId(), session.recordId());
+  }
+
   public void logCvrParsingComplete(int totalFiles) {
     String additionalText = "";
     if (this.recordsWithOutstackCondition > 0) {
@@ -435,6 +565,77 @@ class DominionCvrReader extends BaseCvrReader {
     super.logCvrParsingComplete(additionalText);
   }
 
+  @FunctionalInterface
+  private interface CvrFileParser<T> {
+
+    T parse(File cvrFile, boolean isParallel) throws CvrParseException;
+  }
+
+  @FunctionalInterface
+  private interface ParsedFileConsumer<T> {
+
+    void accept(T parsedFile) throws CvrParseException;
+  }
+
+  // The cast vote records parsed from one CvrExport file. When files are parsed in parallel, the
+  // progress and warning messages for a file, and the failure if parsing it failed, are held here
+  // until its records are added to the full list; otherwise they are logged as the file is parsed.
+  private final class ParsedCvrFile {
+
+    private final boolean isLoggingDeferred;
+    private final List<CastVoteRecord> castVoteRecords = new ArrayList<>();
+    // sessions skipped for having no adjudicated rankings, paired with the number of records
+    // parsed before each one (only used when logging is deferred)
+    private final List<Pair<Integer, Session>> skippedSessions = new ArrayList<>();
+    private int recordsWithOutstackCondition = 0;
+    // why parsing the file stopped, and what was logged when it did (only when logging is deferred)
+    private CvrParseException failure = null;
+    private List<LogRecord> failureLogRecords = List.of();
+
+    ParsedCvrFile(boolean isLoggingDeferred) {
+      this.isLoggingDeferred = isLoggingDeferred;
+    }
+
+    void addCastVoteRecord(CastVoteRecord castVoteRecord) {
+      if (!isLoggingDeferred) {
+        logCvrRecordParsed();
+      }
+      castVoteRecords.add(castVoteRecord);
+    }
+
+    void skipSession(Session session) {
+      if (isLoggingDeferred) {
+        skippedSessions.add(new Pair<>(castVoteRecords.size(), session));
+      } else {
+        logSkippedSession(session);
+      }
+    }
+
+    // log anything that was deferred, in the order it would have been logged during a serial
+    // parse, then add this file's records to allCastVoteRecords, or throw if parsing it failed
+    void addTo(List<CastVoteRecord> allCastVoteRecords) throws CvrParseException {
+      if (isLoggingDeferred) {
+        int nextSkippedSession = 0;
+        for (int i = 0; i <= castVoteRecords.size(); i++) {
+          while (nextSkippedSession < skippedSessions.size()
+              && skippedSessions.get(nextSkippedSession).getKey() == i) {
+            logSkippedSession(skippedSessions.get(nextSkippedSession).getValue());
+            nextSkippedSession++;
+          }
+          if (i < castVoteRecords.size()) {
+            logCvrRecordParsed();
+          }
+        }
+        Logger.logDeferred(failureLogRecords);
+        if (failure != null) {
+          throw failure;
+        }
+      }
+      allCastVoteRecords.addAll(castVoteRecords);
+      DominionCvrReader.this.recordsWithOutstackCondition += recordsWithOutstackCondition;
+    }
+  }
+
   // Candidate data from a Dominion candidate manifest Json
   @SuppressWarnings({"FieldCanBeLocal", "unused", "RedundantSuppression"})
   static class Candidate {
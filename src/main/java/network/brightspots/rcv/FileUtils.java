@@ -24,12 +24,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 final class FileUtils {
 
+  // size of the buffer used to read a file to hash it; smaller files get one just their size
+  private static final int HASH_BUFFER_SIZE = 1 << 20;
+
   // cache location for finding and creating user files and folders
   private static String initialDirectory = null;
 
@@ -61,7 +63,8 @@ final class FileUtils {
   static void createOutputDirectory(String dir) throws UnableToCreateDirectoryException {
     if (!isNullOrBlank(dir)) {
       File dirFile = new File(dir);
-      if (!dirFile.exists() && !dirFile.mkdirs()) {
+      // another thread may create the directory between the check and mkdirs, which is fine
+      if (!dirFile.exists() && !dirFile.mkdirs() && !dirFile.isDirectory()) {
         Logger.severe(
             "Failed to create output directory: %s\n" + "Check the directory name and permissions.",
             dir);
@@ -76,18 +79,19 @@ final class FileUtils {
     try {
       digest = MessageDigest.getInstance(algorithm);
 
+      // Read in large chunks into a heap array, which the digest reads directly; a direct or
+      // mapped buffer would only be copied into a small temporary array by the digest.
+      byte[] buffer = new byte[(int) Math.max(1, Math.min(file.length(), HASH_BUFFER_SIZE))];
       try (InputStream is = Files.newInputStream(file.toPath())) {
-        try (DigestInputStream hashingStream = new DigestInputStream(is, digest)) {
-          while (hashingStream.readNBytes(1024).length > 0) {
-            // Read in 1kb chunks -- don't need to do anything in the body here
-          }
+        int numRead;
+        while ((numRead = is.read(buffer)) != -1) {
+          digest.update(buffer, 0, numRead);
         }
+        bytesToReturn = digest.digest();
       } catch (IOException e) {
         Logger.severe("Failed to read file: %s", file.getAbsolutePath());
         bytesToReturn = "[hash not available]".getBytes(StandardCharsets.UTF_8);
       }
-
-      bytesToReturn = digest.digest();
     } catch (NoSuchAlgorithmException e) {
       Logger.severe("Failed to get the %s algorithm".formatted(algorithm));
       bytesToReturn = "[hash not available]".getBytes(StandardCharsets.UTF_8);
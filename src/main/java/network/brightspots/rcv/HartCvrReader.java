@@ -10,7 +10,9 @@
 /*
  * Purpose: Read and parse Hart election data for a contest into CastVoteRecord objects.
  * Design: Hart uses an xml file per CVR to store CVR data.  This class uses Jackson
- * XmlMapper to read these files into memory and parse the selections.
+ * XmlMapper to read these files into memory and parse the selections.  Files are read and
+ * verified in parallel, then added in file name order.  When several contests are tabulated from
+ * the same export, its files are read and verified once for all of them (see SharedCvrExports).
  * Conditions: Used when reading Hart election data.
  * Version history: see https://github.com/BrightSpots/rcv.
  */
@@ -18,22 +20,34 @@
 package network.brightspots.rcv;
 
 import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.dataformat.xml.XmlMapper;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.LogRecord;
 import java.util.stream.Collectors;
 import javafx.util.Pair;
 
 class HartCvrReader extends BaseCvrReader {
+
+  // XmlMapper is expensive to create; an ObjectReader is immutable and thread-safe, so a single
+  // one is shared by every file read
+  private static final ObjectReader HART_CVR_XML_READER =
+      new XmlMapper()
+          .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+          .readerFor(HartCvrXml.class);
+
   HartCvrReader(ContestConfig config, RawContestConfig.CvrSource source) {
     super(config, source);
     this.candidateCodesToCandidates = new HashMap<>();
@@ -82,95 +96,242 @@ class HartCvrReader extends BaseCvrReader {
   @Override
   void readCastVoteRecords(List<CastVoteRecord> castVoteRecords)
       throws CastVoteRecord.CvrParseException, IOException {
-    File cvrRoot = new File(this.cvrPath);
-    File[] children = cvrRoot.listFiles();
-    if (children != null) {
-      for (File child : children) {
-        String childNameLower = child.getName().toLowerCase();
-        if (childNameLower.endsWith("xml") && !childNameLower.endsWith(".sig.xml")) {
-          if (!verifyHashIfNeeded(child)) {
-            throw new CastVoteRecord.CvrParseException();
-          }
-          readCastVoteRecord(castVoteRecords, child.toPath());
-          // provide some user feedback on the Cvr count
-          logCvrRecordParsed();
+    List<ScannedCvrFile> scannedFiles =
+        sharedExports != null ? sharedExports.takeScan(source, this::scanCvrFiles) : null;
+    if (scannedFiles != null) {
+      // the export was already scanned; build the records from the files as they were read
+      for (ScannedCvrFile scannedFile : scannedFiles) {
+        Logger.logDeferred(scannedFile.verificationLogRecords);
+        addParsedFile(parseScannedFile(scannedFile), castVoteRecords);
+      }
+    } else {
+      List<File> cvrFiles = findCvrFiles();
+      ForkJoinPool pool = ForkJoinPool.commonPool();
+      if (cvrFiles.size() < 2 || pool.getParallelism() < 2) {
+        for (File file : cvrFiles) {
+          addParsedFile(readCvrFile(file), castVoteRecords);
         }
+      } else {
+        readCvrFilesInParallel(pool, cvrFiles, castVoteRecords);
       }
+    }
 
-      logCvrParsingComplete();
-    } else {
+    logCvrParsingComplete();
+  }
+
+  // the CVR files in the source input folder, in name order, so the records are in the same order
+  // on every system
+  private List<File> findCvrFiles() throws CastVoteRecord.CvrParseException {
+    File cvrRoot = new File(this.cvrPath);
+    File[] children = cvrRoot.listFiles();
+    if (children == null) {
       Logger.severe("Unable to find any files in directory: %s", cvrRoot.getAbsolutePath());
       throw new CastVoteRecord.CvrParseException();
     }
+    return Arrays.stream(children)
+        .filter(child -> {
+          String childNameLower = child.getName().toLowerCase();
+          return childNameLower.endsWith("xml") && !childNameLower.endsWith(".sig.xml");
+        })
+        .sorted(Comparator.comparing(File::getName))
+        .toList();
   }
 
-  // parse Cvr xml file into CastVoteRecord objects and add them to the input List<CastVoteRecord>
-  private void readCastVoteRecord(List<CastVoteRecord> castVoteRecords, Path path)
-      throws IOException {
-    XmlMapper xmlMapper = new XmlMapper();
-    xmlMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-    try (FileInputStream inputStream = new FileInputStream(path.toFile())) {
-      HartCvrXml xmlCvr = xmlMapper.readValue(inputStream, HartCvrXml.class);
-
-      for (Contest contest : xmlCvr.Contests) {
-        if (!contest.Id.equals(source.getContestId())) {
-          continue;
+  // Scan the export once for all of contestIds, for SharedCvrExports: verify and read every file,
+  // keeping only those contests' selections. Every contest's read uses the same list of files,
+  // each with the messages verifying it logged, so that each read logs them as its own would.
+  private Map<String, List<ScannedCvrFile>> scanCvrFiles(Set<String> contestIds)
+      throws CastVoteRecord.CvrParseException {
+    List<File> cvrFiles = findCvrFiles();
+    List<ScannedCvrFile> scannedFiles = new ArrayList<>(cvrFiles.size());
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    // signature validation settings are per-thread, so carry them over to the pool's threads
+    final SecurityConfig.Settings securitySettings = SecurityConfig.currentSettings();
+    OrderedParallelTasks.TaskSource<ScannedCvrFile, RuntimeException> fileScans =
+        OrderedParallelTasks.indexed(
+            cvrFiles.size(),
+            index -> securitySettings.callWith(() -> scanCvrFile(cvrFiles.get(index), contestIds)));
+    try (OrderedParallelTasks<ScannedCvrFile, RuntimeException> results =
+        new OrderedParallelTasks<>(pool, pool.getParallelism() * 16, fileScans)) {
+      while (results.hasNext()) {
+        scannedFiles.add(results.next());
+      }
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+      Logger.severe("Parsing cast vote records was interrupted!");
+      throw new CastVoteRecord.CvrParseException();
+    }
+    Map<String, List<ScannedCvrFile>> scannedFilesByContest = new HashMap<>();
+    for (String contestId : contestIds) {
+      scannedFilesByContest.put(contestId, scannedFiles);
+    }
+    return scannedFilesByContest;
+  }
+
+  private ScannedCvrFile scanCvrFile(File file, Set<String> contestIds) {
+    ScannedCvrFile scannedFile = new ScannedCvrFile(file);
+    Logger.startDeferringOnCurrentThread();
+    try {
+      scannedFile.isSignatureValid = verifyHashIfNeeded(file);
+    } finally {
+      scannedFile.verificationLogRecords = Logger.stopDeferringOnCurrentThread();
+    }
+    if (scannedFile.isSignatureValid) {
+      try (FileInputStream inputStream = new FileInputStream(file)) {
+        scannedFile.xmlCvr = HART_CVR_XML_READER.readValue(inputStream);
+        if (scannedFile.xmlCvr.Contests != null) {
+          scannedFile.xmlCvr.Contests.removeIf(contest -> !contestIds.contains(contest.Id));
         }
+      } catch (IOException exception) {
+        scannedFile.readException = exception;
+      }
+    }
+    return scannedFile;
+  }
 
-        ArrayList<Pair<Integer, String>> rankings = new ArrayList<>();
-        if (contest.Options != null) {
-          for (Option option : contest.Options) {
-
-            //Can be null with some write-ins
-            Candidate candidate = new Candidate(option.Name, option.Id);
-            if (candidate.Code.equals(source.getUndeclaredWriteInLabel())) {
-              candidate.Code = Tabulator.UNDECLARED_WRITE_IN_OUTPUT_LABEL;
-            } else {
-              this.candidateCodesToCandidates.putIfAbsent(candidate.Code, candidate);
-
-              if (!Objects.equals(this.candidateCodesToCandidates.get(candidate.Code).Name,
-                      candidate.Name)) {
-                // Some write-ins, when adjudicated, can have different or empty
-                // values for the option.Name field.
-                String message =
-                        "Candidate Code %s associated with more than one candidate name."
-                                + "Originally associated with name '%s'."
-                                + "In CVR at '%s' it is associated with '%s'."
-                                .formatted(candidate.Code,
-                                        this.candidateCodesToCandidates.get(candidate.Code).Name,
-                                        path.getFileName(), candidate.Name);
-                Logger.warning(message);
-              }
-            }
+  // this contest's records and candidates from a file read by scanCvrFile
+  private ParsedCvrFile parseScannedFile(ScannedCvrFile scannedFile) {
+    ParsedCvrFile parsedFile = new ParsedCvrFile(scannedFile.file);
+    parsedFile.isSignatureValid = scannedFile.isSignatureValid;
+    parsedFile.readException = scannedFile.readException;
+    if (scannedFile.xmlCvr != null) {
+      addContestRecords(scannedFile.xmlCvr, parsedFile);
+    }
+    return parsedFile;
+  }
+
+  // Exports have one small file per ballot, so most of the time goes to per-file overhead:
+  // opening, parsing, and (for signed exports) verifying each file. The files are independent, so
+  // they're read and verified in parallel on the common ForkJoinPool, and then added in order; the
+  // records, candidate map, and log output are the same as reading the files one at a time.
+  private void readCvrFilesInParallel(
+      ForkJoinPool pool, List<File> cvrFiles, List<CastVoteRecord> castVoteRecords)
+      throws CastVoteRecord.CvrParseException, IOException {
+    // Files are small, so keep enough in flight to keep every thread busy while the earliest one
+    // is being added.
+    final int maxFilesInFlight = pool.getParallelism() * 16;
+    // signature validation settings are per-thread, so carry them over to the pool's threads
+    final SecurityConfig.Settings securitySettings = SecurityConfig.currentSettings();
+    OrderedParallelTasks.TaskSource<ParsedCvrFile, RuntimeException> fileReads =
+        OrderedParallelTasks.indexed(
+            cvrFiles.size(),
+            index -> securitySettings.callWith(() -> readCvrFile(cvrFiles.get(index))));
+    try (OrderedParallelTasks<ParsedCvrFile, RuntimeException> parsedFiles =
+        new OrderedParallelTasks<>(pool, maxFilesInFlight, fileReads)) {
+      while (parsedFiles.hasNext()) {
+        addParsedFile(parsedFiles.next(), castVoteRecords);
+      }
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+      Logger.severe("Parsing cast vote records was interrupted!");
+      throw new CastVoteRecord.CvrParseException();
+    }
+  }
 
-            // Hart RCV election ranks are indicated by a string read left to right:
-            // each digit corresponds to a rank and is set to 1 if that rank was voted:
-            // 0100 indicates rank 2 was voted
-            // 0000 indicates no rank was voted (undervote)
-            // 0101 indicates ranks 2 and 4 are voted for one candidate (repeat ranking)
-            // 0100 in two different `Value` elements (within different `Option` elements)
-            // in the same CVR indicates two candidates recieved the same rank (overvote)
-            for (int rank = 1; rank < option.Value.length() + 1; rank++) {
-              String rankValue = option.Value.substring(rank - 1, rank);
-              if (rankValue.equals("1")) {
-                rankings.add(new Pair<>(rank, candidate.Code));
-              }
+  // Verify and parse one file. Problems are recorded in the result rather than thrown, so that
+  // addParsedFile reports them in file order.
+  private ParsedCvrFile readCvrFile(File file) {
+    ParsedCvrFile parsedFile = new ParsedCvrFile(file);
+    try {
+      parsedFile.isSignatureValid = verifyHashIfNeeded(file);
+      if (parsedFile.isSignatureValid) {
+        readCastVoteRecord(parsedFile);
+      }
+    } catch (IOException exception) {
+      parsedFile.readException = exception;
+    }
+    return parsedFile;
+  }
+
+  // Add a file's records to castVoteRecords and its candidates to candidateCodesToCandidates.
+  // This always runs on the reading thread, in file order, so the map needs no locking and
+  // "first name seen wins" means the same thing as in a serial read.
+  private void addParsedFile(ParsedCvrFile parsedFile, List<CastVoteRecord> castVoteRecords)
+      throws CastVoteRecord.CvrParseException, IOException {
+    if (!parsedFile.isSignatureValid) {
+      throw new CastVoteRecord.CvrParseException();
+    }
+    if (parsedFile.readException != null) {
+      throw parsedFile.readException;
+    }
+
+    for (Candidate candidate : parsedFile.candidates) {
+      this.candidateCodesToCandidates.putIfAbsent(candidate.Code, candidate);
+
+      if (!Objects.equals(this.candidateCodesToCandidates.get(candidate.Code).Name,
+              candidate.Name)) {
+        // Some write-ins, when adjudicated, can have different or empty
+        // values for the option.Name field.
+        String message =
+                "Candidate Code %s associated with more than one candidate name."
+                        + "Originally associated with name '%s'."
+                        + "In CVR at '%s' it is associated with '%s'."
+                        .formatted(candidate.Code,
+                                this.candidateCodesToCandidates.get(candidate.Code).Name,
+                                parsedFile.file.getName(), candidate.Name);
+        Logger.warning(message);
+      }
+    }
+    castVoteRecords.addAll(parsedFile.castVoteRecords);
+    // provide some user feedback on the Cvr count
+    logCvrRecordParsed();
+  }
+
+  // parse Cvr xml file into CastVoteRecord objects, collecting them and the candidates they
+  // mention in parsedFile
+  private void readCastVoteRecord(ParsedCvrFile parsedFile) throws IOException {
+    try (FileInputStream inputStream = new FileInputStream(parsedFile.file)) {
+      addContestRecords(HART_CVR_XML_READER.readValue(inputStream), parsedFile);
+    }
+  }
+
+  // collect a CastVoteRecord for each of the Cvr's selections for this contest, and the
+  // candidates they mention, in parsedFile
+  private void addContestRecords(HartCvrXml xmlCvr, ParsedCvrFile parsedFile) {
+    for (Contest contest : xmlCvr.Contests) {
+      if (!contest.Id.equals(source.getContestId())) {
+        continue;
+      }
+
+      ArrayList<Pair<Integer, String>> rankings = new ArrayList<>();
+      if (contest.Options != null) {
+        for (Option option : contest.Options) {
+
+          //Can be null with some write-ins
+          Candidate candidate = new Candidate(option.Name, option.Id);
+          if (candidate.Code.equals(source.getUndeclaredWriteInLabel())) {
+            candidate.Code = Tabulator.UNDECLARED_WRITE_IN_OUTPUT_LABEL;
+          } else {
+            parsedFile.candidates.add(candidate);
+          }
+
+          // Hart RCV election ranks are indicated by a string read left to right:
+          // each digit corresponds to a rank and is set to 1 if that rank was voted:
+          // 0100 indicates rank 2 was voted
+          // 0000 indicates no rank was voted (undervote)
+          // 0101 indicates ranks 2 and 4 are voted for one candidate (repeat ranking)
+          // 0100 in two different `Value` elements (within different `Option` elements)
+          // in the same CVR indicates two candidates recieved the same rank (overvote)
+          for (int rank = 1; rank < option.Value.length() + 1; rank++) {
+            String rankValue = option.Value.substring(rank - 1, rank);
+            if (rankValue.equals("1")) {
+              rankings.add(new Pair<>(rank, candidate.Code));
             }
           }
         }
-
-        CastVoteRecord cvr =
-                new CastVoteRecord(
-                    contest.Id,
-                    null,
-                    xmlCvr.BatchNumber,
-                    xmlCvr.CvrGuid,
-                    xmlCvr.PrecinctSplit.Name,
-                    xmlCvr.PrecinctSplit.Id,
-                    usesLastAllowedRanking(rankings, null),
-                    rankings);
-        castVoteRecords.add(cvr);
       }
+
+      CastVoteRecord cvr =
+              new CastVoteRecord(
+                  contest.Id,
+                  null,
+                  xmlCvr.BatchNumber,
+                  xmlCvr.CvrGuid,
+                  xmlCvr.PrecinctSplit.Name,
+                  xmlCvr.PrecinctSplit.Id,
+                  usesLastAllowedRanking(rankings, null),
+                  rankings);
+      parsedFile.castVoteRecords.add(cvr);
     }
   }
 
@@ -196,6 +357,36 @@ class HartCvrReader extends BaseCvrReader {
             .collect(Collectors.toSet());
   }
 
+  // The records and candidates read from one CVR file, along with any problem reading it
+  private static final class ParsedCvrFile {
+
+    private final File file;
+    private final List<CastVoteRecord> castVoteRecords = new ArrayList<>(1);
+    // every candidate in the file, in order, except undeclared write-ins
+    private final List<Candidate> candidates = new ArrayList<>();
+    private boolean isSignatureValid = false;
+    private IOException readException = null;
+
+    ParsedCvrFile(File file) {
+      this.file = file;
+    }
+  }
+
+  // A file as read by a shared scan: its selections for the scanned contests, and what verifying
+  // it logged, along with any problem reading it
+  private static final class ScannedCvrFile {
+
+    private final File file;
+    private boolean isSignatureValid = false;
+    private List<LogRecord> verificationLogRecords = List.of();
+    private HartCvrXml xmlCvr = null;
+    private IOException readException = null;
+
+    ScannedCvrFile(File file) {
+      this.file = file;
+    }
+  }
+
   @SuppressWarnings({"unused", "RedundantSuppression"})
   static class WriteInData {
 
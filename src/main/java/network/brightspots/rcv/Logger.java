@@ -16,6 +16,7 @@
  *  v
  * Tabulation handler (AUDIT) -> tabulation "audit" file
  *  When a tabulation is in progress this captures all AUDIT level logging including audit info.
+ *  It's written on a background thread (see AsyncAuditFileHandler).
  *
  * Execution handler (INFO) -> execution file
  *  Captures all INFO level logging for the execution of a session.
@@ -36,9 +37,12 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.Deque;
 import java.util.List;
+import java.util.TimeZone;
 import java.util.logging.FileHandler;
 import java.util.logging.Formatter;
 import java.util.logging.Handler;
@@ -81,9 +85,16 @@ class Logger {
   private static final Integer MAX_GUI_LOG_MESSAGES = 1000;
   private static final java.util.logging.Formatter formatter = new LogFormatter();
   private static java.util.logging.Logger logger;
-  private static java.util.logging.FileHandler tabulationHandler;
+  private static AsyncAuditFileHandler tabulationHandler;
+  // Set while tabulationHandler is the only handler which records AUDIT level messages. Per-ballot
+  // audit lines are then given straight to it, rather than being offered to every handler.
+  private static volatile AsyncAuditFileHandler auditLevelHandler;
   private static String tabulationLogPattern;
   private static final List<Label> labelsQueue = new ArrayList<>();
+  // messages logged by a thread which is deferring its output; see startDeferringOnCurrentThread.
+  // Deferrals nest: a thread waiting on other work may run some of that work itself.
+  private static final ThreadLocal<Deque<List<LogRecord>>> deferredRecords =
+      ThreadLocal.withInitial(ArrayDeque::new);
 
   static void setup() {
     logger = java.util.logging.Logger.getLogger("");
@@ -133,23 +144,36 @@ class Logger {
       Logger.severe("Could not create directory %s: %s", logDir, e.getMessage());
     }
 
+    // Tabulations can log a line per ballot per round, so this log is written on a background
+    // thread; otherwise writing it would be most of the time spent tabulating.
     tabulationHandler =
-        new FileHandler(
+        new AsyncAuditFileHandler(
             tabulationLogPattern,
-            LOG_FILE_MAX_SIZE_BYTES, TABULATION_LOG_FILE_COUNT, true);
+            LOG_FILE_MAX_SIZE_BYTES, TABULATION_LOG_FILE_COUNT);
     tabulationHandler.setFormatter(formatter);
     tabulationHandler.setLevel(AUDIT_LEVEL);
     logger.addHandler(tabulationHandler);
+    boolean isOnlyAuditLevelHandler = true;
+    for (Handler handler : logger.getHandlers()) {
+      if (handler != tabulationHandler && handler.isLoggable(new LogRecord(AUDIT_LEVEL, ""))) {
+        isOnlyAuditLevelHandler = false;
+      }
+    }
+    auditLevelHandler = isOnlyAuditLevelHandler ? tabulationHandler : null;
     info("Tabulation logging to: %s", tabulationLogPattern.replace("%g", "0"));
   }
 
   // remove file logging once a tabulation run is completed
   static void removeTabulationFileLogging() {
+    auditLevelHandler = null;
+    logger.removeHandler(tabulationHandler);
+    // waits for everything logged so far to be written, so the files are complete before hashing
     tabulationHandler.flush();
     tabulationHandler.close();
-    logger.removeHandler(tabulationHandler);
 
-    // Find all files we wrote to, and finalize each one
+    // Find all files we wrote to, and finalize each one. Those the handler hashed as it wrote
+    // them don't need to be read back.
+    List<AuditableFile> files = new ArrayList<>();
     int index = 0;
     while (true) {
       AuditableFile file = new AuditableFile(tabulationLogPattern
@@ -158,9 +182,14 @@ class Logger {
         break;
       }
 
-      file.finalizeAndHash();
+      byte[] hash = tabulationHandler.getFileHash(index);
+      if (hash != null) {
+        file.recordWrittenHash(hash);
+      }
+      files.add(file);
       index++;
     }
+    AuditableFile.finalizeAndHashAll(files);
   }
 
   static void auditable(String message, Object... obj) {
@@ -181,7 +210,37 @@ class Logger {
 
   private static void log(Level level, String message, Object... obj) {
     // only call format if there are format args provided
-    logger.log(level, obj.length > 0 ? String.format(message, obj) : message);
+    String formattedMessage = obj.length > 0 ? String.format(message, obj) : message;
+    List<LogRecord> records = deferredRecords.get().peek();
+    AsyncAuditFileHandler handler = auditLevelHandler;
+    if (records != null) {
+      records.add(new LogRecord(level, formattedMessage));
+    } else if (level == AUDIT_LEVEL && handler != null) {
+      handler.publish(new LogRecord(level, formattedMessage));
+    } else {
+      logger.log(level, formattedMessage);
+    }
+  }
+
+  // Hold everything logged on the current thread until stopDeferringOnCurrentThread is called.
+  // This lets work which runs in parallel (e.g. reading several CVR sources at once) be logged
+  // in the same order as if it had run serially: each worker defers its output, and the
+  // coordinating thread passes it to logDeferred in order.
+  static void startDeferringOnCurrentThread() {
+    deferredRecords.get().push(new ArrayList<>());
+  }
+
+  // returns the messages held since the matching startDeferringOnCurrentThread, and resumes
+  // logging as before it was called
+  static List<LogRecord> stopDeferringOnCurrentThread() {
+    return deferredRecords.get().pop();
+  }
+
+  // log messages returned by stopDeferringOnCurrentThread, on the current thread
+  static void logDeferred(List<LogRecord> records) {
+    for (LogRecord record : records) {
+      log(record.getLevel(), record.getMessage());
+    }
   }
 
   // add logging to the provided text area for display to user in the GUI
@@ -353,14 +412,74 @@ class Logger {
   // custom LogFormatter is used for all logging
   private static class LogFormatter extends Formatter {
 
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+    // Formatting the timestamp costs more than the rest of a line, and timestamps only change
+    // once a second, so each thread keeps its last one. The time is when the record was logged,
+    // which may be a little before it's formatted when it's written on a background thread.
+    private final ThreadLocal<Timestamp> lastTimestamp = ThreadLocal.withInitial(Timestamp::new);
+
     @Override
     public String format(LogRecord record) {
-      return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss z").format(new Date())
-          + " "
-          + record.getLevel().getLocalizedName()
-          + ": "
-          + formatMessage(record)
-          + System.getProperty("line.separator");
+      return formatLine(
+          lastTimestamp.get().format(record.getMillis()),
+          record.getLevel(),
+          formatMessage(record),
+          LINE_SEPARATOR);
+    }
+
+    private static String formatLine(
+        String timestamp, Level level, String message, String lineSeparator) {
+      return timestamp + " " + level.getLocalizedName() + ": " + message + lineSeparator;
+    }
+  }
+
+  // Formats lines exactly as the tabulation audit log writes auditable messages, for messages
+  // which were logged at a given time on a machine with the given time zone and line separator.
+  // Used to turn a binary audit log back into text.
+  static final class AuditLineFormatter {
+
+    private final Timestamp timestamp;
+    private final String lineSeparator;
+
+    AuditLineFormatter(TimeZone timeZone, String lineSeparator) {
+      this.timestamp = new Timestamp(timeZone);
+      this.lineSeparator = lineSeparator;
+    }
+
+    static String currentTimeZoneId() {
+      return TimeZone.getDefault().getID();
+    }
+
+    static String currentLineSeparator() {
+      return LogFormatter.LINE_SEPARATOR;
+    }
+
+    String format(long millis, String message) {
+      return LogFormatter.formatLine(timestamp.format(millis), AUDIT_LEVEL, message, lineSeparator);
+    }
+  }
+
+  private static final class Timestamp {
+
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss z");
+    private long second = Long.MIN_VALUE;
+    private String formatted;
+
+    Timestamp() {
+      this(TimeZone.getDefault());
+    }
+
+    Timestamp(TimeZone timeZone) {
+      dateFormat.setTimeZone(timeZone);
+    }
+
+    String format(long millis) {
+      long recordSecond = Math.floorDiv(millis, 1000);
+      if (recordSecond != second) {
+        second = recordSecond;
+        formatted = dateFormat.format(new Date(millis));
+      }
+      return formatted;
     }
   }
 }
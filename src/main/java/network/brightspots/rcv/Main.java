@@ -17,7 +17,9 @@
 
 package network.brightspots.rcv;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Scanner;
 import java.util.stream.Stream;
@@ -49,6 +51,10 @@ public class Main extends GuiApplication {
     Logger.setup();
     logSystemInfo();
 
+    if (Arrays.asList(args).contains("--replay-audit")) {
+      System.exit(replayBinaryAuditLog(args) ? 0 : 1);
+    }
+
     // Check if args contains string "--cli"
     if (Arrays.stream(args).filter(arg -> arg.equals("--cli")).findAny().isEmpty()) {
       // --cli not found. Launch the GUI
@@ -57,9 +63,11 @@ public class Main extends GuiApplication {
       Logger.info("Tabulator is being used via the CLI");
 
       CommandLine cmd = parseArgsForCli(args);
-      String path = cmd.getOptionValue("cli");
+      String[] paths = cmd.getOptionValues("cli");
       String operatorName = cmd.getOptionValue("name");
-      boolean convertToCdf = cmd.hasOption("convert-to-cdf");
+      final boolean convertToCdf = cmd.hasOption("convert-to-cdf");
+      final String cvrCacheDirectory = cmd.getOptionValue("cvr-cache");
+      final boolean binaryAudit = cmd.hasOption("binary-audit");
 
       if (operatorName == null) {
         // Name wasn't provided via CLI arg, so prompt user to enter
@@ -78,12 +86,31 @@ public class Main extends GuiApplication {
         System.exit(1);
       }
 
-      TabulatorSession session = new TabulatorSession(path);
-      if (convertToCdf) {
-        session.convertToCdf();
-      } else {
-        operatorName = operatorName.trim();
-        session.tabulate(operatorName);
+      // Each config is loaded once, here. When several config files are given, CVR exports read
+      // by more than one of them are parsed once and shared.
+      SharedCvrExports sharedExports = paths.length > 1 ? new SharedCvrExports() : null;
+      ContestConfig[] configs = new ContestConfig[paths.length];
+      for (int i = 0; i < paths.length; i++) {
+        configs[i] = ContestConfig.loadContestConfig(paths[i]);
+        if (configs[i] != null && sharedExports != null) {
+          sharedExports.register(configs[i]);
+        }
+      }
+
+      // CVRs read from unchanged sources can be loaded from a cache instead of being parsed again
+      BallotCache ballotCache =
+          cvrCacheDirectory != null ? new BallotCache(Paths.get(cvrCacheDirectory)) : null;
+
+      operatorName = operatorName.trim();
+      for (int i = 0; i < paths.length; i++) {
+        TabulatorSession session =
+            new TabulatorSession(paths[i], configs[i], sharedExports, ballotCache);
+        if (convertToCdf) {
+          session.convertToCdf();
+        } else {
+          session.setBinaryAuditEnabled(binaryAudit);
+          session.tabulate(operatorName);
+        }
       }
     }
 
@@ -93,16 +120,17 @@ public class Main extends GuiApplication {
   // Call this function if using the command line interface. Do not call if --cli
   // has not been passed as an argument; it will fail.
   private static CommandLine parseArgsForCli(String[] args) {
-    // Remove all args that start with "-D" -- these are added automatically when running via
-    // IntelliJ
-    Stream<String> filteredArgs = Arrays.stream(args).filter(arg -> !arg.startsWith("-D"));
-    args = filteredArgs.toArray(String[]::new);
-
     Options options = new Options();
 
     Option inputPath =
-        new Option("c", "cli", true, "launch command-line version, providing path to config file");
+        new Option(
+            "c",
+            "cli",
+            true,
+            "launch command-line version, providing path to config file (or several config"
+                + " files, which are run in order)");
     inputPath.setRequired(true);
+    inputPath.setArgs(Option.UNLIMITED_VALUES);
     options.addOption(inputPath);
 
     Option doConvert =
@@ -114,6 +142,63 @@ public class Main extends GuiApplication {
     name.setRequired(false);
     options.addOption(name);
 
+    Option cvrCache =
+        new Option(
+            null,
+            "cvr-cache",
+            true,
+            "directory in which to cache the cast vote records read from each source, so later"
+                + " runs over unchanged sources can skip parsing them");
+    cvrCache.setRequired(false);
+    options.addOption(cvrCache);
+
+    Option binaryAudit =
+        new Option(
+            null,
+            "binary-audit",
+            false,
+            "record each ballot's outcome in each round in a compact binary audit log, instead of"
+                + " as a line in the text audit log; use --replay-audit to convert it to text");
+    binaryAudit.setRequired(false);
+    options.addOption(binaryAudit);
+
+    return parseArgs(options, args);
+  }
+
+  // Write the audit log lines recorded in a binary audit log (see --binary-audit) to a text file.
+  // returns whether it succeeded
+  private static boolean replayBinaryAuditLog(String[] args) {
+    Options options = new Options();
+    Option replay =
+        new Option(
+            null,
+            "replay-audit",
+            true,
+            "replay a binary audit log, given its path and the path of a new text file to write"
+                + " its audit log lines to");
+    replay.setRequired(true);
+    replay.setArgs(2);
+    options.addOption(replay);
+    CommandLine cmd = parseArgs(options, args);
+    String[] paths = cmd.getOptionValues("replay-audit");
+
+    Logger.info("Replaying binary audit log %s to %s...", paths[0], paths[1]);
+    try {
+      long numLines = BinaryAuditLog.replay(Paths.get(paths[0]), Paths.get(paths[1]));
+      Logger.info("Wrote %d audit log lines to %s", numLines, paths[1]);
+      return true;
+    } catch (IOException exception) {
+      Logger.severe("Failed to replay binary audit log: %s", exception.getMessage());
+      return false;
+    }
+  }
+
+  private static CommandLine parseArgs(Options options, String[] args) {
+    // Remove all args that start with "-D" -- these are added automatically when running via
+    // IntelliJ
+    Stream<String> filteredArgs = Arrays.stream(args).filter(arg -> !arg.startsWith("-D"));
+    args = filteredArgs.toArray(String[]::new);
+
     CommandLineParser parser = new DefaultParser();
     CommandLine cmd = null;
 
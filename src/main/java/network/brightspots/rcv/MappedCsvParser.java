@@ -0,0 +1,241 @@
+/*
+ * RCTab
+ * Copyright (c) 2017-2023 Bright Spots Developers.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+/*
+ * Purpose: Read the records of a CSV file straight from a memory-mapped view of the file.
+ * Design: The file is mapped one window at a time and tokenized byte by byte, following the rules
+ * of the commons-csv default format used elsewhere: comma-delimited, cells encapsulated in double
+ * quotes with "" as an escaped quote, CR, LF, or CRLF between records, and empty lines ignored.
+ * Each cell is copied into a reused buffer and passed to a callback, so no objects are created per
+ * record or per cell unless the caller decodes a cell. Bytes are decoded with the platform default
+ * charset, which must be ASCII-compatible (it's UTF-8 unless overridden).
+ * findChunks splits a file into runs of whole records which can be parsed in parallel.
+ * Conditions: When reading generic CSV cast vote records.
+ * Version history: see https://github.com/BrightSpots/rcv.
+ */
+
+package network.brightspots.rcv;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import network.brightspots.rcv.CastVoteRecord.CvrParseException;
+
+final class MappedCsvParser implements Closeable {
+
+  // Mapping all of a very large file at once can fail for lack of address space, so it's mapped
+  // a window at a time.
+  private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+  private static final Charset CHARSET = Charset.defaultCharset();
+  private static final int END_OF_INPUT = -1;
+
+  private final FileChannel channel;
+  // parsing stops at this file offset
+  private final long end;
+  // file offset of the start of window
+  private long windowStart;
+  private MappedByteBuffer window;
+  // the current cell's bytes are cell[0] up to cell[cellLength]
+  private byte[] cell = new byte[64];
+  private int cellLength;
+
+  // parse the whole file
+  MappedCsvParser(Path path) throws IOException {
+    this(path, 0, -1);
+  }
+
+  // parse the records in [start, end) of the file; end may be -1 for the end of the file
+  MappedCsvParser(Path path, long start, long end) throws IOException {
+    this.channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      this.end = end >= 0 ? end : channel.size();
+      this.windowStart = start;
+      this.window = channel.map(
+          FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, this.end - start));
+    } catch (IOException | RuntimeException exception) {
+      channel.close();
+      throw exception;
+    }
+  }
+
+  static String decode(byte[] bytes, int length) {
+    return decode(bytes, 0, length);
+  }
+
+  // an empty cell is null, as with commons-csv when the null string is ""
+  static String decode(byte[] bytes, int offset, int length) {
+    return length == 0 ? null : new String(bytes, offset, length, CHARSET);
+  }
+
+  // Split the records in [start, end) of the file into chunks of roughly chunkSize bytes, each
+  // ending just after a line feed. Returns null if the region contains a quote, since then a
+  // line feed might be inside a cell rather than between records.
+  static List<Chunk> findChunks(Path path, long start, long end, long chunkSize)
+      throws IOException {
+    List<Chunk> chunks = new ArrayList<>();
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long chunkStart = start;
+      int chunkFirstRecord = 0;
+      int numRecords = 0;
+      boolean isAtLineStart = true;
+      for (long windowStart = start; windowStart < end; windowStart += WINDOW_SIZE) {
+        MappedByteBuffer window = channel.map(
+            FileChannel.MapMode.READ_ONLY, windowStart, Math.min(WINDOW_SIZE, end - windowStart));
+        for (int i = 0; i < window.limit(); i++) {
+          byte b = window.get(i);
+          if (b == '"') {
+            return null;
+          } else if (b == '\n' || b == '\r') {
+            isAtLineStart = true;
+            long position = windowStart + i + 1;
+            if (b == '\n' && position - chunkStart >= chunkSize) {
+              chunks.add(new Chunk(chunkStart, position, chunkFirstRecord));
+              chunkStart = position;
+              chunkFirstRecord = numRecords;
+            }
+          } else if (isAtLineStart) {
+            // empty lines aren't records, so count a record at the first byte of each other line
+            numRecords++;
+            isAtLineStart = false;
+          }
+        }
+      }
+      if (chunkStart < end) {
+        chunks.add(new Chunk(chunkStart, end, chunkFirstRecord));
+      }
+    }
+    return chunks;
+  }
+
+  // file offset just past the last record read
+  long position() {
+    return windowStart + window.position();
+  }
+
+  long end() {
+    return end;
+  }
+
+  // Read the next record, passing each of its cells to cellHandler in order. Returns false,
+  // without calling cellHandler, when there are no more records.
+  boolean nextRecord(CellHandler cellHandler) throws IOException, CvrParseException {
+    int c = read();
+    while (c == '\r' || c == '\n') {
+      c = read();
+    }
+    if (c == END_OF_INPUT) {
+      return false;
+    }
+
+    for (int column = 0; ; column++) {
+      cellLength = 0;
+      if (c == '"') {
+        c = readEncapsulatedCell();
+      } else {
+        while (c != ',' && c != '\r' && c != '\n' && c != END_OF_INPUT) {
+          append(c);
+          c = read();
+        }
+      }
+      cellHandler.handleCell(column, cell, cellLength);
+      if (c == ',') {
+        c = read();
+      } else {
+        if (c == '\r' && peek() == '\n') {
+          read();
+        }
+        return true;
+      }
+    }
+  }
+
+  // read the rest of a cell which started with a quote; returns the character after it
+  private int readEncapsulatedCell() throws IOException {
+    while (true) {
+      int c = read();
+      if (c == END_OF_INPUT) {
+        throw new IOException("EOF reached before encapsulated token finished");
+      } else if (c != '"') {
+        append(c);
+      } else if (peek() == '"') {
+        // an escaped quote
+        append(read());
+      } else {
+        // only whitespace may come between the closing quote and the end of the cell
+        c = read();
+        while (c != ',' && c != '\r' && c != '\n' && c != END_OF_INPUT) {
+          if (!Character.isWhitespace(c)) {
+            throw new IOException(
+                "Invalid character between encapsulated token and delimiter at byte "
+                    + (position() - 1));
+          }
+          c = read();
+        }
+        return c;
+      }
+    }
+  }
+
+  private void append(int c) {
+    if (cellLength == cell.length) {
+      cell = Arrays.copyOf(cell, cell.length * 2);
+    }
+    cell[cellLength++] = (byte) c;
+  }
+
+  private int read() throws IOException {
+    if (!window.hasRemaining() && !mapNextWindow()) {
+      return END_OF_INPUT;
+    }
+    return window.get() & 0xFF;
+  }
+
+  private int peek() throws IOException {
+    if (!window.hasRemaining() && !mapNextWindow()) {
+      return END_OF_INPUT;
+    }
+    return window.get(window.position()) & 0xFF;
+  }
+
+  // cells are copied out as they're read, so the previous window is no longer needed
+  private boolean mapNextWindow() throws IOException {
+    long nextWindowStart = windowStart + window.limit();
+    if (nextWindowStart >= end) {
+      return false;
+    }
+    window = channel.map(
+        FileChannel.MapMode.READ_ONLY,
+        nextWindowStart,
+        Math.min(WINDOW_SIZE, end - nextWindowStart));
+    windowStart = nextWindowStart;
+    return true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  @FunctionalInterface
+  interface CellHandler {
+
+    // bytes is only valid until this returns
+    void handleCell(int column, byte[] bytes, int length) throws CvrParseException;
+  }
+
+  // the records in [start, end) of a file; firstRecord is the number of records before start
+  record Chunk(long start, long end, int firstRecord) {}
+}
@@ -0,0 +1,203 @@
+/*
+ * RCTab
+ * Copyright (c) 2017-2023 Bright Spots Developers.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+/*
+ * Purpose: Run a sequence of independent tasks in parallel, and use their results in order, with
+ * the same results and log output as running them one at a time.
+ * Design: Tasks are taken from a TaskSource and submitted to an executor, with a bounded number in
+ * flight, which bounds how many finished results are held while waiting on an earlier one. Each
+ * task's log output is held in its own buffer while it runs (see
+ * Logger.startDeferringOnCurrentThread) and is logged by next, on the calling thread, just before
+ * the task's result is returned. A task which fails has its output logged and then its exception
+ * rethrown by next, as it is, so callers handle failures just as they would running the tasks
+ * serially. Closing stops any tasks which haven't started and waits for those which have, so
+ * nothing is still running once the caller moves on, e.g. after a failure or an interruption.
+ * Conditions: Wherever independent work is split across threads.
+ * Version history: see https://github.com/BrightSpots/rcv.
+ */
+
+package network.brightspots.rcv;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.logging.LogRecord;
+
+final class OrderedParallelTasks<T, E extends Exception> implements AutoCloseable {
+
+  // Tasks in flight per thread, unless the caller chooses otherwise. More than one lets a thread
+  // start its next task while the caller is still using an earlier result.
+  static final int DEFAULT_TASKS_IN_FLIGHT_PER_THREAD = 2;
+
+  private final ExecutorService executor;
+  private final int maxTasksInFlight;
+  private final TaskSource<T, E> source;
+  private final Deque<Future<Outcome<T>>> tasksInFlight = new ArrayDeque<>();
+  private boolean isSourceDone = false;
+  // set on close, so tasks which haven't started yet are skipped
+  private volatile boolean isClosed = false;
+
+  OrderedParallelTasks(ExecutorService executor, int maxTasksInFlight, TaskSource<T, E> source) {
+    this.executor = executor;
+    this.maxTasksInFlight = Math.max(1, maxTasksInFlight);
+    this.source = source;
+  }
+
+  // runs task(0), ..., task(numTasks - 1) on the common ForkJoinPool
+  static <T, E extends Exception> OrderedParallelTasks<T, E> onCommonPool(
+      int numTasks, IndexedTask<T, E> task) {
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    return new OrderedParallelTasks<>(
+        pool, pool.getParallelism() * DEFAULT_TASKS_IN_FLIGHT_PER_THREAD, indexed(numTasks, task));
+  }
+
+  // a TaskSource giving task(0), ..., task(numTasks - 1)
+  static <T, E extends Exception> TaskSource<T, E> indexed(int numTasks, IndexedTask<T, E> task) {
+    int[] nextIndex = {0};
+    return () -> {
+      if (nextIndex[0] >= numTasks) {
+        return null;
+      }
+      final int index = nextIndex[0]++;
+      return () -> task.call(index);
+    };
+  }
+
+  // A fixed-size pool of daemon threads, for work which spends its time waiting on files and so
+  // shouldn't occupy the common ForkJoinPool. The caller must shut it down.
+  static ExecutorService newFixedExecutor(String threadName, int numThreads) {
+    return Executors.newFixedThreadPool(
+        numThreads,
+        runnable -> {
+          Thread thread = new Thread(runnable, threadName);
+          thread.setDaemon(true);
+          return thread;
+        });
+  }
+
+  // whether next has another result to return; this is where tasks are taken from the source
+  boolean hasNext() throws E {
+    submitTasks();
+    return !tasksInFlight.isEmpty();
+  }
+
+  // Waits for the next task in order and returns its result, after logging its output. If the
+  // task failed, its exception is thrown instead.
+  T next() throws E, InterruptedException {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    Outcome<T> outcome;
+    try {
+      // the task stays in flight until it's finished, so close waits for it if this is interrupted
+      outcome = tasksInFlight.peek().get();
+    } catch (ExecutionException exception) {
+      // runTask catches everything a task throws
+      throw new IllegalStateException(exception.getCause());
+    }
+    tasksInFlight.remove();
+    Logger.logDeferred(outcome.deferredLogRecords());
+    if (outcome.failure() != null) {
+      rethrow(outcome.failure());
+    }
+    // start the next task before the caller uses this result
+    submitTasks();
+    return outcome.result();
+  }
+
+  // Skips tasks which haven't started, and waits for those which have to finish. Their results
+  // and log output are discarded.
+  @Override
+  public void close() {
+    isClosed = true;
+    boolean wasInterrupted = false;
+    for (Future<Outcome<T>> task : tasksInFlight) {
+      while (true) {
+        try {
+          task.get();
+          break;
+        } catch (InterruptedException exception) {
+          // tasks may still be writing to shared state, so keep waiting
+          wasInterrupted = true;
+        } catch (ExecutionException exception) {
+          break;
+        }
+      }
+    }
+    tasksInFlight.clear();
+    if (wasInterrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void submitTasks() throws E {
+    while (!isSourceDone && !isClosed && tasksInFlight.size() < maxTasksInFlight) {
+      final Task<T, E> task = source.nextTask();
+      if (task == null) {
+        isSourceDone = true;
+      } else {
+        tasksInFlight.add(executor.submit(() -> runTask(task)));
+      }
+    }
+  }
+
+  private Outcome<T> runTask(Task<T, E> task) {
+    if (isClosed) {
+      return new Outcome<>(null, null, List.of());
+    }
+    Logger.startDeferringOnCurrentThread();
+    T result = null;
+    Throwable failure = null;
+    List<LogRecord> deferredLogRecords;
+    try {
+      result = task.call();
+    } catch (Throwable throwable) {
+      failure = throwable;
+    } finally {
+      deferredLogRecords = Logger.stopDeferringOnCurrentThread();
+    }
+    return new Outcome<>(result, failure, deferredLogRecords);
+  }
+
+  // a Task can only throw E or an unchecked exception, so failure is one of those
+  @SuppressWarnings("unchecked")
+  private void rethrow(Throwable failure) throws E {
+    if (failure instanceof RuntimeException runtimeException) {
+      throw runtimeException;
+    }
+    if (failure instanceof Error error) {
+      throw error;
+    }
+    throw (E) failure;
+  }
+
+  interface Task<T, E extends Exception> {
+
+    T call() throws E;
+  }
+
+  interface IndexedTask<T, E extends Exception> {
+
+    T call(int index) throws E;
+  }
+
+  // gives the tasks to run, in order, on the thread using the results; returns null after the last
+  interface TaskSource<T, E extends Exception> {
+
+    Task<T, E> nextTask() throws E;
+  }
+
+  private record Outcome<T>(T result, Throwable failure, List<LogRecord> deferredLogRecords) {}
+}
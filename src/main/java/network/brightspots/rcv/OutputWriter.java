@@ -23,6 +23,11 @@ import static java.util.Map.entry;
 import static network.brightspots.rcv.CastVoteRecord.StatusForRound;
 import static network.brightspots.rcv.Utils.isNullOrBlank;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
 import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectWriter;
@@ -30,25 +35,30 @@ import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.math.BigDecimal;
 import java.math.MathContext;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
-import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Hashtable;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 import javafx.util.Pair;
 import network.brightspots.rcv.ContestConfig.TabulateBySlice;
@@ -65,8 +75,18 @@ class OutputWriter {
   private static final String CDF_GPU_ID_FORMAT = "gpu-%d";
   private static final String CDF_REPORTING_DEVICE_ID = "rd-001";
 
-  private static final Map<String, String> cdfCandidateNameToContestSelectionId = new HashMap<>();
-  private static final Map<String, String> cdfCandidateNameToCandidateId = new HashMap<>();
+  // CVRs in the CDF JSON report are rendered in chunks of this many, in parallel when there are
+  // several
+  private static final int CVRS_PER_CDF_CHUNK = 1000;
+  // what DefaultPrettyPrinter writes before the first value in an array, and between values
+  private static final byte[] CDF_FIRST_CVR_SEPARATOR = " ".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] CDF_CVR_SEPARATOR = ", ".getBytes(StandardCharsets.UTF_8);
+
+  // concurrent, since CDF CVRs may be rendered on several threads at once
+  private static final Map<String, String> cdfCandidateNameToContestSelectionId =
+      new ConcurrentHashMap<>();
+  private static final Map<String, String> cdfCandidateNameToCandidateId =
+      new ConcurrentHashMap<>();
 
   // number of rounds needed to elect winner(s)
   private int numRounds;
@@ -76,10 +96,17 @@ class OutputWriter {
   private Map<String, String> gpUnitIds;
   // map from round number to list of tally decisions (elected and eliminated) in that round
   private Map<Integer, List<Tabulator.TallyDecision>> roundToDecisions;
+  // the decisions in roundToDecisions of each type, by round, sorted by candidate name; these are
+  // looked up for every report, including every by-slice report
+  private final Map<
+          Tabulator.TallyDecision.DecisionType, Map<Integer, List<Tabulator.TallyDecision>>>
+      sortedDecisionsByType = new HashMap<>();
   private ContestConfig config;
   private String timestampString;
   // map from round number to residual surplus generated in that round
   private Map<Integer, BigDecimal> roundToResidualSurplus;
+  // how each ballot's vote was allocated in each round, for the CDF JSON output
+  private CdfSnapshotHistory cdfSnapshotHistory;
   // statuses to print in all summary files
   // (additional fields are added if needed in specific summary filetypes)
   private static final List<StatusForRound> STATUSES_TO_PRINT = List.of(
@@ -142,7 +169,7 @@ class OutputWriter {
   public static class OutputFileIdentifiers {
     // Since sanitizing Slice IDs can cause filename collisions, ensure each non-sanitized
     // Slice ID is given a unique sanitized name.
-    private static final Dictionary<String, String> sliceIdToUniqueSanitizedId = new Hashtable<>();
+    private static final Map<String, String> sliceIdToUniqueSanitizedId = new HashMap<>();
     // This is a set of the values in sanitizerCollisionResolution to ensure there are no collisions
     // in the resulting sanitized names.
     private static final HashSet<String> uniqueSanitizedIds = new HashSet<>();
@@ -200,7 +227,10 @@ class OutputWriter {
       return Path.of(directory, "%s.%s".formatted(filenameWithoutExt, outputType.getExtension()));
     }
 
-    private String sanitizeSliceWithoutCollisions(String sliceId) {
+    // Synchronized since reports may be written on several threads. Which slice ID gets a numbered
+    // name depends on the order they're first seen in, so callers writing reports in parallel
+    // should choose their paths beforehand, in order.
+    private static synchronized String sanitizeSliceWithoutCollisions(String sliceId) {
       String previousSanitizedSliceId = sliceIdToUniqueSanitizedId.get(sliceId);
       String sanitizedSliceId;
 
@@ -235,28 +265,38 @@ class OutputWriter {
     return s == null ? "" : s.replaceAll("[^a-zA-Z0-9_\\-.]", "_");
   }
 
-  private static void generateJsonFile(AuditableFile outFile, Map<String, Object> json)
-          throws IOException {
+  private static ObjectMapper createJsonMapper() {
     ObjectMapper mapper = new ObjectMapper();
     // for improved legibility we sort alphabetically on keys
     mapper.configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
     SimpleModule module = new SimpleModule();
     module.addSerializer(BigDecimal.class, new ToStringSerializer());
     mapper.registerModule(module);
-    ObjectWriter jsonWriter = mapper.writer(new DefaultPrettyPrinter());
+    return mapper;
+  }
 
-    try {
-      jsonWriter.writeValue(outFile, json);
-      outFile.finalizeAndHash();
+  private static void generateJsonFile(AuditableFile outFile, Map<String, Object> json)
+          throws IOException {
+    ObjectWriter jsonWriter = createJsonMapper().writer(new DefaultPrettyPrinter());
+
+    try (OutputStream output = outFile.newOutputStream()) {
+      jsonWriter.writeValue(output, json);
     } catch (IOException exception) {
       Logger.severe(
           "Error writing to JSON file: %s\n%s\nCheck the file path and permissions!",
           outFile.getAbsolutePath(), exception);
       throw exception;
     }
+    outFile.finalizeAndHash();
     Logger.info("JSON file generated successfully.");
   }
 
+  // a UTF-8 writer for file, which is hashed as it's written (see AuditableFile.newOutputStream)
+  private static BufferedWriter newBufferedWriter(AuditableFile file) throws IOException {
+    return new BufferedWriter(
+        new OutputStreamWriter(file.newOutputStream(), StandardCharsets.UTF_8));
+  }
+
   private static String generateCvrSnapshotId(String cvrId, Integer round) {
     return round != null && round > 0
         ? String.format("ballot-%s-round-%d", cvrId, round)
@@ -319,6 +359,11 @@ class OutputWriter {
     return this;
   }
 
+  OutputWriter setCdfSnapshotHistory(CdfSnapshotHistory cdfSnapshotHistory) {
+    this.cdfSnapshotHistory = cdfSnapshotHistory;
+    return this;
+  }
+
   OutputWriter setNumRounds(int numRounds) {
     this.numRounds = numRounds;
     return this;
@@ -331,6 +376,20 @@ class OutputWriter {
 
   OutputWriter setRoundToDecisions(Map<Integer, List<Tabulator.TallyDecision>> roundToDecisions) {
     this.roundToDecisions = roundToDecisions;
+    sortedDecisionsByType.clear();
+    for (Tabulator.TallyDecision.DecisionType decisionType :
+        Tabulator.TallyDecision.DecisionType.values()) {
+      Map<Integer, List<Tabulator.TallyDecision>> sortedDecisions = new HashMap<>();
+      roundToDecisions.forEach(
+          (round, decisionsInRound) ->
+              sortedDecisions.put(
+                  round,
+                  decisionsInRound.stream()
+                      .filter(decision -> decision.decisionType() == decisionType)
+                      .sorted((d1, d2) -> d1.candidateName().compareTo(d2.candidateName()))
+                      .collect(Collectors.toList())));
+      sortedDecisionsByType.put(decisionType, sortedDecisions);
+    }
     return this;
   }
 
@@ -353,22 +412,90 @@ class OutputWriter {
         Tabulator.BreakdownBySlice<TallyTransfers> tallyTransfersBySlice,
         List<String> candidateOrder)
       throws IOException {
+    // The CSV rows which are the same for every slice are formatted once, here. Each slice's files
+    // are also named here, in order, since that determines which of any slice IDs that sanitize to
+    // the same name are given numbered names.
+    CsvReportHeaders csvHeaders = formatCsvReportHeaders(true);
+    List<SliceReports> sliceReports = new ArrayList<>();
     for (ContestConfig.TabulateBySlice slice : config.enabledSlices()) {
       for (var entry : roundTalliesBySlice.get(slice).entrySet()) {
         String sliceId = entry.getKey();
-        RoundTallies roundTallies = entry.getValue();
-        generateCsvReport(
-                roundTallies,
-                candidateOrder,
-                new OutputFileIdentifiers(OutputType.DETAILED_CSV, slice, sliceId));
-        generateJsonReport(
-                roundTallies,
+        OutputFileIdentifiers csvIdentifiers =
+            new OutputFileIdentifiers(OutputType.DETAILED_CSV, slice, sliceId);
+        OutputFileIdentifiers jsonIdentifiers =
+            new OutputFileIdentifiers(OutputType.DETAILED_JSON, slice, sliceId);
+        sliceReports.add(
+            new SliceReports(
+                entry.getValue(),
                 tallyTransfersBySlice.get(slice, sliceId),
-                new OutputFileIdentifiers(OutputType.DETAILED_JSON, slice, sliceId));
+                csvIdentifiers,
+                createAuditableFile(csvIdentifiers),
+                jsonIdentifiers,
+                createAuditableFile(jsonIdentifiers)));
+      }
+    }
+
+    int numThreads = Math.min(sliceReports.size(), Runtime.getRuntime().availableProcessors());
+    if (numThreads < 2) {
+      for (SliceReports reports : sliceReports) {
+        writeSliceReports(reports, candidateOrder, csvHeaders);
+      }
+    } else {
+      writeSliceReportsInParallel(numThreads, sliceReports, candidateOrder, csvHeaders);
+    }
+  }
+
+  // Each slice's reports are written, and hashed, on threads of their own rather than the common
+  // ForkJoinPool, since writing them mostly waits on files. Their log output is logged here in
+  // order, so the log is the same as writing them one slice at a time. If a slice fails, slices
+  // which haven't started are not written.
+  private void writeSliceReportsInParallel(
+      int numThreads,
+      List<SliceReports> sliceReports,
+      List<String> candidateOrder,
+      CsvReportHeaders csvHeaders)
+      throws IOException {
+    ExecutorService executor =
+        OrderedParallelTasks.newFixedExecutor("By-slice report writer", numThreads);
+    OrderedParallelTasks.TaskSource<Void, IOException> sliceWrites =
+        OrderedParallelTasks.indexed(
+            sliceReports.size(),
+            index -> {
+              writeSliceReports(sliceReports.get(index), candidateOrder, csvHeaders);
+              return null;
+            });
+    try (OrderedParallelTasks<Void, IOException> slices =
+        new OrderedParallelTasks<>(
+            executor,
+            numThreads * OrderedParallelTasks.DEFAULT_TASKS_IN_FLIGHT_PER_THREAD,
+            sliceWrites)) {
+      while (slices.hasNext()) {
+        slices.next();
       }
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Writing the by-slice results files was interrupted", exception);
+    } finally {
+      executor.shutdown();
     }
   }
 
+  private void writeSliceReports(
+      SliceReports reports, List<String> candidateOrder, CsvReportHeaders csvHeaders)
+      throws IOException {
+    writeCsvReport(
+        reports.roundTallies(),
+        candidateOrder,
+        reports.csvIdentifiers(),
+        reports.csvFile(),
+        csvHeaders);
+    writeJsonReport(
+        reports.roundTallies(),
+        reports.tallyTransfers(),
+        reports.jsonIdentifiers(),
+        reports.jsonFile());
+  }
+
   private AuditableFile createAuditableFile(OutputFileIdentifiers outputFileIdentifiers) {
     Integer sequentialId = null;
     if (config.isMultiSeatSequentialWinnerTakesAllEnabled()) {
@@ -386,6 +513,55 @@ class OutputWriter {
           RoundTallies roundTallies,
           List<String> candidateOrder,
           OutputFileIdentifiers outputFileIdentifiers) throws IOException {
+    writeCsvReport(
+        roundTallies,
+        candidateOrder,
+        outputFileIdentifiers,
+        createAuditableFile(outputFileIdentifiers),
+        formatCsvReportHeaders(outputFileIdentifiers.isSlice()));
+  }
+
+  // Formats the rows of a results .csv file which don't depend on the round tallies it reports,
+  // and so are the same in every by-slice report.
+  private CsvReportHeaders formatCsvReportHeaders(boolean isSlice) throws IOException {
+    StringBuilder contestInformation = new StringBuilder();
+    addContestInformationRows(new CSVPrinter(contestInformation, CSVFormat.DEFAULT));
+
+    StringBuilder roundHeaders = new StringBuilder();
+    CSVPrinter csvPrinter = new CSVPrinter(roundHeaders, CSVFormat.DEFAULT);
+    csvPrinter.print("Rounds");
+    for (int round = 1; round <= numRounds; round++) {
+      csvPrinter.print(String.format("Round %d Votes", round));
+      csvPrinter.print("% of vote");
+      csvPrinter.print("transfer");
+    }
+    csvPrinter.println();
+
+    Footnote isSliceFootnote = new Footnote("†", isSlice);
+    Footnote tieBrokenFootnote = new Footnote("*", wereAnyTiesBroken());
+    csvPrinter.print(isSliceFootnote.markFootnoteIfActive("Eliminated"));
+    printActionSummary(
+            csvPrinter, Tabulator.TallyDecision.DecisionType.ELIMINATED, tieBrokenFootnote);
+
+    csvPrinter.print(isSliceFootnote.markFootnoteIfActive("Elected"));
+    printActionSummary(
+            csvPrinter, Tabulator.TallyDecision.DecisionType.ELECTED, tieBrokenFootnote);
+
+    return new CsvReportHeaders(
+        contestInformation.toString(),
+        roundHeaders.toString(),
+        isSliceFootnote,
+        tieBrokenFootnote);
+  }
+
+  // writes a results .csv file, as described for generateCsvReport, to csvFile
+  // param: headers must have been formatted for a report of the same kind (slice or not)
+  private void writeCsvReport(
+          RoundTallies roundTallies,
+          List<String> candidateOrder,
+          OutputFileIdentifiers outputFileIdentifiers,
+          AuditableFile csvFile,
+          CsvReportHeaders headers) throws IOException {
     if (outputFileIdentifiers.outputType != OutputType.SUMMARY_CSV
             && outputFileIdentifiers.outputType != OutputType.DETAILED_CSV) {
       throw new IllegalArgumentException("ResultFile provided non-CSV Report Type "
@@ -401,12 +577,12 @@ class OutputWriter {
                       + "\nProvided: " + providedCandidates);
     }
 
-    AuditableFile csvFile = createAuditableFile(outputFileIdentifiers);
     Logger.info("Generating summary spreadsheet: %s...", csvFile.getAbsolutePath());
 
+    BufferedWriter writer;
     CSVPrinter csvPrinter;
     try {
-      BufferedWriter writer = Files.newBufferedWriter(csvFile.toPath());
+      writer = newBufferedWriter(csvFile);
       csvPrinter = new CSVPrinter(writer, CSVFormat.DEFAULT);
     } catch (IOException exception) {
       Logger.severe(
@@ -416,27 +592,35 @@ class OutputWriter {
     }
 
 
-    BigDecimal winningThreshold = roundTallies.get(numRounds).getWinningThreshold();
-    addContestInformationRows(csvPrinter, winningThreshold,
-            outputFileIdentifiers.slice, outputFileIdentifiers.sliceId);
-    addContestSummaryRows(csvPrinter, roundTallies.get(1));
-    csvPrinter.print("Rounds");
-    for (int round = 1; round <= numRounds; round++) {
-      csvPrinter.print(String.format("Round %d Votes", round));
-      csvPrinter.print("% of vote");
-      csvPrinter.print("transfer");
+    // the printer writes straight through to writer, so preformatted rows can be written to it
+    // between records
+    writer.write(headers.contestInformation());
+    if (!isNullOrBlank(outputFileIdentifiers.sliceId)) {
+      // Only slices print the slice information
+      csvPrinter.printRecord(outputFileIdentifiers.slice, outputFileIdentifiers.sliceId);
+    } else {
+      // Only non-slices print threshold information
+      csvPrinter.printRecord(
+          "Final Threshold", roundTallies.get(numRounds).getWinningThreshold());
     }
     csvPrinter.println();
+    addContestSummaryRows(csvPrinter, roundTallies.get(1));
+    writer.write(headers.roundHeaders());
 
-    Footnote isSliceFootnote = new Footnote("†", outputFileIdentifiers.isSlice());
-    Footnote tieBrokenFootnote = new Footnote("*", wereAnyTiesBroken());
-    csvPrinter.print(isSliceFootnote.markFootnoteIfActive("Eliminated"));
-    printActionSummary(
-            csvPrinter, Tabulator.TallyDecision.DecisionType.ELIMINATED, tieBrokenFootnote);
-
-    csvPrinter.print(isSliceFootnote.markFootnoteIfActive("Elected"));
-    printActionSummary(
-            csvPrinter, Tabulator.TallyDecision.DecisionType.ELECTED, tieBrokenFootnote);
+    // Vote % divisor for each round. Divisor is:
+    // 1. In IRV, determined by the "first round determines threshold" setting
+    // 2. In bottoms-up with threshold, same
+    // 3. In STV and bottoms-up with N winners, based on 1st round total
+    BigDecimal[] votePctDivisors = new BigDecimal[numRounds + 1];
+    for (int round = 1; round <= numRounds; round++) {
+      int divisorRoundNum;
+      if (config.isSingleWinnerEnabled() || config.isMultiSeatBottomsUpWithThresholdEnabled()) {
+        divisorRoundNum = config.isFirstRoundDeterminesThresholdEnabled() ? 1 : round;
+      } else {
+        divisorRoundNum = 1;
+      }
+      votePctDivisors[round] = roundTallies.get(divisorRoundNum).activeAndLockedInBallotSum();
+    }
 
     // For each candidate: for each round: output total votes
     for (String candidate : candidateOrder) {
@@ -452,18 +636,8 @@ class OutputWriter {
         // Vote count
         csvPrinter.print(thisRoundTally);
 
-        // Vote %. Divisor is:
-        // 1. In IRV, determined by the "first round determines threshold" setting
-        // 2. In bottoms-up with threshold, same
-        // 3. In STV and bottoms-up with N winners, based on 1st round total
-        int divisorRoundNum;
-        if (config.isSingleWinnerEnabled() || config.isMultiSeatBottomsUpWithThresholdEnabled()) {
-          divisorRoundNum = config.isFirstRoundDeterminesThresholdEnabled() ? 1 : round;
-        } else {
-          divisorRoundNum = 1;
-        }
-
-        BigDecimal votePctDivisor = roundTallies.get(divisorRoundNum).activeAndLockedInBallotSum();
+        // Vote %
+        BigDecimal votePctDivisor = votePctDivisors[round];
         if (!votePctDivisor.equals(BigDecimal.ZERO)) {
           // Turn a decimal into a human-readable percentage (e.g. 0.1234 -> 12.34%)
           BigDecimal divDecimal = thisRoundTally.divide(votePctDivisor, MathContext.DECIMAL32);
@@ -585,6 +759,7 @@ class OutputWriter {
       csvPrinter.println();
     }
 
+    Footnote isSliceFootnote = headers.isSliceFootnote();
     if (isSliceFootnote.isFootnoteUsed()) {
       csvPrinter.println();
       csvPrinter.print(String.format(isSliceFootnote.getSymbol()
@@ -594,6 +769,7 @@ class OutputWriter {
       csvPrinter.println();
     }
 
+    Footnote tieBrokenFootnote = headers.tieBrokenFootnote();
     if (tieBrokenFootnote.isFootnoteUsed()) {
       csvPrinter.println();
       csvPrinter.print(String.format(tieBrokenFootnote.getSymbol()
@@ -667,14 +843,11 @@ class OutputWriter {
   // Simple filter to extract candidates with a specific decision type in a given round
   private List<Tabulator.TallyDecision> getCandidatesByDecisionType(
           int round, Tabulator.TallyDecision.DecisionType decisionType) {
-    List<Tabulator.TallyDecision> decisionsInRound = roundToDecisions.get(round);
-    if (decisionsInRound == null) {
-      return List.of();
-    }
-    return decisionsInRound.stream()
-        .filter(decision -> decision.decisionType() == decisionType)
-        .sorted((d1, d2) -> d1.candidateName().compareTo(d2.candidateName()))
-        .collect(Collectors.toList());
+    Map<Integer, List<Tabulator.TallyDecision>> sortedDecisions =
+        sortedDecisionsByType.get(decisionType);
+    List<Tabulator.TallyDecision> decisionsInRound =
+        sortedDecisions != null ? sortedDecisions.get(round) : null;
+    return decisionsInRound != null ? decisionsInRound : List.of();
   }
 
   // Simple filter to extract candidate names with a specific decision type in a given round
@@ -703,10 +876,8 @@ class OutputWriter {
     csvPrinter.print(candidateCellText);
   }
 
-  private void addContestInformationRows(CSVPrinter csvPrinter,
-                                         BigDecimal winningThreshold,
-                                         ContestConfig.TabulateBySlice slice,
-                                         String sliceId) throws IOException {
+  // adds the contest information rows up to the winners, which are the same in every report
+  private void addContestInformationRows(CSVPrinter csvPrinter) throws IOException {
     csvPrinter.printRecord("Contest Information");
     csvPrinter.printRecord("Generated By", "RCTab " + Main.APP_VERSION);
     csvPrinter.printRecord("CSV Format Version", "1");
@@ -725,16 +896,6 @@ class OutputWriter {
     }
 
     csvPrinter.printRecord("Winner(s)", String.join(", ", winners));
-
-    if (!isNullOrBlank(sliceId)) {
-      // Only slices print the slice information
-      csvPrinter.printRecord(slice, sliceId);
-    } else {
-      // Only non-slices print threshold information
-      csvPrinter.printRecord("Final Threshold", winningThreshold);
-    }
-
-    csvPrinter.println();
   }
 
   // creates a summary spreadsheet and JSON for the full contest (as opposed to a specific slice)
@@ -770,7 +931,7 @@ class OutputWriter {
       Logger.info("Writing cast vote records in generic format to file: %s...",
               auditableFile.getAbsolutePath());
       CSVPrinter csvPrinter;
-      BufferedWriter writer = Files.newBufferedWriter(auditableFile.toPath());
+      BufferedWriter writer = newBufferedWriter(auditableFile);
       CSVFormat format = CSVFormat.DEFAULT.builder().setNullString("").build();
       csvPrinter = new CSVPrinter(writer, format);
       // print header:
@@ -891,26 +1052,51 @@ class OutputWriter {
     Logger.info("Generating cast vote record CDF JSON file: %s...",
             auditableFile.getAbsolutePath());
 
-    HashMap<String, Object> outputJson = new HashMap<>();
-    outputJson.put("CVR", generateCdfMapForCvrs(castVoteRecords));
-    outputJson.put("Election", new Map[] {generateCdfMapForElection()});
-    outputJson.put(
-        "GeneratedDate", new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX").format(new Date()));
-    outputJson.put("GpUnit", generateCdfMapForGpUnits());
-    outputJson.put("ReportGeneratingDeviceIds", new String[] {CDF_REPORTING_DEVICE_ID});
-    outputJson.put(
-        "ReportingDevice",
-        new Map[] {
-          Map.ofEntries(
-              entry("@id", CDF_REPORTING_DEVICE_ID),
-              entry("@type", "CVR.ReportingDevice"),
-              entry("Application", Main.APP_NAME),
-              entry("Manufacturer", "Bright Spots"))
-        });
-    outputJson.put("Version", "1.0.0");
-    outputJson.put("@type", "CVR.CastVoteRecordReport");
-
-    generateJsonFile(auditableFile, outputJson);
+    // The report is streamed rather than built as a map and passed to generateJsonFile, since the
+    // CVR array can be far too large to hold in memory. Top-level fields are written in the
+    // alphabetical order that generateJsonFile would give them, and the smaller values are
+    // serialized by the same mapper, so the output is the same as it would be from
+    // generateJsonFile.
+    ObjectMapper mapper = createJsonMapper();
+    try (OutputStream output = auditableFile.newOutputStream();
+        JsonGenerator generator =
+            mapper.getFactory().createGenerator(output, JsonEncoding.UTF8)) {
+      generator.setPrettyPrinter(new DefaultPrettyPrinter());
+      generator.writeStartObject();
+      generator.writeStringField("@type", "CVR.CastVoteRecordReport");
+      writeCdfCvrs(mapper.getFactory(), generator, output, castVoteRecords);
+      generator.writeFieldName("Election");
+      mapper.writeValue(generator, new Map[] {generateCdfMapForElection()});
+      generator.writeStringField(
+          "GeneratedDate", new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX").format(new Date()));
+      generator.writeFieldName("GpUnit");
+      mapper.writeValue(generator, generateCdfMapForGpUnits());
+      generator.writeFieldName("ReportGeneratingDeviceIds");
+      mapper.writeValue(generator, new String[] {CDF_REPORTING_DEVICE_ID});
+      generator.writeFieldName("ReportingDevice");
+      mapper.writeValue(
+          generator,
+          new Map[] {
+            Map.ofEntries(
+                entry("@id", CDF_REPORTING_DEVICE_ID),
+                entry("@type", "CVR.ReportingDevice"),
+                entry("Application", Main.APP_NAME),
+                entry("Manufacturer", "Bright Spots"))
+          });
+      generator.writeStringField("Version", "1.0.0");
+      generator.writeEndObject();
+    } catch (IOException exception) {
+      Logger.severe(
+          "Error writing to JSON file: %s\n%s\nCheck the file path and permissions!",
+          auditableFile.getAbsolutePath(), exception);
+      throw exception;
+    } catch (RoundSnapshotDataMissingException exception) {
+      // don't leave an incomplete report behind
+      Files.deleteIfExists(auditableFile.toPath());
+      throw exception;
+    }
+    auditableFile.finalizeAndHash();
+    Logger.info("JSON file generated successfully.");
   }
 
   // build map from precinctId => GpUnitId, as lookups are done by precinctId during cvr creation
@@ -947,68 +1133,175 @@ class OutputWriter {
     return gpUnitMaps;
   }
 
-  // helper method for generateCdfJson to compile the data for all the CVR snapshots
-  private List<Map<String, Object>> generateCdfMapForCvrs(List<CastVoteRecord> castVoteRecords)
-      throws RoundSnapshotDataMissingException {
-    List<Map<String, Object>> cvrMaps = new LinkedList<>();
-
-    for (CastVoteRecord cvr : castVoteRecords) {
-      List<Map<String, Object>> cvrSnapshots = new LinkedList<>();
-      cvrSnapshots.add(generateCvrSnapshotMap(cvr, null, null));
-      String sanitizedId = sanitizeStringForOutput(cvr.getId());
-      // copy most recent round snapshot data to subsequent rounds
-      // until more snapshot data is available
-      List<Pair<String, BigDecimal>> previousRoundSnapshotData = null;
-      for (int round = 1; round <= numRounds; round++) {
-        List<Pair<String, BigDecimal>> currentRoundSnapshotData =
-            cvr.getCdfSnapshotData().get(round);
-
-        if (currentRoundSnapshotData == null) {
-          if (previousRoundSnapshotData == null) {
-            throw new RoundSnapshotDataMissingException(sanitizedId);
-          }
-          currentRoundSnapshotData = previousRoundSnapshotData;
-        }
-        cvrSnapshots.add(generateCvrSnapshotMap(cvr, round, currentRoundSnapshotData));
-        previousRoundSnapshotData = currentRoundSnapshotData;
+  // Writes the array of CVR objects, one for each cast vote record, with a snapshot of its original
+  // rankings and one for each round. CVRs are rendered to bytes in chunks, in parallel when there
+  // are several chunks, and written straight to output in CVR order between the start and end of
+  // the array, so the report is never held in memory.
+  private void writeCdfCvrs(
+      JsonFactory factory,
+      JsonGenerator generator,
+      OutputStream output,
+      List<CastVoteRecord> castVoteRecords)
+      throws IOException, RoundSnapshotDataMissingException {
+    generator.writeArrayFieldStart("CVR");
+    generator.flush();
+    if (ForkJoinPool.commonPool().getParallelism() < 2
+        || castVoteRecords.size() <= CVRS_PER_CDF_CHUNK) {
+      for (int start = 0; start < castVoteRecords.size(); start += CVRS_PER_CDF_CHUNK) {
+        writeCdfChunk(output, start, renderCdfChunk(factory, castVoteRecords, start));
       }
+    } else {
+      writeCdfChunksInParallel(factory, output, castVoteRecords);
+    }
+    // The generator didn't see the CVRs, but DefaultPrettyPrinter closes an array the same way
+    // whether or not it has values, since it writes arrays on one line.
+    generator.writeEndArray();
+  }
 
-      // create new cvr map entry
-      Map<String, Object> cvrMap = new HashMap<>();
-      cvrMap.put("BallotPrePrintedId", sanitizedId);
-      cvrMap.put("CurrentSnapshotId", generateCvrSnapshotId(sanitizedId, numRounds));
-      cvrMap.put("CVRSnapshot", cvrSnapshots);
-      cvrMap.put("ElectionId", CDF_ELECTION_ID);
-      cvrMap.put("@type", "CVR");
-      // if using precincts add GpUnitId for cvr precinct
-      if (config.isTabulateByEnabled(TabulateBySlice.PRECINCT)) {
-        String gpUnitId = gpUnitIds.get(cvr.getSlice(TabulateBySlice.PRECINCT));
-        cvrMap.put("BallotStyleUnitId", gpUnitId);
+  // Chunks are rendered on the common ForkJoinPool and written here in CVR order. The number of
+  // chunks in flight is bounded, which bounds how much rendered output is held in memory while
+  // waiting on an earlier chunk to finish.
+  private void writeCdfChunksInParallel(
+      JsonFactory factory, OutputStream output, List<CastVoteRecord> castVoteRecords)
+      throws IOException, RoundSnapshotDataMissingException {
+    int numChunks = (castVoteRecords.size() + CVRS_PER_CDF_CHUNK - 1) / CVRS_PER_CDF_CHUNK;
+    try (OrderedParallelTasks<RenderedCdfChunk, IOException> chunks =
+        OrderedParallelTasks.onCommonPool(
+            numChunks,
+            chunk -> renderCdfChunk(factory, castVoteRecords, chunk * CVRS_PER_CDF_CHUNK))) {
+      for (int chunk = 0; chunk < numChunks; chunk++) {
+        writeCdfChunk(output, chunk * CVRS_PER_CDF_CHUNK, chunks.next());
       }
-      cvrMaps.add(cvrMap);
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Generating the CDF JSON file was interrupted", exception);
     }
-    return cvrMaps;
   }
 
-  // helper for generateCdfMapForCvrs to handle a single CVR in a single round
-  private Map<String, Object> generateCvrSnapshotMap(
-      CastVoteRecord cvr, Integer round, List<Pair<String, BigDecimal>> currentRoundSnapshotData) {
-    List<Map<String, Object>> selectionMapList = new LinkedList<>();
+  // writes a rendered chunk, which starts at position start in the CVR list, into the CVR array
+  private static void writeCdfChunk(OutputStream output, int start, RenderedCdfChunk chunk)
+      throws IOException, RoundSnapshotDataMissingException {
+    output.write(start == 0 ? CDF_FIRST_CVR_SEPARATOR : CDF_CVR_SEPARATOR);
+    output.write(chunk.bytes());
+    if (chunk.failure() != null) {
+      throw chunk.failure();
+    }
+  }
+
+  // Renders the CVR objects of the chunk of cast vote records starting at position start, exactly
+  // as they appear in the report's CVR array, separated from each other as they are there. Stops
+  // at a CVR which fails; the failure is kept to be thrown once the CVRs before it are written.
+  private RenderedCdfChunk renderCdfChunk(
+      JsonFactory factory, List<CastVoteRecord> castVoteRecords, int start) throws IOException {
+    int end = Math.min(start + CVRS_PER_CDF_CHUNK, castVoteRecords.size());
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    // ContestSelectionIds in this chunk, serialized once rather than for every selection
+    Map<String, SerializableString> contestSelectionIds = new HashMap<>();
+    RoundSnapshotDataMissingException failure = null;
+    try (JsonGenerator generator = factory.createGenerator(bytes, JsonEncoding.UTF8)) {
+      generator.setPrettyPrinter(new CdfCvrPrettyPrinter());
+      for (int cvrIndex = start; cvrIndex < end; cvrIndex++) {
+        writeCdfCvr(generator, contestSelectionIds, cvrIndex, castVoteRecords.get(cvrIndex));
+      }
+    } catch (RoundSnapshotDataMissingException exception) {
+      failure = exception;
+    }
+    return new RenderedCdfChunk(bytes.toByteArray(), failure);
+  }
 
+  // Writes the CVR object for a single cast vote record, with its fields in alphabetical order to
+  // match the files written by generateJsonFile.
+  private void writeCdfCvr(
+      JsonGenerator generator,
+      Map<String, SerializableString> contestSelectionIds,
+      int cvrIndex,
+      CastVoteRecord cvr)
+      throws IOException, RoundSnapshotDataMissingException {
+    String sanitizedId = sanitizeStringForOutput(cvr.getId());
     List<Map.Entry<String, List<Integer>>> candidatesWithRanksList =
         getCandidatesWithRanksList(cvr.candidateRankings);
-    for (Map.Entry<String, List<Integer>> candidateWithRanks : candidatesWithRanksList) {
+    SerializableString[] selectionIds = new SerializableString[candidatesWithRanksList.size()];
+    for (int i = 0; i < selectionIds.length; i++) {
+      selectionIds[i] =
+          contestSelectionIds.computeIfAbsent(
+              candidatesWithRanksList.get(i).getKey(),
+              name -> new SerializedString(getCdfContestSelectionIdForCandidateName(name)));
+    }
+
+    generator.writeStartObject();
+    generator.writeStringField("@type", "CVR");
+    generator.writeStringField("BallotPrePrintedId", sanitizedId);
+    // if using precincts add GpUnitId for cvr precinct
+    if (config.isTabulateByEnabled(TabulateBySlice.PRECINCT)) {
+      generator.writeStringField(
+          "BallotStyleUnitId", gpUnitIds.get(cvr.getSlice(TabulateBySlice.PRECINCT)));
+    }
+    generator.writeArrayFieldStart("CVRSnapshot");
+    writeCvrSnapshot(
+        generator,
+        sanitizedId,
+        candidatesWithRanksList,
+        selectionIds,
+        null,
+        CdfSnapshotHistory.NONE);
+    // a round in which the ballot's allocation didn't change has no snapshot of its own, so the
+    // most recent snapshot carries over until the next one
+    int snapshot = CdfSnapshotHistory.NONE;
+    int nextSnapshot =
+        numRounds > 0 ? cdfSnapshotHistory.getFirstSnapshot(cvrIndex) : CdfSnapshotHistory.NONE;
+    for (int round = 1; round <= numRounds; round++) {
+      while (nextSnapshot != CdfSnapshotHistory.NONE
+          && cdfSnapshotHistory.getRound(nextSnapshot) <= round) {
+        snapshot = nextSnapshot;
+        nextSnapshot = cdfSnapshotHistory.getNextSnapshot(nextSnapshot);
+      }
+      if (snapshot == CdfSnapshotHistory.NONE) {
+        throw new RoundSnapshotDataMissingException(sanitizedId);
+      }
+      writeCvrSnapshot(
+          generator, sanitizedId, candidatesWithRanksList, selectionIds, round, snapshot);
+    }
+    generator.writeEndArray();
+    generator.writeStringField(
+        "CurrentSnapshotId", generateCvrSnapshotId(sanitizedId, numRounds));
+    generator.writeStringField("ElectionId", CDF_ELECTION_ID);
+    generator.writeEndObject();
+  }
+
+  // helper for writeCdfCvr to handle a single CVR in a single round, given the snapshot of its
+  // allocation in cdfSnapshotHistory (NONE for the original, untabulated, snapshot)
+  // param: selectionIds[i] is the ContestSelectionId of candidatesWithRanksList[i]
+  private void writeCvrSnapshot(
+      JsonGenerator generator,
+      String sanitizedId,
+      List<Map.Entry<String, List<Integer>>> candidatesWithRanksList,
+      SerializableString[] selectionIds,
+      Integer round,
+      int snapshot)
+      throws IOException {
+    generator.writeStartObject();
+    generator.writeStringField("@id", generateCvrSnapshotId(sanitizedId, round));
+    generator.writeStringField("@type", "CVR.CVRSnapshot");
+    generator.writeArrayFieldStart("CVRContest");
+    generator.writeStartObject();
+    generator.writeStringField("@type", "CVR.CVRContest");
+    generator.writeArrayFieldStart("CVRContestSelection");
+    for (int i = 0; i < candidatesWithRanksList.size(); i++) {
+      Map.Entry<String, List<Integer>> candidateWithRanks = candidatesWithRanksList.get(i);
       String candidateName = candidateWithRanks.getKey();
 
       String isAllocable = "unknown";
       BigDecimal numberVotes = BigDecimal.ONE;
 
-      if (currentRoundSnapshotData != null) {
-        // scanning the list isn't actually expensive because it will almost always be very short
-        for (Pair<String, BigDecimal> allocation : currentRoundSnapshotData) {
-          if (allocation.getKey().equals(candidateName)) {
+      if (snapshot != CdfSnapshotHistory.NONE) {
+        // scanning the allocations isn't actually expensive because there are almost always very
+        // few of them
+        int numAllocations = cdfSnapshotHistory.getNumAllocations(snapshot);
+        for (int allocation = 0; allocation < numAllocations; allocation++) {
+          if (cdfSnapshotHistory.getAllocationCandidate(snapshot, allocation)
+              .equals(candidateName)) {
             isAllocable = "yes";
-            numberVotes = allocation.getValue();
+            numberVotes = cdfSnapshotHistory.getAllocationValue(snapshot, allocation);
             break;
           }
         }
@@ -1028,43 +1321,37 @@ class OutputWriter {
         }
       }
 
-      List<Map<String, Object>> selectionPositionMapList = new LinkedList<>();
+      generator.writeStartObject();
+      generator.writeStringField("@type", "CVR.CVRContestSelection");
+      generator.writeFieldName("ContestSelectionId");
+      generator.writeString(selectionIds[i]);
+      generator.writeArrayFieldStart("SelectionPosition");
       for (int rank : candidateWithRanks.getValue()) {
-        Map<String, Object> selectionPositionMap = new HashMap<>();
-        selectionPositionMap.put("HasIndication", "yes");
-        selectionPositionMap.put("IsAllocable", isAllocable);
-        selectionPositionMap.put("NumberVotes", numberVotes.intValue());
-        selectionPositionMap.put("Rank", rank);
-        selectionPositionMap.put("@type", "CVR.SelectionPosition");
+        generator.writeStartObject();
+        generator.writeStringField("@type", "CVR.SelectionPosition");
         if (fractionalVotes != null) {
-          selectionPositionMap.put("FractionalVotes", fractionalVotes);
+          generator.writeStringField("FractionalVotes", fractionalVotes);
         }
-        selectionPositionMapList.add(selectionPositionMap);
+        generator.writeStringField("HasIndication", "yes");
+        generator.writeStringField("IsAllocable", isAllocable);
+        generator.writeNumberField("NumberVotes", numberVotes.intValue());
+        generator.writeNumberField("Rank", rank);
+        generator.writeEndObject();
         if (isAllocable.equals("yes")) {
           // If there are duplicate rankings for the candidate on this ballot, only the first one
           // can be allocable.
           isAllocable = "no";
         }
       }
-
-      selectionMapList.add(
-          Map.ofEntries(
-              entry("ContestSelectionId", getCdfContestSelectionIdForCandidateName(candidateName)),
-              entry("SelectionPosition", selectionPositionMapList),
-              entry("@type", "CVR.CVRContestSelection")));
+      generator.writeEndArray();
+      generator.writeEndObject();
     }
-
-    Map<String, Object> contestMap =
-        Map.ofEntries(
-            entry("ContestId", CDF_CONTEST_ID),
-            entry("CVRContestSelection", selectionMapList),
-            entry("@type", "CVR.CVRContest"));
-
-    return Map.ofEntries(
-        entry("@id", generateCvrSnapshotId(sanitizeStringForOutput(cvr.getId()), round)),
-        entry("CVRContest", new Map[] {contestMap}),
-        entry("Type", round != null ? "interpreted" : "original"),
-        entry("@type", "CVR.CVRSnapshot"));
+    generator.writeEndArray();
+    generator.writeStringField("ContestId", CDF_CONTEST_ID);
+    generator.writeEndObject();
+    generator.writeEndArray();
+    generator.writeStringField("Type", round != null ? "interpreted" : "original");
+    generator.writeEndObject();
   }
 
   private Map<String, Object> generateCdfMapForElection() {
@@ -1123,7 +1410,20 @@ class OutputWriter {
       TallyTransfers tallyTransfers,
       OutputFileIdentifiers outputFileIdentifiers)
       throws IOException {
-    AuditableFile jsonFile = createAuditableFile(outputFileIdentifiers);
+    writeJsonReport(
+        roundTallies,
+        tallyTransfers,
+        outputFileIdentifiers,
+        createAuditableFile(outputFileIdentifiers));
+  }
+
+  // writes a summary json file, as described for generateJsonReport, to jsonFile
+  private void writeJsonReport(
+      RoundTallies roundTallies,
+      TallyTransfers tallyTransfers,
+      OutputFileIdentifiers outputFileIdentifiers,
+      AuditableFile jsonFile)
+      throws IOException {
     Logger.info("Generating summary JSON file: %s...", jsonFile.getAbsolutePath());
 
     // config will contain contest configuration info
@@ -1277,6 +1577,37 @@ class OutputWriter {
     }
   }
 
+  // Pretty-prints CVR objects written as consecutive root values exactly as they're printed in the
+  // CDF JSON report's CVR array, where they're nested one object deep and separated by ", ".
+  private static final class CdfCvrPrettyPrinter extends DefaultPrettyPrinter {
+
+    CdfCvrPrettyPrinter() {
+      _rootSeparator = new SerializedString(", ");
+      _nesting = 1;
+    }
+  }
+
+  // The rendered CVR objects of a chunk of cast vote records, and the failure which stopped
+  // rendering them, if there was one.
+  private record RenderedCdfChunk(byte[] bytes, RoundSnapshotDataMissingException failure) {}
+
+  // the rows of a results .csv file which are formatted once and shared by every by-slice report
+  private record CsvReportHeaders(
+      String contestInformation,
+      String roundHeaders,
+      Footnote isSliceFootnote,
+      Footnote tieBrokenFootnote) {}
+
+  // a slice's .csv and .json reports, with their paths chosen in slice order
+  private record SliceReports(
+      RoundTallies roundTallies,
+      TallyTransfers tallyTransfers,
+      OutputFileIdentifiers csvIdentifiers,
+      AuditableFile csvFile,
+      OutputFileIdentifiers jsonIdentifiers,
+      AuditableFile jsonFile) {}
+
+
   // Exception class used when we're unexpectedly missing snapshot data for a cast vote record
   // during CDF JSON generation. If this happens, there's a bug in the tabulation code.
   static class RoundSnapshotDataMissingException extends Exception {
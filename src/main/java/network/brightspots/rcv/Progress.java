@@ -46,7 +46,7 @@ class Progress {
       this.numFilesToRead = config.rawConfig.cvrFileSources.size();
       this.numToEliminate = config.getNumCandidates() - config.getNumberOfWinners();
     } else {
-      int numPasses = config.getSequentialWinners().size();
+      int numPasses = config.getNumberOfWinners();
 
       // The maximum number of eliminations in each pass is the number of active candidates
       // minus the one winner.
@@ -55,7 +55,8 @@ class Progress {
         totalEliminations += config.getNumCandidates() - i - 1;
       }
 
-      this.numFilesToRead = config.rawConfig.cvrFileSources.size() * numPasses;
+      // CVR files are read once and reused for every pass
+      this.numFilesToRead = config.rawConfig.cvrFileSources.size();
       this.numToEliminate = totalEliminations;
     }
     this.estPercentTimeTabulating = estPercentTimeTabulating;
@@ -23,6 +23,7 @@ import static network.brightspots.rcv.CastVoteRecord.StatusForRound;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -32,6 +33,10 @@ import java.util.stream.Stream;
 
 class RoundTally {
   private final int roundNumber;
+  // Until the round is locked in, votes are accumulated in fixed point in these sums; locking in
+  // the round converts them into the BigDecimal tallies below.
+  private final Map<String, VoteValue.Sum> candidateTallySums;
+  private final Map<StatusForRound, VoteValue.Sum> ballotStatusTallySums;
   private final Map<String, BigDecimal> candidateTallies;
   private final Map<StatusForRound, BigDecimal> ballotStatusTallies;
   private BigDecimal winningThreshold;
@@ -44,13 +49,19 @@ class RoundTally {
 
   RoundTally(int roundNumber, Stream<String> candidateNames) {
     this.roundNumber = roundNumber;
+    candidateTallySums = new HashMap<>();
     candidateTallies = new HashMap<>();
     candidateNames.forEach(
-        (String candidateName) -> candidateTallies.put(candidateName, BigDecimal.ZERO));
+        (String candidateName) -> {
+          candidateTallySums.put(candidateName, new VoteValue.Sum());
+          candidateTallies.put(candidateName, BigDecimal.ZERO);
+        });
 
+    ballotStatusTallySums = new EnumMap<>(StatusForRound.class);
     ballotStatusTallies = new HashMap<>();
     lockedInBallotSum = BigDecimal.ZERO;
     for (StatusForRound statusForRound : StatusForRound.values()) {
+      ballotStatusTallySums.put(statusForRound, new VoteValue.Sum());
       ballotStatusTallies.put(statusForRound, BigDecimal.ZERO);
     }
   }
@@ -64,6 +75,10 @@ class RoundTally {
   void lockInRound() {
     ensureNotFinalized();
     isFinalized = true;
+    candidateTallySums.forEach(
+        (candidateId, sum) -> candidateTallies.put(candidateId, sum.toBigDecimal()));
+    ballotStatusTallySums.forEach(
+        (statusForRound, sum) -> ballotStatusTallies.put(statusForRound, sum.toBigDecimal()));
     countBallots();
   }
 
@@ -87,9 +102,14 @@ class RoundTally {
 
   // Adds to the votes for this candidate
   void addToCandidateTally(String candidateId, BigDecimal tally) {
+    addToCandidateTally(candidateId, VoteValue.of(tally));
+  }
+
+  // Adds to the votes for this candidate
+  void addToCandidateTally(String candidateId, VoteValue tally) {
     ensureNotFinalized();
-    addBallotWithStatus(StatusForRound.ACTIVE, tally);
-    candidateTallies.put(candidateId, candidateTallies.get(candidateId).add(tally));
+    ballotStatusTallySums.get(StatusForRound.ACTIVE).add(tally);
+    candidateTallySums.get(candidateId).add(tally);
   }
 
   // Adds votes without adjusting the sum of BallotStatus.ACTIVE ballots.
@@ -110,6 +130,33 @@ class RoundTally {
     lockedInBallotSum = lockedInBallotSum.add(diff);
   }
 
+  // Seeds this round with the previous round's tally for every candidate in this round and for
+  // every inactive ballot status. Ballots which neither moved nor changed value since then are
+  // thus counted without being revisited.
+  void carryForwardFrom(RoundTally previousRoundTally) {
+    ensureNotFinalized();
+    for (String candidateId : candidateTallies.keySet()) {
+      addToCandidateTally(candidateId, previousRoundTally.getCandidateTally(candidateId));
+    }
+    for (StatusForRound statusForRound : StatusForRound.values()) {
+      if (statusForRound != StatusForRound.ACTIVE) {
+        ballotStatusTallySums
+            .get(statusForRound)
+            .add(previousRoundTally.getBallotStatusTally(statusForRound));
+      }
+    }
+  }
+
+  // Adds the totals from a partial tally of this same round, such as one computed over a subset of
+  // the cast vote records on another thread.
+  void addTalliesFrom(RoundTally partialTally) {
+    ensureNotFinalized();
+    partialTally.candidateTallySums.forEach(
+        (candidateId, sum) -> candidateTallySums.get(candidateId).add(sum));
+    partialTally.ballotStatusTallySums.forEach(
+        (statusForRound, sum) -> ballotStatusTallySums.get(statusForRound).add(sum));
+  }
+
   // Gets the winning threshold for this round.
   BigDecimal getWinningThreshold() {
     return winningThreshold;
@@ -121,19 +168,12 @@ class RoundTally {
   }
 
   // Adds to the count of inactive ballots
-  void addInactiveBallot(StatusForRound statusForRound, BigDecimal value) {
+  void addInactiveBallot(StatusForRound statusForRound, VoteValue value) {
     ensureNotFinalized();
     if (statusForRound == StatusForRound.ACTIVE) {
       throw new RuntimeException("Cannot add an active ballot as inactive");
     }
-    addBallotWithStatus(statusForRound, value);
-  }
-
-  // Adds to the votes for this round
-  private void addBallotWithStatus(StatusForRound statusForRound, BigDecimal value) {
-    ensureNotFinalized();
-    BigDecimal newVal = ballotStatusTallies.get(statusForRound).add(value);
-    ballotStatusTallies.put(statusForRound, newVal);
+    ballotStatusTallySums.get(statusForRound).add(value);
   }
 
   // Get the sum of inactive ballots by type
@@ -68,6 +68,13 @@ class SecurityConfig {
     return rsaKeyValue;
   }
 
+  // The security settings in effect on the calling thread. Pass them to work handed off to
+  // other threads, so that it runs under the same settings as the thread which started it.
+  static Settings currentSettings() {
+    return new Settings(
+        hartSignatureValidationEnabled.get(), canOutputFilesSaveToUsersDirectory.get());
+  }
+
   public static void setEnableValidationForUnitTests(boolean isEnabled) {
     if (isNotCalledByTabulatorTests()) {
       throw new RuntimeException("Only unit tests can edit the security configuration!");
@@ -92,4 +99,34 @@ class SecurityConfig {
     return !lastStackFrame.getClassName().equals("network.brightspots.rcv.TabulatorTests")
         && !lastStackFrame.getClassName().equals("network.brightspots.rcv.SecurityTests");
   }
+
+  // A copy of one thread's security settings. Settings can only be copied from an existing
+  // thread, so applying them can never loosen the configuration.
+  static final class Settings {
+
+    private final boolean isHartSignatureValidationEnabled;
+    private final boolean canOutputFilesSaveToUsersDirectory;
+
+    private Settings(
+        boolean isHartSignatureValidationEnabled, boolean canOutputFilesSaveToUsersDirectory) {
+      this.isHartSignatureValidationEnabled = isHartSignatureValidationEnabled;
+      this.canOutputFilesSaveToUsersDirectory = canOutputFilesSaveToUsersDirectory;
+    }
+
+    // Run task on the current thread under these settings, then restore the thread's own.
+    <T, E extends Exception> T callWith(OrderedParallelTasks.Task<T, E> task) throws E {
+      Settings previousSettings = currentSettings();
+      apply();
+      try {
+        return task.call();
+      } finally {
+        previousSettings.apply();
+      }
+    }
+
+    private void apply() {
+      hartSignatureValidationEnabled.set(isHartSignatureValidationEnabled);
+      SecurityConfig.canOutputFilesSaveToUsersDirectory.set(canOutputFilesSaveToUsersDirectory);
+    }
+  }
 }
@@ -48,6 +48,13 @@ import javax.xml.crypto.dsig.XMLSignatureFactory;
 import javax.xml.crypto.dsig.spec.C14NMethodParameterSpec;
 
 class SecuritySignatureValidation {
+  // shared by every validation, since signatures may be checked for many files in parallel;
+  // XmlMapper is thread-safe once configured
+  private static final XmlMapper XML_MAPPER =
+      XmlMapper.builder()
+          .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+          .build();
+
   /**
    * Throws an exception if the signature is invalid.
    * Throws CouldNotVerifySignature if it is unable to run the validation, for reasons including:
@@ -201,10 +208,9 @@ class SecuritySignatureValidation {
   private static byte[] canonicalizeXml(SignedInfo signedInfo)
           throws VerificationDidNotRunException {
     // Convert the SignedInfo object to XML
-    XmlMapper xmlMapper = new XmlMapper();
     String xmlSignedInfo;
     try {
-      xmlSignedInfo = xmlMapper.writeValueAsString(signedInfo);
+      xmlSignedInfo = XML_MAPPER.writeValueAsString(signedInfo);
     } catch (JsonProcessingException e) {
       throw new VerificationDidNotRunException("Failed to parse the signature XML file");
     }
@@ -245,11 +251,8 @@ class SecuritySignatureValidation {
    * Reads an XML file into a Java object.
    */
   private static <T> T readFromXml(File xmlFile, Class<T> classType) throws IOException {
-    XmlMapper xmlMapper = new XmlMapper();
-    xmlMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-
     try (FileInputStream inputStream = new FileInputStream(xmlFile)) {
-      T xmlObject = xmlMapper.readValue(inputStream, classType);
+      T xmlObject = XML_MAPPER.readValue(inputStream, classType);
       inputStream.close();
       return xmlObject;
     }
@@ -0,0 +1,174 @@
+/*
+ * RCTab
+ * Copyright (c) 2017-2023 Bright Spots Developers.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+/*
+ * Purpose: Lets several contest configs which read the same CVR export share a single parse of
+ * it.
+ * Design: Each config is registered before any of them is tabulated, which records which export
+ * each of its Dominion, Hart, CDF, and Clear Ballot sources reads and which contest it's for. The
+ * first reader to need an export scans it once for all of its registered contests, and every
+ * reader then builds its own records from its contest's part of the scan, so they and the log
+ * output are the same as a separate read would give. What a scan holds depends on the provider;
+ * see each reader's scan method. A contest's part of the scan is released after its last
+ * registered read, and a session releases any registered reads it didn't make when it ends,
+ * whether it succeeded or not. Exports read only once, and reads beyond those registered, are
+ * parsed by the reader as usual.
+ * Conditions: When tabulating several contests in one run from the CLI.
+ * Version history: see https://github.com/BrightSpots/rcv.
+ */
+
+package network.brightspots.rcv;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import network.brightspots.rcv.CastVoteRecord.CvrParseException;
+import network.brightspots.rcv.ContestConfig.Provider;
+import network.brightspots.rcv.RawContestConfig.CvrSource;
+
+final class SharedCvrExports {
+
+  // providers whose readers can build their records from a shared scan
+  private static final Set<Provider> SHAREABLE_PROVIDERS =
+      EnumSet.of(Provider.CDF, Provider.CLEAR_BALLOT, Provider.DOMINION, Provider.HART);
+
+  private final Map<ExportKey, Export> exports = new HashMap<>();
+  // The export each registered source reads, until the read is made or skipped. Sources are
+  // compared by identity, so a session must be given the config that was registered.
+  private final Map<CvrSource, Export> pendingReads = new IdentityHashMap<>();
+
+  // record the exports config will read, and the contest each read is for
+  synchronized void register(ContestConfig config) {
+    for (CvrSource source : config.rawConfig.cvrFileSources) {
+      Provider provider = ContestConfig.getProvider(source);
+      if (SHAREABLE_PROVIDERS.contains(provider)
+          && source.getFilePath() != null
+          && source.getContestId() != null
+          && !pendingReads.containsKey(source)) {
+        Path path =
+            Paths.get(config.resolveConfigPath(source.getFilePath())).toAbsolutePath().normalize();
+        Export export = exports.computeIfAbsent(new ExportKey(provider, path), key -> new Export());
+        synchronized (export) {
+          export.remainingReads.merge(source.getContestId(), 1, Integer::sum);
+          export.numRegisteredReads++;
+        }
+        pendingReads.put(source, export);
+      }
+    }
+  }
+
+  // Returns the part of the scan of source's export which is for its contest, scanning the export
+  // first if no other reader has yet. Returns null if the read isn't shared, in which case the
+  // caller should parse the export itself. If the scan fails, this read is over, and the next
+  // reader of the export scans it again.
+  <T> T takeScan(CvrSource source, ExportScanner<T> scanner)
+      throws IOException, CvrParseException {
+    Export export;
+    synchronized (this) {
+      export = pendingReads.remove(source);
+    }
+    if (export == null) {
+      return null;
+    }
+
+    // hold only this export's lock while scanning, so other exports can be read in the meantime
+    synchronized (export) {
+      try {
+        if (export.numRegisteredReads < 2) {
+          return null;
+        }
+        if (export.scansByContest == null) {
+          Logger.info(
+              "Scanning shared export once for %d contest(s)...", export.remainingReads.size());
+          export.scansByContest =
+              new HashMap<>(scanner.scan(Set.copyOf(export.remainingReads.keySet())));
+        }
+        @SuppressWarnings("unchecked")
+        T scan = (T) export.scansByContest.get(source.getContestId());
+        return scan;
+      } finally {
+        finishRead(export, source.getContestId());
+      }
+    }
+  }
+
+  // Record that source's registered read won't take its scan after all, e.g. because its CVRs
+  // were loaded from the ballot cache. If that was its contest's last read, the contest's part of
+  // the scan is released, or not scanned for at all.
+  void skipRead(CvrSource source) {
+    Export export;
+    synchronized (this) {
+      export = pendingReads.remove(source);
+    }
+    if (export != null) {
+      synchronized (export) {
+        finishRead(export, source.getContestId());
+      }
+    }
+  }
+
+  // skip each of config's registered reads which hasn't been made, so nothing is held for it
+  void release(ContestConfig config) {
+    for (CvrSource source : config.rawConfig.cvrFileSources) {
+      skipRead(source);
+    }
+  }
+
+  // Visible for testing
+  // the number of registered reads which haven't been made or skipped
+  synchronized int numPendingReads() {
+    return pendingReads.size();
+  }
+
+  // Visible for testing
+  // the number of contests whose part of a scan is being held
+  synchronized int numHeldScans() {
+    int numHeldScans = 0;
+    for (Export export : exports.values()) {
+      synchronized (export) {
+        numHeldScans += export.scansByContest != null ? export.scansByContest.size() : 0;
+      }
+    }
+    return numHeldScans;
+  }
+
+  // must be called holding export's lock
+  private static void finishRead(Export export, String contestId) {
+    if (export.remainingReads.merge(contestId, -1, Integer::sum) == 0) {
+      export.remainingReads.remove(contestId);
+      if (export.scansByContest != null) {
+        export.scansByContest.remove(contestId);
+      }
+    }
+  }
+
+  @FunctionalInterface
+  interface ExportScanner<T> {
+
+    // parse the export once, returning the part of the scan for each of contestIds
+    Map<String, T> scan(Set<String> contestIds) throws IOException, CvrParseException;
+  }
+
+  // an export is identified by its provider and the absolute, normalized path it's read from
+  private record ExportKey(Provider provider, Path path) {}
+
+  private static final class Export {
+
+    // number of reads still expected for each contest ID
+    private final Map<String, Integer> remainingReads = new HashMap<>();
+    private int numRegisteredReads = 0;
+    // null until the export has been scanned
+    private Map<String, Object> scansByContest;
+  }
+}
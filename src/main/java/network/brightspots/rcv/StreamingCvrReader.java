@@ -11,6 +11,10 @@
  * Purpose: Read and parse ES&S election data into CastVoteRecord objects.
  * Design: ES&S uses an xlsx (Excel) file to store CVR data.  This class uses Apache POI to stream
  * the xlsx file, which triggers callbacks at the beginning and end of every row, and every cell.
+ * Shared strings are looked up once into an array indexed by their position in the table. Cells are
+ * collected into reusable batches of rows; when more than one processor is available the sheet XML
+ * is decompressed and parsed on its own thread while this one builds CastVoteRecords from the
+ * batches, in row order.
  * Conditions: Used when reading ES&S election data.
  * Version history: see https://github.com/BrightSpots/rcv.
  */
@@ -21,20 +25,28 @@ import static network.brightspots.rcv.Utils.isNullOrBlank;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.InvalidParameterException;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.LogRecord;
 import java.util.regex.Pattern;
-import javafx.util.Pair;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
+import network.brightspots.rcv.CastVoteRecord.CvrParseException;
 import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
 import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.ss.usermodel.RichTextString;
 import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
 import org.apache.poi.xssf.eventusermodel.XSSFReader;
 import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
 import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler.SheetContentsHandler;
+import org.apache.poi.xssf.model.SharedStrings;
 import org.apache.poi.xssf.model.StylesTable;
 import org.apache.poi.xssf.usermodel.XSSFComment;
 import org.xml.sax.ContentHandler;
@@ -48,6 +60,11 @@ final class StreamingCvrReader extends BaseCvrReader {
   private static final String MISSING_PRECINCT_ID = "missing_precinct_id";
   // this indicates a missing batch ID in output files
   private static final String MISSING_BATCH_ID = "missing_batch_id";
+  // rows are handed from the sheet parser to the CVR builder in batches of this many
+  private static final int ROWS_PER_BATCH = 1024;
+  // total batches in use when parsing on a separate thread; the parser can fill all but one
+  // while the rows of the remaining batch are read
+  private static final int NUM_BATCHES = 4;
   // name of the source file
   private final String excelFileName;
   // 0-based column index of first ranking
@@ -68,10 +85,11 @@ final class StreamingCvrReader extends BaseCvrReader {
   private final boolean treatBlankAsUndeclaredWriteIn;
   // used for generating CVR IDs
   private int cvrIndex = 0;
-  // list of currentRankings for CVR in progress
-  private LinkedList<Pair<Integer, String>> currentRankings;
-  // list of raw strings for CVR in progress
-  private LinkedList<String> currentCvrData;
+  // rankings for CVR in progress: currentRanks[i] is the rank given to currentCandidates[i].
+  // These are reused from one CVR to the next.
+  private int[] currentRanks = new int[16];
+  private String[] currentCandidates = new String[16];
+  private int numCurrentRankings;
   // supplied CVR ID for CVR in progress
   private String currentSuppliedCvrId;
   // batch ID for CVR in progress
@@ -111,36 +129,25 @@ final class StreamingCvrReader extends BaseCvrReader {
     this.treatBlankAsUndeclaredWriteIn = source.getTreatBlankAsUndeclaredWriteIn();
   }
 
-  // given Excel-style address string return the cell address as a pair of Integers
-  // representing zero-based column and row of the cell address
-  private static Pair<Integer, Integer> getCellAddress(String address) {
-    // this regex will parse a string into
-    // a sequence of one or more non-digits followed by a sequence of one or more digits
-    String[] addressParts = address.split("(?<=\\D)(?=\\d)");
-    if (addressParts.length != 2) {
+  // given an Excel-style cell address, e.g. "AB12", return the zero-based integer index of its
+  // column, e.g. 27. The column letters are converted as they're scanned, without splitting the
+  // address; the row is already known from the enclosing row.
+  private static int getColumnIndex(String address) {
+    int result = 0;
+    int i = 0;
+    while (i < address.length() && address.charAt(i) >= 'A' && address.charAt(i) <= 'Z') {
+      result = result * 26 + address.charAt(i) - '@';
+      i++;
+    }
+    // the letters must be followed by a row number and nothing else
+    boolean isValid = i > 0 && i < address.length();
+    for (int j = i; isValid && j < address.length(); j++) {
+      isValid = address.charAt(j) >= '0' && address.charAt(j) <= '9';
+    }
+    if (!isValid) {
       Logger.severe("Invalid cell address: %s", address);
       throw new InvalidParameterException();
     }
-    // row is the 0-based row of the cell
-    Integer row = Integer.parseInt(addressParts[1]) - 1;
-    // col is the 0-based column of the cell
-    Integer col = getColumnIndex(addressParts[0]);
-    return new Pair<>(col, row);
-  }
-
-  // given an Excel columnAddress returns the zero-based
-  // integer index of the column, e.g. "A" returns 0 and "AB" returns 27
-  private static int getColumnIndex(String columnAddress) {
-    int result = 0;
-    for (int i = 0; i < columnAddress.length(); i++) {
-      result *= 26;
-      int charValue = columnAddress.charAt(i) - '@';
-      if (charValue < 1 || charValue > 26) {
-        Logger.severe("Invalid cell address: %s", columnAddress);
-        throw new InvalidParameterException();
-      }
-      result += charValue;
-    }
     return result - 1;
   }
 
@@ -154,20 +161,39 @@ final class StreamingCvrReader extends BaseCvrReader {
   // occur in a ranking's cell.
   // param: currentRank the rank at which we stop inferring empty cells for this invocation
   private void handleEmptyCells(int currentRank) {
-    for (int rank = lastRankSeen + 1; rank < currentRank; rank++) {
-      currentCvrData.add("empty cell");
-      // add UWI ranking if required by settings
-      if (treatBlankAsUndeclaredWriteIn) {
-        currentRankings.add(new Pair<>(rank, Tabulator.UNDECLARED_WRITE_IN_OUTPUT_LABEL));
+    // add UWI ranking if required by settings
+    if (treatBlankAsUndeclaredWriteIn) {
+      for (int rank = lastRankSeen + 1; rank < currentRank; rank++) {
+        addRanking(rank, Tabulator.UNDECLARED_WRITE_IN_OUTPUT_LABEL);
       }
     }
   }
 
+  private void addRanking(int rank, String candidate) {
+    if (numCurrentRankings == currentRanks.length) {
+      currentRanks = Arrays.copyOf(currentRanks, numCurrentRankings * 2);
+      currentCandidates = Arrays.copyOf(currentCandidates, numCurrentRankings * 2);
+    }
+    currentRanks[numCurrentRankings] = rank;
+    currentCandidates[numCurrentRankings] = candidate;
+    numCurrentRankings++;
+  }
+
+  // build a CVR from each row in batch
+  private void addCastVoteRecords(RowBatch batch) {
+    for (int row = 0; row < batch.numRows; row++) {
+      beginCvr();
+      for (int cell = batch.rowStarts[row]; cell < batch.rowStarts[row + 1]; cell++) {
+        cvrCell(batch.columns[cell], batch.values[cell]);
+      }
+      endCvr();
+    }
+  }
+
   // setup data structures for parsing a new CVR
   private void beginCvr() {
     cvrIndex++;
-    currentRankings = new LinkedList<>();
-    currentCvrData = new LinkedList<>();
+    numCurrentRankings = 0;
     currentSuppliedCvrId = null;
     currentBatch = null;
     currentPrecinct = null;
@@ -218,8 +244,9 @@ final class StreamingCvrReader extends BaseCvrReader {
         currentSuppliedCvrId,
         currentPrecinct,
         currentBatch,
-        usesLastAllowedRanking(currentRankings, null),
-        currentRankings);
+        numCurrentRankings > 0
+            && usesLastAllowedRanking(currentRanks[numCurrentRankings - 1], null),
+        new CandidateRankingsList(currentRanks, currentCandidates, numCurrentRankings));
     cvrList.add(newRecord);
 
     // provide some user feedback on the CVR count
@@ -228,7 +255,6 @@ final class StreamingCvrReader extends BaseCvrReader {
 
   // handle CVR cell data callback
   private void cvrCell(int col, String cellData) {
-    currentCvrData.add(cellData);
     if (precinctColumnIndex != null && col == precinctColumnIndex) {
       currentPrecinct = cellData;
     } else if (batchColumnIndex != null && col == batchColumnIndex) {
@@ -271,8 +297,7 @@ final class StreamingCvrReader extends BaseCvrReader {
           } else if (candidate.equals(undeclaredWriteInLabel)) {
             candidate = Tabulator.UNDECLARED_WRITE_IN_OUTPUT_LABEL;
           }
-          Pair<Integer, String> ranking = new Pair<>(currentRank, candidate);
-          currentRankings.add(ranking);
+          addRanking(currentRank, candidate);
         }
       }
       // update lastRankSeen - used to handle empty ranking cells
@@ -307,57 +332,55 @@ final class StreamingCvrReader extends BaseCvrReader {
           SAXException,
           IOException,
           ParserConfigurationException,
-          CvrDataFormatException {
+          CvrDataFormatException,
+          CvrParseException {
 
     cvrList = castVoteRecords;
 
     // open the zip package
     OPCPackage pkg = OPCPackage.open(cvrPath);
-    // pull out strings
-    ReadOnlySharedStringsTable sharedStrings = new ReadOnlySharedStringsTable(pkg);
-    // XSSF reader is used to extract styles data
-    XSSFReader xssfReader = new XSSFReader(pkg);
-    // styles data is used for creating ContentHandler
-    StylesTable styles = xssfReader.getStylesTable();
-    // object for handling Excel parsing callbacks
-    SheetContentsHandler sheetContentsHandler =
-        new SheetContentsHandler() {
-          @Override
-          public void startRow(int i) {
-            if (i >= firstVoteRowIndex) {
-              beginCvr();
-            }
-          }
-
-          @Override
-          public void endRow(int i) {
-            if (i >= firstVoteRowIndex) {
-              endCvr();
-            }
-          }
-
-          // param: s cell address encoded as col,row
-          // param: s1 cell data
-          // param: xssfComment additional cell data (apparently unused in ES&S files)
-          @Override
-          public void cell(String s, String s1, XSSFComment xssfComment) {
-            Pair<Integer, Integer> address = getCellAddress(s);
-            int col = address.getKey();
-            int row = address.getValue();
-            if (row >= firstVoteRowIndex) {
-              cvrCell(col, s1);
-            }
-          }
+    try {
+      // pull out strings
+      SharedStrings sharedStrings =
+          new CachedSharedStrings(new ReadOnlySharedStringsTable(pkg));
+      // XSSF reader is used to extract styles data
+      XSSFReader xssfReader = new XSSFReader(pkg);
+      // styles data is used for creating ContentHandler
+      StylesTable styles = xssfReader.getStylesTable();
+      InputStream sheetData = xssfReader.getSheetsData().next();
+      if (ForkJoinPool.getCommonPoolParallelism() < 2) {
+        RowCollector rowCollector =
+            new RowCollector(
+                new RowBatch(),
+                fullBatch -> {
+                  addCastVoteRecords(fullBatch);
+                  fullBatch.clear();
+                  return fullBatch;
+                });
+        parseSheet(styles, sharedStrings, sheetData, rowCollector);
+        addCastVoteRecords(rowCollector.batch);
+      } else {
+        parseSheetOnSeparateThread(styles, sharedStrings, sheetData);
+      }
+    } finally {
+      // close zip file without saving
+      pkg.revert();
+    }
 
-          @Override
-          public void headerFooter(String s, boolean b, String s1) {
-            Logger.warning("Unexpected XML data: %s %b %s", s, b, s1);
-          }
-        };
+    if (encounteredDataErrors) {
+      throw new CvrDataFormatException();
+    }
+  }
 
+  private void parseSheet(
+      StylesTable styles,
+      SharedStrings sharedStrings,
+      InputStream sheetData,
+      RowCollector rowCollector)
+      throws SAXException, IOException, ParserConfigurationException {
     // create the ContentHandler to handle parsing callbacks
     ContentHandler handler =
-        new XSSFSheetXMLHandler(styles, sharedStrings, sheetContentsHandler, true);
+        new XSSFSheetXMLHandler(styles, sharedStrings, rowCollector, true);
 
     SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
     saxParserFactory.setNamespaceAware(true);
@@ -365,14 +388,231 @@ final class StreamingCvrReader extends BaseCvrReader {
     XMLReader xmlReader = saxParser.getXMLReader();
     xmlReader.setContentHandler(handler);
     // parse
-    xmlReader.parse(new InputSource(xssfReader.getSheetsData().next()));
-    // close zip file without saving
-    pkg.revert();
+    xmlReader.parse(new InputSource(sheetData));
+  }
 
-    if (encounteredDataErrors) {
-      throw new CvrDataFormatException();
+  // Decompressing and parsing the sheet XML is most of the work of reading the file, so it's done
+  // on a thread of its own, which hands full batches of rows over to this one to build CVRs from
+  // in order. Emptied batches are handed back to be filled again. Anything the parser thread logs
+  // is held with the batch it was filling and logged here before that batch's CVRs are built, so
+  // the log is the same as parsing on this thread.
+  private void parseSheetOnSeparateThread(
+      StylesTable styles, SharedStrings sharedStrings, InputStream sheetData)
+      throws SAXException, IOException, ParserConfigurationException, CvrParseException {
+    BlockingQueue<RowBatch> fullBatches = new ArrayBlockingQueue<>(NUM_BATCHES);
+    BlockingQueue<RowBatch> emptyBatches = new ArrayBlockingQueue<>(NUM_BATCHES);
+    for (int i = 1; i < NUM_BATCHES; i++) {
+      emptyBatches.add(new RowBatch());
+    }
+    RowCollector rowCollector =
+        new RowCollector(
+            new RowBatch(),
+            fullBatch -> {
+              fullBatch.deferredLogRecords = Logger.stopDeferringOnCurrentThread();
+              Logger.startDeferringOnCurrentThread();
+              try {
+                fullBatches.put(fullBatch);
+                return emptyBatches.take();
+              } catch (InterruptedException exception) {
+                // the parser thread is only interrupted when the rows are no longer wanted
+                Thread.currentThread().interrupt();
+                throw new CancellationException();
+              }
+            });
+    Thread parserThread =
+        new Thread(
+            () -> {
+              Logger.startDeferringOnCurrentThread();
+              try {
+                parseSheet(styles, sharedStrings, sheetData, rowCollector);
+              } catch (Throwable throwable) {
+                rowCollector.batch.failure = throwable;
+              }
+              rowCollector.batch.deferredLogRecords = Logger.stopDeferringOnCurrentThread();
+              // there's always room, since the collector was holding one of the batches
+              rowCollector.batch.isLast = true;
+              fullBatches.add(rowCollector.batch);
+            },
+            "ES&S sheet parser");
+    parserThread.setDaemon(true);
+    parserThread.start();
+
+    try {
+      while (true) {
+        RowBatch batch = fullBatches.take();
+        Logger.logDeferred(batch.deferredLogRecords);
+        addCastVoteRecords(batch);
+        if (batch.isLast) {
+          if (batch.failure != null) {
+            rethrowParseFailure(batch.failure);
+          }
+          break;
+        }
+        batch.clear();
+        emptyBatches.add(batch);
+      }
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+      Logger.severe("Parsing cast vote records was interrupted!");
+      throw new CvrParseException();
+    } finally {
+      // Only still running if something went wrong here. Wait for it to stop before the package
+      // it's reading from is closed; it stops at its next batch hand-off.
+      parserThread.interrupt();
+      boolean wasInterrupted = false;
+      while (parserThread.isAlive()) {
+        try {
+          parserThread.join();
+        } catch (InterruptedException exception) {
+          wasInterrupted = true;
+        }
+      }
+      if (wasInterrupted) {
+        Thread.currentThread().interrupt();
+      }
     }
   }
 
+  private static void rethrowParseFailure(Throwable failure)
+      throws SAXException, IOException, ParserConfigurationException {
+    if (failure instanceof SAXException exception) {
+      throw exception;
+    } else if (failure instanceof IOException exception) {
+      throw exception;
+    } else if (failure instanceof ParserConfigurationException exception) {
+      throw exception;
+    } else if (failure instanceof RuntimeException exception) {
+      throw exception;
+    } else if (failure instanceof Error error) {
+      throw error;
+    }
+    throw new RuntimeException(failure);
+  }
+
   static class CvrDataFormatException extends Exception {}
+
+  @FunctionalInterface
+  private interface BatchHandOff {
+
+    // pass on a full batch, returning an empty one to fill next
+    RowBatch handOff(RowBatch fullBatch);
+  }
+
+  // The cells of consecutive rows, stored in parallel arrays. A batch is reused once its rows have
+  // been read, so its arrays are only grown, never reallocated per row.
+  private static final class RowBatch {
+
+    // the cells of row i are at indexes rowStarts[i] up to rowStarts[i + 1]
+    private final int[] rowStarts = new int[ROWS_PER_BATCH + 1];
+    private int[] columns = new int[ROWS_PER_BATCH * 8];
+    private String[] values = new String[ROWS_PER_BATCH * 8];
+    private int numRows;
+    private int numCells;
+    // set on the final batch of the sheet, along with whatever stopped parsing early, if anything
+    private boolean isLast;
+    private Throwable failure;
+    // what the parser thread logged while filling this batch
+    private List<LogRecord> deferredLogRecords = List.of();
+
+    void addCell(int column, String value) {
+      if (numCells == columns.length) {
+        columns = Arrays.copyOf(columns, numCells * 2);
+        values = Arrays.copyOf(values, numCells * 2);
+      }
+      columns[numCells] = column;
+      values[numCells] = value;
+      numCells++;
+    }
+
+    // returns whether the batch is now full
+    boolean endRow() {
+      rowStarts[++numRows] = numCells;
+      return numRows == ROWS_PER_BATCH;
+    }
+
+    void clear() {
+      // don't hold on to the strings of rows already read
+      Arrays.fill(values, 0, numCells, null);
+      numRows = 0;
+      numCells = 0;
+      deferredLogRecords = List.of();
+    }
+  }
+
+  // collects the cells of each CVR row into batches, handing each batch off once it's full
+  private final class RowCollector implements SheetContentsHandler {
+
+    private final BatchHandOff batchHandOff;
+    // batch being filled
+    private RowBatch batch;
+    private boolean isCvrRow;
+
+    RowCollector(RowBatch batch, BatchHandOff batchHandOff) {
+      this.batch = batch;
+      this.batchHandOff = batchHandOff;
+    }
+
+    @Override
+    public void startRow(int i) {
+      isCvrRow = i >= firstVoteRowIndex;
+    }
+
+    @Override
+    public void endRow(int i) {
+      if (isCvrRow && batch.endRow()) {
+        batch = batchHandOff.handOff(batch);
+      }
+    }
+
+    // param: s cell address encoded as col,row
+    // param: s1 cell data
+    // param: xssfComment additional cell data (apparently unused in ES&S files)
+    @Override
+    public void cell(String s, String s1, XSSFComment xssfComment) {
+      if (isCvrRow) {
+        batch.addCell(getColumnIndex(s), s1);
+      }
+    }
+
+    @Override
+    public void headerFooter(String s, boolean b, String s1) {
+      Logger.warning("Unexpected XML data: %s %b %s", s, b, s1);
+    }
+  }
+
+  // The shared strings table, with each entry looked up just once and kept in an array indexed by
+  // its position in the table. POI's table builds a new rich text object every time a cell looks
+  // an entry up. Entries are looked up as they're first needed, since a table doesn't always
+  // declare how many entries it has.
+  private static final class CachedSharedStrings implements SharedStrings {
+
+    private final ReadOnlySharedStringsTable table;
+    private RichTextString[] items;
+
+    CachedSharedStrings(ReadOnlySharedStringsTable table) {
+      this.table = table;
+      this.items = new RichTextString[Math.max(table.getUniqueCount(), 16)];
+    }
+
+    @Override
+    public RichTextString getItemAt(int idx) {
+      if (idx >= items.length) {
+        items = Arrays.copyOf(items, Math.max(idx + 1, items.length * 2));
+      }
+      if (items[idx] == null) {
+        items[idx] = table.getItemAt(idx);
+      }
+      return items[idx];
+    }
+
+    @Override
+    public int getCount() {
+      return table.getCount();
+    }
+
+    @Override
+    public int getUniqueCount() {
+      return table.getUniqueCount();
+    }
+  }
 }
@@ -27,6 +27,7 @@ import static network.brightspots.rcv.Utils.isNullOrBlank;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -37,6 +38,7 @@ import java.util.Random;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.function.Function;
 import javafx.util.Pair;
 import network.brightspots.rcv.CastVoteRecord.VoteOutcomeType;
 import network.brightspots.rcv.ContestConfig.TabulateBySlice;
@@ -71,8 +73,14 @@ final class Tabulator {
   static final String UNDECLARED_WRITE_IN_OUTPUT_LABEL = "Undeclared Write-ins";
   // cast vote records parsed from CVR input files
   private final List<CastVoteRecord> castVoteRecords;
+  // the state of each of castVoteRecords (by position) over the course of this tabulation
+  private final BallotStates ballotStates;
   // all candidate IDs for this contest parsed from the contest config
   private final Set<String> candidateNames;
+  // dense integer IDs for candidateNames, used to identify candidates while tallying
+  private final CandidateRegistry candidateRegistry;
+  // registry IDs of the candidates for whom isCandidateContinuing is true this round
+  private final BitSet continuingCandidateIds = new BitSet();
   // contest config contains specific rules and file paths to be used during tabulation
   private final ContestConfig config;
   // roundTallies is a map from round number to a map from candidate ID to vote total for the round
@@ -94,14 +102,49 @@ final class Tabulator {
   private final Map<Integer, BigDecimal> roundToResidualSurplus = new HashMap<>();
   // cast vote record metadata on which tabulation can be "split", such as precinct or batch
   private final SliceIdSet sliceIds = new SliceIdSet();
+  // Ballots with the same rankings (and, for each enabled slice, the same slice ID) are always
+  // tabulated identically, so they are grouped and each group is tabulated once, through its first
+  // ballot (its representative), with that ballot's value scaled by the size of the group. Only
+  // the representative's per-round state is updated; the other ballots in the group share its
+  // audit log outcomes and CDF snapshots.
+  // ballotGroupRepresentatives[i] is the position (in castVoteRecords) of ballot i's representative
+  private int[] ballotGroupRepresentatives;
+  // ballotGroupSizes[i] is the number of ballots represented by ballot i (0 for other ballots)
+  private int[] ballotGroupSizes;
+  // the positions of every group's ballots, group by group, each group's in CVR order; the ballots
+  // represented by ballot i start at ballotGroupMembers[ballotGroupMemberStarts[i]]
+  private int[] ballotGroupMembers;
+  private int[] ballotGroupMemberStarts;
+  // the audit log outcome of each representative in the round being tallied
+  private String[] ballotGroupOutcomes;
+  // map from candidate ID to the positions (in castVoteRecords) of the group representatives
+  // currently counting toward that candidate. After the first round, only the ballots held by
+  // candidates who are no longer continuing need to be revisited; everyone else's tally carries
+  // forward unchanged.
+  private final Map<String, BallotIndexList> candidateToBallotIndexes = new HashMap<>();
+  // map from winner ID to the ballots that winner held when elected, retained after those ballots
+  // have been transferred so that updateWinnerTallies can total the amounts that stayed behind
+  private final Map<String, BallotIndexList> winnerToBallotIndexes = new HashMap<>();
   // tracks the current round (and when tabulation is completed, the total number of rounds)
   private int currentRound = 0;
+  // when set, each ballot's outcome in each round is recorded here rather than in the audit log
+  private BinaryAuditLog binaryAuditLog;
+  // how the rounds are tallied; these settings never change the results
+  private TallyOptions tallyOptions = TallyOptions.DEFAULT;
+  // how each ballot's vote was allocated in each round, if CDF JSON output is enabled
+  private final CdfSnapshotHistory cdfSnapshotHistory;
 
   Tabulator(List<CastVoteRecord> castVoteRecords, ContestConfig config)
       throws TabulationAbortedException {
     this.castVoteRecords = castVoteRecords;
     this.candidateNames = config.getCandidateNames();
+    this.candidateRegistry = new CandidateRegistry(config);
+    this.ballotStates = new BallotStates(castVoteRecords.size(), candidateRegistry);
     this.config = config;
+    this.cdfSnapshotHistory =
+        config.isGenerateCdfJsonEnabled()
+            ? new CdfSnapshotHistory(castVoteRecords.size(), candidateRegistry)
+            : null;
 
     sliceIds.initialize(ContestConfig.TabulateBySlice.BATCH);
     sliceIds.initialize(ContestConfig.TabulateBySlice.PRECINCT);
@@ -129,6 +172,17 @@ final class Tabulator {
     }
   }
 
+  // record each ballot's outcome in each round in binaryAuditLog instead of the text audit log
+  void setBinaryAuditLog(BinaryAuditLog binaryAuditLog) {
+    this.binaryAuditLog = binaryAuditLog;
+    binaryAuditLog.beginTabulation(castVoteRecords);
+  }
+
+  // tally the rounds as the given options say to, rather than as TallyOptions.DEFAULT does
+  void setTallyOptions(TallyOptions tallyOptions) {
+    this.tallyOptions = tallyOptions;
+  }
+
   // Utility function to "invert" the input roundTally map into a sorted map of tally
   // to List of candidate IDs. A list is used because multiple candidates may have the same tally.
   // This is used to determine when winners are selected and for running tiebreak logic.
@@ -231,9 +285,15 @@ final class Tabulator {
             Logger.info(
                 "Candidate \"%s\" was elected with a surplus fraction of %s.",
                 winner, surplusFraction);
-            for (CastVoteRecord cvr : castVoteRecords) {
-              if (winner.candidateName.equals(cvr.getCurrentRecipientOfVote())) {
-                cvr.recordCurrentRecipientAsWinner(surplusFraction, config);
+            BallotIndexList winnerBallots = candidateToBallotIndexes.get(winner.candidateName);
+            if (winnerBallots != null) {
+              VoteValue surplusFractionValue = VoteValue.of(surplusFraction);
+              int decimalPlaces = config.getDecimalPlacesForVoteArithmetic();
+              // every ballot in a group would get the same result, so only the representatives
+              // need to be updated
+              for (int i = 0; i < winnerBallots.size(); i++) {
+                ballotStates.recordCurrentRecipientAsWinner(
+                    winnerBallots.get(i), surplusFractionValue, decimalPlaces);
               }
             }
           }
@@ -384,18 +444,24 @@ final class Tabulator {
       }
     }
 
-    // process all the CVRs if needed (i.e. if we have any winners from the previous round to
-    // process)
+    // process the CVRs held by any winners from the previous round (if needed)
     if (!winnersRequiringComputation.isEmpty()) {
-      for (CastVoteRecord cvr : castVoteRecords) {
-        // the record of winners who got partial votes from this CVR
-        Map<String, BigDecimal> winnerToFractionalValue = cvr.getWinnerToFractionalValue();
-        for (var entry : winnerToFractionalValue.entrySet()) {
-          String winner = entry.getKey();
-          if (!winnersRequiringComputation.contains(winner)) {
+      for (String winner : winnersRequiringComputation) {
+        BallotIndexList winnerBallots = winnerToBallotIndexes.remove(winner);
+        if (winnerBallots == null) {
+          continue;
+        }
+        for (int i = 0; i < winnerBallots.size(); i++) {
+          int cvrIndex = winnerBallots.get(i);
+          CastVoteRecord cvr = castVoteRecords.get(cvrIndex);
+          // the partial vote from this CVR (and each other CVR in its group) which stayed with
+          // the winner
+          VoteValue allocatedValue = ballotStates.getWinnerAllocations(cvrIndex).get(winner);
+          if (allocatedValue == null) {
             continue;
           }
-          BigDecimal fractionalTransferValue = entry.getValue();
+          BigDecimal fractionalTransferValue =
+              allocatedValue.times(ballotGroupSizes[cvrIndex]).toBigDecimal();
 
           roundTally.addToCandidateTallyViaSurplusAdjustment(winner, fractionalTransferValue);
           for (ContestConfig.TabulateBySlice slice : config.enabledSlices()) {
@@ -543,6 +609,17 @@ final class Tabulator {
         || (status == CandidateStatus.WINNER && config.isContinueUntilTwoCandidatesRemainEnabled());
   }
 
+  // Refreshes continuingCandidateIds from the current candidate statuses. Statuses only change
+  // between rounds, so this is done once per round instead of once per ballot.
+  private void updateContinuingCandidateIds() {
+    continuingCandidateIds.clear();
+    for (int candidateId = 0; candidateId < candidateRegistry.size(); candidateId++) {
+      if (isCandidateContinuing(candidateRegistry.getName(candidateId))) {
+        continuingCandidateIds.set(candidateId);
+      }
+    }
+  }
+
   // returns candidate status (continuing, eliminated or winner)
   private CandidateStatus getCandidateStatus(String candidate) {
     CandidateStatus status = CandidateStatus.CONTINUING;
@@ -850,7 +927,8 @@ final class Tabulator {
             .setContestConfig(config)
             .setTimestampString(timestamp)
             .setSliceIds(sliceIds)
-            .setRoundToResidualSurplus(roundToResidualSurplus);
+            .setRoundToResidualSurplus(roundToResidualSurplus)
+            .setCdfSnapshotHistory(cdfSnapshotHistory);
 
     List<String> candidateOrder = roundTallies.get(1).getSortedCandidatesByTally();
     writer.generateContestResultFiles(roundTallies, tallyTransfers, candidateOrder);
@@ -1006,50 +1084,58 @@ final class Tabulator {
   //  set new recipient of cvr
   //  logs the results to audit log
   //  update tallyTransfers counts
+  //  param: selectedCandidateId registry ID of the new recipient, or BallotStates.NO_RECIPIENT
   private void recordSelectionForCastVoteRecord(
-      CastVoteRecord cvr,
-      RoundTally currentRoundTally,
-      BreakdownBySlice<RoundTally> roundTallyBySlice,
-      String selectedCandidate,
+      int cvrIndex,
+      TallyBatch batch,
+      int selectedCandidateId,
       StatusForRound statusForRound,
       String additionalLogText)
       throws TabulationAbortedException {
+    final int roundNumber = batch.roundTally.getRoundNumber();
+    final CastVoteRecord cvr = castVoteRecords.get(cvrIndex);
+    final VoteValue remainingValue = ballotStates.getRemainingValue(cvrIndex);
+    final VoteValue groupValue = remainingValue.times(ballotGroupSizes[cvrIndex]);
+    final String selectedCandidate =
+        selectedCandidateId == BallotStates.NO_RECIPIENT
+            ? null
+            : candidateRegistry.getName(selectedCandidateId);
+    final String previousRecipient = ballotStates.getRecipient(cvrIndex);
     // update transfer counts (unless there's no value to transfer, which can happen if someone
     // wins with a tally that exactly matches the winning threshold)
-    if (cvr.getFractionalTransferValue().signum() == 1) {
-      tallyTransfers.addTransfer(
-          currentRoundTally.getRoundNumber(),
-          cvr.getCurrentRecipientOfVote(),
+    if (remainingValue.signum() == 1) {
+      batch.tallyTransfers.addTransfer(
+          roundNumber,
+          previousRecipient,
           selectedCandidate,
-          cvr.getFractionalTransferValue());
+          groupValue);
       for (ContestConfig.TabulateBySlice slice : config.enabledSlices()) {
         String sliceId = cvr.getSlice(slice);
-        TallyTransfers tallyTransferForSlice = tallyTransfersBySlice.get(slice, sliceId);
-        if (tallyTransferForSlice == null) {
+        if (!tallyTransfersBySlice.get(slice).containsKey(sliceId)) {
           Logger.severe(
               "%s \"%s\" is not among the %d known %s(s).",
               slice, sliceId, sliceIds.size(slice), slice);
           throw new TabulationAbortedException(false);
         }
-        tallyTransferForSlice.addTransfer(
-            currentRoundTally.getRoundNumber(),
-            cvr.getCurrentRecipientOfVote(),
+        batch.getTallyTransfersForSlice(slice, sliceId).addTransfer(
+            roundNumber,
+            previousRecipient,
             selectedCandidate,
-            cvr.getFractionalTransferValue());
+            groupValue);
       }
     }
 
-    cvr.setCurrentRecipientOfVote(selectedCandidate);
+    ballotStates.setRecipient(cvrIndex, selectedCandidateId);
     if (selectedCandidate == null) {
-      cvr.exhaustBy(statusForRound);
+      ballotStates.exhaustBy(cvrIndex, statusForRound);
     }
 
     if (statusForRound != StatusForRound.ACTIVE) {
-      currentRoundTally.addInactiveBallot(statusForRound, cvr.getFractionalTransferValue());
+      batch.roundTally.addInactiveBallot(statusForRound, groupValue);
       for (ContestConfig.TabulateBySlice slice : config.enabledSlices()) {
         String sliceId = cvr.getSlice(slice);
-        RoundTally sliceRoundTally = roundTallyBySlice.get(slice).get(sliceId);
-        sliceRoundTally.addInactiveBallot(statusForRound, cvr.getFractionalTransferValue());
+        RoundTally sliceRoundTally = batch.getRoundTallyForSlice(slice, sliceId);
+        sliceRoundTally.addInactiveBallot(statusForRound, groupValue);
       }
     }
 
@@ -1058,15 +1144,10 @@ final class Tabulator {
             : statusForRound.getTitleCaseKey() + additionalLogText;
     final VoteOutcomeType outcomeType =
         selectedCandidate == null ? VoteOutcomeType.EXHAUSTED : VoteOutcomeType.COUNTED;
-    cvr.logRoundOutcome(
-        currentRoundTally.getRoundNumber(),
-        outcomeType,
-        outcomeDescription,
-        cvr.getFractionalTransferValue());
-
-    if (config.isGenerateCdfJsonEnabled()) {
-      cvr.logCdfSnapshotData(currentRoundTally.getRoundNumber());
-    }
+    // written to the audit log for every ballot in the group by logBallotGroupOutcomes
+    ballotGroupOutcomes[cvrIndex] =
+        CastVoteRecord.formatOutcome(
+            roundNumber, outcomeType, outcomeDescription, remainingValue.toBigDecimal());
   }
 
   // purpose: perform tabulation on all cvrs to determine who they should count for in this round
@@ -1074,6 +1155,7 @@ final class Tabulator {
   //  - assign cvrs to continuing candidates if they have been transferred or in the initial count
   // returns a map of candidate ID to vote tallies for this round
   private RoundTally computeTalliesForRound(int currentRound) throws TabulationAbortedException {
+    updateContinuingCandidateIds();
     RoundTally roundTally = getNewTally(currentRound);
     BreakdownBySlice<RoundTally> roundTallyBySlice = new BreakdownBySlice();
     for (ContestConfig.TabulateBySlice slice : config.enabledSlices()) {
@@ -1082,197 +1164,405 @@ final class Tabulator {
       }
     }
 
-    // Loop over ALL cast vote records to determine who they should count for in this round,
-    // based on which candidates have already been eliminated and elected.
-    // At each iteration a cvr will either:
-    //  count for the same candidate it currently does
-    //  count for a different candidate
-    //  become exhausted
-    //  remain exhausted
-    for (CastVoteRecord cvr : castVoteRecords) {
-      if (cvr.isExhausted()) {
-        roundTally.addInactiveBallot(cvr.getBallotStatus(), cvr.getFractionalTransferValue());
-
-        // Add inactive ballot to each slice too
+    TallyBatch roundBatch = new TallyBatch(roundTally, roundTallyBySlice);
+    int[] talliedCvrIndexes;
+    if (currentRound == 1) {
+      // Resolve every ranked name or alias to its candidate ID up front, rather than looking it
+      // up each time a ballot is tallied.
+      for (CastVoteRecord cvr : castVoteRecords) {
+        cvr.candidateRankings.resolveCandidateIds(candidateRegistry);
+      }
+      // In the first round, every cast vote record needs to be assigned to a candidate or
+      // exhausted.
+      talliedCvrIndexes = groupIdenticalBallots();
+    } else {
+      // In later rounds, a cvr which is inactive or which counts for a continuing candidate counts
+      // exactly as it did in the previous round, so those totals carry forward as-is. Only the
+      // cvrs held by candidates who were just eliminated or elected need to be looked at again.
+      talliedCvrIndexes = removeBallotsHeldByNonContinuingCandidates();
+      if (tallyOptions.isIncrementalTallyEnabled()) {
+        roundTally.carryForwardFrom(roundTallies.get(currentRound - 1));
         for (ContestConfig.TabulateBySlice slice : config.enabledSlices()) {
-          String sliceId = cvr.getSlice(slice);
-          RoundTally sliceRoundTally = roundTallyBySlice.get(slice).get(sliceId);
-          sliceRoundTally.addInactiveBallot(
-              cvr.getBallotStatus(), cvr.getFractionalTransferValue());
+          for (var entry : roundTallyBySlice.get(slice).entrySet()) {
+            RoundTallies roundTalliesForSlice =
+                roundTalliesBySlices.get(slice).get(entry.getKey());
+            entry.getValue().carryForwardFrom(roundTalliesForSlice.get(currentRound - 1));
+          }
         }
-        continue;
+      } else {
+        recountBallotsNotTallied(talliedCvrIndexes, roundBatch);
       }
+    }
+    tallyCastVoteRecords(talliedCvrIndexes, roundBatch);
+    logBallotGroupOutcomes(currentRound, talliedCvrIndexes);
 
-      // check for current recipient continuing
-      if (cvr.getCurrentRecipientOfVote() != null
-          && isCandidateContinuing(cvr.getCurrentRecipientOfVote())) {
-        // current candidate is continuing so rollover their vote into the current round
-        incrementTallies(
-            roundTally,
-            cvr,
-            cvr.getCurrentRecipientOfVote(),
-            roundTallyBySlice);
-        continue;
+    // Take the tallies for this round for each slice and merge them into the main map tracking
+    // the tallies by each enabled slice.
+    for (ContestConfig.TabulateBySlice slice : config.enabledSlices()) {
+      for (var entry : roundTallyBySlice.get(slice).entrySet()) {
+        RoundTallies roundTalliesForSlice = roundTalliesBySlices.get(slice).get(entry.getKey());
+        roundTalliesForSlice.put(currentRound, entry.getValue());
+        roundTalliesForSlice.get(currentRound).lockInRound();
       }
+    }
+    roundTally.lockInRound();
 
-      // check for a CVR with no rankings at all
-      if (cvr.candidateRankings.numRankings() == 0) {
-        recordSelectionForCastVoteRecord(
-            cvr,
-            roundTally,
-            roundTallyBySlice,
-            null,
-            StatusForRound.DID_NOT_RANK_ANY_CANDIDATES,
-            "");
-      }
+    return roundTally;
+  }
 
-      // iterate through the rankings in this cvr from most to least preferred.
-      // for each ranking:
-      //  check if it's a final round surplus
-      //  if it results in an overvote or undervote, exhaust the cvr
-      //  if a selected candidate is continuing, count cvr for that candidate
-      //  if no selected candidate is continuing, look at the next ranking
-      //  if there are no more rankings, exhaust the cvr
-
-      // lastRankSeen tracks the last rank in the current rankings set
-      // This is used to determine how many skipped rankings occurred.
-      int lastRankSeen = 0;
-      // candidatesSeen is set of candidates encountered while processing this CVR in this round
-      // used to detect duplicate candidates if exhaustOnDuplicateCandidate is enabled
-      Set<String> candidatesSeen = new HashSet<>();
-
-      // selectedCandidate holds the new candidate selection if there is one
-      String selectedCandidate = null;
-
-      // iterate over all ranks in this cvr from most preferred to least
-      for (Pair<Integer, CandidatesAtRanking> rankCandidatesPair : cvr.candidateRankings) {
-        // check for final round surplus
-        if (config.usesSurpluses()
-            && config.getNumberOfWinners() == winnerToRound.size()) {
-          recordSelectionForCastVoteRecord(
-                  cvr,
-                  roundTally,
-                  roundTallyBySlice,
-                  null,
-                  StatusForRound.FINAL_ROUND_SURPLUS,
-                  "");
-          break;
+  // Groups identical ballots (see ballotGroupRepresentatives) and returns the positions of the
+  // group representatives, in CVR order.
+  private int[] groupIdenticalBallots() {
+    ballotGroupRepresentatives = new int[castVoteRecords.size()];
+    ballotGroupSizes = new int[castVoteRecords.size()];
+    ballotGroupOutcomes = new String[castVoteRecords.size()];
+    Map<BallotGroupKey, Integer> keyToRepresentative = new HashMap<>();
+    BallotIndexList representatives = new BallotIndexList();
+    for (int cvrIndex = 0; cvrIndex < castVoteRecords.size(); cvrIndex++) {
+      CastVoteRecord cvr = castVoteRecords.get(cvrIndex);
+      String precinct = null;
+      String batch = null;
+      for (ContestConfig.TabulateBySlice slice : config.enabledSlices()) {
+        switch (slice) {
+          case PRECINCT -> precinct = cvr.getSlice(slice);
+          case BATCH -> batch = cvr.getSlice(slice);
         }
+      }
+      // without grouping, every ballot is the only one in its group
+      Integer representative =
+          tallyOptions.isBallotGroupingEnabled()
+              ? keyToRepresentative.putIfAbsent(
+                  new BallotGroupKey(cvr.candidateRankings, precinct, batch), cvrIndex)
+              : null;
+      if (representative == null) {
+        representative = cvrIndex;
+        representatives.add(cvrIndex);
+      }
+      ballotGroupRepresentatives[cvrIndex] = representative;
+      ballotGroupSizes[representative]++;
+    }
+    ballotGroupMembers = new int[castVoteRecords.size()];
+    ballotGroupMemberStarts = new int[castVoteRecords.size()];
+    // each group's next free slot in ballotGroupMembers
+    int[] nextMemberSlots = new int[castVoteRecords.size()];
+    int nextGroupStart = 0;
+    for (int i = 0; i < representatives.size(); i++) {
+      int representative = representatives.get(i);
+      ballotGroupMemberStarts[representative] = nextGroupStart;
+      nextMemberSlots[representative] = nextGroupStart;
+      nextGroupStart += ballotGroupSizes[representative];
+    }
+    for (int cvrIndex = 0; cvrIndex < castVoteRecords.size(); cvrIndex++) {
+      ballotGroupMembers[nextMemberSlots[ballotGroupRepresentatives[cvrIndex]]++] = cvrIndex;
+    }
+    Logger.info(
+        "Grouped %,d cast vote records into %,d groups of identical ballots.",
+        castVoteRecords.size(), representatives.size());
 
-        // check for skipped ranking exhaustion
-        Integer rank = rankCandidatesPair.getKey();
-        if (config.getMaxSkippedRanksAllowed() != Integer.MAX_VALUE
-            && (rank - lastRankSeen > config.getMaxSkippedRanksAllowed() + 1)) {
-          recordSelectionForCastVoteRecord(
-              cvr,
-              roundTally,
-              roundTallyBySlice,
-              null,
-              StatusForRound.INVALIDATED_BY_SKIPPED_RANKING,
-              "");
-          break;
-        }
-        lastRankSeen = rank;
-
-        // check for a duplicate candidate if enabled
-        CandidatesAtRanking candidates = rankCandidatesPair.getValue();
-        if (config.isExhaustOnDuplicateCandidateEnabled()) {
-          String duplicateCandidate = null;
-          for (String candidate : candidates) {
-            if (candidatesSeen.contains(candidate)) {
-              duplicateCandidate = candidate;
-              break;
-            }
-            candidatesSeen.add(candidate);
-          }
-          // if duplicate was found exhaust cvr
-          if (!isNullOrBlank(duplicateCandidate)) {
-            recordSelectionForCastVoteRecord(
-                cvr,
-                roundTally,
-                roundTallyBySlice,
-                null,
-                StatusForRound.INVALIDATED_BY_REPEATED_RANKING,
-                " " + duplicateCandidate);
-            break;
-          }
+    int[] representativeIndexes = new int[representatives.size()];
+    representatives.copyInto(representativeIndexes, 0);
+    return representativeIndexes;
+  }
+
+  // the combined transfer value of all ballots in the group represented by this ballot
+  private VoteValue getBallotGroupValue(int cvrIndex) {
+    return ballotStates.getRemainingValue(cvrIndex).times(ballotGroupSizes[cvrIndex]);
+  }
+
+  // Writes this round's audit log line for every ballot in the groups which were just tallied, in
+  // CVR order, and records each of those ballots' CDF snapshot from its representative. Only the
+  // ballots in those groups are visited. A group is tallied once for all of its ballots, so these
+  // lines are written after the round's tally rather than as each ballot is tallied.
+  private void logBallotGroupOutcomes(int roundNumber, int[] representativeIndexes) {
+    int numBallots = 0;
+    for (int representative : representativeIndexes) {
+      numBallots += ballotGroupSizes[representative];
+    }
+    int[] cvrIndexes = null;
+    if (numBallots < castVoteRecords.size()) {
+      cvrIndexes = new int[numBallots];
+      int position = 0;
+      for (int representative : representativeIndexes) {
+        System.arraycopy(
+            ballotGroupMembers,
+            ballotGroupMemberStarts[representative],
+            cvrIndexes,
+            position,
+            ballotGroupSizes[representative]);
+        position += ballotGroupSizes[representative];
+      }
+      // each group's ballots are in CVR order, but different groups' ballots are interleaved
+      Arrays.sort(cvrIndexes);
+    }
+    // otherwise every group was tallied, which covers every ballot
+    for (int i = 0; i < numBallots; i++) {
+      int cvrIndex = cvrIndexes != null ? cvrIndexes[i] : i;
+      int representative = ballotGroupRepresentatives[cvrIndex];
+      if (binaryAuditLog != null) {
+        binaryAuditLog.logOutcome(roundNumber, cvrIndex, ballotGroupOutcomes[representative]);
+      } else {
+        Logger.auditable(
+            castVoteRecords
+                .get(cvrIndex)
+                .formatRoundOutcome(roundNumber, ballotGroupOutcomes[representative]));
+      }
+      if (cdfSnapshotHistory != null) {
+        cdfSnapshotHistory.record(cvrIndex, roundNumber, ballotStates, representative);
+      }
+    }
+    for (int representative : representativeIndexes) {
+      ballotGroupOutcomes[representative] = null;
+    }
+  }
+
+  // Adds every group which isn't at one of the given (sorted) positions to the round's tallies,
+  // counting as it did in the previous round, by visiting each group rather than carrying the
+  // previous round's totals forward. This is how every round was tallied before tallies were
+  // carried forward, and it's kept so that tests can check the two give the same results.
+  private void recountBallotsNotTallied(int[] talliedCvrIndexes, TallyBatch roundBatch) {
+    int nextTallied = 0;
+    for (int cvrIndex = 0; cvrIndex < castVoteRecords.size(); cvrIndex++) {
+      if (nextTallied < talliedCvrIndexes.length && talliedCvrIndexes[nextTallied] == cvrIndex) {
+        nextTallied++;
+        continue;
+      }
+      // only a group's representative is counted, for the whole group
+      if (ballotGroupSizes[cvrIndex] == 0) {
+        continue;
+      }
+      StatusForRound statusForRound = ballotStates.getStatus(cvrIndex);
+      if (statusForRound == StatusForRound.ACTIVE) {
+        incrementTallies(roundBatch, cvrIndex, ballotStates.getRecipient(cvrIndex));
+      } else {
+        VoteValue groupValue = getBallotGroupValue(cvrIndex);
+        roundBatch.roundTally.addInactiveBallot(statusForRound, groupValue);
+        CastVoteRecord cvr = castVoteRecords.get(cvrIndex);
+        for (ContestConfig.TabulateBySlice slice : config.enabledSlices()) {
+          roundBatch
+              .getRoundTallyForSlice(slice, cvr.getSlice(slice))
+              .addInactiveBallot(statusForRound, groupValue);
         }
+      }
+    }
+  }
 
-        // check for an overvote
-        OvervoteDecision overvoteDecision = getOvervoteDecision(candidates);
-        if (overvoteDecision == OvervoteDecision.EXHAUST) {
-          recordSelectionForCastVoteRecord(
-              cvr,
-              roundTally,
-              roundTallyBySlice,
-              null,
-              StatusForRound.INVALIDATED_BY_OVERVOTE,
-              "");
-          break;
-        } else if (overvoteDecision == OvervoteDecision.SKIP_TO_NEXT_RANK) {
-          if (rank == cvr.candidateRankings.maxRankingNumber()) {
-            // If the final ranking is an overvote, even if we're trying to skip to the next rank,
-            // we consider this inactive by exhausted choices -- not an overvote.
-            recordSelectionForCastVoteRecord(
-                cvr,
-                roundTally,
-                roundTallyBySlice,
-                null,
-                StatusForRound.EXHAUSTED_CHOICE,
-                "");
-          }
-          continue;
+  // Removes the ballot lists of all candidates who are no longer continuing from the ballot index.
+  // Lists belonging to winners are set aside for updateWinnerTallies.
+  // returns: the positions of the removed ballots, sorted in CVR order so that audit output is
+  // written in the same order as a scan over all cast vote records
+  private int[] removeBallotsHeldByNonContinuingCandidates() {
+    List<BallotIndexList> removedLists = new LinkedList<>();
+    int numBallots = 0;
+    var iterator = candidateToBallotIndexes.entrySet().iterator();
+    while (iterator.hasNext()) {
+      var entry = iterator.next();
+      if (!isCandidateContinuing(entry.getKey())) {
+        iterator.remove();
+        if (winnerToRound.containsKey(entry.getKey())) {
+          winnerToBallotIndexes.put(entry.getKey(), entry.getValue());
         }
+        removedLists.add(entry.getValue());
+        numBallots += entry.getValue().size();
+      }
+    }
+
+    int[] cvrIndexes = new int[numBallots];
+    int offset = 0;
+    for (BallotIndexList ballots : removedLists) {
+      ballots.copyInto(cvrIndexes, offset);
+      offset += ballots.size();
+    }
+    Arrays.sort(cvrIndexes);
+    return cvrIndexes;
+  }
 
-        // the current ranking is not inactive by overvote or too many skipped rankings
-        // see if any ranked candidates are continuing
+  // Tally the cast vote records at the given positions into the round's batch. Large sets of
+  // cvrs are split into chunks which are tallied in parallel on the common ForkJoinPool. Each
+  // chunk is then merged into the round's batch in CVR order, so that the tallies and the audit
+  // log are identical to tallying every cvr on this thread.
+  private void tallyCastVoteRecords(int[] cvrIndexes, TallyBatch roundBatch)
+      throws TabulationAbortedException {
+    // Rounds with fewer than two chunks' worth of cvrs to examine are tallied on this thread.
+    // Otherwise the chunks are tallied on the pool even if it has only one worker, which still
+    // overlaps with this thread's merging, and means this path runs on every machine.
+    final int chunkSize = tallyOptions.parallelTallyChunkSize();
+    int numChunks = (cvrIndexes.length + chunkSize - 1) / chunkSize;
+    if (numChunks < 2) {
+      for (int cvrIndex : cvrIndexes) {
+        tallyCastVoteRecord(cvrIndex, roundBatch);
+      }
+      return;
+    }
 
-        for (String candidate : candidates) {
-          String candidateName = config.getNameForCandidate(candidate);
-          if (!isCandidateContinuing(candidateName)) {
-            continue;
+    final int roundNumber = roundBatch.roundTally.getRoundNumber();
+    try (OrderedParallelTasks<TallyBatch, TabulationAbortedException> chunks =
+        OrderedParallelTasks.onCommonPool(numChunks, chunk -> {
+          int from = chunk * chunkSize;
+          int to = Math.min(from + chunkSize, cvrIndexes.length);
+          TallyBatch chunkBatch = new TallyBatch(roundNumber);
+          for (int i = from; i < to; i++) {
+            tallyCastVoteRecord(cvrIndexes[i], chunkBatch);
           }
+          return chunkBatch;
+        })) {
+      while (chunks.hasNext()) {
+        roundBatch.merge(chunks.next());
+      }
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+      Logger.severe("Tabulation was interrupted!");
+      throw new TabulationAbortedException(false);
+    }
+  }
 
-          // we found a continuing candidate so this cvr counts for them
-          selectedCandidate = candidateName;
-
-          // transfer cvr to selected candidate
-          recordSelectionForCastVoteRecord(
-              cvr, roundTally, roundTallyBySlice, selectedCandidate, StatusForRound.ACTIVE, "");
+  // Determine who a single cvr should count for in this round, given that it is not already
+  // inactive and does not count for a continuing candidate.
+  private void tallyCastVoteRecord(int cvrIndex, TallyBatch batch)
+      throws TabulationAbortedException {
+    CastVoteRecord cvr = castVoteRecords.get(cvrIndex);
+
+    // check for a CVR with no rankings at all
+    if (cvr.candidateRankings.numRankings() == 0) {
+      recordSelectionForCastVoteRecord(
+          cvrIndex,
+          batch,
+          BallotStates.NO_RECIPIENT,
+          StatusForRound.DID_NOT_RANK_ANY_CANDIDATES,
+          "");
+    }
+
+    // iterate through the rankings in this cvr from most to least preferred.
+    // for each ranking:
+    //  check if it's a final round surplus
+    //  if it results in an overvote or undervote, exhaust the cvr
+    //  if a selected candidate is continuing, count cvr for that candidate
+    //  if no selected candidate is continuing, look at the next ranking
+    //  if there are no more rankings, exhaust the cvr
+
+    // lastRankSeen tracks the last rank in the current rankings set
+    // This is used to determine how many skipped rankings occurred.
+    int lastRankSeen = 0;
+    // candidatesSeen is set of candidates encountered while processing this CVR in this round
+    // used to detect duplicate candidates if exhaustOnDuplicateCandidate is enabled
+    Set<String> candidatesSeen = new HashSet<>();
+
+    // selectedCandidate holds the new candidate selection if there is one
+    String selectedCandidate = null;
+
+    // iterate over all ranks in this cvr from most preferred to least
+    for (Pair<Integer, CandidatesAtRanking> rankCandidatesPair : cvr.candidateRankings) {
+      // check for final round surplus
+      if (config.usesSurpluses()
+          && config.getNumberOfWinners() == winnerToRound.size()) {
+        recordSelectionForCastVoteRecord(
+                cvrIndex,
+                batch,
+                BallotStates.NO_RECIPIENT,
+                StatusForRound.FINAL_ROUND_SURPLUS,
+                "");
+        break;
+      }
 
-          // This will also update the roundTallyBySlice for each enabled slice
-          incrementTallies(roundTally, cvr, selectedCandidate, roundTallyBySlice);
+      // check for skipped ranking exhaustion
+      Integer rank = rankCandidatesPair.getKey();
+      if (config.getMaxSkippedRanksAllowed() != Integer.MAX_VALUE
+          && (rank - lastRankSeen > config.getMaxSkippedRanksAllowed() + 1)) {
+        recordSelectionForCastVoteRecord(
+            cvrIndex,
+            batch,
+            BallotStates.NO_RECIPIENT,
+            StatusForRound.INVALIDATED_BY_SKIPPED_RANKING,
+            "");
+        break;
+      }
+      lastRankSeen = rank;
 
-          // There can be at most one continuing candidate in candidates; if there were more than
-          // one, we would have already flagged this as an overvote.
-          break;
+      // check for a duplicate candidate if enabled
+      CandidatesAtRanking candidates = rankCandidatesPair.getValue();
+      if (config.isExhaustOnDuplicateCandidateEnabled()) {
+        String duplicateCandidate = null;
+        for (String candidate : candidates) {
+          if (candidatesSeen.contains(candidate)) {
+            duplicateCandidate = candidate;
+            break;
+          }
+          candidatesSeen.add(candidate);
         }
-
-        // if we found a continuing candidate stop looking through rankings
-        if (selectedCandidate != null) {
+        // if duplicate was found exhaust cvr
+        if (!isNullOrBlank(duplicateCandidate)) {
+          recordSelectionForCastVoteRecord(
+              cvrIndex,
+              batch,
+              BallotStates.NO_RECIPIENT,
+              StatusForRound.INVALIDATED_BY_REPEATED_RANKING,
+              " " + duplicateCandidate);
           break;
         }
+      }
 
-        // if this is the last ranking we are out of rankings and must exhaust this cvr
+      // check for an overvote
+      OvervoteDecision overvoteDecision = getOvervoteDecision(candidates);
+      if (overvoteDecision == OvervoteDecision.EXHAUST) {
+        recordSelectionForCastVoteRecord(
+            cvrIndex,
+            batch,
+            BallotStates.NO_RECIPIENT,
+            StatusForRound.INVALIDATED_BY_OVERVOTE,
+            "");
+        break;
+      } else if (overvoteDecision == OvervoteDecision.SKIP_TO_NEXT_RANK) {
         if (rank == cvr.candidateRankings.maxRankingNumber()) {
+          // If the final ranking is an overvote, even if we're trying to skip to the next rank,
+          // we consider this inactive by exhausted choices -- not an overvote.
           recordSelectionForCastVoteRecord(
-              cvr, roundTally, roundTallyBySlice, null, StatusForRound.EXHAUSTED_CHOICE, "");
+              cvrIndex,
+              batch,
+              BallotStates.NO_RECIPIENT,
+              StatusForRound.EXHAUSTED_CHOICE,
+              "");
         }
-      } // end looping over the rankings within one ballot
-    } // end looping over all ballots
+        continue;
+      }
 
-    // Take the tallies for this round for each slice and merge them into the main map tracking
-    // the tallies by each enabled slice.
-    for (ContestConfig.TabulateBySlice slice : config.enabledSlices()) {
-      for (var entry : roundTallyBySlice.get(slice).entrySet()) {
-        RoundTallies roundTalliesForSlice = roundTalliesBySlices.get(slice).get(entry.getKey());
-        roundTalliesForSlice.put(currentRound, entry.getValue());
-        roundTalliesForSlice.get(currentRound).lockInRound();
+      // the current ranking is not inactive by overvote or too many skipped rankings
+      // see if any ranked candidates are continuing
+
+      for (int i = 0; i < candidates.count(); i++) {
+        int candidateId = candidates.getCandidateId(i);
+        if (candidateId == CandidateRegistry.UNKNOWN_CANDIDATE_ID
+            || !continuingCandidateIds.get(candidateId)) {
+          continue;
+        }
+
+        // we found a continuing candidate so this cvr counts for them
+        selectedCandidate = candidateRegistry.getName(candidateId);
+
+        // transfer cvr to selected candidate
+        recordSelectionForCastVoteRecord(
+            cvrIndex, batch, candidateId, StatusForRound.ACTIVE, "");
+
+        // This will also update the by-slice round tallies for each enabled slice
+        incrementTallies(batch, cvrIndex, selectedCandidate);
+        batch.candidateToBallotIndexes
+            .computeIfAbsent(selectedCandidate, k -> new BallotIndexList())
+            .add(cvrIndex);
+
+        // There can be at most one continuing candidate in candidates; if there were more than
+        // one, we would have already flagged this as an overvote.
+        break;
       }
-    }
-    roundTally.lockInRound();
 
-    return roundTally;
+      // if we found a continuing candidate stop looking through rankings
+      if (selectedCandidate != null) {
+        break;
+      }
+
+      // if this is the last ranking we are out of rankings and must exhaust this cvr
+      if (rank == cvr.candidateRankings.maxRankingNumber()) {
+        recordSelectionForCastVoteRecord(
+            cvrIndex, batch, BallotStates.NO_RECIPIENT, StatusForRound.EXHAUSTED_CHOICE, "");
+      }
+    } // end looping over the rankings within one ballot
   }
 
   // create a new initialized tally with all continuing candidates
@@ -1281,14 +1571,14 @@ final class Tabulator {
   }
 
   // transfer vote to round tally and (if valid) the by-slice round tally
-  private void incrementTallies(RoundTally roundTally, CastVoteRecord cvr,
-        String selectedCandidate, BreakdownBySlice<RoundTally> roundTalliesBySlices) {
-    BigDecimal fractionalTransferValue = cvr.getFractionalTransferValue();
-    roundTally.addToCandidateTally(selectedCandidate, fractionalTransferValue);
+  private void incrementTallies(TallyBatch batch, int cvrIndex, String selectedCandidate) {
+    CastVoteRecord cvr = castVoteRecords.get(cvrIndex);
+    VoteValue fractionalTransferValue = getBallotGroupValue(cvrIndex);
+    batch.roundTally.addToCandidateTally(selectedCandidate, fractionalTransferValue);
     for (ContestConfig.TabulateBySlice slice : config.enabledSlices()) {
       String sliceId = cvr.getSlice(slice);
       if (!isNullOrBlank(sliceId)) {
-        roundTalliesBySlices.get(slice, sliceId)
+        batch.getRoundTallyForSlice(slice, sliceId)
                 .addToCandidateTally(selectedCandidate, fractionalTransferValue);
       }
     }
@@ -1465,6 +1755,13 @@ final class Tabulator {
     public T get(ContestConfig.TabulateBySlice slice, String sliceId) {
       return get(slice).get(sliceId);
     }
+
+    public T computeIfAbsent(
+        ContestConfig.TabulateBySlice slice, String sliceId, Function<String, T> mappingFunction) {
+      return breakdownBySlice
+          .computeIfAbsent(slice, k -> new HashMap<>())
+          .computeIfAbsent(sliceId, mappingFunction);
+    }
   }
 
   /**
@@ -1496,6 +1793,119 @@ final class Tabulator {
     }
   }
 
+  // Ballots which are tabulated identically have equal keys.
+  private record BallotGroupKey(
+      CandidateRankingsList candidateRankings, String precinct, String batch) {}
+
+  /**
+   * A growable list of positions in the cast vote record list. Positions are stored as primitive
+   * ints to keep the per-candidate ballot index small for contests with many ballots.
+   */
+  static class BallotIndexList {
+    private int[] cvrIndexes = new int[16];
+    private int size = 0;
+
+    public void add(int cvrIndex) {
+      if (size == cvrIndexes.length) {
+        cvrIndexes = Arrays.copyOf(cvrIndexes, size * 2);
+      }
+      cvrIndexes[size++] = cvrIndex;
+    }
+
+    public int get(int i) {
+      return cvrIndexes[i];
+    }
+
+    public int size() {
+      return size;
+    }
+
+    public void addAll(BallotIndexList other) {
+      for (int i = 0; i < other.size; i++) {
+        add(other.cvrIndexes[i]);
+      }
+    }
+
+    public void copyInto(int[] destination, int offset) {
+      System.arraycopy(cvrIndexes, 0, destination, offset, size);
+    }
+  }
+
+  /**
+   * The results of tallying a group of cast vote records in a single round: tallies, vote
+   * transfers, newly-assigned ballots, and audit log output. When a round is tallied on a single
+   * thread, one batch writes directly into the round's data. When it is tallied in parallel, each
+   * chunk of cvrs fills in its own batch, and those are merged into the round's batch in CVR order.
+   */
+  private final class TallyBatch {
+    private final RoundTally roundTally;
+    private final BreakdownBySlice<RoundTally> roundTallyBySlice;
+    private final TallyTransfers tallyTransfers;
+    private final BreakdownBySlice<TallyTransfers> tallyTransfersBySlice;
+    private final Map<String, BallotIndexList> candidateToBallotIndexes;
+    // whether this is a partial batch, whose by-slice entries are created as they're first used;
+    // the round's own entries are all created up front, for every known slice ID
+    private final boolean isPartial;
+
+    // a batch which writes directly to the tabulator's data for the round
+    TallyBatch(RoundTally roundTally, BreakdownBySlice<RoundTally> roundTallyBySlice) {
+      this.isPartial = false;
+      this.roundTally = roundTally;
+      this.roundTallyBySlice = roundTallyBySlice;
+      this.tallyTransfers = Tabulator.this.tallyTransfers;
+      this.tallyTransfersBySlice = Tabulator.this.tallyTransfersBySlice;
+      this.candidateToBallotIndexes = Tabulator.this.candidateToBallotIndexes;
+    }
+
+    // a partial batch for one chunk of cvrs, to be merged later
+    TallyBatch(int roundNumber) {
+      this.isPartial = true;
+      this.roundTally = getNewTally(roundNumber);
+      this.roundTallyBySlice = new BreakdownBySlice<>();
+      this.tallyTransfers = new TallyTransfers();
+      this.tallyTransfersBySlice = new BreakdownBySlice<>();
+      this.candidateToBallotIndexes = new HashMap<>();
+    }
+
+    RoundTally getRoundTallyForSlice(ContestConfig.TabulateBySlice slice, String sliceId) {
+      return isPartial
+          ? roundTallyBySlice.computeIfAbsent(
+              slice, sliceId, k -> getNewTally(roundTally.getRoundNumber()))
+          : roundTallyBySlice.get(slice, sliceId);
+    }
+
+    TallyTransfers getTallyTransfersForSlice(ContestConfig.TabulateBySlice slice, String sliceId) {
+      return isPartial
+          ? tallyTransfersBySlice.computeIfAbsent(slice, sliceId, k -> new TallyTransfers())
+          : tallyTransfersBySlice.get(slice, sliceId);
+    }
+
+    // Merge a partial batch into this one. Partial batches must be merged in CVR order, which keeps
+    // the ballot index lists sorted.
+    void merge(TallyBatch partial) {
+      roundTally.addTalliesFrom(partial.roundTally);
+      tallyTransfers.addTransfersFrom(partial.tallyTransfers);
+      for (ContestConfig.TabulateBySlice slice : config.enabledSlices()) {
+        Map<String, RoundTally> partialTallies = partial.roundTallyBySlice.get(slice);
+        if (partialTallies != null) {
+          partialTallies.forEach(
+              (sliceId, tally) -> getRoundTallyForSlice(slice, sliceId).addTalliesFrom(tally));
+        }
+        Map<String, TallyTransfers> partialTransfers = partial.tallyTransfersBySlice.get(slice);
+        if (partialTransfers != null) {
+          partialTransfers.forEach(
+              (sliceId, transfers) ->
+                  getTallyTransfersForSlice(slice, sliceId).addTransfersFrom(transfers));
+        }
+      }
+      partial.candidateToBallotIndexes.forEach(
+          (candidate, ballots) ->
+              candidateToBallotIndexes
+                  .computeIfAbsent(candidate, k -> new BallotIndexList())
+                  .addAll(ballots));
+    }
+  }
+
   /**
    * Container class used during batch elimination to store the results for later logging output.
    *
@@ -1508,6 +1918,25 @@ final class Tabulator {
   record BatchElimination(
       String candidateId, BigDecimal runningTotal, BigDecimal nextLowestTally) {}
 
+  /**
+   * Settings for how the rounds of a tabulation are tallied. None of them change the results;
+   * outside of tests, only DEFAULT is used.
+   *
+   * @param isIncrementalTallyEnabled whether each round after the first starts from the previous
+   *     round's totals and only revisits the ballots which must move, instead of recounting every
+   *     ballot
+   * @param parallelTallyChunkSize the number of cvrs in each chunk of work when a round is tallied
+   *     in parallel
+   * @param isBallotGroupingEnabled whether identical ballots are grouped and tallied once per
+   *     group (see ballotGroupRepresentatives), instead of one at a time
+   */
+  record TallyOptions(
+      boolean isIncrementalTallyEnabled,
+      int parallelTallyChunkSize,
+      boolean isBallotGroupingEnabled) {
+    static final TallyOptions DEFAULT = new TallyOptions(true, 10000, true);
+  }
+
   static class TabulationAbortedException extends Exception {
 
     final boolean cancelledByUser;
@@ -27,6 +27,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
@@ -34,6 +35,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import java.util.function.BiConsumer;
 import network.brightspots.rcv.CastVoteRecord.CvrParseException;
 import network.brightspots.rcv.ContestConfig.Provider;
@@ -47,12 +49,37 @@ import network.brightspots.rcv.Tabulator.TabulationAbortedException;
 class TabulatorSession {
 
   private final String configPath;
+  // the config loaded from configPath before the session was created; null to load it as needed
+  private final ContestConfig loadedConfig;
   private final String timestampString;
+  // exports shared with other sessions in this run; null if there are none
+  private final SharedCvrExports sharedExports;
+  // cache of previously read CVR sources; null if caching isn't enabled
+  private final BallotCache ballotCache;
+  // whether to record each ballot's round outcomes in a binary audit log instead of as text
+  private boolean isBinaryAuditEnabled = false;
+  // the binary audit log of the tabulation in progress, if there is one
+  private BinaryAuditLog binaryAuditLog;
+  // how each tabulation's rounds are tallied
+  private Tabulator.TallyOptions tallyOptions = Tabulator.TallyOptions.DEFAULT;
   private String outputPath;
   private String rctabCvrFilePath;
 
   TabulatorSession(String configPath) {
+    this(configPath, null, null, null);
+  }
+
+  // loadedConfig is the config already loaded from configPath, or null to load it here. If
+  // sharedExports isn't null, loadedConfig must be the one registered with it.
+  TabulatorSession(
+      String configPath,
+      ContestConfig loadedConfig,
+      SharedCvrExports sharedExports,
+      BallotCache ballotCache) {
     this.configPath = configPath;
+    this.loadedConfig = loadedConfig;
+    this.sharedExports = sharedExports;
+    this.ballotCache = ballotCache;
 
     // current date-time formatted as a string used for creating unique output files names
     String timestampPattern = "yyyy-MM-dd_HH-mm";
@@ -61,7 +88,7 @@ class TabulatorSession {
 
     // If there are multiple runs in the same minute, resolve collisions
     // with a dash and an increment.
-    ContestConfig config = ContestConfig.loadContestConfig(configPath);
+    ContestConfig config = loadConfig();
     int count = 1;
     while (new File(config.getOutputDirectory(currTimestampString)).exists()) {
       currTimestampString = baseTimestampString +  "-" + count;
@@ -71,6 +98,11 @@ class TabulatorSession {
     this.timestampString = currTimestampString;
   }
 
+  // the config given to the constructor, or else a fresh load of configPath
+  private ContestConfig loadConfig() {
+    return loadedConfig != null ? loadedConfig : ContestConfig.loadContestConfig(configPath);
+  }
+
   // validation will catch a mismatch and abort anyway, but let's log helpful errors for the CLI
   // here also
   private static void checkConfigVersionMatchesApp(ContestConfig config) {
@@ -92,6 +124,15 @@ class TabulatorSession {
     }
   }
 
+  void setBinaryAuditEnabled(boolean isBinaryAuditEnabled) {
+    this.isBinaryAuditEnabled = isBinaryAuditEnabled;
+  }
+
+  // Visible for testing
+  void setTallyOptions(Tabulator.TallyOptions tallyOptions) {
+    this.tallyOptions = tallyOptions;
+  }
+
   // Visible for testing
   @SuppressWarnings("unused")
   String getOutputPath() {
@@ -114,7 +155,7 @@ class TabulatorSession {
   // returns whether it succeeded
   boolean convertToCdf(BiConsumer<Double, Double> progressUpdate) {
     Logger.info("Starting CDF conversion session...");
-    ContestConfig config = ContestConfig.loadContestConfig(configPath);
+    ContestConfig config = loadConfig();
     checkConfigVersionMatchesApp(config);
     boolean conversionSuccess = false;
 
@@ -156,6 +197,7 @@ class TabulatorSession {
     }
 
     Logger.info("CDF conversion session completed.");
+    releaseSharedReads(config);
     Logger.removeTabulationFileLogging();
 
     return conversionSuccess;
@@ -167,7 +209,7 @@ class TabulatorSession {
 
   LoadedCvrData parseAndCountCastVoteRecords(BiConsumer<Double, Double> progressUpdate)
       throws CastVoteRecordGenericParseException {
-    ContestConfig config = ContestConfig.loadContestConfig(configPath);
+    ContestConfig config = loadConfig();
     Progress progress = new Progress(config, 0, progressUpdate);
     return parseCastVoteRecords(config, progress, false);
   }
@@ -183,113 +225,130 @@ class TabulatorSession {
       BiConsumer<Double, Double> progressUpdate) {
     Logger.info("Starting tabulation session...");
     List<String> exceptionsEncountered = new LinkedList<>();
-    ContestConfig config = ContestConfig.loadContestConfig(configPath);
+    ContestConfig config = loadConfig();
     checkConfigVersionMatchesApp(config);
     boolean tabulationSuccess = false;
     boolean setUpLoggingSuccess = setUpLogging(config.getOutputDirectory(timestampString));
 
-    if (operatorName == null || operatorName.isBlank()) {
-      Logger.severe("Operator name is required for the audit logs!");
-      exceptionsEncountered.add(TabulationAbortedException.class.toString());
-    } else if (setUpLoggingSuccess && config.validate().isEmpty()) {
-      Logger.info("Computer machine name: %s", Utils.getComputerName());
-      Logger.info("Computer user name: %s", Utils.getUserName());
-      Logger.info("Operator name: %s", operatorName);
-      Logger.info("Config file: %s", configPath);
+    try {
+      if (operatorName == null || operatorName.isBlank()) {
+        Logger.severe("Operator name is required for the audit logs!");
+        exceptionsEncountered.add(TabulationAbortedException.class.toString());
+      } else if (setUpLoggingSuccess && config.validate().isEmpty()) {
+        Logger.info("Computer machine name: %s", Utils.getComputerName());
+        Logger.info("Computer user name: %s", Utils.getUserName());
+        Logger.info("Operator name: %s", operatorName);
+        Logger.info("Config file: %s", configPath);
+
+        try {
+          Logger.auditable("Begin config file contents:");
+          BufferedReader reader =
+              new BufferedReader(new FileReader(configPath, StandardCharsets.UTF_8));
+          String line = reader.readLine();
+          while (line != null) {
+            Logger.auditable(line);
+            line = reader.readLine();
+          }
+          Logger.auditable("End config file contents.");
+          reader.close();
+        } catch (IOException exception) {
+          exceptionsEncountered.add(exception.getClass().toString());
+          Logger.severe("Error logging config file: %s\n%s", configPath, exception);
+        }
 
-      try {
-        Logger.auditable("Begin config file contents:");
-        BufferedReader reader =
-            new BufferedReader(new FileReader(configPath, StandardCharsets.UTF_8));
-        String line = reader.readLine();
-        while (line != null) {
-          Logger.auditable(line);
-          line = reader.readLine();
+        if (isBinaryAuditEnabled) {
+          binaryAuditLog = openBinaryAuditLog(config);
         }
-        Logger.auditable("End config file contents.");
-        reader.close();
-      } catch (IOException exception) {
-        exceptionsEncountered.add(exception.getClass().toString());
-        Logger.severe("Error logging config file: %s\n%s", configPath, exception);
-      }
 
-      Progress progress = new Progress(config, 0.5f, progressUpdate);
-      Logger.info("Tabulating '%s'...", config.getContestName());
-      logMemoryStats("at the start of tabulation");
-      if (config.isMultiSeatSequentialWinnerTakesAllEnabled()) {
-        Logger.info("This is a multi-pass IRV contest.");
-        int numWinners = config.getNumberOfWinners();
-        // temporarily set config to single-seat so that we can run sequential elections
-        config.setNumberOfWinners(1);
-        while (config.getSequentialWinners().size() < numWinners) {
-          Logger.info(
-              "Beginning tabulation for seat #%d...", config.getSequentialWinners().size() + 1);
-          // Read cast vote records and slice IDs from CVR files
-          Set<String> newWinnerSet;
+        Progress progress = new Progress(config, 0.5f, progressUpdate);
+        Logger.info("Tabulating '%s'...", config.getContestName());
+        logMemoryStats("at the start of tabulation");
+        if (config.isMultiSeatSequentialWinnerTakesAllEnabled()) {
+          Logger.info("This is a multi-pass IRV contest.");
+          int numWinners = config.getNumberOfWinners();
+          // temporarily set config to single-seat so that we can run sequential elections
+          config.setNumberOfWinners(1);
+          // Read cast vote records and slice IDs from CVR files. The CVRs don't depend on which
+          // candidates are excluded, so they're read once and reused for every seat; each seat's
+          // tabulation keeps its own ballot state.
+          LoadedCvrData castVoteRecords = null;
           try {
-            LoadedCvrData castVoteRecords = parseCastVoteRecords(config, progress, true);
-            if (config.getSequentialWinners().isEmpty()
-                && !castVoteRecords.metadataMatches(expectedCvrData)) {
+            castVoteRecords = parseCastVoteRecords(config, progress, true);
+            logMemoryStats("after reading CVRs");
+            if (!castVoteRecords.metadataMatches(expectedCvrData)) {
               Logger.severe("CVR data has changed between loading the CVRs and reading them!");
               exceptionsEncountered.add(TabulationAbortedException.class.toString());
-              break;
+              castVoteRecords = null;
             }
-            newWinnerSet = runTabulationForConfig(config, castVoteRecords.getCvrs(), progress);
-          } catch (TabulationAbortedException | CastVoteRecordGenericParseException exception) {
+          } catch (CastVoteRecordGenericParseException exception) {
             exceptionsEncountered.add(exception.getClass().toString());
             Logger.severe(exception.getMessage());
-            break;
           }
-          if (newWinnerSet.size() != 1) {
-            Logger.severe(
-                "Expected to find exactly one new winner and found %d!", newWinnerSet.size());
-            exceptionsEncountered.add(TabulationAbortedException.class.toString());
-            break;
+          while (castVoteRecords != null && config.getSequentialWinners().size() < numWinners) {
+            Logger.info(
+                "Beginning tabulation for seat #%d...", config.getSequentialWinners().size() + 1);
+            Set<String> newWinnerSet;
+            try {
+              newWinnerSet = runTabulationForConfig(config, castVoteRecords.getCvrs(), progress);
+            } catch (TabulationAbortedException exception) {
+              exceptionsEncountered.add(exception.getClass().toString());
+              Logger.severe(exception.getMessage());
+              break;
+            }
+            if (newWinnerSet.size() != 1) {
+              Logger.severe(
+                  "Expected to find exactly one new winner and found %d!", newWinnerSet.size());
+              exceptionsEncountered.add(TabulationAbortedException.class.toString());
+              break;
+            }
+            String newWinner = (String) newWinnerSet.toArray()[0];
+            config.setCandidateExclusionStatus(newWinner, true);
+            config.addSequentialWinner(newWinner);
+            Logger.info("Tabulation for seat #%d completed.", config.getSequentialWinners().size());
+            if (config.getSequentialWinners().size() < numWinners) {
+              Logger.info("Excluding %s from the remaining tabulations.", newWinner);
+            }
           }
-          String newWinner = (String) newWinnerSet.toArray()[0];
-          config.setCandidateExclusionStatus(newWinner, true);
-          config.addSequentialWinner(newWinner);
-          Logger.info("Tabulation for seat #%d completed.", config.getSequentialWinners().size());
-          if (config.getSequentialWinners().size() < numWinners) {
-            Logger.info("Excluding %s from the remaining tabulations.", newWinner);
+          // revert config to original state
+          config.setNumberOfWinners(numWinners);
+          config
+              .getSequentialWinners()
+              .forEach(winner -> config.setCandidateExclusionStatus(winner, false));
+          tabulationSuccess = true;
+        } else {
+          // normal operation (not multi-pass IRV, a.k.a. sequential multi-seat)
+          // Read cast vote records and precinct IDs from CVR files
+          try {
+            LoadedCvrData castVoteRecords = parseCastVoteRecords(config, progress, true);
+            logMemoryStats("after reading CVRs");
+
+            if (!castVoteRecords.metadataMatches(expectedCvrData)) {
+              Logger.severe("CVR data has changed between loading the CVRs and reading them!");
+              exceptionsEncountered.add(TabulationAbortedException.class.toString());
+            } else {
+              runTabulationForConfig(config, castVoteRecords.getCvrs(), progress);
+              logMemoryStats("after tabulation complete");
+              castVoteRecords.printSummary();
+              tabulationSuccess = true;
+            }
+          } catch (CastVoteRecordGenericParseException exception) {
+            exceptionsEncountered.add(exception.getClass().toString());
+            Logger.severe("Aborting tabulation due to cast vote record errors!");
+          } catch (TabulationAbortedException exception) {
+            exceptionsEncountered.add(exception.getClass().toString());
+            Logger.severe(exception.getMessage());
           }
         }
-        // revert config to original state
-        config.setNumberOfWinners(numWinners);
-        config
-            .getSequentialWinners()
-            .forEach(winner -> config.setCandidateExclusionStatus(winner, false));
-        tabulationSuccess = true;
-      } else {
-        // normal operation (not multi-pass IRV, a.k.a. sequential multi-seat)
-        // Read cast vote records and precinct IDs from CVR files
-        try {
-          LoadedCvrData castVoteRecords = parseCastVoteRecords(config, progress, true);
-          logMemoryStats("after reading CVRs");
-
-          if (!castVoteRecords.metadataMatches(expectedCvrData)) {
-            Logger.severe("CVR data has changed between loading the CVRs and reading them!");
-            exceptionsEncountered.add(TabulationAbortedException.class.toString());
-          } else {
-            runTabulationForConfig(config, castVoteRecords.getCvrs(), progress);
-            logMemoryStats("after tabulation complete");
-            castVoteRecords.printSummary();
-            tabulationSuccess = true;
-          }
-        } catch (CastVoteRecordGenericParseException exception) {
-          exceptionsEncountered.add(exception.getClass().toString());
-          Logger.severe("Aborting tabulation due to cast vote record errors!");
-        } catch (TabulationAbortedException exception) {
-          exceptionsEncountered.add(exception.getClass().toString());
-          Logger.severe(exception.getMessage());
+        Logger.info("Tabulation session completed.");
+        if (tabulationSuccess) {
+          Logger.info("Results written to: %s", outputPath);
         }
       }
-      Logger.info("Tabulation session completed.");
-      if (tabulationSuccess) {
-        Logger.info("Results written to: %s", outputPath);
-      }
+    } finally {
+      closeBinaryAuditLog(exceptionsEncountered);
+      releaseSharedReads(config);
+      Logger.removeTabulationFileLogging();
     }
-    Logger.removeTabulationFileLogging();
     return exceptionsEncountered;
   }
 
@@ -332,6 +391,48 @@ class TabulatorSession {
     return success;
   }
 
+  // Once a session is over, whether it succeeded or not, none of the reads registered for it will
+  // be made, so release whatever is being held for them.
+  private void releaseSharedReads(ContestConfig config) {
+    if (sharedExports != null) {
+      sharedExports.release(config);
+    }
+  }
+
+  private void closeBinaryAuditLog(List<String> exceptionsEncountered) {
+    if (binaryAuditLog == null) {
+      return;
+    }
+    try {
+      binaryAuditLog.close();
+    } catch (IOException exception) {
+      exceptionsEncountered.add(exception.getClass().toString());
+      Logger.severe("Error writing binary audit log %s:\n%s", binaryAuditLog.getPath(), exception);
+    } finally {
+      binaryAuditLog = null;
+    }
+  }
+
+  // returns null, in which case outcomes are written to the text audit log, if it can't be created
+  private BinaryAuditLog openBinaryAuditLog(ContestConfig config) {
+    Path path =
+        Path.of(
+            config.getOutputDirectory(timestampString),
+            "Log",
+            timestampString + "_audit_ballots" + BinaryAuditLog.FILE_SUFFIX);
+    try {
+      BinaryAuditLog auditLog = new BinaryAuditLog(path);
+      Logger.info("Writing each ballot's outcome in each round to binary audit log: %s", path);
+      return auditLog;
+    } catch (IOException exception) {
+      Logger.warning(
+          "Failed to create binary audit log %s, so ballot outcomes will be written to the text"
+              + " audit log instead:\n%s",
+          path, exception);
+      return null;
+    }
+  }
+
   // execute tabulation for given ContestConfig (a Session may comprise multiple tabulations)
   // returns: set of winners from tabulation
   private Set<String> runTabulationForConfig(
@@ -339,6 +440,10 @@ class TabulatorSession {
       throws TabulationAbortedException {
     Set<String> winners;
     Tabulator tabulator = new Tabulator(castVoteRecords, config);
+    tabulator.setTallyOptions(tallyOptions);
+    if (binaryAuditLog != null) {
+      tabulator.setBinaryAuditLog(binaryAuditLog);
+    }
     winners = tabulator.tabulate(progress);
     try {
       tabulator.generateSummaryFiles(timestampString);
@@ -368,71 +473,63 @@ class TabulatorSession {
     // Per-source data for writing generic CSV
     List<OutputWriter.CvrSourceData> cvrSourceData = new ArrayList<>();
 
-    // At each iteration of the following loop, we add records from another source file.
-    for (int sourceIndex = 0; sourceIndex < config.rawConfig.cvrFileSources.size(); ++sourceIndex) {
-      RawContestConfig.CvrSource source = config.rawConfig.cvrFileSources.get(sourceIndex);
-      String cvrPath = config.resolveConfigPath(source.getFilePath());
-      Provider provider = ContestConfig.getProvider(source);
-      try {
-        BaseCvrReader reader = provider.constructReader(config, source);
-        Logger.info("CVR Source %d | Reading %s cast vote records from: %s...",
-                sourceIndex + 1, reader.readerName(), cvrPath);
-        final int startIndex = castVoteRecords.size();
-        reader.readCastVoteRecords(castVoteRecords);
-
-        // Update the per-source data for the results writer
-        cvrSourceData.add(
-            new OutputWriter.CvrSourceData(
-                source, reader, sourceIndex, startIndex, castVoteRecords.size() - 1));
-
-        Logger.info("CVR Source %d | Parsed %,d valid cast vote records.",
-                  sourceIndex + 1, castVoteRecords.size() - startIndex);
-
-        // Check for unrecognized candidates
-        Map<Candidate, Integer> unrecognizedCandidateCounts =
-            reader.gatherUnknownCandidateCounts(castVoteRecords, false);
-
-        if (!unrecognizedCandidateCounts.isEmpty()) {
-          throw new UnrecognizedCandidatesException(unrecognizedCandidateCounts);
+    // Sources are independent of each other, so when there are several they are read in parallel.
+    // Each source is read into its own list with its log output held (see OrderedParallelTasks);
+    // the results are then added in source order, so the combined list and the log are the same
+    // as reading the sources one at a time. Sources are read on their own threads rather than the
+    // common ForkJoinPool: reading one mostly waits on files, and a thread waiting on one source's
+    // work in the common pool could otherwise pick up another source's.
+    List<RawContestConfig.CvrSource> sources = config.rawConfig.cvrFileSources;
+    int numThreads = Math.min(sources.size(), Runtime.getRuntime().availableProcessors());
+    final SecurityConfig.Settings securitySettings = SecurityConfig.currentSettings();
+    OrderedParallelTasks.TaskSource<ParsedCvrSource, RuntimeException> sourceReads =
+        OrderedParallelTasks.indexed(
+            sources.size(),
+            index -> securitySettings.callWith(
+                () -> readCvrSource(config, index, sharedExports, ballotCache)));
+    ExecutorService executor =
+        numThreads > 1 ? OrderedParallelTasks.newFixedExecutor("CVR source reader", numThreads)
+            : null;
+    try (OrderedParallelTasks<ParsedCvrSource, RuntimeException> parsedSources =
+        executor != null
+            ? new OrderedParallelTasks<>(
+                executor,
+                numThreads * OrderedParallelTasks.DEFAULT_TASKS_IN_FLIGHT_PER_THREAD,
+                sourceReads)
+            : null) {
+      // At each iteration of the following loop, we add records from another source file.
+      for (int sourceIndex = 0; sourceIndex < sources.size(); ++sourceIndex) {
+        ParsedCvrSource parsedSource =
+            parsedSources != null
+                ? parsedSources.next()
+                : readCvrSource(config, sourceIndex, sharedExports, ballotCache);
+
+        if (parsedSource.encounteredProblem) {
+          encounteredSourceProblem = true;
+        } else {
+          // Update the per-source data for the results writer
+          final int startIndex = castVoteRecords.size();
+          castVoteRecords.addAll(parsedSource.castVoteRecords);
+          cvrSourceData.add(
+              new OutputWriter.CvrSourceData(
+                  sources.get(sourceIndex),
+                  parsedSource.reader,
+                  sourceIndex,
+                  startIndex,
+                  castVoteRecords.size() - 1));
         }
 
-        // Check for any other reader-specific validations
-        reader.runAdditionalValidations(castVoteRecords);
-      } catch (UnrecognizedCandidatesException exception) {
-        Logger.severe("Source file contains unrecognized candidate(s): %s", cvrPath);
-        // map from name to number of times encountered
-        exception
-            .candidateCounts
-            .keySet()
-            .forEach(
-                candidate ->
-                    Logger.severe(
-                        "Unrecognized candidate \"%s\" appears %d time(s)!",
-                        candidate.getName(), exception.candidateCounts.get(candidate)));
-        // various incorrect settings can lead to UnrecognizedCandidatesException, so it's hard
-        // to know exactly what the problem is
-        Logger.info(
-            "Check config settings for candidate names, firstVoteRowIndex, "
-                + "firstVoteColumnIndex, and precinctColumnIndex to make sure they are correct!");
-        Logger.info("See config_file_documentation.txt for more details.");
-        encounteredSourceProblem = true;
-      } catch (IOException exception) {
-        Logger.severe("Error opening cast vote record file: %s", cvrPath);
-        Logger.info("Check file path and permissions and make sure they are correct!");
-        encounteredSourceProblem = true;
-      } catch (UnrecognizedProviderException exception) {
-        Logger.severe(
-            "Unrecognized provider \"%s\" in source file: %s", source.getProvider(), cvrPath);
-        encounteredSourceProblem = true;
-      } catch (CvrParseException exception) {
-        encounteredSourceProblem = true;
-      } catch (Exception exception) {
-        Logger.severe("Unexpected error parsing source file: %s\n%s", cvrPath, exception);
-        encounteredSourceProblem = true;
+        // Update the service % complete
+        progress.markFileRead();
+      }
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+      Logger.severe("Parsing cast vote records was interrupted!");
+      encounteredSourceProblem = true;
+    } finally {
+      if (executor != null) {
+        executor.shutdown();
       }
-
-      // Update the service % complete
-      progress.markFileRead();
     }
 
     if (encounteredSourceProblem) {
@@ -472,6 +569,100 @@ class TabulatorSession {
     return new LoadedCvrData(castVoteRecords, cvrSourceData);
   }
 
+  // Read one CVR source into its own list and run the per-source validations. Any problem is
+  // logged and recorded in the result rather than thrown.
+  // If ballotCache has an entry for the source as it is now, the CVRs are loaded from there; they
+  // passed these validations when the entry was written, and nothing they depend on has changed.
+  private static ParsedCvrSource readCvrSource(
+      ContestConfig config,
+      int sourceIndex,
+      SharedCvrExports sharedExports,
+      BallotCache ballotCache) {
+    ParsedCvrSource parsedSource = new ParsedCvrSource();
+    RawContestConfig.CvrSource source = config.rawConfig.cvrFileSources.get(sourceIndex);
+    String cvrPath = config.resolveConfigPath(source.getFilePath());
+    Provider provider = ContestConfig.getProvider(source);
+    try {
+      BaseCvrReader reader = provider.constructReader(config, source);
+      parsedSource.reader = reader;
+      reader.setSharedExports(sharedExports);
+      List<CastVoteRecord> castVoteRecords = parsedSource.castVoteRecords;
+      byte[] cacheKey =
+          ballotCache != null ? ballotCache.keyFor(config, source, cvrPath) : null;
+      if (cacheKey != null && ballotCache.load(cacheKey, castVoteRecords)) {
+        Logger.info("CVR Source %d | Loaded %,d cast vote records from the ballot cache for: %s",
+                sourceIndex + 1, castVoteRecords.size(), cvrPath);
+        if (sharedExports != null) {
+          sharedExports.skipRead(source);
+        }
+        return parsedSource;
+      }
+
+      Logger.info("CVR Source %d | Reading %s cast vote records from: %s...",
+              sourceIndex + 1, reader.readerName(), cvrPath);
+      reader.readCastVoteRecords(castVoteRecords);
+      CastVoteRecord.shareRepeatedStrings(castVoteRecords);
+
+      Logger.info("CVR Source %d | Parsed %,d valid cast vote records.",
+                sourceIndex + 1, castVoteRecords.size());
+
+      // Check for unrecognized candidates
+      Map<Candidate, Integer> unrecognizedCandidateCounts =
+          reader.gatherUnknownCandidateCounts(castVoteRecords, false);
+
+      if (!unrecognizedCandidateCounts.isEmpty()) {
+        throw new UnrecognizedCandidatesException(unrecognizedCandidateCounts);
+      }
+
+      // Check for any other reader-specific validations
+      reader.runAdditionalValidations(castVoteRecords);
+
+      if (cacheKey != null) {
+        ballotCache.store(cacheKey, castVoteRecords);
+      }
+    } catch (UnrecognizedCandidatesException exception) {
+      Logger.severe("Source file contains unrecognized candidate(s): %s", cvrPath);
+      // map from name to number of times encountered
+      exception
+          .candidateCounts
+          .keySet()
+          .forEach(
+              candidate ->
+                  Logger.severe(
+                      "Unrecognized candidate \"%s\" appears %d time(s)!",
+                      candidate.getName(), exception.candidateCounts.get(candidate)));
+      // various incorrect settings can lead to UnrecognizedCandidatesException, so it's hard
+      // to know exactly what the problem is
+      Logger.info(
+          "Check config settings for candidate names, firstVoteRowIndex, "
+              + "firstVoteColumnIndex, and precinctColumnIndex to make sure they are correct!");
+      Logger.info("See config_file_documentation.txt for more details.");
+      parsedSource.encounteredProblem = true;
+    } catch (IOException exception) {
+      Logger.severe("Error opening cast vote record file: %s", cvrPath);
+      Logger.info("Check file path and permissions and make sure they are correct!");
+      parsedSource.encounteredProblem = true;
+    } catch (UnrecognizedProviderException exception) {
+      Logger.severe(
+          "Unrecognized provider \"%s\" in source file: %s", source.getProvider(), cvrPath);
+      parsedSource.encounteredProblem = true;
+    } catch (CvrParseException exception) {
+      parsedSource.encounteredProblem = true;
+    } catch (Exception exception) {
+      Logger.severe("Unexpected error parsing source file: %s\n%s", cvrPath, exception);
+      parsedSource.encounteredProblem = true;
+    }
+    return parsedSource;
+  }
+
+  // everything read from one CVR source
+  private static final class ParsedCvrSource {
+
+    private final List<CastVoteRecord> castVoteRecords = new ArrayList<>();
+    private BaseCvrReader reader;
+    private boolean encounteredProblem = false;
+  }
+
   static class UnrecognizedCandidatesException extends Exception {
 
     // count of how many times each unrecognized candidate was encountered during CVR parsing
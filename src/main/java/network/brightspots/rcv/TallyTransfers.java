@@ -19,6 +19,7 @@
 package network.brightspots.rcv;
 
 import java.math.BigDecimal;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -36,14 +37,45 @@ class TallyTransfers {
   // transfers for a round are a map of SOURCE candidate(s) to one or more TARGET candidates.
   // For each target candidate the map value is total vote values received from that source.
   // For round 1 source candidate is marked "uncounted" since the votes had no prior recipient.
-  private final Map<Integer, Map<String, Map<String, BigDecimal>>> tallyTransfers = new HashMap<>();
+  // Totals are accumulated in fixed point and only converted to BigDecimal when read.
+  private final Map<Integer, Map<String, Map<String, VoteValue.Sum>>> tallyTransfers =
+      new HashMap<>();
+  // Read-only copies of rounds' transfers, built by getTransfersForRound the first time a round is
+  // read. A round's copy is dropped if a transfer is added to it afterward.
+  private final Map<Integer, Map<String, Map<String, BigDecimal>>> transfersForRound =
+      new HashMap<>();
 
   Map<String, Map<String, BigDecimal>> getTransfersForRound(int round) {
-    return tallyTransfers.get(round);
+    Map<String, Map<String, BigDecimal>> roundTransfers = transfersForRound.get(round);
+    if (roundTransfers != null) {
+      return roundTransfers;
+    }
+    Map<String, Map<String, VoteValue.Sum>> roundEntries = tallyTransfers.get(round);
+    if (roundEntries == null) {
+      return null;
+    }
+    Map<String, Map<String, BigDecimal>> newRoundTransfers = new HashMap<>();
+    roundEntries.forEach(
+        (sourceCandidate, candidateEntries) -> {
+          Map<String, BigDecimal> transfersFromSource = new HashMap<>();
+          candidateEntries.forEach(
+              (targetCandidate, sum) ->
+                  transfersFromSource.put(targetCandidate, sum.toBigDecimal()));
+          newRoundTransfers.put(
+              sourceCandidate, Collections.unmodifiableMap(transfersFromSource));
+        });
+    roundTransfers = Collections.unmodifiableMap(newRoundTransfers);
+    transfersForRound.put(round, roundTransfers);
+    return roundTransfers;
   }
 
   // add vote transfer value for given round
   void addTransfer(int round, String sourceCandidate, String targetCandidate, BigDecimal value) {
+    addTransfer(round, sourceCandidate, targetCandidate, VoteValue.of(value));
+  }
+
+  // add vote transfer value for given round
+  void addTransfer(int round, String sourceCandidate, String targetCandidate, VoteValue value) {
     // null source means we are transferring the initial count
     if (sourceCandidate == null) {
       sourceCandidate = UNCOUNTED;
@@ -53,13 +85,29 @@ class TallyTransfers {
       targetCandidate = EXHAUSTED;
     }
 
-    // lookup or create entries for specified round
-    Map<String, Map<String, BigDecimal>> roundEntries =
-        tallyTransfers.computeIfAbsent(round, k -> new HashMap<>());
-    Map<String, BigDecimal> candidateEntries =
-        roundEntries.computeIfAbsent(sourceCandidate, k -> new HashMap<>());
-    BigDecimal currentValue = candidateEntries.getOrDefault(targetCandidate, BigDecimal.ZERO);
-    BigDecimal newTally = currentValue.add(value);
-    candidateEntries.put(targetCandidate, newTally);
+    getSum(round, sourceCandidate, targetCandidate).add(value);
+  }
+
+  // add all transfers recorded in another TallyTransfers object (e.g. a partial set of transfers
+  // computed on another thread) to this one
+  void addTransfersFrom(TallyTransfers other) {
+    other.tallyTransfers.forEach(
+        (round, roundEntries) ->
+            roundEntries.forEach(
+                (sourceCandidate, candidateEntries) ->
+                    candidateEntries.forEach(
+                        (targetCandidate, sum) ->
+                            getSum(round, sourceCandidate, targetCandidate).add(sum))));
+  }
+
+  // lookup or create the running total for the specified round, source and target
+  private VoteValue.Sum getSum(int round, String sourceCandidate, String targetCandidate) {
+    if (!transfersForRound.isEmpty()) {
+      transfersForRound.remove(round);
+    }
+    return tallyTransfers
+        .computeIfAbsent(round, k -> new HashMap<>())
+        .computeIfAbsent(sourceCandidate, k -> new HashMap<>())
+        .computeIfAbsent(targetCandidate, k -> new VoteValue.Sum());
   }
 }
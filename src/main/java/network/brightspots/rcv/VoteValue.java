@@ -0,0 +1,238 @@
+/*
+ * RCTab
+ * Copyright (c) 2017-2023 Bright Spots Developers.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+/*
+ * Purpose: Fixed-point representation of vote values, used to keep BigDecimal allocation out of
+ * the tabulation hot path.
+ * Design: A vote value is held as an unscaled long and a scale, exactly like a BigDecimal
+ * (value = unscaledValue * 10^-scale). Vote values never have more decimal places than
+ * decimalPlacesForVoteArithmetic, so sums and products fit comfortably in a long. Whenever an
+ * operation would overflow a long, or a value cannot be represented at all, the computation falls
+ * back to BigDecimal. Results, including their scale, are therefore always identical to the
+ * equivalent BigDecimal arithmetic.
+ * Conditions: During tabulation.
+ * Version history: see https://github.com/BrightSpots/rcv.
+ */
+
+package network.brightspots.rcv;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+final class VoteValue {
+
+  // POWERS_OF_TEN[i] == 10^i; any scale which can't index this array can't be held in a long
+  private static final long[] POWERS_OF_TEN = {
+    1L,
+    10L,
+    100L,
+    1_000L,
+    10_000L,
+    100_000L,
+    1_000_000L,
+    10_000_000L,
+    100_000_000L,
+    1_000_000_000L,
+    10_000_000_000L,
+    100_000_000_000L,
+    1_000_000_000_000L,
+    10_000_000_000_000L,
+    100_000_000_000_000L,
+    1_000_000_000_000_000L,
+    10_000_000_000_000_000L,
+    100_000_000_000_000_000L,
+    1_000_000_000_000_000_000L
+  };
+  // longs with at most this many digits are always representable
+  private static final int MAX_LONG_PRECISION = 18;
+
+  static final VoteValue ONE = of(BigDecimal.ONE);
+
+  // Built from unscaledValue and scale the first time it's needed, for fixed-point values. Racing
+  // threads may each build it, but they build equal values, as String.hashCode does.
+  private BigDecimal decimalValue;
+  private final boolean isFixedPoint;
+  private final long unscaledValue;
+  private final int scale;
+
+  private VoteValue(BigDecimal decimalValue, boolean isFixedPoint, long unscaledValue, int scale) {
+    this.decimalValue = decimalValue;
+    this.isFixedPoint = isFixedPoint;
+    this.unscaledValue = unscaledValue;
+    this.scale = scale;
+  }
+
+  static VoteValue of(BigDecimal value) {
+    if (isRepresentable(value)) {
+      return new VoteValue(value, true, value.unscaledValue().longValue(), value.scale());
+    } else {
+      return new VoteValue(value, false, 0, 0);
+    }
+  }
+
+  // the value unscaledValue * 10^-scale; scale must be between 0 and 18
+  static VoteValue ofFixedPoint(long unscaledValue, int scale) {
+    return new VoteValue(null, true, unscaledValue, scale);
+  }
+
+  // whether value can be held as an unscaled long and a scale
+  static boolean isRepresentable(BigDecimal value) {
+    return value.scale() >= 0
+        && value.scale() < POWERS_OF_TEN.length
+        && value.precision() <= MAX_LONG_PRECISION;
+  }
+
+  // multiplies unscaledValue by 10^(toScale - fromScale); throws ArithmeticException on overflow
+  private static long rescale(long unscaledValue, int fromScale, int toScale) {
+    return fromScale == toScale
+        ? unscaledValue
+        : Math.multiplyExact(unscaledValue, POWERS_OF_TEN[toScale - fromScale]);
+  }
+
+  // whether this value is held as unscaledValue and scale, rather than only as a BigDecimal
+  boolean isFixedPoint() {
+    return isFixedPoint;
+  }
+
+  // only meaningful if isFixedPoint
+  long unscaledValue() {
+    return unscaledValue;
+  }
+
+  // only meaningful if isFixedPoint
+  int scale() {
+    return scale;
+  }
+
+  // equivalent to toBigDecimal().signum()
+  int signum() {
+    return isFixedPoint ? Long.signum(unscaledValue) : decimalValue.signum();
+  }
+
+  BigDecimal toBigDecimal() {
+    BigDecimal value = decimalValue;
+    if (value == null) {
+      value = BigDecimal.valueOf(unscaledValue, scale);
+      decimalValue = value;
+    }
+    return value;
+  }
+
+  // equivalent to toBigDecimal().subtract(subtrahend.toBigDecimal())
+  VoteValue subtract(VoteValue subtrahend) {
+    if (isFixedPoint && subtrahend.isFixedPoint) {
+      try {
+        int resultScale = Math.max(scale, subtrahend.scale);
+        return ofFixedPoint(
+            Math.subtractExact(
+                rescale(unscaledValue, scale, resultScale),
+                rescale(subtrahend.unscaledValue, subtrahend.scale, resultScale)),
+            resultScale);
+      } catch (ArithmeticException exception) {
+        // overflow: fall through to BigDecimal arithmetic
+      }
+    }
+    return of(toBigDecimal().subtract(subtrahend.toBigDecimal()));
+  }
+
+  // equivalent to ContestConfig.multiply(toBigDecimal(), multiplicand.toBigDecimal()): the
+  // product is truncated (RoundingMode.DOWN) to the given number of decimal places
+  VoteValue multiply(VoteValue multiplicand, int decimalPlaces) {
+    if (isFixedPoint && multiplicand.isFixedPoint && decimalPlaces < POWERS_OF_TEN.length) {
+      try {
+        long product = Math.multiplyExact(unscaledValue, multiplicand.unscaledValue);
+        int productScale = scale + multiplicand.scale;
+        if (productScale <= decimalPlaces) {
+          return ofFixedPoint(rescale(product, productScale, decimalPlaces), decimalPlaces);
+        } else if (productScale - decimalPlaces < POWERS_OF_TEN.length) {
+          // integer division truncates toward zero, which is exactly RoundingMode.DOWN
+          return ofFixedPoint(product / POWERS_OF_TEN[productScale - decimalPlaces], decimalPlaces);
+        }
+      } catch (ArithmeticException exception) {
+        // overflow: fall through to BigDecimal arithmetic
+      }
+    }
+    return of(
+        toBigDecimal()
+            .multiply(multiplicand.toBigDecimal())
+            .setScale(decimalPlaces, RoundingMode.DOWN));
+  }
+
+  // equivalent to toBigDecimal().multiply(BigDecimal.valueOf(count)), e.g. the combined value of
+  // count identical ballots
+  VoteValue times(int count) {
+    if (count == 1) {
+      return this;
+    }
+    if (isFixedPoint) {
+      try {
+        return ofFixedPoint(Math.multiplyExact(unscaledValue, count), scale);
+      } catch (ArithmeticException exception) {
+        // overflow: fall through to BigDecimal arithmetic
+      }
+    }
+    return of(toBigDecimal().multiply(BigDecimal.valueOf(count)));
+  }
+
+  // Sum is a mutable accumulator of vote values. Adding to it doesn't allocate unless the running
+  // total overflows a long, after which it continues as a BigDecimal.
+  static final class Sum {
+
+    private long unscaledValue = 0;
+    private int scale = 0;
+    // non-null once the sum no longer fits in a long
+    private BigDecimal overflowValue = null;
+
+    void add(VoteValue value) {
+      if (value.isFixedPoint) {
+        add(value.unscaledValue, value.scale);
+      } else {
+        add(value.toBigDecimal());
+      }
+    }
+
+    void add(BigDecimal value) {
+      if (overflowValue == null && isRepresentable(value)) {
+        add(value.unscaledValue().longValue(), value.scale());
+      } else {
+        overflowValue = toBigDecimal().add(value);
+      }
+    }
+
+    void add(Sum other) {
+      if (other.overflowValue == null) {
+        add(other.unscaledValue, other.scale);
+      } else {
+        add(other.overflowValue);
+      }
+    }
+
+    private void add(long addendUnscaledValue, int addendScale) {
+      if (overflowValue == null) {
+        try {
+          // BigDecimal addition keeps the larger of the two scales; do the same here
+          int resultScale = Math.max(scale, addendScale);
+          unscaledValue =
+              Math.addExact(
+                  rescale(unscaledValue, scale, resultScale),
+                  rescale(addendUnscaledValue, addendScale, resultScale));
+          scale = resultScale;
+          return;
+        } catch (ArithmeticException exception) {
+          overflowValue = toBigDecimal();
+        }
+      }
+      overflowValue = overflowValue.add(BigDecimal.valueOf(addendUnscaledValue, addendScale));
+    }
+
+    BigDecimal toBigDecimal() {
+      return overflowValue != null ? overflowValue : BigDecimal.valueOf(unscaledValue, scale);
+    }
+  }
+}
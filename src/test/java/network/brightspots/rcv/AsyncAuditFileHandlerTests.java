@@ -0,0 +1,215 @@
+/*
+ * RCTab
+ * Copyright (c) 2017-2023 Bright Spots Developers.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+/*
+ * Purpose: These tests check that AsyncAuditFileHandler names, rotates, and locks its files as a
+ * FileHandler does, and that the hash it gives for each generation is the hash of that file.
+ * Design: Both handlers are given the same records with a small size limit, so that they rotate
+ * through several generations, and their files are compared. A rotation is made to fail by putting
+ * a directory where a file must be renamed to.
+ * Conditions: During automated testing.
+ * Version history: see https://github.com/BrightSpots/rcv.
+ */
+
+package network.brightspots.rcv;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.ErrorManager;
+import java.util.logging.FileHandler;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AsyncAuditFileHandlerTests {
+
+  // each record is written as a 25 byte line, so four records fill a file
+  private static final int LIMIT = 100;
+
+  // each record's message on a line of its own
+  private static final Formatter LINE_FORMATTER =
+      new Formatter() {
+        @Override
+        public String format(LogRecord record) {
+          return record.getMessage() + "\n";
+        }
+      };
+
+  private static String line(int index) {
+    return String.format("record %04d of the tests\n", index);
+  }
+
+  // the name of the generation's file, as FileHandler names it
+  private static String fileName(String pattern, int generation) {
+    return pattern.contains("%g")
+        ? pattern.replace("%g", Integer.toString(generation))
+        : pattern + "." + generation;
+  }
+
+  private static void publish(Handler handler, int first, int last) {
+    for (int i = first; i <= last; i++) {
+      handler.publish(new LogRecord(Level.INFO, line(i).trim()));
+    }
+  }
+
+  private static String lines(int first, int last) {
+    StringBuilder lines = new StringBuilder();
+    for (int i = first; i <= last; i++) {
+      lines.append(line(i));
+    }
+    return lines.toString();
+  }
+
+  private static byte[] hash(Path path) throws IOException, NoSuchAlgorithmException {
+    return MessageDigest.getInstance("SHA-512").digest(Files.readAllBytes(path));
+  }
+
+  private static List<String> fileNames(Path directory) throws IOException {
+    try (Stream<Path> paths = Files.list(directory)) {
+      return paths.map(path -> path.getFileName().toString()).sorted().toList();
+    }
+  }
+
+  private static AsyncAuditFileHandler newHandler(Path directory, String pattern, int count)
+      throws IOException {
+    AsyncAuditFileHandler handler =
+        new AsyncAuditFileHandler(directory.resolve(pattern).toString(), LIMIT, count);
+    handler.setFormatter(LINE_FORMATTER);
+    return handler;
+  }
+
+  @Test
+  @DisplayName("files are rotated as FileHandler rotates them, and each one's hash is known")
+  void testRotationMatchesFileHandler(@TempDir Path directory) throws Exception {
+    // with and without the generation in the pattern
+    for (String pattern : new String[] {"audit_%g.log", "audit.log"}) {
+      Path expectedDirectory =
+          Files.createDirectory(directory.resolve("expected_" + pattern.length()));
+      Path actualDirectory = Files.createDirectory(directory.resolve("actual_" + pattern.length()));
+      // a file to append to, which is rotated first
+      Files.writeString(expectedDirectory.resolve(fileName(pattern, 0)), line(0));
+      Files.writeString(actualDirectory.resolve(fileName(pattern, 0)), line(0));
+
+      FileHandler fileHandler =
+          new FileHandler(expectedDirectory.resolve(pattern).toString(), LIMIT, 3, true);
+      fileHandler.setFormatter(LINE_FORMATTER);
+      publish(fileHandler, 1, 30);
+      fileHandler.close();
+      AsyncAuditFileHandler handler = newHandler(actualDirectory, pattern, 3);
+      publish(handler, 1, 30);
+      handler.close();
+
+      List<String> names = fileNames(expectedDirectory);
+      assertEquals(3, names.size(), pattern);
+      assertEquals(names, fileNames(actualDirectory), pattern);
+      for (String name : names) {
+        assertEquals(
+            Files.readString(expectedDirectory.resolve(name)),
+            Files.readString(actualDirectory.resolve(name)),
+            name);
+      }
+      for (int generation = 0; generation < 3; generation++) {
+        String name = fileName(pattern, generation);
+        // file 0, which was appended to, was rotated away, so every file was written afresh
+        byte[] fileHash = handler.getFileHash(generation);
+        assertNotNull(fileHash, name);
+        assertArrayEquals(hash(actualDirectory.resolve(name)), fileHash, name);
+      }
+      assertNull(handler.getFileHash(3));
+    }
+  }
+
+  @Test
+  @DisplayName("hashes stay with their files after a rotation fails")
+  void testHashesAfterFailedRotation(@TempDir Path directory) throws Exception {
+    List<Integer> errorCodes = new ArrayList<>();
+    AsyncAuditFileHandler handler = newHandler(directory, "audit_%g.log", 3);
+    handler.setErrorManager(
+        new ErrorManager() {
+          @Override
+          public synchronized void error(String message, Exception exception, int code) {
+            errorCodes.add(code);
+          }
+        });
+
+    // file 0 fills and is rotated to file 1
+    publish(handler, 1, 4);
+    handler.flush();
+    // file 1 can't be renamed to file 2, which is the last and so is never renamed itself, so
+    // records carry on being appended to file 0
+    Path blocker = Files.createDirectory(directory.resolve("audit_2.log"));
+    Files.writeString(blocker.resolve("blocker"), "");
+    publish(handler, 5, 8);
+    handler.flush();
+    assertEquals(List.of(ErrorManager.GENERIC_FAILURE), errorCodes);
+    Files.delete(blocker.resolve("blocker"));
+    Files.delete(blocker);
+    // then rotation succeeds again, twice, and the first file is dropped
+    publish(handler, 9, 16);
+    handler.flush();
+    publish(handler, 17, 18);
+    handler.close();
+
+    assertEquals(lines(17, 18), Files.readString(directory.resolve("audit_0.log")));
+    assertEquals(lines(13, 16), Files.readString(directory.resolve("audit_1.log")));
+    assertEquals(lines(5, 12), Files.readString(directory.resolve("audit_2.log")));
+    assertFalse(Files.exists(directory.resolve("audit_3.log")));
+    // the files written since the failure have their own hashes
+    assertArrayEquals(hash(directory.resolve("audit_0.log")), handler.getFileHash(0));
+    assertArrayEquals(hash(directory.resolve("audit_1.log")), handler.getFileHash(1));
+    // but the file which was appended to must be read to hash it
+    assertNull(handler.getFileHash(2));
+  }
+
+  @Test
+  @DisplayName("files already in use are refused")
+  void testFilesInUseAreRefused(@TempDir Path directory) throws Exception {
+    Path lockPath = directory.resolve("audit_0.log.lck");
+    AsyncAuditFileHandler handler = newHandler(directory, "audit_%g.log", 2);
+    assertTrue(Files.exists(lockPath));
+    assertThrows(IOException.class, () -> newHandler(directory, "audit_%g.log", 2));
+    publish(handler, 1, 2);
+    handler.close();
+    assertFalse(Files.exists(lockPath));
+    assertEquals(lines(1, 2), Files.readString(directory.resolve("audit_0.log")));
+
+    // a FileHandler which has the files is respected too
+    FileHandler fileHandler =
+        new FileHandler(directory.resolve("audit_%g.log").toString(), LIMIT, 2, true);
+    fileHandler.setFormatter(LINE_FORMATTER);
+    assertThrows(IOException.class, () -> newHandler(directory, "audit_%g.log", 2));
+    fileHandler.close();
+
+    // a lock file left behind by a process which didn't exit cleanly isn't in use
+    Files.writeString(lockPath, "");
+    handler = newHandler(directory, "audit_%g.log", 2);
+    publish(handler, 3, 3);
+    handler.close();
+    assertFalse(Files.exists(lockPath));
+    assertEquals(lines(1, 3), Files.readString(directory.resolve("audit_0.log")));
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * RCTab
+ * Copyright (c) 2017-2023 Bright Spots Developers.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+/*
+ * Purpose: These tests check that Clear Ballot rows are split exactly as they were by the regex
+ * which RowTokenizer replaced, and that parsing rows in many batches gives the same records as
+ * parsing them in one.
+ * Design: RowTokenizer's cells are compared with String.split's on the same rows. The reader is
+ * run with a small batch size so that a small file is split into many batches.
+ * Conditions: During automated testing.
+ * Version history: see https://github.com/BrightSpots/rcv.
+ */
+
+package network.brightspots.rcv;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ClearBallotCvrReaderTests {
+
+  // the regex rows were split with before RowTokenizer
+  private static final String CSV_COMMA_SPLITTER = ",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)";
+  // more rows than the test files have, so that they're parsed in a single batch
+  private static final int ONE_BATCH = 1000;
+  private static final String INLINE_COMMA_TEST_FOLDER =
+      "src/test/resources/network/brightspots/rcv/test_data/clear_ballot_with_inline_comma";
+
+  @BeforeAll
+  static void setup() {
+    Logger.setup();
+  }
+
+  @Test
+  @DisplayName("rows are split as the regex split them")
+  void testRowTokenizerMatchesRegex() {
+    String[] rows = {
+      "a,b,c",
+      // quotes stay in the cell, and commas between them don't split it
+      "\"a,b\",c",
+      "\"x\",\"y,z\",1,0",
+      "\"a,\"\"b\"\",c\",d",
+      "\"\",\"\"",
+      // with an odd number of quotes, no comma before the last one splits
+      "a,\"b",
+      "a,b,\"c",
+      // trailing empty cells are dropped
+      "a,,",
+      "a,b,,,",
+      "1,\"RCV-0255\",,0,,",
+      ",\"x,y\",,",
+      ",,",
+      // but not leading or inner ones, or cells of spaces
+      ",a",
+      "a,,b",
+      " , ",
+      "a",
+      "",
+    };
+    ClearBallotCvrReader.RowTokenizer tokenizer = new ClearBallotCvrReader.RowTokenizer();
+    for (String row : rows) {
+      String[] expectedCells = row.split(CSV_COMMA_SPLITTER);
+      tokenizer.tokenize(row);
+      assertEquals(expectedCells.length, tokenizer.numCells(), row);
+      for (int i = 0; i < expectedCells.length; i++) {
+        assertEquals(expectedCells[i], tokenizer.cell(i), row);
+      }
+      // a missing cell throws as indexing past the end of the split row did
+      ArrayIndexOutOfBoundsException expected =
+          assertThrows(
+              ArrayIndexOutOfBoundsException.class,
+              () -> String.valueOf(expectedCells[expectedCells.length]));
+      ArrayIndexOutOfBoundsException actual =
+          assertThrows(
+              ArrayIndexOutOfBoundsException.class, () -> tokenizer.cell(expectedCells.length));
+      assertEquals(expected.getMessage(), actual.getMessage(), row);
+      assertThrows(
+          ArrayIndexOutOfBoundsException.class, () -> tokenizer.isOne(expectedCells.length));
+    }
+  }
+
+  @Test
+  @DisplayName("isOne matches parsing the cell")
+  void testRowTokenizerIsOne() {
+    ClearBallotCvrReader.RowTokenizer tokenizer = new ClearBallotCvrReader.RowTokenizer();
+    for (String cell : new String[] {"1", "0", "2", "01", "001", "10", "-1", "+1"}) {
+      tokenizer.tokenize(cell + ",x");
+      assertEquals(Integer.parseInt(cell) == 1, tokenizer.isOne(0), cell);
+    }
+    for (String cell : new String[] {"x", " 1", "\"1\""}) {
+      tokenizer.tokenize(cell + ",x");
+      assertThrows(NumberFormatException.class, () -> tokenizer.isOne(0), cell);
+    }
+  }
+
+  @Test
+  @DisplayName("parsing rows in many batches matches parsing them in one")
+  void testManyBatchesMatchOneBatch() throws Exception {
+    Path cvrPath =
+        Paths.get(
+            System.getProperty("user.dir"),
+            INLINE_COMMA_TEST_FOLDER,
+            "clear_ballot_with_inline_comma_cvr.csv");
+    ReadResult oneBatch = read(cvrPath, ONE_BATCH);
+    ReadResult manyBatches = read(cvrPath, 3);
+    assertNull(oneBatch.exception);
+    assertFalse(oneBatch.castVoteRecords.isEmpty());
+    assertSameResult(oneBatch, manyBatches);
+  }
+
+  @Test
+  @DisplayName("a row with a missing cell fails the same way in many batches as in one")
+  void testManyBatchesFailLikeOneBatch(@TempDir Path directory) throws Exception {
+    Path sourcePath =
+        Paths.get(
+            System.getProperty("user.dir"),
+            INLINE_COMMA_TEST_FOLDER,
+            "clear_ballot_with_inline_comma_cvr.csv");
+    List<String> rows = new ArrayList<>(Files.readAllLines(sourcePath, UTF_8));
+    // cut a row off before its choice columns
+    int badRow = 150;
+    String row = rows.get(badRow);
+    rows.set(badRow, row.substring(0, row.indexOf("\"ScanStation")));
+    Path cvrPath = directory.resolve("clear_ballot_cvr.csv");
+    Files.write(cvrPath, rows, UTF_8);
+
+    ReadResult oneBatch = read(cvrPath, ONE_BATCH);
+    ReadResult manyBatches = read(cvrPath, 4);
+    assertTrue(oneBatch.exception instanceof ArrayIndexOutOfBoundsException);
+    assertEquals(badRow - 1, oneBatch.castVoteRecords.size());
+    assertSameResult(oneBatch, manyBatches);
+  }
+
+  private static void assertSameResult(ReadResult expected, ReadResult actual) {
+    assertEquals(expected.castVoteRecords.size(), actual.castVoteRecords.size());
+    for (int i = 0; i < expected.castVoteRecords.size(); i++) {
+      CastVoteRecord expectedRecord = expected.castVoteRecords.get(i);
+      CastVoteRecord actualRecord = actual.castVoteRecords.get(i);
+      assertEquals(expectedRecord.getId(), actualRecord.getId());
+      assertEquals(expectedRecord.getContestId(), actualRecord.getContestId());
+      assertEquals(expectedRecord.getTabulatorId(), actualRecord.getTabulatorId());
+      assertEquals(
+          expectedRecord.getSlice(ContestConfig.TabulateBySlice.PRECINCT),
+          actualRecord.getSlice(ContestConfig.TabulateBySlice.PRECINCT));
+      assertEquals(
+          expectedRecord.doesUseLastAllowedRanking(), actualRecord.doesUseLastAllowedRanking());
+      assertEquals(expectedRecord.candidateRankings, actualRecord.candidateRankings);
+    }
+    assertEquals(
+        expected.exception != null ? expected.exception.getClass() : null,
+        actual.exception != null ? actual.exception.getClass() : null);
+    assertEquals(
+        expected.exception != null ? expected.exception.getMessage() : null,
+        actual.exception != null ? actual.exception.getMessage() : null);
+  }
+
+  // read the given file as the inline comma test's CVR source, in batches of rowsPerBatch rows
+  private static ReadResult read(Path cvrPath, int rowsPerBatch) {
+    ContestConfig config =
+        ContestConfig.loadContestConfig(
+            Paths.get(
+                    System.getProperty("user.dir"),
+                    INLINE_COMMA_TEST_FOLDER,
+                    "clear_ballot_with_inline_comma_config.json")
+                .toString());
+    assertNotNull(config);
+    RawContestConfig.CvrSource source = config.getRawConfig().cvrFileSources.get(0);
+    source.setFilePath(cvrPath.toAbsolutePath().toString());
+    ClearBallotCvrReader reader = new ClearBallotCvrReader(config, source);
+    reader.setRowsPerBatch(rowsPerBatch);
+
+    ReadResult result = new ReadResult();
+    try {
+      reader.readCastVoteRecords(result.castVoteRecords);
+    } catch (CastVoteRecord.CvrParseException | IOException | RuntimeException exception) {
+      result.exception = exception;
+    }
+    return result;
+  }
+
+  // what reading a CVR source produced
+  private static final class ReadResult {
+
+    private final List<CastVoteRecord> castVoteRecords = new ArrayList<>();
+    private Exception exception = null;
+  }
+}
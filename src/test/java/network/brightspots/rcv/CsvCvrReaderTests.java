@@ -0,0 +1,290 @@
+/*
+ * RCTab
+ * Copyright (c) 2017-2023 Bright Spots Developers.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+/*
+ * Purpose: These tests check that generic CSV cast vote records are read exactly as they were
+ * when they were read through commons-csv, and that reading a file in parallel chunks gives the
+ * same records and log output as reading it serially.
+ * Design: MappedCsvParser's records are compared with those commons-csv parses from the same
+ * bytes, with the format CsvCvrReader used. CsvCvrReader is run with a small chunk size so that
+ * small files are split into many chunks.
+ * Conditions: During automated testing.
+ * Version history: see https://github.com/BrightSpots/rcv.
+ */
+
+package network.brightspots.rcv;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CsvCvrReaderTests {
+
+  private static final String GENERIC_CSV_CONFIG_PATH =
+      "src/test/resources/network/brightspots/rcv/test_data/generic_csv_test/"
+          + "generic_csv_test_config.json";
+  private static final String HEADER =
+      "Response ID,precinct_id,batch_id,Lettuce,Broccoli,Cucumber,Cauliflower,Write-In";
+
+  @BeforeAll
+  static void setup() {
+    Logger.setup();
+  }
+
+  private static Path writeFile(Path directory, String contents) throws IOException {
+    Path path = directory.resolve("cvr.csv");
+    Files.writeString(path, contents, UTF_8);
+    return path;
+  }
+
+  // each record's cells, as MappedCsvParser reads them
+  private static List<List<String>> parse(Path path)
+      throws IOException, CastVoteRecord.CvrParseException {
+    List<List<String>> records = new ArrayList<>();
+    List<String> cells = new ArrayList<>();
+    try (MappedCsvParser parser = new MappedCsvParser(path)) {
+      while (parser.nextRecord(
+          (column, bytes, length) -> cells.add(MappedCsvParser.decode(bytes, length)))) {
+        records.add(new ArrayList<>(cells));
+        cells.clear();
+      }
+    }
+    return records;
+  }
+
+  // each record's cells, as commons-csv reads them with the format CsvCvrReader used
+  private static List<List<String>> parseWithCommonsCsv(Path path) throws IOException {
+    CSVFormat format =
+        CSVFormat.Builder.create().setAllowMissingColumnNames(true).setNullString("").build();
+    List<List<String>> records = new ArrayList<>();
+    try (CSVParser parser = CSVParser.parse(path, Charset.defaultCharset(), format)) {
+      for (CSVRecord record : parser) {
+        records.add(record.toList());
+      }
+    } catch (UncheckedIOException exception) {
+      // a parse error while iterating
+      throw exception.getCause();
+    }
+    return records;
+  }
+
+  @Test
+  @DisplayName("records match commons-csv")
+  void testRecordsMatchCommonsCsv(@TempDir Path directory) throws Exception {
+    String[] contents = {
+      "a,b,c\n1,2,3\n",
+      // no line break after the last record
+      "a,b\n1,2",
+      // quoted cells, including delimiters and line breaks within them
+      "\"a,b\",\"c\nd\",e\n\"f\r\ng\",h\n",
+      // escaped quotes
+      "\"say \"\"hi\"\"\",x\n\"\"\"\",y\n",
+      // a quote within a cell which isn't quoted is just a character
+      "a\"b,c\"\n",
+      // whitespace between a closing quote and the delimiter is dropped
+      "\"a\"  ,b\n\"c\" \t\n",
+      // CR only line breaks
+      "a,b\r1,2\r3,4",
+      // CRLF line breaks
+      "a,b\r\n1,2\r\n3,4\r\n",
+      // empty lines are skipped, however they're broken
+      "\n\na,b\n\n\r\n1,2\r\r\n\n3,4\n\n",
+      // empty cells are null
+      ",,\na,,b\n, ,\n",
+      // a line of spaces isn't empty
+      "  \na\n",
+      "\u00e9,\u00fc\n",
+      "",
+    };
+    for (String content : contents) {
+      Path path = writeFile(directory, content);
+      assertEquals(parseWithCommonsCsv(path), parse(path), content);
+    }
+  }
+
+  @Test
+  @DisplayName("malformed quoting fails like commons-csv")
+  void testMalformedQuotingFails(@TempDir Path directory) throws IOException {
+    String[] contents = {
+      // EOF before encapsulated token finished
+      "a,\"b\n",
+      "a,b\n\"",
+      // invalid character between encapsulated token and delimiter
+      "\"a\"b,c\n",
+    };
+    for (String content : contents) {
+      Path path = writeFile(directory, content);
+      assertThrows(IOException.class, () -> parseWithCommonsCsv(path), content);
+      assertThrows(IOException.class, () -> parse(path), content);
+    }
+  }
+
+  @Test
+  @DisplayName("chunks split a file into runs of whole records")
+  void testFindChunks(@TempDir Path directory) throws Exception {
+    StringBuilder content = new StringBuilder();
+    for (int i = 1; i <= 1000; i++) {
+      content.append("R").append(i).append(",p1,b1,1,2,,,");
+      // a mix of line breaks, and some empty lines, which aren't records
+      content.append(i % 3 == 0 ? "\r\n" : "\n");
+      if (i % 7 == 0) {
+        content.append(i % 2 == 0 ? "\n" : "\r\n");
+      }
+    }
+    Path path = writeFile(directory, content.toString());
+    long size = Files.size(path);
+    List<MappedCsvParser.Chunk> chunks = MappedCsvParser.findChunks(path, 0, size, 100);
+    assertNotNull(chunks);
+    assertTrue(chunks.size() > 100);
+
+    long expectedStart = 0;
+    int expectedFirstRecord = 0;
+    for (MappedCsvParser.Chunk chunk : chunks) {
+      assertEquals(expectedStart, chunk.start());
+      assertEquals(expectedFirstRecord, chunk.firstRecord());
+      try (MappedCsvParser parser = new MappedCsvParser(path, chunk.start(), chunk.end())) {
+        while (parser.nextRecord((column, bytes, length) -> {})) {
+          expectedFirstRecord++;
+        }
+      }
+      expectedStart = chunk.end();
+    }
+    assertEquals(size, expectedStart);
+    assertEquals(1000, expectedFirstRecord);
+
+    // a quote means a line break might be within a cell, so the file isn't split
+    Path quotedPath = writeFile(directory, content + "\"R1001\",p1,b1,1,,,,\n");
+    assertNull(MappedCsvParser.findChunks(quotedPath, 0, Files.size(quotedPath), 100));
+  }
+
+  @Test
+  @DisplayName("reading in chunks gives the same records as reading serially")
+  void testChunkedReadMatchesSerialRead() throws Exception {
+    ContestConfig config =
+        ContestConfig.loadContestConfig(
+            Paths.get(System.getProperty("user.dir"), GENERIC_CSV_CONFIG_PATH).toString());
+    assertNotNull(config);
+    ReadResult serial = read(config, null, Long.MAX_VALUE);
+    ReadResult chunked = read(config, null, 64);
+    assertNull(serial.exception);
+    assertFalse(serial.castVoteRecords.isEmpty());
+    assertSameResult(serial, chunked);
+  }
+
+  @Test
+  @DisplayName("reading in chunks logs and fails the same way as reading serially")
+  void testChunkedReadFailsLikeSerialRead(@TempDir Path directory) throws Exception {
+    // enough records for progress messages, with a bad ranking near the end
+    StringBuilder content = new StringBuilder(HEADER).append('\n');
+    for (int i = 1; i <= 25000; i++) {
+      String ranking = i == 23456 ? "x" : Integer.toString(i % 5 + 1);
+      content.append("R").append(i).append(",p").append(i % 10).append(",b").append(i % 3);
+      content.append(',').append(ranking).append(",,,,\n");
+      if (i % 1000 == 0) {
+        content.append('\n');
+      }
+    }
+    Path path = writeFile(directory, content.toString());
+    ContestConfig config =
+        ContestConfig.loadContestConfig(
+            Paths.get(System.getProperty("user.dir"), GENERIC_CSV_CONFIG_PATH).toString());
+    assertNotNull(config);
+    ReadResult serial = read(config, path, Long.MAX_VALUE);
+    ReadResult chunked = read(config, path, 4096);
+    assertTrue(serial.exception instanceof CastVoteRecord.CvrParseException);
+    assertEquals(23455, serial.castVoteRecords.size());
+    assertSameResult(serial, chunked);
+  }
+
+  private static void assertSameResult(ReadResult expected, ReadResult actual) {
+    assertEquals(expected.castVoteRecords.size(), actual.castVoteRecords.size());
+    for (int i = 0; i < expected.castVoteRecords.size(); i++) {
+      CastVoteRecord expectedRecord = expected.castVoteRecords.get(i);
+      CastVoteRecord actualRecord = actual.castVoteRecords.get(i);
+      assertEquals(expectedRecord.getComputedId(), actualRecord.getComputedId());
+      assertEquals(expectedRecord.getSuppliedId(), actualRecord.getSuppliedId());
+      for (ContestConfig.TabulateBySlice slice : ContestConfig.TabulateBySlice.values()) {
+        assertEquals(expectedRecord.getSlice(slice), actualRecord.getSlice(slice));
+      }
+      assertEquals(
+          expectedRecord.doesUseLastAllowedRanking(), actualRecord.doesUseLastAllowedRanking());
+      assertEquals(expectedRecord.candidateRankings, actualRecord.candidateRankings);
+    }
+    assertEquals(
+        expected.exception != null ? expected.exception.getClass() : null,
+        actual.exception != null ? actual.exception.getClass() : null);
+    assertEquals(expected.logMessages, actual.logMessages);
+  }
+
+  // Read the config's CVR source, or the given file in its place, in chunks of about chunkSize.
+  private static ReadResult read(ContestConfig config, Path path, long chunkSize) {
+    RawContestConfig.CvrSource source = config.getRawConfig().cvrFileSources.get(0);
+    String configuredPath = source.getFilePath();
+    if (path != null) {
+      source.setFilePath(path.toAbsolutePath().toString());
+    }
+    CsvCvrReader reader = new CsvCvrReader(config, source);
+    source.setFilePath(configuredPath);
+    reader.setChunkSize(chunkSize);
+
+    ReadResult result = new ReadResult();
+    Handler handler =
+        new Handler() {
+          @Override
+          public void publish(LogRecord record) {
+            result.logMessages.add(record.getMessage());
+          }
+
+          @Override
+          public void flush() {}
+
+          @Override
+          public void close() {}
+        };
+    java.util.logging.Logger.getLogger("").addHandler(handler);
+    try {
+      reader.readCastVoteRecords(result.castVoteRecords);
+    } catch (CastVoteRecord.CvrParseException | IOException exception) {
+      result.exception = exception;
+    } finally {
+      java.util.logging.Logger.getLogger("").removeHandler(handler);
+    }
+    return result;
+  }
+
+  // what reading a CVR source produced
+  private static final class ReadResult {
+
+    private final List<CastVoteRecord> castVoteRecords = new ArrayList<>();
+    private final List<String> logMessages = new ArrayList<>();
+    private Exception exception = null;
+  }
+}
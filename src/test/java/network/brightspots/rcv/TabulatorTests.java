@@ -19,6 +19,7 @@
 package network.brightspots.rcv;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
@@ -33,19 +34,26 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
+import java.util.stream.Stream;
 import network.brightspots.rcv.OutputWriter.OutputFileIdentifiers;
 import network.brightspots.rcv.OutputWriter.OutputType;
+import network.brightspots.rcv.RawContestConfig.CvrSource;
 import network.brightspots.rcv.Tabulator.TabulationAbortedException;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 class TabulatorTests {
 
@@ -222,13 +230,30 @@ class TabulatorTests {
     runTabulationTest(testStem, expectedException, 0);
   }
 
-  // helper function to support running various tabulation tests
   private static void runTabulationTest(String stem, String expectedException,
                                         int expectedNumSliceFilesToCheck) {
+    runTabulationTest(stem, expectedException, expectedNumSliceFilesToCheck, null);
+  }
+
+  private static void runTabulationTest(String stem, String expectedException,
+                                        int expectedNumSliceFilesToCheck,
+                                        BallotCache ballotCache) {
+    runTabulationTest(
+        stem, expectedException, expectedNumSliceFilesToCheck, null, null, ballotCache);
+  }
+
+  // helper function to support running various tabulation tests; loadedConfig is the config
+  // registered with sharedExports, if there is one
+  private static void runTabulationTest(String stem, String expectedException,
+                                        int expectedNumSliceFilesToCheck,
+                                        ContestConfig loadedConfig,
+                                        SharedCvrExports sharedExports,
+                                        BallotCache ballotCache) {
     String configPath = getTestFilePath(stem, "_config.json");
 
     Logger.info("Running tabulation test: %s\nTabulating config file: %s...", stem, configPath);
-    TabulatorSession session = new TabulatorSession(configPath);
+    TabulatorSession session =
+        new TabulatorSession(configPath, loadedConfig, sharedExports, ballotCache);
     List<String> exceptionsEncountered = session.tabulate("Automated test");
     if (expectedException != null) {
       assertTrue(exceptionsEncountered.contains(expectedException));
@@ -282,8 +307,13 @@ class TabulatorTests {
 
   // Validate convert-to-CSV action, run before every tabulation
   private static void runConvertToRctabCvrTest(String stem) {
+    runConvertToRctabCvrTest(stem, null, null);
+  }
+
+  private static void runConvertToRctabCvrTest(
+      String stem, ContestConfig loadedConfig, SharedCvrExports sharedExports) {
     String configPath = getTestFilePath(stem, "_config.json");
-    TabulatorSession session = new TabulatorSession(configPath);
+    TabulatorSession session = new TabulatorSession(configPath, loadedConfig, sharedExports, null);
     session.tabulate("Automated test");
 
     String expectedPath = getTestFilePath(stem, "_expected.csv");
@@ -292,6 +322,19 @@ class TabulatorTests {
     cleanOutputFolder(session);
   }
 
+  // load stem's config and register it with sharedExports, as Main does with each config path
+  private static ContestConfig registerSharedConfig(SharedCvrExports sharedExports, String stem) {
+    ContestConfig config = ContestConfig.loadContestConfig(getTestFilePath(stem, "_config.json"));
+    sharedExports.register(config);
+    return config;
+  }
+
+  // once every session has ended, nothing should be left pending or held
+  private static void assertSharedExportsReleased(SharedCvrExports sharedExports) {
+    assertEquals(0, sharedExports.numPendingReads());
+    assertEquals(0, sharedExports.numHeldScans());
+  }
+
   private static void cleanOutputFolder(TabulatorSession session) {
     // Test passed so clean up test output folder
     File outputFolder = new File(session.getOutputPath());
@@ -617,6 +660,430 @@ class TabulatorTests {
     runTabulationTest("dominion_alaska");
   }
 
+  @Test
+  @DisplayName("Dominion test - contests sharing one export")
+  void testDominionSharedExport() {
+    // both configs read the Alaska export, so it's parsed once and used for both
+    SharedCvrExports sharedExports = new SharedCvrExports();
+    ContestConfig config = registerSharedConfig(sharedExports, "dominion_alaska");
+    ContestConfig conversionConfig =
+        registerSharedConfig(sharedExports, "conversions_from_dominion");
+    runTabulationTest("dominion_alaska", null, 0, config, sharedExports, null);
+    // the scan is held for the other read
+    assertEquals(1, sharedExports.numHeldScans());
+    runConvertToRctabCvrTest("conversions_from_dominion", conversionConfig, sharedExports);
+    assertSharedExportsReleased(sharedExports);
+  }
+
+  @Test
+  @DisplayName("Hart test - contests sharing one export")
+  void testHartSharedExport() {
+    // both contests are in the same archive, which is scanned once for both
+    SharedCvrExports sharedExports = new SharedCvrExports();
+    ContestConfig officersConfig =
+        registerSharedConfig(sharedExports, "hart_travis_county_officers");
+    ContestConfig schoolBoardConfig =
+        registerSharedConfig(sharedExports, "hart_cedar_park_school_board");
+    runTabulationTest(
+        "hart_travis_county_officers", null, 0, officersConfig, sharedExports, null);
+    assertEquals(1, sharedExports.numHeldScans());
+    runTabulationTest(
+        "hart_cedar_park_school_board", null, 0, schoolBoardConfig, sharedExports, null);
+    assertSharedExportsReleased(sharedExports);
+  }
+
+  @Test
+  @DisplayName("CDF XML test - contests sharing one report")
+  void testCdfXmlSharedExport() {
+    SharedCvrExports sharedExports = new SharedCvrExports();
+    ContestConfig mayorConfig = registerSharedConfig(sharedExports, "unisyn_xml_cdf_city_mayor");
+    ContestConfig sheriffConfig =
+        registerSharedConfig(sharedExports, "unisyn_xml_cdf_county_sheriff");
+    runTabulationTest("unisyn_xml_cdf_city_mayor", null, 0, mayorConfig, sharedExports, null);
+    assertEquals(1, sharedExports.numHeldScans());
+    runTabulationTest(
+        "unisyn_xml_cdf_county_sheriff", null, 0, sheriffConfig, sharedExports, null);
+    assertSharedExportsReleased(sharedExports);
+  }
+
+  @Test
+  @DisplayName("CDF JSON test - contests sharing reports")
+  void testCdfJsonSharedExport() {
+    // both configs read the same two reports
+    SharedCvrExports sharedExports = new SharedCvrExports();
+    ContestConfig config = registerSharedConfig(sharedExports, "aliases_cdf_json");
+    ContestConfig conversionConfig = registerSharedConfig(sharedExports, "conversions_from_cdf");
+    runTabulationTest("aliases_cdf_json", null, 0, config, sharedExports, null);
+    assertEquals(2, sharedExports.numHeldScans());
+    runConvertToRctabCvrTest("conversions_from_cdf", conversionConfig, sharedExports);
+    assertSharedExportsReleased(sharedExports);
+  }
+
+  @Test
+  @DisplayName("Clear Ballot test - contests sharing one file")
+  void testClearBallotSharedExport() {
+    // the same config, loaded twice, reads the file twice
+    SharedCvrExports sharedExports = new SharedCvrExports();
+    ContestConfig firstConfig = registerSharedConfig(sharedExports, "clear_ballot_kansas_primary");
+    ContestConfig secondConfig =
+        registerSharedConfig(sharedExports, "clear_ballot_kansas_primary");
+    runTabulationTest("clear_ballot_kansas_primary", null, 0, firstConfig, sharedExports, null);
+    assertEquals(1, sharedExports.numHeldScans());
+    runTabulationTest("clear_ballot_kansas_primary", null, 0, secondConfig, sharedExports, null);
+    assertSharedExportsReleased(sharedExports);
+  }
+
+  @Test
+  @DisplayName("Shared exports - a config which fails releases what was kept for it")
+  void testSharedExportWithFailingConfig() {
+    SharedCvrExports sharedExports = new SharedCvrExports();
+    ContestConfig config = registerSharedConfig(sharedExports, "dominion_alaska");
+    ContestConfig failingConfig = registerSharedConfig(sharedExports, "conversions_from_dominion");
+    // without a contest name the config fails validation, so its session never reads the export
+    failingConfig.rawConfig.outputSettings.contestName = "";
+    assertEquals(2, sharedExports.numPendingReads());
+
+    runTabulationTest("dominion_alaska", null, 0, config, sharedExports, null);
+    // the scan is held for the failing config's read
+    assertEquals(1, sharedExports.numPendingReads());
+    assertEquals(1, sharedExports.numHeldScans());
+
+    TabulatorSession failingSession =
+        new TabulatorSession(
+            getTestFilePath("conversions_from_dominion", "_config.json"),
+            failingConfig,
+            sharedExports,
+            null);
+    failingSession.tabulate("Automated test");
+    assertNull(failingSession.getRctabCvrFilePath());
+    assertSharedExportsReleased(sharedExports);
+  }
+
+  @Test
+  @DisplayName("Ballot cache test - unchanged sources are loaded from the cache")
+  void testBallotCache(@TempDir Path cacheDirectory) throws IOException {
+    BallotCache ballotCache = new BallotCache(cacheDirectory);
+    runTabulationTest("aliases_ess_xlsx", null, 0, ballotCache);
+    runTabulationTest("dominion_alaska", null, 0, ballotCache);
+    runTabulationTest("precinct_example", null, 2, ballotCache);
+    runTabulationTest("generic_csv_test", null, 6, ballotCache);
+    File[] entries =
+        cacheDirectory.toFile().listFiles(file -> file.getName().endsWith(".rcvcache"));
+    assertNotNull(entries);
+    assertTrue(entries.length >= 4);
+    // an entry is only written when its source is parsed, so these times show it was reused
+    for (File entry : entries) {
+      assertTrue(entry.setLastModified(0));
+    }
+
+    runTabulationTest("aliases_ess_xlsx", null, 0, ballotCache);
+    runTabulationTest("dominion_alaska", null, 0, ballotCache);
+    runTabulationTest("precinct_example", null, 2, ballotCache);
+    runTabulationTest("generic_csv_test", null, 6, ballotCache);
+    for (File entry : entries) {
+      assertEquals(0, Files.getLastModifiedTime(entry.toPath()).toMillis());
+    }
+    assertEquals(
+        entries.length,
+        cacheDirectory.toFile().listFiles(file -> file.getName().endsWith(".rcvcache")).length);
+  }
+
+  @Test
+  @DisplayName("Ballot cache test - changing a source file changes the key")
+  void testBallotCacheChangedSourceFile(@TempDir Path tempDirectory) throws IOException {
+    ContestConfig config =
+        ContestConfig.loadContestConfig(getTestFilePath("generic_csv_test", "_config.json"));
+    assertNotNull(config);
+    CvrSource source = config.rawConfig.cvrFileSources.get(0);
+    Path cvrPath = tempDirectory.resolve("cvr.csv");
+    Files.copy(Paths.get(config.resolveConfigPath(source.getFilePath())), cvrPath);
+    BallotCache ballotCache = new BallotCache(tempDirectory.resolve("cache"));
+    byte[] key = ballotCache.keyFor(config, source, cvrPath.toString());
+    assertNotNull(key);
+    ballotCache.store(key, List.of());
+    assertArrayEquals(key, ballotCache.keyFor(config, source, cvrPath.toString()));
+
+    Files.writeString(cvrPath, "R_extra,p1,b1,1,,,,\n", StandardOpenOption.APPEND);
+    byte[] changedKey = ballotCache.keyFor(config, source, cvrPath.toString());
+    assertNotNull(changedKey);
+    assertFalse(Arrays.equals(key, changedKey));
+    assertFalse(ballotCache.load(changedKey, new ArrayList<>()));
+  }
+
+  @Test
+  @DisplayName("Ballot cache test - changing a setting changes the key")
+  void testBallotCacheChangedSetting(@TempDir Path cacheDirectory) {
+    ContestConfig config =
+        ContestConfig.loadContestConfig(getTestFilePath("generic_csv_test", "_config.json"));
+    assertNotNull(config);
+    CvrSource source = config.rawConfig.cvrFileSources.get(0);
+    String cvrPath = config.resolveConfigPath(source.getFilePath());
+    BallotCache ballotCache = new BallotCache(cacheDirectory);
+    byte[] key = ballotCache.keyFor(config, source, cvrPath);
+    assertNotNull(key);
+
+    source.setFirstVoteRowIndex("3");
+    byte[] sourceChangedKey = ballotCache.keyFor(config, source, cvrPath);
+    assertNotNull(sourceChangedKey);
+    assertFalse(Arrays.equals(key, sourceChangedKey));
+
+    config.rawConfig.rules.maxRankingsAllowed = "2";
+    byte[] rulesChangedKey = ballotCache.keyFor(config, source, cvrPath);
+    assertNotNull(rulesChangedKey);
+    assertFalse(Arrays.equals(sourceChangedKey, rulesChangedKey));
+  }
+
+  @Test
+  @DisplayName("Ballot cache test - entries which don't match their hash aren't used")
+  void testBallotCacheTamperedEntry(@TempDir Path cacheDirectory) throws IOException {
+    BallotCache ballotCache = new BallotCache(cacheDirectory);
+    runTabulationTest("generic_csv_test", null, 6, ballotCache);
+    ContestConfig config =
+        ContestConfig.loadContestConfig(getTestFilePath("generic_csv_test", "_config.json"));
+    assertNotNull(config);
+    CvrSource source = config.rawConfig.cvrFileSources.get(0);
+    byte[] key = ballotCache.keyFor(config, source, config.resolveConfigPath(source.getFilePath()));
+    assertNotNull(key);
+    List<CastVoteRecord> castVoteRecords = new ArrayList<>();
+    assertTrue(ballotCache.load(key, castVoteRecords));
+    assertFalse(castVoteRecords.isEmpty());
+
+    // change a candidate's name, which still leaves a well-formed entry
+    Path entryPath = cacheDirectory.resolve(Utils.bytesToHex(key) + ".rcvcache");
+    byte[] bytes = Files.readAllBytes(entryPath);
+    byte[] name = "Lettuce".getBytes(UTF_8);
+    int index = indexOf(bytes, name);
+    assertTrue(index >= 0);
+    bytes[index] = 'B';
+    Files.write(entryPath, bytes);
+    castVoteRecords.clear();
+    assertFalse(ballotCache.load(key, castVoteRecords));
+    assertTrue(castVoteRecords.isEmpty());
+
+    // the source is parsed again, and its entry replaced
+    runTabulationTest("generic_csv_test", null, 6, ballotCache);
+    assertTrue(ballotCache.load(key, castVoteRecords));
+
+    Files.delete(AuditableFile.hashFilePath(entryPath));
+    castVoteRecords.clear();
+    assertFalse(ballotCache.load(key, castVoteRecords));
+  }
+
+  @Test
+  @DisplayName("Ballot cache test - malformed entries which match their hash aren't used")
+  void testBallotCacheMalformedEntry(@TempDir Path cacheDirectory) throws IOException {
+    BallotCache ballotCache = new BallotCache(cacheDirectory);
+    runTabulationTest("generic_csv_test", null, 6, ballotCache);
+    ContestConfig config =
+        ContestConfig.loadContestConfig(getTestFilePath("generic_csv_test", "_config.json"));
+    assertNotNull(config);
+    CvrSource source = config.rawConfig.cvrFileSources.get(0);
+    byte[] key = ballotCache.keyFor(config, source, config.resolveConfigPath(source.getFilePath()));
+    assertNotNull(key);
+    Path entryPath = cacheDirectory.resolve(Utils.bytesToHex(key) + ".rcvcache");
+    byte[] bytes = Files.readAllBytes(entryPath);
+
+    // a truncated entry
+    writeEntryWithHash(entryPath, Arrays.copyOf(bytes, bytes.length - 3));
+    List<CastVoteRecord> castVoteRecords = new ArrayList<>();
+    assertFalse(ballotCache.load(key, castVoteRecords));
+    assertTrue(castVoteRecords.isEmpty());
+
+    // a string count far larger than the entry, which mustn't be allocated; it follows the
+    // magic number, the format version, and the key's length and bytes
+    int countOffset = 4 + 4 + 1 + key.length;
+    byte[] largeCount = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07};
+    byte[] malformed = new byte[bytes.length - 1 + largeCount.length];
+    System.arraycopy(bytes, 0, malformed, 0, countOffset);
+    System.arraycopy(largeCount, 0, malformed, countOffset, largeCount.length);
+    System.arraycopy(
+        bytes,
+        countOffset + 1,
+        malformed,
+        countOffset + largeCount.length,
+        bytes.length - countOffset - 1);
+    writeEntryWithHash(entryPath, malformed);
+    assertFalse(ballotCache.load(key, castVoteRecords));
+    assertTrue(castVoteRecords.isEmpty());
+
+    // the original entry still loads, and can be replaced right after it's loaded
+    writeEntryWithHash(entryPath, bytes);
+    assertTrue(ballotCache.load(key, castVoteRecords));
+    ballotCache.store(key, castVoteRecords);
+    List<CastVoteRecord> reloaded = new ArrayList<>();
+    assertTrue(ballotCache.load(key, reloaded));
+    assertEquals(castVoteRecords.size(), reloaded.size());
+  }
+
+  // write an entry along with a hash file which matches it
+  private static void writeEntryWithHash(Path entryPath, byte[] bytes) throws IOException {
+    Files.write(entryPath, bytes);
+    Files.writeString(
+        AuditableFile.hashFilePath(entryPath),
+        AuditableFile.hashFileContents(FileUtils.getHashBytes(entryPath.toFile(), "SHA-512")));
+  }
+
+  private static int indexOf(byte[] bytes, byte[] target) {
+    for (int i = 0; i + target.length <= bytes.length; i++) {
+      if (Arrays.equals(bytes, i, i + target.length, target, 0, target.length)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Test
+  @DisplayName("Binary audit log test - replay matches the text audit log")
+  void testBinaryAuditLog(@TempDir Path replayDirectory) throws IOException {
+    String configPath = getTestFilePath("sequential_with_batch", "_config.json");
+    TabulatorSession textSession = new TabulatorSession(configPath);
+    assertTrue(textSession.tabulate("Automated test").isEmpty());
+    List<String> expectedLines = ballotOutcomeLines(auditLogPath(textSession, "_audit_0.log"));
+    cleanOutputFolder(textSession);
+    assertFalse(expectedLines.isEmpty());
+
+    TabulatorSession binarySession = new TabulatorSession(configPath);
+    binarySession.setBinaryAuditEnabled(true);
+    assertTrue(binarySession.tabulate("Automated test").isEmpty());
+    assertTrue(ballotOutcomeLines(auditLogPath(binarySession, "_audit_0.log")).isEmpty());
+    Path replayPath = replayDirectory.resolve("replayed.log");
+    long numLines =
+        BinaryAuditLog.replay(
+            auditLogPath(binarySession, "_audit_ballots" + BinaryAuditLog.FILE_SUFFIX),
+            replayPath);
+    cleanOutputFolder(binarySession);
+    assertEquals(expectedLines.size(), numLines);
+    assertEquals(expectedLines, ballotOutcomeLines(replayPath));
+  }
+
+  @Test
+  @DisplayName("hashes recorded while files are written match the files")
+  void testHashesRecordedWhileWriting() throws IOException {
+    TabulatorSession session =
+        new TabulatorSession(getTestFilePath("sequential_with_batch", "_config.json"));
+    assertTrue(session.tabulate("Automated test").isEmpty());
+    List<Path> hashPaths;
+    try (Stream<Path> paths = Files.walk(Paths.get(session.getOutputPath()))) {
+      hashPaths = paths.filter(path -> path.toString().endsWith(".hash")).toList();
+    }
+    assertFalse(hashPaths.isEmpty());
+    for (Path hashPath : hashPaths) {
+      // the hash of "<dir>/<name>" is in "<dir>/<dir> Checksums/<name>.hash"
+      String name = hashPath.getFileName().toString();
+      Path path =
+          hashPath.getParent().resolveSibling(name.substring(0, name.length() - ".hash".length()));
+      String expectedHash = Utils.bytesToHex(FileUtils.getHashBytes(path.toFile(), "SHA-512"));
+      assertEquals("sha512: " + expectedHash, Files.readString(hashPath), path.toString());
+    }
+    cleanOutputFolder(session);
+  }
+
+  @Test
+  @DisplayName("recounting every ballot each round matches carrying tallies forward")
+  void testFullRecountMatchesIncrementalTally() throws IOException {
+    Tabulator.TallyOptions fullRecount =
+        new Tabulator.TallyOptions(
+            false, Tabulator.TallyOptions.DEFAULT.parallelTallyChunkSize(), true);
+    // ballots being transferred exhaust on an overvote or on skipped rankings
+    runTallyOptionsTest("test_set_1_exhaust_at_overvote", fullRecount);
+    runTallyOptionsTest("test_set_3_skipped_choice_exhaust", fullRecount);
+    // several candidates are eliminated in the same round
+    runTallyOptionsTest("continue_until_two_with_batch_elimination_test", fullRecount);
+    // tabulate by precinct
+    runTallyOptionsTest("precinct_example", fullRecount);
+    // multi-winner with fractional surplus transfers
+    runTallyOptionsTest("test_set_multi_winner_fractional_threshold", fullRecount);
+  }
+
+  @Test
+  @DisplayName("tallying rounds in many small parallel chunks matches tallying them serially")
+  void testParallelTallyMatchesSerialTally() throws IOException {
+    // every round with more than three cvrs to examine is tallied in parallel
+    Tabulator.TallyOptions smallChunks = new Tabulator.TallyOptions(true, 3, true);
+    // by-slice tallies, including slices which have no ballots in some chunks
+    runTallyOptionsTest("batch_example", smallChunks);
+    runTallyOptionsTest("precinct_example", smallChunks);
+    // multi-winner with fractional surplus transfers, by precinct
+    runTallyOptionsTest("minneapolis_multi_seat_threshold", smallChunks);
+    // ballots are exhausted on overvotes as well as counted
+    runTallyOptionsTest("test_set_1_exhaust_at_overvote", smallChunks);
+  }
+
+  @Test
+  @DisplayName("tallying groups of identical ballots matches tallying each ballot")
+  void testGroupedTallyMatchesUngroupedTally() throws IOException {
+    Tabulator.TallyOptions ungrouped =
+        new Tabulator.TallyOptions(
+            true, Tabulator.TallyOptions.DEFAULT.parallelTallyChunkSize(), false);
+    // multi-winner with fractional surplus transfers, with groups spanning precincts, and with
+    // each ballot's CDF snapshots taken from its group's representative
+    runTallyOptionsTest("test_set_multi_winner_fractional_threshold", ungrouped);
+    // the same, tabulated by precinct, so that groups are split by precinct
+    runTallyOptionsTest("minneapolis_multi_seat_threshold", ungrouped);
+    // tabulated by batch and by precinct, with CDF snapshots
+    runTallyOptionsTest("batch_example", ungrouped);
+    runTallyOptionsTest("precinct_example", ungrouped);
+    // ungrouped ballots tallied in parallel chunks
+    runTallyOptionsTest("precinct_example", new Tabulator.TallyOptions(true, 3, false));
+  }
+
+  // Tabulates a test config with the default tally options and then with the given ones, and
+  // checks that the two tabulations write the same results and the same ballot outcomes to the
+  // audit log.
+  private static void runTallyOptionsTest(String stem, Tabulator.TallyOptions tallyOptions)
+      throws IOException {
+    String configPath = getTestFilePath(stem, "_config.json");
+    TabulatorSession expectedSession = new TabulatorSession(configPath);
+    assertTrue(expectedSession.tabulate("Automated test").isEmpty());
+    // created once the first session's output exists, so that its output goes somewhere else
+    TabulatorSession session = new TabulatorSession(configPath);
+    session.setTallyOptions(tallyOptions);
+    assertTrue(session.tabulate("Automated test").isEmpty());
+
+    // every output file except the logs, and the checksums, which cover the generated dates
+    Path expectedOutputPath = Paths.get(expectedSession.getOutputPath());
+    List<Path> expectedPaths;
+    try (Stream<Path> paths = Files.walk(expectedOutputPath)) {
+      expectedPaths =
+          paths
+              .filter(Files::isRegularFile)
+              .filter(path -> !path.startsWith(expectedOutputPath.resolve("Log")))
+              .filter(path -> !path.getParent().getFileName().toString().endsWith(" Checksums"))
+              .filter(path -> !path.getFileName().toString().endsWith(".lck"))
+              .toList();
+    }
+    assertFalse(expectedPaths.isEmpty());
+    for (Path expectedPath : expectedPaths) {
+      String relativePath =
+          expectedOutputPath
+              .relativize(expectedPath)
+              .toString()
+              .replace(expectedSession.getTimestampString(), session.getTimestampString());
+      assertTrue(
+          fileCompare(
+              expectedPath.toString(), Paths.get(session.getOutputPath(), relativePath).toString()),
+          relativePath);
+    }
+    assertEquals(
+        ballotOutcomeLines(auditLogPath(expectedSession, "_audit_0.log")),
+        ballotOutcomeLines(auditLogPath(session, "_audit_0.log")));
+
+    cleanOutputFolder(expectedSession);
+    cleanOutputFolder(session);
+  }
+
+  private static Path auditLogPath(TabulatorSession session, String suffix) {
+    return Paths.get(session.getOutputPath(), "Log", session.getTimestampString() + suffix);
+  }
+
+  // the lines of an audit log giving a ballot's outcome in a round, without their timestamps
+  private static List<String> ballotOutcomeLines(Path path) throws IOException {
+    return Files.readAllLines(path, Charset.defaultCharset()).stream()
+        .filter(line -> line.contains(" AUDIT: [Round] "))
+        .map(line -> line.substring(line.indexOf(" AUDIT: ")))
+        .toList();
+  }
+
   @Test
   @DisplayName("Dominion test - Alaska 2024 Partial Ballot Test")
   void testDominionAlaskaPartialBallot() {
@@ -0,0 +1,210 @@
+/*
+ * RCTab
+ * Copyright (c) 2017-2023 Bright Spots Developers.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+/*
+ * Purpose: These tests check that fixed-point vote arithmetic gives exactly the results, including
+ * their scale, of the BigDecimal arithmetic it replaces.
+ * Design: Unit tests, including values at the limits of a long, where VoteValue falls back to
+ * BigDecimal.
+ * Conditions: During automated testing.
+ * Version history: see https://github.com/BrightSpots/rcv.
+ */
+
+package network.brightspots.rcv;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class VoteValueTests {
+
+  private static final BigDecimal MAX_LONG = BigDecimal.valueOf(Long.MAX_VALUE);
+
+  // what ContestConfig.multiply computes for the given number of decimal places
+  private static BigDecimal truncatedProduct(BigDecimal first, BigDecimal second, int places) {
+    return first.multiply(second).setScale(places, RoundingMode.DOWN);
+  }
+
+  // BigDecimal.equals also compares scales, so this checks the scale is the same too
+  private static void assertSameValue(BigDecimal expected, VoteValue actual) {
+    assertEquals(expected, actual.toBigDecimal());
+  }
+
+  private static void assertSameValue(BigDecimal expected, VoteValue.Sum actual) {
+    assertEquals(expected, actual.toBigDecimal());
+  }
+
+  @Test
+  @DisplayName("values which fit in a long are held in fixed point")
+  void testIsRepresentable() {
+    assertTrue(VoteValue.isRepresentable(new BigDecimal("999999999999999999")));
+    assertFalse(VoteValue.isRepresentable(new BigDecimal("1000000000000000000")));
+    assertFalse(VoteValue.isRepresentable(MAX_LONG));
+    assertTrue(VoteValue.isRepresentable(new BigDecimal("0.000000000000000001")));
+    assertFalse(VoteValue.isRepresentable(new BigDecimal("0.0000000000000000001")));
+    assertFalse(VoteValue.isRepresentable(new BigDecimal("1E+3")));
+
+    // values which aren't representable are kept as they are
+    for (String value : new String[] {"1000000000000000000", "0.0000000000000000001", "1E+3"}) {
+      VoteValue voteValue = VoteValue.of(new BigDecimal(value));
+      assertFalse(voteValue.isFixedPoint());
+      assertSameValue(new BigDecimal(value), voteValue);
+    }
+    assertTrue(VoteValue.of(new BigDecimal("0.000000000000000001")).isFixedPoint());
+  }
+
+  @Test
+  @DisplayName("multiply truncates like ContestConfig.multiply")
+  void testMultiplyTruncatesLikeContestConfig() {
+    String[][] cases = {
+      {"0.3333", "0.6667", "4"},
+      {"1", "0.1234", "4"},
+      {"0.9999", "0.9999", "4"},
+      {"-0.3333", "0.6667", "4"},
+      {"0.5", "0.5", "4"},
+      {"3", "0.25", "1"},
+      {"0.123456789", "0.987654321", "0"},
+      {"0.12345678901234567", "0.12345678901234567", "18"},
+      {"12", "0.5", "20"},
+    };
+    for (String[] testCase : cases) {
+      BigDecimal first = new BigDecimal(testCase[0]);
+      BigDecimal second = new BigDecimal(testCase[1]);
+      int places = Integer.parseInt(testCase[2]);
+      assertSameValue(
+          truncatedProduct(first, second, places),
+          VoteValue.of(first).multiply(VoteValue.of(second), places));
+    }
+  }
+
+  @Test
+  @DisplayName("multiply falls back to BigDecimal on overflow")
+  void testMultiplyFallsBackOnOverflow() {
+    // the unscaled product overflows a long
+    BigDecimal large = new BigDecimal("999999999999.999999");
+    assertSameValue(
+        truncatedProduct(large, large, 6),
+        VoteValue.of(large).multiply(VoteValue.of(large), 6));
+    // the product's scale is too far beyond the requested places to truncate in a long
+    BigDecimal small = new BigDecimal("0.0000000001");
+    assertSameValue(
+        truncatedProduct(small, small, 0),
+        VoteValue.of(small).multiply(VoteValue.of(small), 0));
+    // rescaling up to the requested places overflows
+    assertSameValue(
+        truncatedProduct(new BigDecimal("123456789"), BigDecimal.TEN, 12),
+        VoteValue.of(new BigDecimal("123456789")).multiply(VoteValue.of(BigDecimal.TEN), 12));
+    // an operand which isn't fixed point
+    VoteValue notFixedPoint = VoteValue.of(MAX_LONG);
+    assertSameValue(
+        truncatedProduct(MAX_LONG, new BigDecimal("0.5"), 4),
+        notFixedPoint.multiply(VoteValue.of(new BigDecimal("0.5")), 4));
+  }
+
+  @Test
+  @DisplayName("subtract across scales, including on overflow")
+  void testSubtractAcrossScales() {
+    String[][] cases = {
+      {"1", "0.3333"},
+      {"0.5", "0.25"},
+      {"0.25", "0.5"},
+      {"0.3333", "0"},
+      {"0.1000", "0.1"},
+      {"1", "0.000000000000000001"},
+    };
+    for (String[] testCase : cases) {
+      BigDecimal first = new BigDecimal(testCase[0]);
+      BigDecimal second = new BigDecimal(testCase[1]);
+      assertSameValue(first.subtract(second), VoteValue.of(first).subtract(VoteValue.of(second)));
+    }
+    // rescaling the integer to 18 places overflows
+    BigDecimal large = new BigDecimal("100000000000");
+    BigDecimal precise = new BigDecimal("0.000000000000000001");
+    VoteValue difference = VoteValue.of(large).subtract(VoteValue.of(precise));
+    assertSameValue(large.subtract(precise), difference);
+    assertFalse(difference.isFixedPoint());
+    // and the result can still be used
+    assertSameValue(
+        large.subtract(precise).subtract(precise),
+        difference.subtract(VoteValue.of(precise)));
+  }
+
+  @Test
+  @DisplayName("times matches BigDecimal, including on overflow")
+  void testTimes() {
+    BigDecimal value = new BigDecimal("0.1234");
+    assertSameValue(value.multiply(BigDecimal.valueOf(7)), VoteValue.of(value).times(7));
+    assertSameValue(value, VoteValue.of(value).times(1));
+    BigDecimal large = new BigDecimal("99999999999999.9999");
+    assertSameValue(
+        large.multiply(BigDecimal.valueOf(1_000_000)), VoteValue.of(large).times(1_000_000));
+  }
+
+  @Test
+  @DisplayName("Sum continues as a BigDecimal once it overflows")
+  void testSumSpillsToBigDecimal() {
+    BigDecimal nearMax = new BigDecimal("999999999999999999");
+    VoteValue.Sum sum = new VoteValue.Sum();
+    BigDecimal expected = BigDecimal.ZERO;
+    for (int i = 0; i < 20; i++) {
+      sum.add(VoteValue.of(nearMax));
+      expected = expected.add(nearMax);
+      assertSameValue(expected, sum);
+    }
+    // adding after the spill, including at a finer scale, carries on in BigDecimal
+    BigDecimal fraction = new BigDecimal("0.001");
+    sum.add(VoteValue.of(fraction));
+    expected = expected.add(fraction);
+    assertSameValue(expected, sum);
+
+    // rescaling the running total to a finer scale overflows
+    VoteValue.Sum rescaled = new VoteValue.Sum();
+    rescaled.add(new BigDecimal("100000000000"));
+    rescaled.add(new BigDecimal("0.000000000000000001"));
+    assertSameValue(new BigDecimal("100000000000.000000000000000001"), rescaled);
+
+    // one sum added to another, before and after either has spilled
+    VoteValue.Sum total = new VoteValue.Sum();
+    total.add(new BigDecimal("0.5"));
+    VoteValue.Sum small = new VoteValue.Sum();
+    small.add(new BigDecimal("0.25"));
+    total.add(small);
+    assertSameValue(new BigDecimal("0.75"), total);
+    total.add(sum);
+    assertSameValue(expected.add(new BigDecimal("0.75")), total);
+    total.add(VoteValue.of(MAX_LONG));
+    assertSameValue(expected.add(new BigDecimal("0.75")).add(MAX_LONG), total);
+  }
+
+  @Test
+  @DisplayName("results match BigDecimal on random values")
+  void testMatchesBigDecimalOnRandomValues() {
+    Random random = new Random(0);
+    for (int i = 0; i < 10_000; i++) {
+      int places = random.nextInt(20);
+      BigDecimal first = BigDecimal.valueOf(random.nextLong() % 1_000_000_000_000L, places);
+      BigDecimal second = BigDecimal.valueOf(random.nextInt(), random.nextInt(20));
+      VoteValue firstValue = VoteValue.of(first);
+      VoteValue secondValue = VoteValue.of(second);
+      assertSameValue(first.subtract(second), firstValue.subtract(secondValue));
+      assertSameValue(
+          truncatedProduct(first, second, places), firstValue.multiply(secondValue, places));
+      VoteValue.Sum sum = new VoteValue.Sum();
+      sum.add(firstValue);
+      sum.add(secondValue);
+      assertSameValue(first.add(second), sum);
+    }
+  }
+}